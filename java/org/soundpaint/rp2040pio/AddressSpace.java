@@ -25,6 +25,7 @@
 package org.soundpaint.rp2040pio;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public abstract class AddressSpace
 {
@@ -77,6 +78,308 @@ public abstract class AddressSpace
                                   final long millisTimeout)
     throws IOException;
 
+  /**
+   * Returns the layout of this address space, i.e. the IDs, base
+   * addresses and register labels of all of its register sets.  The
+   * default implementation throws an IOException, indicating that
+   * the layout is not available, in which case clients have to use
+   * methods providesAddress(), getRegisterSetId() and
+   * getAddressLabel() instead.
+   */
+  public RegisterMap getRegisterMap() throws IOException
+  {
+    throw new IOException("register map not available");
+  }
+
+  /**
+   * Reads the values of all of the specified addresses.  The default
+   * implementation simply reads address by address.  Implementations
+   * should override this method such that all values are retrieved
+   * in a single request.  Implementations that host an emulator read
+   * all values atomically with respect to emulation, i.e. no clock
+   * phase will be executed in between two reads.
+   *
+   * @return An array of the same length as the addresses array, with
+   * the value at each index being the value read from the address at
+   * the same index.
+   */
+  public int[] readAddresses(final int[] addresses) throws IOException
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    final int[] values = new int[addresses.length];
+    for (int index = 0; index < addresses.length; index++) {
+      values[index] = readAddress(addresses[index]);
+    }
+    return values;
+  }
+
+  /**
+   * Maximum number of attempts of the default implementation of
+   * method readAddressesConsistent() before giving up.
+   */
+  private static final int CONSISTENT_READ_ATTEMPTS = 16;
+
+  /**
+   * Reads the values of all of the specified addresses, such that
+   * all values have been read during the same stable clock phase,
+   * even if the emulator's clock is running.  The default
+   * implementation reads the emulator's phase sequence counter
+   * immediately before and after the addresses (as part of a single
+   * call of method readAddresses()), and retries, if a clock phase
+   * has been in progress or completed meanwhile.  Implementations
+   * that already guarantee atomicity of method readAddresses()
+   * should override this method by simply calling that method.
+   *
+   * @throws IOException If no consistent set of values could be read
+   * within a limited number of attempts.
+   */
+  public int[] readAddressesConsistent(final int[] addresses)
+    throws IOException
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    final int count = addresses.length;
+    final int sequenceAddress =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.PHASE_SEQUENCE);
+    final int[] bracketedAddresses = new int[count + 2];
+    bracketedAddresses[0] = sequenceAddress;
+    System.arraycopy(addresses, 0, bracketedAddresses, 1, count);
+    bracketedAddresses[count + 1] = sequenceAddress;
+    for (int attempt = 0; attempt < CONSISTENT_READ_ATTEMPTS; attempt++) {
+      final int[] values = readAddresses(bracketedAddresses);
+      final int sequence = values[0];
+      if ((sequence & 0x1) != 0x0) {
+        // phase in progress => await completion
+        waitAddress(sequenceAddress, 0x0, 0x1, 0, 0);
+      } else if (values[count + 1] == sequence) {
+        return Arrays.copyOfRange(values, 1, count + 1);
+      }
+    }
+    throw new IOException("failed reading consistent values after " +
+                          CONSISTENT_READ_ATTEMPTS + " attempts");
+  }
+
+  /**
+   * Reads the values of &lt;code&gt;count&lt;/code&gt; consecutive
+   * words, starting at the specified base address, such that all
+   * values have been read during the same stable clock phase.  See
+   * method readAddressesConsistent() for details.
+   */
+  public int[] readRangeConsistent(final int baseAddress, final int count)
+    throws IOException
+  {
+    return readAddressesConsistent(createRangeAddresses(baseAddress, count));
+  }
+
+  protected static int[] createRangeAddresses(final int baseAddress,
+                                              final int count)
+  {
+    checkAddressAligned(baseAddress);
+    if (count < 0) {
+      throw new IllegalArgumentException("count < 0: " + count);
+    }
+    final int[] addresses = new int[count];
+    for (int index = 0; index < count; index++) {
+      addresses[index] = baseAddress + (index << 2);
+    }
+    return addresses;
+  }
+
+  /**
+   * Reads the values of &lt;code&gt;count&lt;/code&gt; consecutive
+   * words, starting at the specified base address.
+   */
+  public int[] readRange(final int baseAddress, final int count)
+    throws IOException
+  {
+    return readAddresses(createRangeAddresses(baseAddress, count));
+  }
+
+  /**
+   * Returns the recorded history of the cycles in the range from
+   * <code>fromCycle</code> up to, but not including,
+   * <code>fromCycle + maxCount</code>, as a sequence of records of
+   * CycleHistory.RECORD_WORDS words each, in ascending order of wall
+   * clock.  Cycles that are not available in the history are
+   * omitted.  Recording is configured via register
+   * CYCLE_HISTORY_CAPACITY of PicoEmuRegisters.  The default
+   * implementation throws an IOException, indicating that the cycle
+   * history is not available.
+   */
+  public int[] readCycleHistory(final long fromCycle, final int maxCount)
+    throws IOException
+  {
+    throw new IOException("cycle history not available");
+  }
+
+  /**
+   * Returns a snapshot of the complete emulation state that can be
+   * passed to method restoreState() later on, or stored in a file.
+   * The snapshot is taken atomically with respect to emulation.  The
+   * default implementation throws an IOException, indicating that
+   * state snapshots are not available.
+   */
+  public byte[] saveState() throws IOException
+  {
+    throw new IOException("state snapshots not available");
+  }
+
+  /**
+   * Restores the complete emulation state from a snapshot that has
+   * been returned by method saveState().  The default implementation
+   * throws an IOException, indicating that state snapshots are not
+   * available.
+   */
+  public void restoreState(final byte[] state) throws IOException
+  {
+    throw new IOException("state snapshots not available");
+  }
+
+  protected static void checkVectoredWrite(final int[] addresses,
+                                           final int[] values,
+                                           final int[] masks)
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    if (values == null) {
+      throw new NullPointerException("values");
+    }
+    if (masks == null) {
+      throw new NullPointerException("masks");
+    }
+    if (values.length != addresses.length) {
+      throw new IllegalArgumentException("values.length != " +
+                                         "addresses.length: " +
+                                         values.length + " != " +
+                                         addresses.length);
+    }
+    if (masks.length != addresses.length) {
+      throw new IllegalArgumentException("masks.length != " +
+                                         "addresses.length: " +
+                                         masks.length + " != " +
+                                         addresses.length);
+    }
+  }
+
+  /**
+   * Vectored version of method writeAddressMasked(): For each index,
+   * writes the bits at that index to the address at that index,
+   * applying the mask at that index.  Writes are performed in array
+   * order.  The default implementation simply writes address by
+   * address.  Implementations should override this method such that
+   * all values are written in a single request.
+   */
+  public void writeAddressesMasked(final int[] addresses, final int[] values,
+                                   final int[] masks, final boolean xor)
+    throws IOException
+  {
+    checkVectoredWrite(addresses, values, masks);
+    for (int index = 0; index < addresses.length; index++) {
+      writeAddressMasked(addresses[index], values[index], masks[index], xor);
+    }
+  }
+
+  /**
+   * Executes all operations of the specified transaction in order
+   * and returns the results of all read operations in the same
+   * order.  Implementations that host an emulator execute the
+   * transaction atomically with respect to emulation, i.e. no clock
+   * phase will be executed in between two operations of the
+   * transaction.  The default implementation simply executes
+   * operation by operation, without any guarantee of atomicity.
+   */
+  public int[] executeTransaction(final Transaction transaction)
+    throws IOException
+  {
+    if (transaction == null) {
+      throw new NullPointerException("transaction");
+    }
+    final int[] results = new int[transaction.getReadCount()];
+    int resultIndex = 0;
+    for (final Transaction.Operation operation :
+           transaction.getOperations()) {
+      if (operation.getType() == Transaction.Type.READ) {
+        results[resultIndex++] = readAddress(operation.getAddress());
+      } else {
+        writeAddressMasked(operation.getAddress(), operation.getBits(),
+                           operation.getMask(), operation.getXor());
+      }
+    }
+    return results;
+  }
+
+  protected static void checkWaitArgs(final WaitConditions conditions,
+                                      final long cyclesTimeout,
+                                      final long millisTimeout)
+  {
+    if (conditions == null) {
+      throw new NullPointerException("conditions");
+    }
+    if (conditions.size() == 0) {
+      throw new IllegalArgumentException("no conditions to wait for");
+    }
+    if (cyclesTimeout < 0) {
+      throw new IllegalArgumentException("cyclesTimeout < 0: " + cyclesTimeout);
+    }
+    if (millisTimeout < 0) {
+      throw new IllegalArgumentException("millisTimeout < 0: " + millisTimeout);
+    }
+  }
+
+  /**
+   * Waits until the specified conditions are fulfilled (either any
+   * of them or all of them, depending on the conditions' mode), or
+   * until a timeout occurs.  A timeout value of 0 means no timeout.
+   * The default implementation reads all condition registers
+   * together with the wall clock via method readAddresses() once per
+   * clock cycle.  Implementations that host an emulator evaluate all
+   * conditions atomically with respect to emulation, such that the
+   * result reflects the exact cycle at which the conditions have
+   * been fulfilled.
+   */
+  public WaitConditions.Result waitAddresses(final WaitConditions conditions,
+                                             final long cyclesTimeout,
+                                             final long millisTimeout)
+    throws IOException
+  {
+    checkWaitArgs(conditions, cyclesTimeout, millisTimeout);
+    final int count = conditions.size();
+    final int[] addresses = new int[count + 2];
+    System.arraycopy(conditions.getAddresses(), 0, addresses, 0, count);
+    addresses[count] =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.WALLCLOCK_LSB);
+    addresses[count + 1] =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.WALLCLOCK_MSB);
+    final long stopTime = System.currentTimeMillis() + millisTimeout;
+    long startWallClock = -1;
+    while (true) {
+      final int[] values = readAddresses(addresses);
+      final long wallClock =
+        ((long)values[count + 1] << 32) | (values[count] & 0xffffffffL);
+      if (startWallClock < 0) startWallClock = wallClock;
+      final WaitConditions.Result result =
+        conditions.evaluate(Arrays.copyOf(values, count), wallClock);
+      if (result.isFulfilled()) return result;
+      if ((cyclesTimeout != 0) &&
+          (wallClock - startWallClock >= cyclesTimeout)) {
+        return result;
+      }
+      final long remainingMillis;
+      if (millisTimeout != 0) {
+        remainingMillis = stopTime - System.currentTimeMillis();
+        if (remainingMillis <= 0) return result;
+      } else {
+        remainingMillis = 0;
+      }
+      // await next cycle (condition with empty mask never matches ~0)
+      waitAddress(addresses[count], 0xffffffff, 0x0, 1, remainingMillis);
+    }
+  }
+
   public void writeAddress(final int address, final int value)
     throws IOException
   {
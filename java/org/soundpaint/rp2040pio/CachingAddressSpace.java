@@ -0,0 +1,425 @@
+/*
+ * @(#)CachingAddressSpace.java 1.00 21/06/21
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Address space decorator with an opt-in read cache.  Outside of a
+ * cached reads scope (see methods beginCachedReads() and
+ * endCachedReads()), all accesses are passed through to the
+ * underlying address space.  Within a scope, values of cacheable
+ * registers (see RegisterSet#isCacheable()) are kept together with
+ * a tag that consists of the wall clock, the clock phase, the clock
+ * mode and the emulator's write generation.  Each read re-reads the
+ * tag in a single transaction together with all values that are
+ * not yet cached, such that cached values are served only if the
+ * tag is unchanged at the time of the read.  Hence, cached values
+ * are never out of date; the cache saves the transfer and the
+ * server-side evaluation of repeatedly read registers rather than
+ * round trips.  Any write, any read of a register that is not
+ * cacheable, and any wait performed via this address space
+ * invalidates the cache, as does any observed change of the tag.
+ * If the clock is not in single step mode and in a stable phase, or
+ * if the underlying address space does not provide a register map
+ * with cacheability information, nothing is cached.
+ */
+public class CachingAddressSpace extends AddressSpace
+{
+  private static final int[] TAG_ADDRESSES = {
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.WALLCLOCK_LSB),
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.WALLCLOCK_MSB),
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.MASTERCLK_TRIGGER_PHASE0),
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.MASTERCLK_TRIGGER_PHASE1),
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.WRITE_GENERATION),
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.MASTERCLK_MODE)
+  };
+
+  private final AddressSpace memory;
+  private final Map<Integer, Integer> cache;
+  private RegisterMap registerMap;
+  private boolean registerMapUnavailable;
+  private int scopeDepth;
+  private int[] tag;
+  private long hitCount;
+  private long missCount;
+
+  private CachingAddressSpace()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public CachingAddressSpace(final AddressSpace memory)
+  {
+    if (memory == null) {
+      throw new NullPointerException("memory");
+    }
+    this.memory = memory;
+    cache = new HashMap<Integer, Integer>();
+    registerMap = null;
+    registerMapUnavailable = false;
+    scopeDepth = 0;
+    tag = null;
+    hitCount = 0;
+    missCount = 0;
+  }
+
+  public AddressSpace getUncached() { return memory; }
+
+  /**
+   * Enters a scope of cached reads.  Scopes may be nested.
+   */
+  public synchronized void beginCachedReads() throws IOException
+  {
+    if (scopeDepth++ > 0) return;
+    cachingSupported();
+  }
+
+  public synchronized void endCachedReads()
+  {
+    if (scopeDepth == 0) {
+      throw new IllegalStateException("no cached reads scope to end");
+    }
+    scopeDepth--;
+  }
+
+  public synchronized long getHitCount() { return hitCount; }
+
+  public synchronized long getMissCount() { return missCount; }
+
+  private boolean cachingSupported() throws IOException
+  {
+    if (registerMapUnavailable) return false;
+    if (registerMap == null) {
+      try {
+        final RegisterMap registerMap = memory.getRegisterMap();
+        if (!registerMap.providesAddress(TAG_ADDRESSES[4])) {
+          // emulator too old to support write generation
+          registerMapUnavailable = true;
+          return false;
+        }
+        this.registerMap = registerMap;
+      } catch (final IOException e) {
+        registerMapUnavailable = true;
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void invalidate()
+  {
+    cache.clear();
+    tag = null;
+  }
+
+  /**
+   * Compares the tag at the specified offset of the specified values
+   * to the tag of the cached values.  On mismatch, the cache is
+   * cleared, and the new tag is adopted, unless the clock is not in
+   * single step mode or not in a stable phase, in which case caching
+   * is suspended until the next observation of the tag.
+   *
+   * @return True, if the tag has changed, i.e. if the cache has
+   * been cleared.
+   */
+  private boolean updateTag(final int[] values, final int offset)
+  {
+    final int[] newTag =
+      Arrays.copyOfRange(values, offset, offset + TAG_ADDRESSES.length);
+    if (Arrays.equals(newTag, tag)) return false;
+    invalidate();
+    final boolean singleStep =
+      newTag[5] == MasterClock.Mode.SINGLE_STEP.ordinal();
+    final boolean stablePhase = (newTag[2] != 0x0) || (newTag[3] != 0x0);
+    if (singleStep && stablePhase) {
+      tag = newTag;
+    }
+    return true;
+  }
+
+  private boolean isCacheable(final int address)
+  {
+    return (registerMap != null) && registerMap.isCacheable(address);
+  }
+
+  private boolean areCacheable(final int[] addresses)
+  {
+    for (final int address : addresses) {
+      if (!isCacheable(address)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Reads all of the specified addresses together with the tag in a
+   * single transaction, and caches the values, if the tag is valid.
+   */
+  private int[] readAndCache(final int[] addresses) throws IOException
+  {
+    missCount++;
+    final Transaction transaction = new Transaction();
+    for (final int address : addresses) {
+      transaction.addRead(address);
+    }
+    for (final int address : TAG_ADDRESSES) {
+      transaction.addRead(address);
+    }
+    final int[] results = memory.executeTransaction(transaction);
+    updateTag(results, addresses.length);
+    if (tag != null) {
+      for (int index = 0; index < addresses.length; index++) {
+        cache.put(addresses[index], results[index]);
+      }
+    }
+    return Arrays.copyOf(results, addresses.length);
+  }
+
+  /**
+   * Reads the tag together with those of the specified addresses
+   * that are not yet cached in a single transaction.  Cached values
+   * are returned only if the tag is unchanged; otherwise, all
+   * addresses are read again.
+   */
+  private int[] readValidated(final int[] addresses) throws IOException
+  {
+    final Transaction transaction = new Transaction();
+    int missing = 0;
+    for (final int address : addresses) {
+      if (!cache.containsKey(address)) {
+        transaction.addRead(address);
+        missing++;
+      }
+    }
+    if (missing == addresses.length) {
+      return readAndCache(addresses);
+    }
+    for (final int address : TAG_ADDRESSES) {
+      transaction.addRead(address);
+    }
+    final int[] results = memory.executeTransaction(transaction);
+    if (updateTag(results, missing)) {
+      // cached values are out of date
+      return readAndCache(addresses);
+    }
+    if (missing > 0) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+    final int[] values = new int[addresses.length];
+    int resultIndex = 0;
+    for (int index = 0; index < addresses.length; index++) {
+      final int address = addresses[index];
+      final Integer value = cache.get(address);
+      if (value != null) {
+        values[index] = value;
+      } else {
+        values[index] = results[resultIndex++];
+        cache.put(address, values[index]);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public String getEmulatorInfo() throws IOException
+  {
+    return memory.getEmulatorInfo();
+  }
+
+  @Override
+  public boolean providesAddress(final int address) throws IOException
+  {
+    return memory.providesAddress(address);
+  }
+
+  @Override
+  public String getRegisterSetId(final int address) throws IOException
+  {
+    return memory.getRegisterSetId(address);
+  }
+
+  @Override
+  public String getAddressLabel(final int address) throws IOException
+  {
+    return memory.getAddressLabel(address);
+  }
+
+  @Override
+  public RegisterMap getRegisterMap() throws IOException
+  {
+    return memory.getRegisterMap();
+  }
+
+  @Override
+  public synchronized int readAddress(final int address) throws IOException
+  {
+    if (!isCacheable(address)) {
+      invalidate();
+      return memory.readAddress(address);
+    }
+    if (scopeDepth == 0) {
+      return memory.readAddress(address);
+    }
+    return readValidated(new int[] { address })[0];
+  }
+
+  @Override
+  public synchronized int[] readAddresses(final int[] addresses)
+    throws IOException
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    if (!areCacheable(addresses)) {
+      invalidate();
+      return memory.readAddresses(addresses);
+    }
+    if (scopeDepth == 0) {
+      return memory.readAddresses(addresses);
+    }
+    return readValidated(addresses);
+  }
+
+  @Override
+  public int[] readCycleHistory(final long fromCycle, final int maxCount)
+    throws IOException
+  {
+    return memory.readCycleHistory(fromCycle, maxCount);
+  }
+
+  @Override
+  public byte[] saveState() throws IOException
+  {
+    return memory.saveState();
+  }
+
+  @Override
+  public synchronized void restoreState(final byte[] state)
+    throws IOException
+  {
+    invalidate();
+    memory.restoreState(state);
+  }
+
+  /**
+   * Consistent reads are always passed through to the underlying
+   * address space, bypassing the cache.
+   */
+  @Override
+  public int[] readAddressesConsistent(final int[] addresses)
+    throws IOException
+  {
+    return memory.readAddressesConsistent(addresses);
+  }
+
+  @Override
+  public synchronized void writeAddressMasked(final int address,
+                                              final int bits,
+                                              final int mask,
+                                              final boolean xor)
+    throws IOException
+  {
+    invalidate();
+    memory.writeAddressMasked(address, bits, mask, xor);
+  }
+
+  @Override
+  public synchronized void writeAddressesMasked(final int[] addresses,
+                                                final int[] values,
+                                                final int[] masks,
+                                                final boolean xor)
+    throws IOException
+  {
+    invalidate();
+    memory.writeAddressesMasked(addresses, values, masks, xor);
+  }
+
+  @Override
+  public synchronized int[] executeTransaction(final Transaction transaction)
+    throws IOException
+  {
+    if (transaction == null) {
+      throw new NullPointerException("transaction");
+    }
+    for (final Transaction.Operation operation :
+           transaction.getOperations()) {
+      if ((operation.getType() == Transaction.Type.WRITE) ||
+          !isCacheable(operation.getAddress())) {
+        invalidate();
+        break;
+      }
+    }
+    return memory.executeTransaction(transaction);
+  }
+
+  private synchronized void invalidateAfterWait()
+  {
+    invalidate();
+  }
+
+  /**
+   * Waiting implies that time passes, such that the cache is
+   * invalidated.  This address space is not locked while waiting.
+   */
+  @Override
+  public int waitAddress(final int address, final int expectedValue,
+                         final int mask,
+                         final long cyclesTimeout, final long millisTimeout)
+    throws IOException
+  {
+    try {
+      return
+        memory.waitAddress(address, expectedValue, mask,
+                           cyclesTimeout, millisTimeout);
+    } finally {
+      invalidateAfterWait();
+    }
+  }
+
+  @Override
+  public WaitConditions.Result waitAddresses(final WaitConditions conditions,
+                                             final long cyclesTimeout,
+                                             final long millisTimeout)
+    throws IOException
+  {
+    try {
+      return memory.waitAddresses(conditions, cyclesTimeout, millisTimeout);
+    } finally {
+      invalidateAfterWait();
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,105 @@
+/*
+ * @(#)ClockScheduler.java 1.00 21/06/16
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pool of threads that drives the master clocks of any number
+ * of emulator instances.  A master clock does not own a thread;
+ * instead, whenever it has work to do (a triggered phase in single
+ * step mode, or the next slice of cycles in target frequency mode),
+ * it submits a step task to its scheduler.  Idle clocks (e.g. in
+ * single step mode, waiting for a trigger) thus cost no thread at
+ * all, such that thousands of mostly idle emulator instances fit
+ * into a single process.
+ */
+public class ClockScheduler
+{
+  private static ClockScheduler defaultScheduler;
+
+  private final ScheduledThreadPoolExecutor executor;
+
+  private ClockScheduler()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public ClockScheduler(final int threadCount)
+  {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("threadCount < 1: " + threadCount);
+    }
+    final AtomicInteger threadCounter = new AtomicInteger();
+    executor =
+      new ScheduledThreadPoolExecutor(threadCount, (runnable) -> {
+          final Thread thread =
+            new Thread(runnable,
+                       "Emulation Thread #" + threadCounter.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Returns the JVM-wide default scheduler with one thread per
+   * available processor, creating it upon first call.
+   */
+  public static synchronized ClockScheduler getDefault()
+  {
+    if (defaultScheduler == null) {
+      defaultScheduler =
+        new ClockScheduler(Runtime.getRuntime().availableProcessors());
+    }
+    return defaultScheduler;
+  }
+
+  public void execute(final Runnable task)
+  {
+    executor.execute(task);
+  }
+
+  public ScheduledFuture<?> schedule(final Runnable task,
+                                     final long delayMillis)
+  {
+    return executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public void shutdown()
+  {
+    executor.shutdown();
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
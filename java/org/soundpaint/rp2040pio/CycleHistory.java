@@ -0,0 +1,391 @@
+/*
+ * @(#)CycleHistory.java 1.00 21/06/22
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Ring buffer that records a compact summary of the emulator's state
+ * at the end of each clock cycle, such that clients can fetch the
+ * history of a range of cycles with a single request rather than
+ * sampling registers cycle by cycle.  The buffer is filled by the
+ * emulation thread at the falling edge of each clock cycle, and is
+ * kept off-heap in a direct buffer of fixed-width records.  A
+ * capacity of 0 (the default) disables recording.
+ *
+ * Record layout (in words of 32 bits):
+ * <pre>
+ * word  0: wall clock of the cycle, lower 32 bits
+ * word  1: wall clock of the cycle, upper 32 bits
+ * word  2 + 4 * (4 * pio + sm) + 0: SM status
+ *          bits  4:0  PC
+ *          bits 10:5  instruction origin (6 bit two's complement)
+ *          bit  11    delay cycle
+ *          bit  12    stalled
+ *          bit  13    clock enable
+ *          bits 19:16 TX FIFO level
+ *          bits 23:20 RX FIFO level
+ * word  2 + 4 * (4 * pio + sm) + 1: SM shift counts
+ *          bits  7:0  ISR shift count
+ *          bits 15:8  OSR shift count
+ *          bits 20:16 pending delay
+ * word  2 + 4 * (4 * pio + sm) + 2: SM scratch register X
+ * word  2 + 4 * (4 * pio + sm) + 3: SM scratch register Y
+ * word 34 + 2 * pio + 0: GPIO pins as seen by PIO #pio
+ * word 34 + 2 * pio + 1: GPIO pin directions as seen by PIO #pio
+ * </pre>
+ */
+public class CycleHistory implements Clock.TransitionListener, Constants
+{
+  public static final int MAX_CAPACITY = 0x100000;
+  public static final int SM_RECORD_WORDS = 4;
+  public static final int OFFSET_WALLCLOCK_LSB = 0;
+  public static final int OFFSET_WALLCLOCK_MSB = 1;
+  public static final int OFFSET_SM = 2;
+  public static final int OFFSET_GPIO =
+    OFFSET_SM + PIO_NUM * SM_COUNT * SM_RECORD_WORDS;
+  public static final int RECORD_WORDS = OFFSET_GPIO + 2 * PIO_NUM;
+
+  /**
+   * Decoded view of a single record.
+   */
+  public static class Record
+  {
+    private final int[] words;
+
+    private Record()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    /**
+     * Creates a record from a copy of the RECORD_WORDS words at the
+     * specified offset of the specified array.
+     */
+    public Record(final int[] words, final int offset)
+    {
+      if (words == null) {
+        throw new NullPointerException("words");
+      }
+      if ((offset < 0) || (offset + RECORD_WORDS > words.length)) {
+        throw new IllegalArgumentException("offset out of bounds: " +
+                                           offset);
+      }
+      this.words = new int[RECORD_WORDS];
+      System.arraycopy(words, offset, this.words, 0, RECORD_WORDS);
+    }
+
+    public long getWallClock()
+    {
+      return
+        ((long)words[OFFSET_WALLCLOCK_MSB] << 32) |
+        (words[OFFSET_WALLCLOCK_LSB] & 0xffffffffL);
+    }
+
+    private int getSMWord(final int pioNum, final int smNum,
+                          final int wordIndex)
+    {
+      Constants.checkPioNum(pioNum, "PIO index number");
+      Constants.checkSmNum(smNum);
+      return
+        words[OFFSET_SM + SM_RECORD_WORDS * (SM_COUNT * pioNum + smNum) +
+              wordIndex];
+    }
+
+    public int getPC(final int pioNum, final int smNum)
+    {
+      return getSMWord(pioNum, smNum, 0) & 0x1f;
+    }
+
+    /**
+     * @return Either memory address (0…31), or INSTR_ORIGIN_FORCED,
+     * INSTR_ORIGIN_EXECD or INSTR_ORIGIN_UNKNOWN.
+     */
+    public int getInstrOrigin(final int pioNum, final int smNum)
+    {
+      return (getSMWord(pioNum, smNum, 0) << 21) >> 26;
+    }
+
+    public boolean isDelayCycle(final int pioNum, final int smNum)
+    {
+      return ((getSMWord(pioNum, smNum, 0) >>> 11) & 0x1) != 0x0;
+    }
+
+    public boolean isStalled(final int pioNum, final int smNum)
+    {
+      return ((getSMWord(pioNum, smNum, 0) >>> 12) & 0x1) != 0x0;
+    }
+
+    public boolean isClockEnabled(final int pioNum, final int smNum)
+    {
+      return ((getSMWord(pioNum, smNum, 0) >>> 13) & 0x1) != 0x0;
+    }
+
+    public int getTXLevel(final int pioNum, final int smNum)
+    {
+      return (getSMWord(pioNum, smNum, 0) >>> 16) & 0xf;
+    }
+
+    public int getRXLevel(final int pioNum, final int smNum)
+    {
+      return (getSMWord(pioNum, smNum, 0) >>> 20) & 0xf;
+    }
+
+    public int getISRShiftCount(final int pioNum, final int smNum)
+    {
+      return getSMWord(pioNum, smNum, 1) & 0xff;
+    }
+
+    public int getOSRShiftCount(final int pioNum, final int smNum)
+    {
+      return (getSMWord(pioNum, smNum, 1) >>> 8) & 0xff;
+    }
+
+    public int getPendingDelay(final int pioNum, final int smNum)
+    {
+      return (getSMWord(pioNum, smNum, 1) >>> 16) & 0x1f;
+    }
+
+    public int getX(final int pioNum, final int smNum)
+    {
+      return getSMWord(pioNum, smNum, 2);
+    }
+
+    public int getY(final int pioNum, final int smNum)
+    {
+      return getSMWord(pioNum, smNum, 3);
+    }
+
+    public int getPins(final int pioNum)
+    {
+      Constants.checkPioNum(pioNum, "PIO index number");
+      return words[OFFSET_GPIO + 2 * pioNum];
+    }
+
+    public int getPinDirs(final int pioNum)
+    {
+      Constants.checkPioNum(pioNum, "PIO index number");
+      return words[OFFSET_GPIO + 2 * pioNum + 1];
+    }
+  }
+
+  private final MasterClock masterClock;
+  private final PIO[] pios;
+  private IntBuffer buffer;
+  private int capacity;
+  private int count;
+  private int next;
+
+  private CycleHistory()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public CycleHistory(final MasterClock masterClock,
+                      final PIO pio0, final PIO pio1)
+  {
+    if (masterClock == null) {
+      throw new NullPointerException("masterClock");
+    }
+    if (pio0 == null) {
+      throw new NullPointerException("pio0");
+    }
+    if (pio1 == null) {
+      throw new NullPointerException("pio1");
+    }
+    this.masterClock = masterClock;
+    pios = new PIO[] { pio0, pio1 };
+    buffer = null;
+    capacity = 0;
+    count = 0;
+    next = 0;
+  }
+
+  /**
+   * Sets the maximum number of cycles to record and discards all
+   * cycles recorded so far.  A value of 0 disables recording and
+   * releases the buffer.
+   */
+  public synchronized void setCapacity(final int capacity)
+  {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity < 0: " + capacity);
+    }
+    if (capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("capacity > " + MAX_CAPACITY +
+                                         ": " + capacity);
+    }
+    if (capacity != this.capacity) {
+      buffer =
+        capacity > 0 ?
+        ByteBuffer.allocateDirect(4 * RECORD_WORDS * capacity).
+        order(ByteOrder.nativeOrder()).asIntBuffer() :
+        null;
+      this.capacity = capacity;
+    }
+    clear();
+  }
+
+  public synchronized int getCapacity() { return capacity; }
+
+  public synchronized void clear()
+  {
+    count = 0;
+    next = 0;
+  }
+
+  private static int encodeSMStatus(final SM sm)
+  {
+    final FIFO fifo = sm.getFIFO();
+    return
+      (sm.getPC() & 0x1f) |
+      ((sm.getINSTR_ORIGIN() & 0x3f) << 5) |
+      (sm.isDelayCycle() ? 0x1 << 11 : 0x0) |
+      (sm.isStalled() ? 0x1 << 12 : 0x0) |
+      (sm.getPLL().getClockEnable() ? 0x1 << 13 : 0x0) |
+      ((fifo.getTXLevel() & 0xf) << 16) |
+      ((fifo.getRXLevel() & 0xf) << 20);
+  }
+
+  private static int encodeSMShiftCounts(final SM sm)
+  {
+    return
+      (sm.getISRShiftCount() & 0xff) |
+      ((sm.getOSRShiftCount() & 0xff) << 8) |
+      ((sm.getPendingDelay() & 0x1f) << 16);
+  }
+
+  private void record(final long wallClock)
+  {
+    int pos = next * RECORD_WORDS;
+    buffer.put(pos++, (int)wallClock);
+    buffer.put(pos++, (int)(wallClock >>> 32));
+    for (final PIO pio : pios) {
+      for (int smNum = 0; smNum < SM_COUNT; smNum++) {
+        final SM sm = pio.getSM(smNum);
+        buffer.put(pos++, encodeSMStatus(sm));
+        buffer.put(pos++, encodeSMShiftCounts(sm));
+        buffer.put(pos++, sm.getX());
+        buffer.put(pos++, sm.getY());
+      }
+    }
+    for (final PIO pio : pios) {
+      final PIOGPIO pioGpio = pio.getPIOGPIO();
+      buffer.put(pos++, pioGpio.getPins(0, GPIO_NUM));
+      buffer.put(pos++, pioGpio.getPinDirs(0, GPIO_NUM));
+    }
+    next = (next + 1) % capacity;
+    if (count < capacity) count++;
+  }
+
+  @Override
+  public void risingEdge(final long wallClock)
+  {
+    // cycles are recorded only when completed
+  }
+
+  @Override
+  public synchronized void fallingEdge(final long wallClock)
+  {
+    if (capacity == 0) return;
+    if (masterClock.isReplaying() && (count > 0) &&
+        (wallClock <= readWallClock((next + capacity - 1) % capacity))) {
+      // replayed during time travel, and thus already recorded
+      return;
+    }
+    record(wallClock);
+  }
+
+  /**
+   * Discards all records of the specified cycle and later cycles,
+   * e.g. after travelling back in time to the start of that cycle.
+   */
+  public synchronized void truncate(final long cycle)
+  {
+    while ((count > 0) &&
+           (readWallClock((next + capacity - 1) % capacity) >= cycle)) {
+      next = (next + capacity - 1) % capacity;
+      count--;
+    }
+  }
+
+  /**
+   * Returns the records of all recorded cycles in the range from
+   * <code>fromCycle</code> up to, but not including,
+   * <code>fromCycle + maxCount</code>, in ascending order of wall
+   * clock.  Cycles that have not yet been recorded or have already
+   * been overwritten are omitted, such that the result may contain
+   * less than <code>maxCount</code> records.
+   *
+   * @return An array of RECORD_WORDS words per record.
+   */
+  public synchronized int[] read(final long fromCycle, final int maxCount)
+  {
+    if (maxCount < 0) {
+      throw new IllegalArgumentException("maxCount < 0: " + maxCount);
+    }
+    if (count == 0) {
+      return new int[0];
+    }
+    final int newestIndex = (next + capacity - 1) % capacity;
+    final long newestCycle = readWallClock(newestIndex);
+    final long oldestCycle = newestCycle - count + 1;
+    final long startCycle = Math.max(fromCycle, oldestCycle);
+    final long stopCycle = Math.min(fromCycle + maxCount, newestCycle + 1);
+    if (startCycle >= stopCycle) {
+      return new int[0];
+    }
+    final int resultCount = (int)(stopCycle - startCycle);
+    final int[] words = new int[resultCount * RECORD_WORDS];
+    int index =
+      (int)((newestIndex - (newestCycle - startCycle) + capacity) % capacity);
+    for (int record = 0; record < resultCount; record++) {
+      final int pos = index * RECORD_WORDS;
+      final int offset = record * RECORD_WORDS;
+      for (int word = 0; word < RECORD_WORDS; word++) {
+        words[offset + word] = buffer.get(pos + word);
+      }
+      index = (index + 1) % capacity;
+    }
+    return words;
+  }
+
+  private long readWallClock(final int index)
+  {
+    final int pos = index * RECORD_WORDS;
+    return
+      ((long)buffer.get(pos + OFFSET_WALLCLOCK_MSB) << 32) |
+      (buffer.get(pos + OFFSET_WALLCLOCK_LSB) & 0xffffffffL);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
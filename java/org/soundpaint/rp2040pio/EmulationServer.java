@@ -26,6 +26,8 @@ package org.soundpaint.rp2040pio;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 
@@ -51,10 +53,34 @@ public class EmulationServer
                                    Constants.
                                    REGISTER_SERVER_DEFAULT_PORT_NUMBER,
                                    "use PORT as server port number");
+  private static final CmdOptions.StringOptionDeclaration optShmFile =
+    CmdOptions.createStringOption("PATH", false, null, "shm-file", null,
+                                  "additionally publish register " +
+                                  "snapshots via memory-mapped file PATH");
+  private static final CmdOptions.IntegerOptionDeclaration optShmInterval =
+    CmdOptions.createIntegerOption("CYCLES", false, null, "shm-interval", 1,
+                                   "publish a register snapshot every " +
+                                   "CYCLES clock cycles");
+  private static final CmdOptions.StringOptionDeclaration optVcdFile =
+    CmdOptions.createStringOption("PATH", false, null, "vcd-file", null,
+                                  "write VCD output to PATH rather than " +
+                                  "to " + VcdWriter.DEFAULT_PATH +
+                                  " when enabled via register VCD_CTRL");
+  private static final CmdOptions.FlagOptionDeclaration optVcd =
+    CmdOptions.createFlagOption(false, null, "vcd", CmdOptions.Flag.OFF,
+                                "start VCD recording of GPIO pins, pin " +
+                                "directions and SM PCs immediately");
+  private static final CmdOptions.FlagOptionDeclaration optRecord =
+    CmdOptions.createFlagOption(false, null, "record", CmdOptions.Flag.OFF,
+                                "start headless trace recording of GPIO " +
+                                "pins, pin directions and SM PCs " +
+                                "immediately");
   private static final List<CmdOptions.OptionDeclaration<?>>
     optionDeclarations =
     Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
-                  { optVersion, optHelp, optSilent, optVerbose, optPort });
+                  { optVersion, optHelp, optSilent, optVerbose, optPort,
+                    optShmFile, optShmInterval, optVcdFile, optVcd,
+                    optRecord });
 
   private final PrintStream console;
   private final CmdOptions options;
@@ -106,6 +132,10 @@ public class EmulationServer
       throw new CmdOptions.
         ParseException("PORT must be in the range 0…65535");
     }
+    if (options.getValue(optShmInterval) < 1) {
+      throw new CmdOptions.
+        ParseException("CYCLES must be a positive number");
+    }
     if ((options.getValue(optSilent) == CmdOptions.Flag.ON) &&
         (options.getValue(optVerbose) == CmdOptions.Flag.ON)) {
       throw new CmdOptions.
@@ -121,17 +151,58 @@ public class EmulationServer
                    Constants.getCmdLineCopyrightNotice());
   }
 
+  private void closeSharedMemory(final SharedMemoryAddressSpaceServer shmServer)
+  {
+    try {
+      shmServer.close();
+    } catch (final IOException e) {
+      console.println("warning: failed closing shared memory snapshot: " +
+                      e.getMessage());
+    }
+  }
+
   private void run()
   {
     try {
       final Emulator emulator = new Emulator(console);
       final LocalAddressSpace memory = new LocalAddressSpace(emulator);
+      final VcdWriter vcdWriter = emulator.getVcdWriter();
+      if (options.isDefined(optVcdFile)) {
+        vcdWriter.setPath(Paths.get(options.getValue(optVcdFile)));
+      }
+      if (options.getValue(optVcd) == CmdOptions.Flag.ON) {
+        vcdWriter.setCtrl(vcdWriter.getCtrl() | VcdWriter.CTRL_ENABLE);
+        if (options.getValue(optSilent) != CmdOptions.Flag.ON) {
+          console.println("recording VCD to " + vcdWriter.getPath());
+        }
+      }
+      if (options.getValue(optRecord) == CmdOptions.Flag.ON) {
+        emulator.getTraceRecorder().setEnabled(true);
+        if (options.getValue(optSilent) != CmdOptions.Flag.ON) {
+          console.println("recording trace");
+        }
+      }
       final int port = options.getValue(optPort);
+      final SessionRegistry sessions =
+        new SessionRegistry(console, memory, true);
       final RemoteAddressSpaceServer server =
-        new RemoteAddressSpaceServer(console, memory, port);
+        new RemoteAddressSpaceServer(console, sessions, port);
       if (options.getValue(optSilent) != CmdOptions.Flag.ON) {
         console.println("started emulation server at port " + port);
       }
+      if (options.isDefined(optShmFile)) {
+        final Path shmPath = Paths.get(options.getValue(optShmFile));
+        final int shmInterval = options.getValue(optShmInterval);
+        final SharedMemoryAddressSpaceServer shmServer =
+          new SharedMemoryAddressSpaceServer(console, memory,
+                                             shmPath, shmInterval);
+        Runtime.getRuntime().
+          addShutdownHook(new Thread(() -> closeSharedMemory(shmServer),
+                                     "shared memory snapshot shutdown"));
+        if (options.getValue(optSilent) != CmdOptions.Flag.ON) {
+          console.println("publishing register snapshots to " + shmPath);
+        }
+      }
     } catch (final IOException e) {
       console.println("failed starting emulation server: " +
                       e.getMessage());
@@ -24,18 +24,44 @@
  */
 package org.soundpaint.rp2040pio;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Holds internal subsystems of core emulator.
  */
 public class Emulator
 {
+  /**
+   * Magic number "PIOE" at the start of each saved state.
+   */
+  private static final int STATE_MAGIC = 0x50494f45;
+
+  /**
+   * Version of the saved state format, to be increased whenever the
+   * format changes, such that outdated states are rejected rather
+   * than misinterpreted.
+   */
+  private static final int STATE_VERSION = 1;
+
   private final PrintStream console;
   private final MasterClock masterClock;
   private final GPIO gpio;
   private final PIO pio0;
   private final PIO pio1;
+  private final AtomicLong writeGeneration;
+  private final TraceSink traceSink;
+  private final CycleHistory cycleHistory;
+  private final VcdWriter vcdWriter;
+  private final TraceRecorder traceRecorder;
+  private final TimeTravel timeTravel;
+  private volatile ServerMetrics serverMetrics;
 
   private Emulator()
   {
@@ -43,15 +69,41 @@ public class Emulator
   }
 
   public Emulator(final PrintStream console)
+  {
+    this(console, ClockScheduler.getDefault());
+  }
+
+  /**
+   * @param scheduler The scheduler that drives the master clock of
+   * this emulator.  By sharing a scheduler, many emulator instances
+   * can be run by a small, fixed number of threads.
+   */
+  public Emulator(final PrintStream console, final ClockScheduler scheduler)
   {
     if (console == null) {
       throw new NullPointerException("console");
     }
+    if (scheduler == null) {
+      throw new NullPointerException("scheduler");
+    }
     this.console = console;
-    masterClock = new MasterClock(console);
-    gpio = new GPIO(console, masterClock);
+    masterClock = new MasterClock(console, scheduler);
+    // register before PIOs, such that checkpoints precede each cycle
+    timeTravel = new TimeTravel(this);
+    masterClock.addTransitionListener(timeTravel);
+    traceSink = new TraceSink();
+    traceSink.addConsumer(new TraceSink.TextConsumer(console));
+    gpio = new GPIO(console, masterClock, traceSink);
     pio0 = gpio.getPIO0();
     pio1 = gpio.getPIO1();
+    writeGeneration = new AtomicLong();
+    cycleHistory = new CycleHistory(masterClock, pio0, pio1);
+    // register after PIOs, such that completed cycles are recorded
+    masterClock.addTransitionListener(cycleHistory);
+    vcdWriter = new VcdWriter(console, masterClock, gpio, pio0, pio1);
+    masterClock.addTransitionListener(vcdWriter);
+    traceRecorder = new TraceRecorder(console, masterClock, gpio, pio0, pio1);
+    masterClock.addTransitionListener(traceRecorder);
   }
 
   public PrintStream getConsole()
@@ -79,17 +131,211 @@ public class Emulator
     return pio1;
   }
 
+  /**
+   * Returns the statistics of the server that hosts this emulator,
+   * or null, if this emulator is not hosted by a server.
+   */
+  public ServerMetrics getServerMetrics()
+  {
+    return serverMetrics;
+  }
+
+  public void setServerMetrics(final ServerMetrics serverMetrics)
+  {
+    this.serverMetrics = serverMetrics;
+  }
+
+  /**
+   * Returns the number of register accesses so far that may have
+   * changed the state of this emulator other than by a clock phase,
+   * i.e. register writes and reads that trigger a function.  Caching
+   * clients use this counter to detect modifications made by other
+   * clients.
+   */
+  public long getWriteGeneration()
+  {
+    return writeGeneration.get();
+  }
+
+  public void incrementWriteGeneration()
+  {
+    writeGeneration.incrementAndGet();
+  }
+
+  public TraceSink getTraceSink()
+  {
+    return traceSink;
+  }
+
+  public CycleHistory getCycleHistory()
+  {
+    return cycleHistory;
+  }
+
+  public VcdWriter getVcdWriter()
+  {
+    return vcdWriter;
+  }
+
+  public TraceRecorder getTraceRecorder()
+  {
+    return traceRecorder;
+  }
+
+  public TimeTravel getTimeTravel()
+  {
+    return timeTravel;
+  }
+
   public void reset()
   {
     masterClock.reset();
+    cycleHistory.clear();
+    timeTravel.clear();
+    traceRecorder.clear();
     gpio.reset();
     pio0.reset();
     pio1.reset();
   }
 
+  /**
+   * Returns a snapshot of the complete emulation state, i.e. master
+   * clock, GPIO and both PIOs including instruction memory, FIFOs
+   * and all SM internals, such that it can be restored later, also
+   * by another emulator instance.  Neither the cycle history nor
+   * tracepoint, VCD or metrics configuration are part of the state.
+   * The caller must hold the phase lock of the master clock, such
+   * that the snapshot is consistent.
+   */
+  public byte[] saveState() throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(STATE_MAGIC);
+    out.writeInt(STATE_VERSION);
+    masterClock.saveState(out);
+    gpio.saveState(out);
+    pio0.saveState(out);
+    pio1.saveState(out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Restores a state that has been previously returned by method
+   * saveState().  If the state is malformed, the emulator is reset
+   * and an IOException is thrown.  The caller must hold the phase
+   * lock of the master clock.
+   */
+  public void restoreState(final byte[] state) throws IOException
+  {
+    restoreState(state, false);
+  }
+
+  /**
+   * @param isTimeTravel If true, the state is a checkpoint of this
+   * emulator's own history, such that neither the master clock's
+   * frequency and mode nor the time travel history are touched.
+   * The cycle history is also kept, since it is truncated by the
+   * time travel itself, once the target cycle has been reached.
+   */
+  void restoreState(final byte[] state, final boolean isTimeTravel)
+    throws IOException
+  {
+    if (state == null) {
+      throw new NullPointerException("state");
+    }
+    if (state.length < 8) {
+      throw new IOException("not an emulator state");
+    }
+    final DataInputStream in =
+      new DataInputStream(new ByteArrayInputStream(state));
+    if (in.readInt() != STATE_MAGIC) {
+      throw new IOException("not an emulator state");
+    }
+    final int version = in.readInt();
+    if (version != STATE_VERSION) {
+      throw new IOException("unsupported emulator state version: " +
+                            version);
+    }
+    try {
+      masterClock.restoreState(in, isTimeTravel);
+      gpio.restoreState(in);
+      pio0.restoreState(in);
+      pio1.restoreState(in);
+      if (in.available() > 0) {
+        throw new IOException("trailing data after emulator state");
+      }
+    } catch (final EOFException e) {
+      reset();
+      throw new IOException("truncated emulator state");
+    } catch (final IOException | RuntimeException e) {
+      reset();
+      throw new IOException("malformed emulator state: " + e);
+    } finally {
+      if (!isTimeTravel) {
+        cycleHistory.clear();
+        timeTravel.clear();
+        traceRecorder.clear();
+      }
+      incrementWriteGeneration();
+    }
+  }
+
+  /**
+   * Creates a new, independent emulator that starts with a copy of
+   * this emulator's state, as returned by method saveState().  The
+   * clone's master clock is driven by the same scheduler as this
+   * emulator's one, such that clones run in parallel on the
+   * scheduler's threads.  Since the clone continues in the same
+   * clock mode, fork in single step mode for applying different
+   * stimuli to each clone before letting it run.  The caller is
+   * responsible for terminating the clone when no longer needed.
+   *
+   * Register writes via an address space are not synchronized with
+   * the phase lock; use LocalAddressSpace.fork() for excluding them.
+   */
+  public Emulator fork() throws IOException
+  {
+    return fork(masterClock.getScheduler());
+  }
+
+  /**
+   * Like method fork(), but with the clone's master clock being
+   * driven by the specified scheduler.
+   */
+  public Emulator fork(final ClockScheduler scheduler) throws IOException
+  {
+    if (scheduler == null) {
+      throw new NullPointerException("scheduler");
+    }
+    final byte[] state;
+    synchronized(masterClock.getPhaseLock()) {
+      state = saveState();
+    }
+    final Emulator clone = new Emulator(console, scheduler);
+    try {
+      synchronized(clone.masterClock.getPhaseLock()) {
+        clone.restoreState(state);
+      }
+    } catch (final IOException | RuntimeException e) {
+      clone.terminate();
+      throw e;
+    }
+    return clone;
+  }
+
+  /**
+   * Stops the master clock and the background threads of this
+   * emulator.  To be called when the emulator is no longer needed,
+   * e.g. when its session is destroyed or a fork is discarded.
+   */
   public void terminate()
   {
     masterClock.terminate();
+    traceSink.terminate();
+    vcdWriter.terminate();
+    traceRecorder.close();
   }
 }
 
@@ -24,6 +24,10 @@
  */
 package org.soundpaint.rp2040pio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * A pair of an RX FIFO and a TX FIFO, each having a capacity of DEPTH
  * words of 32 bits.  One of the FIFOs' capacity can be reconfigured
@@ -97,6 +101,7 @@ public class FIFO implements Constants
   private boolean regFDEBUG_TXOVER; // one of bits 19:16 of FDEBUG
   private boolean regFDEBUG_RXUNDER; // one of bits 11:8 of FDEBUG
   private boolean regFDEBUG_RXSTALL; // one of bits 3:0 of FDEBUG
+  private volatile int generation;
 
   public FIFO(final int smNum, final IRQ irq)
   {
@@ -107,9 +112,17 @@ public class FIFO implements Constants
     this.smNum = smNum;
     this.irq = irq;
     memory = new int[JOINED_FIFO_DEPTH];
+    generation = 0;
     reset();
   }
 
+  /**
+   * Returns a counter that is incremented upon each modification of
+   * this FIFO pair, including its memory, pointers, join mode and
+   * FDEBUG flags.
+   */
+  public int getGeneration() { return generation; }
+
   public synchronized void reset()
   {
     reset(false, false);
@@ -133,6 +146,59 @@ public class FIFO implements Constants
     rxFull = joinTX;
     irq.setRxNEmpty(smNum, !fstatRxEmpty());
     irq.setTxNFull(smNum, !fstatTxFull());
+    generation++;
+    notifyAll();
+  }
+
+  public synchronized void saveState(final DataOutput out) throws IOException
+  {
+    for (final int value : memory) {
+      out.writeInt(value);
+    }
+    out.writeBoolean(mode.isJoinTX());
+    out.writeBoolean(mode.isJoinRX());
+    out.writeInt(txReadPtr);
+    out.writeInt(txWritePtr);
+    out.writeBoolean(txFull);
+    out.writeInt(rxReadPtr);
+    out.writeInt(rxWritePtr);
+    out.writeBoolean(rxFull);
+    out.writeBoolean(regFDEBUG_TXSTALL);
+    out.writeBoolean(regFDEBUG_TXOVER);
+    out.writeBoolean(regFDEBUG_RXUNDER);
+    out.writeBoolean(regFDEBUG_RXSTALL);
+  }
+
+  private static int readPtr(final DataInput in) throws IOException
+  {
+    final int ptr = in.readInt();
+    if ((ptr < -1) || (ptr >= JOINED_FIFO_DEPTH)) {
+      throw new IOException("FIFO pointer out of range: " + ptr);
+    }
+    return ptr;
+  }
+
+  public synchronized void restoreState(final DataInput in) throws IOException
+  {
+    for (int index = 0; index < memory.length; index++) {
+      memory[index] = in.readInt();
+    }
+    final boolean joinTX = in.readBoolean();
+    final boolean joinRX = in.readBoolean();
+    mode = Mode.fromJoins(joinTX, joinRX);
+    txReadPtr = readPtr(in);
+    txWritePtr = readPtr(in);
+    txFull = in.readBoolean();
+    rxReadPtr = readPtr(in);
+    rxWritePtr = readPtr(in);
+    rxFull = in.readBoolean();
+    regFDEBUG_TXSTALL = in.readBoolean();
+    regFDEBUG_TXOVER = in.readBoolean();
+    regFDEBUG_RXUNDER = in.readBoolean();
+    regFDEBUG_RXSTALL = in.readBoolean();
+    irq.setRxNEmpty(smNum, !fstatRxEmpty());
+    irq.setTxNFull(smNum, !fstatTxFull());
+    generation++;
     notifyAll();
   }
 
@@ -194,6 +260,7 @@ public class FIFO implements Constants
       modified = false;
     }
     irq.setRxNEmpty(smNum, !fstatRxEmpty());
+    generation++;
     notifyAll();
     return modified;
   }
@@ -210,6 +277,7 @@ public class FIFO implements Constants
       value = 0;
     }
     irq.setRxNEmpty(smNum, !fstatRxEmpty());
+    generation++;
     notifyAll();
     return value;
   }
@@ -222,6 +290,7 @@ public class FIFO implements Constants
   public void clearRXUnder()
   {
     regFDEBUG_RXUNDER = false;
+    generation++;
   }
 
   public boolean isRXStall()
@@ -232,6 +301,7 @@ public class FIFO implements Constants
   public void clearRXStall()
   {
     regFDEBUG_RXSTALL = false;
+    generation++;
   }
 
   public synchronized void setJoinTX(final boolean join)
@@ -283,6 +353,7 @@ public class FIFO implements Constants
       }
     }
     irq.setTxNFull(smNum, !fstatTxFull());
+    generation++;
     notifyAll();
     return value;
   }
@@ -301,6 +372,7 @@ public class FIFO implements Constants
       regFDEBUG_TXOVER = true;
     }
     irq.setTxNFull(smNum, !fstatTxFull());
+    generation++;
     notifyAll();
   }
 
@@ -312,6 +384,7 @@ public class FIFO implements Constants
   public void clearTXOver()
   {
     regFDEBUG_TXOVER = false;
+    generation++;
   }
 
   public boolean isTXStall()
@@ -322,6 +395,7 @@ public class FIFO implements Constants
   public void clearTXStall()
   {
     regFDEBUG_TXSTALL = false;
+    generation++;
   }
 
   public int getMemValue(final int address)
@@ -334,6 +408,7 @@ public class FIFO implements Constants
   {
     Constants.checkFIFOAddr(address, "address");
     memory[address] = value;
+    generation++;
   }
 }
 
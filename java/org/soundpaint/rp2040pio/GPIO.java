@@ -24,8 +24,12 @@
  */
 package org.soundpaint.rp2040pio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 
 /**
  * General-Purpose Set of 32 Peripheral I/O Terminals
@@ -164,13 +168,15 @@ public class GPIO implements Constants
   private final Terminal[] terminals;
   private int regINPUT_SYNC_BYPASS; // bits 0…31 of INPUT_SYNC_BYPASS
                                     // (contents currently ignored)
+  private volatile int configGeneration;
 
   private GPIO()
   {
     throw new UnsupportedOperationException("unsupported empty constructor");
   }
 
-  public GPIO(final PrintStream console, final MasterClock masterClock)
+  public GPIO(final PrintStream console, final MasterClock masterClock,
+              final TraceSink traceSink)
   {
     if (console == null) {
       throw new NullPointerException("console");
@@ -178,9 +184,12 @@ public class GPIO implements Constants
     if (masterClock == null) {
       throw new NullPointerException("masterClock");
     }
+    if (traceSink == null) {
+      throw new NullPointerException("traceSink");
+    }
     this.console = console;
-    pio0 = new PIO(0, console, masterClock, this);
-    pio1 = new PIO(1, console, masterClock, this);
+    pio0 = new PIO(0, console, masterClock, this, traceSink);
+    pio1 = new PIO(1, console, masterClock, this, traceSink);
     terminals = new Terminal[GPIO_NUM];
     for (int port = 0; port < terminals.length; port++) {
       terminals[port] = new Terminal(port);
@@ -193,8 +202,48 @@ public class GPIO implements Constants
     for (int port = 0; port < terminals.length; port++) {
       terminals[port].reset();
     }
+    configGeneration++;
+  }
+
+  /**
+   * Writes the configuration and external input of all GPIO pins to
+   * the specified output.  The state of the PIOs is not included.
+   */
+  public synchronized void saveState(final DataOutput out) throws IOException
+  {
+    for (final Terminal terminal : terminals) {
+      out.writeInt(terminal.function.getValue());
+      out.writeInt(terminal.irqOverride.getValue());
+      out.writeInt(terminal.inputOverride.getValue());
+      out.writeInt(terminal.oeOverride.getValue());
+      out.writeInt(terminal.outputOverride.getValue());
+      out.writeInt(terminal.externalInput.getValue());
+    }
+    out.writeInt(regINPUT_SYNC_BYPASS);
   }
 
+  public synchronized void restoreState(final DataInput in)
+    throws IOException
+  {
+    for (final Terminal terminal : terminals) {
+      terminal.function = GPIO_Function.fromValue(in.readInt());
+      terminal.irqOverride = Override.fromValue(in.readInt());
+      terminal.inputOverride = Override.fromValue(in.readInt());
+      terminal.oeOverride = Override.fromValue(in.readInt());
+      terminal.outputOverride = Override.fromValue(in.readInt());
+      terminal.externalInput = Bit.fromValue(in.readInt());
+    }
+    regINPUT_SYNC_BYPASS = in.readInt();
+    configGeneration++;
+  }
+
+  /**
+   * Returns a counter that is incremented upon each modification of
+   * the GPIO configuration, i.e. function select, overrides and
+   * input sync bypass of any of the GPIO pins.
+   */
+  public int getConfigGeneration() { return configGeneration; }
+
   public PIO getPIO0() { return pio0; }
 
   public PIO getPIO1() { return pio1; }
@@ -230,6 +279,7 @@ public class GPIO implements Constants
       throw new NullPointerException("fn");
     }
     terminals[gpio].function = fn;
+    configGeneration++;
   }
 
   private GPIO_Function getFunction(final int gpio)
@@ -269,6 +319,7 @@ public class GPIO implements Constants
                               IO_BANK0_GPIO0_CTRL_FUNCSEL_LSB,
                               GPIO_Function.NULL);
     terminal.function = fn;
+    configGeneration++;
   }
 
   public int getCTRL(final int gpio)
@@ -421,11 +472,56 @@ public class GPIO implements Constants
     }
   }
 
+  private static int packPins(final IntUnaryOperator pinValue)
+  {
+    int bits = 0x0;
+    for (int gpio = 0; gpio < GPIO_NUM; gpio++) {
+      bits |= pinValue.applyAsInt(gpio) << gpio;
+    }
+    return bits;
+  }
+
+  /*
+   * Packed variants of the status bits of GPIOx_STATUS, with bit #n
+   * representing GPIO pin #n.
+   */
+
+  public int getOutFromPeripheralPins()
+  {
+    return packPins((gpio) -> getOutFromPeripheral(gpio).getValue());
+  }
+
+  public int getOutToPadPins()
+  {
+    return packPins((gpio) -> getOutToPad(gpio).getValue());
+  }
+
+  public int getOeFromPeripheralPins()
+  {
+    return packPins((gpio) -> getOeFromPeripheral(gpio).getValue());
+  }
+
+  public int getOeToPadPins()
+  {
+    return packPins((gpio) -> getOeToPad(gpio).getValue());
+  }
+
+  public int getInFromPadPins()
+  {
+    return packPins((gpio) -> getInFromPad(gpio).getValue());
+  }
+
+  public int getInToPeriPins()
+  {
+    return packPins((gpio) -> getInToPeri(gpio).getValue());
+  }
+
   public void setInputSyncByPass(final int bits, final int mask,
                                  final boolean xor)
   {
     regINPUT_SYNC_BYPASS =
       Constants.hwSetBits(regINPUT_SYNC_BYPASS, bits, mask, xor);
+    configGeneration++;
   }
 
   public int getInputSyncByPass()
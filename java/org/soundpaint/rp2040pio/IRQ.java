@@ -24,6 +24,10 @@
  */
 package org.soundpaint.rp2040pio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * IRQ Register Set
  */
@@ -51,6 +55,26 @@ public class IRQ implements Constants
     fifoStatus = 0;
   }
 
+  public void saveState(final DataOutput out) throws IOException
+  {
+    out.writeInt(regIRQ);
+    out.writeInt(regIRQ0_INTE);
+    out.writeInt(regIRQ0_INTF);
+    out.writeInt(regIRQ1_INTE);
+    out.writeInt(regIRQ1_INTF);
+    out.writeInt(fifoStatus);
+  }
+
+  public void restoreState(final DataInput in) throws IOException
+  {
+    regIRQ = in.readInt() & 0xff;
+    regIRQ0_INTE = in.readInt() & 0xfff;
+    regIRQ0_INTF = in.readInt() & 0xfff;
+    regIRQ1_INTE = in.readInt() & 0xfff;
+    regIRQ1_INTF = in.readInt() & 0xfff;
+    fifoStatus = in.readInt();
+  }
+
   public void setTxNFull(final int smNum, final boolean nFull)
   {
     Constants.checkSmNum(smNum);
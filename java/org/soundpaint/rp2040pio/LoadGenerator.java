@@ -0,0 +1,493 @@
+/*
+ * @(#)LoadGenerator.java 1.00 21/06/18
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Load generator for measuring throughput and latency of an
+ * emulation server under load.  Opens a configurable number of
+ * concurrent RemoteAddressSpaceClient connections, each of which
+ * replays a random mix of register reads, masked register writes
+ * and (immediately satisfied) waits for a given period of time.
+ * Finally, reports throughput and latency percentiles per type of
+ * operation, as well as the server's own statistics.
+ */
+public class LoadGenerator
+{
+  private static final String PRG_TITLE = "LoadGenerator";
+  private static final String PRG_FULL_NAME = "Load Generator Version 0.1";
+
+  private static final CmdOptions.FlagOptionDeclaration optVersion =
+    CmdOptions.createFlagOption(false, 'V', "version", CmdOptions.Flag.OFF,
+                                "display version information and exit");
+  private static final CmdOptions.FlagOptionDeclaration optHelp =
+    CmdOptions.createFlagOption(false, 'h', "help", CmdOptions.Flag.OFF,
+                                "display this help text and exit");
+  private static final CmdOptions.StringOptionDeclaration optHost =
+    CmdOptions.createStringOption("HOST", false, null, "host", null,
+                                  "connect to emulation server on HOST " +
+                                  "(default: localhost)");
+  private static final CmdOptions.IntegerOptionDeclaration optPort =
+    CmdOptions.createIntegerOption("PORT", false, 'p', "port",
+                                   Constants.
+                                   REGISTER_SERVER_DEFAULT_PORT_NUMBER,
+                                   "connect to emulation server on PORT");
+  private static final CmdOptions.IntegerOptionDeclaration optClients =
+    CmdOptions.createIntegerOption("COUNT", false, 'c', "clients", 4,
+                                   "run COUNT concurrent clients");
+  private static final CmdOptions.IntegerOptionDeclaration optDuration =
+    CmdOptions.createIntegerOption("SECONDS", false, 'd', "duration", 10,
+                                   "measure for SECONDS seconds");
+  private static final CmdOptions.IntegerOptionDeclaration optWarmUp =
+    CmdOptions.createIntegerOption("SECONDS", false, 'w', "warm-up", 2,
+                                   "run SECONDS seconds of unmeasured " +
+                                   "load before measuring");
+  private static final CmdOptions.IntegerOptionDeclaration optReads =
+    CmdOptions.createIntegerOption("WEIGHT", false, null, "reads", 80,
+                                   "relative frequency of reads");
+  private static final CmdOptions.IntegerOptionDeclaration optWrites =
+    CmdOptions.createIntegerOption("WEIGHT", false, null, "writes", 15,
+                                   "relative frequency of masked writes");
+  private static final CmdOptions.IntegerOptionDeclaration optWaits =
+    CmdOptions.createIntegerOption("WEIGHT", false, null, "waits", 5,
+                                   "relative frequency of waits for the " +
+                                   "next clock cycle (time out unless " +
+                                   "the clock is running)");
+  private static final CmdOptions.IntegerOptionDeclaration optSeed =
+    CmdOptions.createIntegerOption("SEED", false, null, "seed", 0,
+                                   "seed for generating the random mix " +
+                                   "of operations");
+  private static final CmdOptions.FlagOptionDeclaration optSessions =
+    CmdOptions.createFlagOption(false, 'n', "separate-sessions",
+                                CmdOptions.Flag.OFF,
+                                "let each client attach to a session " +
+                                "of its own");
+  private static final List<CmdOptions.OptionDeclaration<?>>
+    optionDeclarations =
+    Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
+                  { optVersion, optHelp, optHost, optPort, optClients,
+                    optDuration, optWarmUp, optReads, optWrites, optWaits,
+                    optSeed, optSessions });
+
+  private enum Operation
+  {
+    READ("read"),
+    WRITE("masked write"),
+    WAIT("wait");
+
+    private final String label;
+
+    private Operation(final String label)
+    {
+      this.label = label;
+    }
+
+    public String getLabel() { return label; }
+  };
+
+  private static final Operation[] OPERATIONS = Operation.values();
+
+  /**
+   * Maximum time to wait for the next clock cycle in a wait
+   * operation.
+   */
+  private static final int WAIT_TIMEOUT_MILLIS = 100;
+
+  /**
+   * Growable list of latencies, in nanoseconds.
+   */
+  private static class Latencies
+  {
+    private long[] values;
+    private int count;
+
+    private Latencies()
+    {
+      values = new long[0x10000];
+      count = 0;
+    }
+
+    private void add(final long nanos)
+    {
+      if (count == values.length) {
+        values = Arrays.copyOf(values, 2 * values.length);
+      }
+      values[count++] = nanos;
+    }
+
+    private void addAll(final Latencies other)
+    {
+      for (int index = 0; index < other.count; index++) {
+        add(other.values[index]);
+      }
+    }
+
+    private void sort()
+    {
+      Arrays.sort(values, 0, count);
+    }
+
+    /**
+     * Requires that the values have been sorted.
+     */
+    private long getPercentile(final double percentile)
+    {
+      if (count == 0) return 0;
+      final int index = (int)Math.ceil(percentile / 100.0 * count) - 1;
+      return values[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    private double getMean()
+    {
+      if (count == 0) return 0.0;
+      double sum = 0.0;
+      for (int index = 0; index < count; index++) {
+        sum += values[index];
+      }
+      return sum / count;
+    }
+  }
+
+  private class Client extends Thread
+  {
+    private final int clientNum;
+    private final RemoteAddressSpaceClient client;
+    private final Random random;
+    private final Latencies[] latencies;
+    private final int readAddress;
+    private final int writeAddress;
+    private IOException exception;
+
+    private Client(final int clientNum) throws IOException
+    {
+      super("LoadGenerator Client #" + clientNum);
+      this.clientNum = clientNum;
+      client = new RemoteAddressSpaceClient(nullConsole, host, port);
+      if (separateSessions) {
+        client.attachSession("load-" + clientNum);
+      }
+      random = new Random(seed + clientNum);
+      latencies = new Latencies[OPERATIONS.length];
+      for (int index = 0; index < latencies.length; index++) {
+        latencies[index] = new Latencies();
+      }
+      readAddress =
+        PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.WALLCLOCK_LSB);
+      final int smNum = clientNum & 0x3;
+      final int pioNum = (clientNum >>> 2) & 0x1;
+      writeAddress =
+        PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                     PIOEmuRegisters.Regs.SM0_REGX);
+    }
+
+    private Operation chooseOperation()
+    {
+      final int value = random.nextInt(totalWeight);
+      if (value < readWeight) return Operation.READ;
+      if (value < readWeight + writeWeight) return Operation.WRITE;
+      return Operation.WAIT;
+    }
+
+    private void execute(final Operation operation) throws IOException
+    {
+      switch (operation) {
+      case READ:
+        client.readAddress(readAddress);
+        break;
+      case WRITE:
+        client.writeAddressMasked(writeAddress, random.nextInt(),
+                                  0x0000ffff, false);
+        break;
+      case WAIT:
+        /*
+         * Wait for the next clock cycle, i.e. for bit 0 of the wall
+         * clock to toggle, such that the server really has to block
+         * the request until emulation has made progress.  Hence, the
+         * latency of this operation includes that of a read and of
+         * the time until the next cycle.  The timeout avoids hanging
+         * forever if the emulator's clock is not running.
+         */
+        final int wallClockBit = client.readAddress(readAddress) & 0x1;
+        client.waitAddress(readAddress, wallClockBit ^ 0x1, 0x1,
+                           0, WAIT_TIMEOUT_MILLIS);
+        break;
+      default:
+        throw new InternalError("unexpected case fall-through");
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      try {
+        startSignal.await();
+        while (!stopped) {
+          final Operation operation = chooseOperation();
+          final long startTime = System.nanoTime();
+          execute(operation);
+          final long stopTime = System.nanoTime();
+          if (measuring) {
+            latencies[operation.ordinal()].add(stopTime - startTime);
+          }
+        }
+      } catch (final IOException e) {
+        exception = e;
+      } catch (final InterruptedException e) {
+        // terminate
+      } finally {
+        if (separateSessions) {
+          destroySession();
+        }
+      }
+    }
+
+    private void destroySession()
+    {
+      try {
+        client.destroySession("load-" + clientNum);
+      } catch (final IOException e) {
+        if (exception == null) {
+          exception = e;
+        }
+      }
+    }
+  }
+
+  private final PrintStream console;
+  private final PrintStream nullConsole;
+  private final CmdOptions options;
+  private final String host;
+  private final int port;
+  private final long seed;
+  private final boolean separateSessions;
+  private final int readWeight;
+  private final int writeWeight;
+  private final int totalWeight;
+  private final CountDownLatch startSignal;
+  private volatile boolean measuring;
+  private volatile boolean stopped;
+
+  private LoadGenerator()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  private LoadGenerator(final PrintStream console, final String[] argv)
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    this.console = console;
+    nullConsole = new PrintStream(OutputStream.nullOutputStream());
+    options = parseArgs(argv);
+    host = options.getValue(optHost);
+    port = options.getValue(optPort);
+    seed = options.getValue(optSeed);
+    separateSessions = options.getValue(optSessions) == CmdOptions.Flag.ON;
+    readWeight = options.getValue(optReads);
+    writeWeight = options.getValue(optWrites);
+    totalWeight = readWeight + writeWeight + options.getValue(optWaits);
+    startSignal = new CountDownLatch(1);
+    measuring = false;
+    stopped = false;
+  }
+
+  private CmdOptions parseArgs(final String argv[])
+  {
+    final CmdOptions options;
+    try {
+      options = new CmdOptions(PRG_TITLE, PRG_FULL_NAME, null,
+                               optionDeclarations);
+      options.parse(argv);
+      checkValidity(options);
+    } catch (final CmdOptions.ParseException e) {
+      console.println(e.getMessage());
+      System.exit(-1);
+      throw new InternalError();
+    }
+    if (options.getValue(optVersion) == CmdOptions.Flag.ON) {
+      console.println(PRG_FULL_NAME);
+      console.println(Constants.getEmulatorIdAndVersionWithOs());
+      System.exit(0);
+      throw new InternalError();
+    }
+    if (options.getValue(optHelp) == CmdOptions.Flag.ON) {
+      console.println(options.getFullInfo());
+      System.exit(0);
+      throw new InternalError();
+    }
+    return options;
+  }
+
+  private void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    final int port = options.getValue(optPort);
+    if ((port < 0) || (port > 65535)) {
+      throw new CmdOptions.
+        ParseException("PORT must be in the range 0…65535");
+    }
+    if (options.getValue(optClients) < 1) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a positive number");
+    }
+    if (options.getValue(optDuration) < 1) {
+      throw new CmdOptions.
+        ParseException("duration must be a positive number");
+    }
+    if (options.getValue(optWarmUp) < 0) {
+      throw new CmdOptions.
+        ParseException("warm-up must be a non-negative number");
+    }
+    if ((options.getValue(optReads) < 0) ||
+        (options.getValue(optWrites) < 0) ||
+        (options.getValue(optWaits) < 0)) {
+      throw new CmdOptions.
+        ParseException("WEIGHT must be a non-negative number");
+    }
+    if (options.getValue(optReads) + options.getValue(optWrites) +
+        options.getValue(optWaits) <= 0) {
+      throw new CmdOptions.
+        ParseException("at least one WEIGHT must be a positive number");
+    }
+  }
+
+  private void printResult(final String label, final Latencies latencies,
+                           final double seconds)
+  {
+    latencies.sort();
+    console.printf("%-14s %10d %12.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                   label, latencies.count, latencies.count / seconds,
+                   latencies.getMean() / 1000.0,
+                   latencies.getPercentile(50.0) / 1000.0,
+                   latencies.getPercentile(99.0) / 1000.0,
+                   latencies.getPercentile(99.9) / 1000.0,
+                   latencies.getPercentile(100.0) / 1000.0);
+  }
+
+  /**
+   * Stops all clients that have been started so far and waits for
+   * them to terminate, including destroying their sessions, if any.
+   */
+  private void stopClients(final Client[] clients)
+  {
+    stopped = true;
+    startSignal.countDown();
+    for (final Client client : clients) {
+      if (client != null) {
+        while (client.isAlive()) {
+          try {
+            client.join();
+          } catch (final InterruptedException e) {
+            // keep waiting, since sessions must be cleaned up
+          }
+        }
+      }
+    }
+  }
+
+  private int run()
+  {
+    final int clientCount = options.getValue(optClients);
+    final Client[] clients = new Client[clientCount];
+    final RemoteAddressSpaceClient control;
+    try {
+      control = new RemoteAddressSpaceClient(nullConsole, host, port);
+      console.printf("server: %s%n", control.getEmulatorInfo());
+      for (int clientNum = 0; clientNum < clientCount; clientNum++) {
+        clients[clientNum] = new Client(clientNum);
+        clients[clientNum].start();
+      }
+    } catch (final IOException e) {
+      console.println("failed connecting to emulation server: " +
+                      e.getMessage());
+      stopClients(clients);
+      return -1;
+    }
+    console.printf("%d clients, mix reads:writes:waits = %d:%d:%d%n",
+                   clientCount, readWeight, writeWeight,
+                   totalWeight - readWeight - writeWeight);
+    try {
+      startSignal.countDown();
+      Thread.sleep(1000L * options.getValue(optWarmUp));
+      final long startTime = System.nanoTime();
+      measuring = true;
+      Thread.sleep(1000L * options.getValue(optDuration));
+      measuring = false;
+      final long stopTime = System.nanoTime();
+      stopClients(clients);
+      final double seconds = (stopTime - startTime) / 1.0e9;
+      for (final Client client : clients) {
+        if (client.exception != null) {
+          console.printf("client #%d failed: %s%n",
+                         client.clientNum, client.exception.getMessage());
+          return -1;
+        }
+      }
+      console.printf("%-14s %10s %12s %9s %9s %9s %9s %9s%n",
+                     "operation", "count", "ops/s", "mean µs",
+                     "p50 µs", "p99 µs", "p999 µs", "max µs");
+      final Latencies total = new Latencies();
+      for (final Operation operation : OPERATIONS) {
+        final Latencies merged = new Latencies();
+        for (final Client client : clients) {
+          merged.addAll(client.latencies[operation.ordinal()]);
+        }
+        total.addAll(merged);
+        printResult(operation.getLabel(), merged, seconds);
+      }
+      printResult("total", total, seconds);
+    } catch (final InterruptedException e) {
+      console.println("interrupted");
+      stopClients(clients);
+      return -1;
+    }
+    try {
+      console.printf("server metrics: %s%n", control.getServerMetrics());
+    } catch (final IOException e) {
+      console.println("failed retrieving server metrics: " + e.getMessage());
+    }
+    return 0;
+  }
+
+  public static void main(final String argv[])
+  {
+    System.exit(new LoadGenerator(System.out, argv).run());
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
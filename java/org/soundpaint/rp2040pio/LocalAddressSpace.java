@@ -25,8 +25,12 @@
 package org.soundpaint.rp2040pio;
 
 import java.io.IOException;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class LocalAddressSpace extends AddressSpace
 {
@@ -39,17 +43,69 @@ public class LocalAddressSpace extends AddressSpace
   private final PIORegistersImpl pio1Registers;
   private final PIOEmuRegistersImpl pio1EmuRegisters;
 
+  /**
+   * Resolved target of an address: a register of a specific register
+   * set, together with precomputed properties of that register.
+   */
+  private static class RegisterSlot
+  {
+    private final RegisterSet registers;
+    private final int regNum;
+    private final boolean readTriggeringFunction;
+
+    private RegisterSlot()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private RegisterSlot(final RegisterSet registers, final int regNum)
+    {
+      this.registers = registers;
+      this.regNum = regNum;
+      readTriggeringFunction = registers.isReadTriggeringFunction(regNum);
+    }
+  }
+
   /*
-   * TODO: Really should replace this simple-minded list approach with
-   * either a responsibility chain or a composite design pattern, as
-   * soon as the number of registers interfaces grows.
+   * Since base addresses of register sets are aligned to 0x4000, and
+   * each register set spans at most 0x1000 bytes, an address is
+   * resolved by a two-level table lookup on address bits 31:24 and
+   * 23:14, followed by a lookup of the register number (address bits
+   * 11:2) in the slots of the register set.  Address bits 13:12
+   * select the register access method and are ignored for resolution.
+   */
+  private static final int DISPATCH_TOP_SHIFT = 24;
+  private static final int DISPATCH_MID_SHIFT = 14;
+  private static final int DISPATCH_MID_MASK = 0x3ff;
+
+  /**
+   * Maximum number of lock-free attempts for reading a consistent set
+   * of values before falling back to acquiring the phase lock.
    */
+  private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+
+  private static final int ADDRESS_GPIO_PADIN =
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.GPIO_PADIN);
+
   private final List<RegisterSet> registerSetList;
+  private final RegisterSlot[][][] dispatchTable;
+
+  /*
+   * Accesses that are free of side effects (reads of registers that
+   * do not trigger a function) share the read lock and thus may run
+   * concurrently.  Writes and reads that trigger a function (like
+   * popping a FIFO) acquire the write lock, such that they are
+   * strictly ordered with respect to each other and to all other
+   * accesses.
+   */
+  private final ReentrantReadWriteLock accessLock;
+  private RegisterMap registerMap;
 
   public LocalAddressSpace(final Emulator emulator)
   {
     this.emulator = emulator;
 
+    accessLock = new ReentrantReadWriteLock();
     registerSetList = new ArrayList<RegisterSet>();
     picoEmuRegisters = new PicoEmuRegistersImpl(emulator);
     registerSetList.add(picoEmuRegisters);
@@ -71,6 +127,71 @@ public class LocalAddressSpace extends AddressSpace
     registerSetList.add(pio1Registers);
     pio1EmuRegisters = new PIOEmuRegistersImpl(pio1);
     registerSetList.add(pio1EmuRegisters);
+
+    dispatchTable = createDispatchTable(registerSetList);
+    emulator.getTimeTravel().setInputSink(this::replayInput);
+  }
+
+  /**
+   * Accesses of emulator global registers control the emulator
+   * rather than providing input to the emulated system, and hence
+   * are not replayed upon time travel, except for GPIO_PADIN.
+   */
+  private boolean isTimeTravelInput(final RegisterSlot slot,
+                                    final int address)
+  {
+    return
+      (slot.registers != picoEmuRegisters) || (address == ADDRESS_GPIO_PADIN);
+  }
+
+  private void replayInput(final int address, final int bits,
+                           final int mask, final boolean xor,
+                           final boolean isRead)
+    throws IOException
+  {
+    if (isRead) {
+      readAddressUnlocked(address);
+    } else {
+      writeAddressMaskedUnlocked(address, bits, mask, xor);
+    }
+  }
+
+  private static RegisterSlot[][][]
+    createDispatchTable(final List<RegisterSet> registerSetList)
+  {
+    final RegisterSlot[][][] dispatchTable =
+      new RegisterSlot[0x1 << (32 - DISPATCH_TOP_SHIFT)][][];
+    for (final RegisterSet registers : registerSetList) {
+      final int baseAddress = registers.getBaseAddress();
+      final int topIndex = baseAddress >>> DISPATCH_TOP_SHIFT;
+      final int midIndex =
+        (baseAddress >>> DISPATCH_MID_SHIFT) & DISPATCH_MID_MASK;
+      if (dispatchTable[topIndex] == null) {
+        dispatchTable[topIndex] = new RegisterSlot[DISPATCH_MID_MASK + 1][];
+      }
+      if (dispatchTable[topIndex][midIndex] != null) {
+        // preserve order of resolution: first register set wins
+        continue;
+      }
+      final RegisterSlot[] slots = new RegisterSlot[registers.getSize()];
+      for (int regNum = 0; regNum < slots.length; regNum++) {
+        slots[regNum] = new RegisterSlot(registers, regNum);
+      }
+      dispatchTable[topIndex][midIndex] = slots;
+    }
+    return dispatchTable;
+  }
+
+  Emulator getEmulator() { return emulator; }
+
+  /**
+   * Returns all register sets in the order of address resolution.
+   * Intended for transports that need direct access to the register
+   * sets, such as the shared memory snapshot channel.
+   */
+  List<RegisterSet> getRegisterSets()
+  {
+    return Collections.unmodifiableList(registerSetList);
   }
 
   @Override
@@ -79,6 +200,15 @@ public class LocalAddressSpace extends AddressSpace
     return Constants.getEmulatorIdAndVersionWithOs();
   }
 
+  @Override
+  public synchronized RegisterMap getRegisterMap() throws IOException
+  {
+    if (registerMap == null) {
+      registerMap = RegisterMap.fromRegisterSets(registerSetList);
+    }
+    return registerMap;
+  }
+
   public int getGPIOAddress(final GPIOIOBank0RegistersImpl.Regs register)
   {
     return GPIOIOBank0RegistersImpl.getAddress(register);
@@ -109,37 +239,52 @@ public class LocalAddressSpace extends AddressSpace
     return pio1EmuRegisters.getAddress(register);
   }
 
-  private static int address2register(final RegisterSet registers,
-                                      final int address)
+  private RegisterSlot getRegisterSlot(final int address)
   {
     checkAddressAligned(address);
-    return ((address - registers.getBaseAddress()) & ~0x3000) >>> 2;
+    final RegisterSlot[][] midTable =
+      dispatchTable[address >>> DISPATCH_TOP_SHIFT];
+    if (midTable == null) return null;
+    final RegisterSlot[] slots =
+      midTable[(address >>> DISPATCH_MID_SHIFT) & DISPATCH_MID_MASK];
+    if (slots == null) return null;
+    final int regNum = (address & 0xfff) >>> 2;
+    return regNum < slots.length ? slots[regNum] : null;
   }
 
-  private RegisterSet getProvidingRegisters(final int address)
-    throws IOException
+  private boolean isReadTriggeringFunction(final int address)
   {
-    for (final RegisterSet registers : registerSetList) {
-      final int regNum = address2register(registers, address);
-      if (regNum < registers.getSize()) {
-        return registers;
+    final RegisterSlot slot = getRegisterSlot(address);
+    return (slot != null) && slot.readTriggeringFunction;
+  }
+
+  private Lock getAccessLock(final boolean exclusive)
+  {
+    return exclusive ? accessLock.writeLock() : accessLock.readLock();
+  }
+
+  private Lock getReadLock(final int[] addresses)
+  {
+    for (final int address : addresses) {
+      if (isReadTriggeringFunction(address)) {
+        return accessLock.writeLock();
       }
     }
-    return null;
+    return accessLock.readLock();
   }
 
   @Override
   public boolean providesAddress(final int address) throws IOException
   {
-    return getProvidingRegisters(address) != null;
+    return getRegisterSlot(address) != null;
   }
 
   @Override
   public String getRegisterSetId(final int address) throws IOException
   {
-    final RegisterSet registers = getProvidingRegisters(address);
-    if (registers != null) {
-      return registers.getId();
+    final RegisterSlot slot = getRegisterSlot(address);
+    if (slot != null) {
+      return slot.registers.getId();
     }
     final String message =
       String.format("requesting register set ID for unsupported address: %08x",
@@ -150,10 +295,9 @@ public class LocalAddressSpace extends AddressSpace
   @Override
   public String getAddressLabel(final int address) throws IOException
   {
-    final RegisterSet registers = getProvidingRegisters(address);
-    if (registers != null) {
-      final int regNum = address2register(registers, address);
-      return registers.getRegisterLabel(regNum);
+    final RegisterSlot slot = getRegisterSlot(address);
+    if (slot != null) {
+      return slot.registers.getRegisterLabel(slot.regNum);
     }
     final String message =
       String.format("requesting label for unsupported address: %08x",
@@ -162,8 +306,39 @@ public class LocalAddressSpace extends AddressSpace
   }
 
   @Override
-  public synchronized void writeAddressMasked(final int address, final int bits,
-                                              final int mask, final boolean xor)
+  public void writeAddressMasked(final int address, final int bits,
+                                 final int mask, final boolean xor)
+    throws IOException
+  {
+    final Lock lock = accessLock.writeLock();
+    lock.lock();
+    try {
+      writeAddressMaskedUnlocked(address, bits, mask, xor);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void writeAddressesMasked(final int[] addresses, final int[] values,
+                                   final int[] masks, final boolean xor)
+    throws IOException
+  {
+    checkVectoredWrite(addresses, values, masks);
+    final Lock lock = accessLock.writeLock();
+    lock.lock();
+    try {
+      for (int index = 0; index < addresses.length; index++) {
+        writeAddressMaskedUnlocked(addresses[index], values[index],
+                                   masks[index], xor);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void writeAddressMaskedUnlocked(final int address, final int bits,
+                                          final int mask, final boolean xor)
     throws IOException
   {
     if ((address & 0x3000) != 0x0000) {
@@ -172,11 +347,15 @@ public class LocalAddressSpace extends AddressSpace
                       "address not in base address range: 0x%8x", address);
       throw new IOException(message);
     }
-    final RegisterSet registers = getProvidingRegisters(address);
-    if (registers != null) {
-      final int regNum = address2register(registers, address);
+    final RegisterSlot slot = getRegisterSlot(address);
+    if (slot != null) {
+      emulator.incrementWriteGeneration();
       try {
-        registers.writeRegister(regNum, bits, mask, xor);
+        slot.registers.writeRegister(slot.regNum, bits, mask, xor);
+        if (isTimeTravelInput(slot, address)) {
+          emulator.getTimeTravel().recordInput(address, bits, mask, xor,
+                                               false);
+        }
       } catch (final Throwable t) {
         final String message = t.getMessage();
         emulator.getConsole().
@@ -192,13 +371,235 @@ public class LocalAddressSpace extends AddressSpace
   }
 
   @Override
-  public synchronized int readAddress(final int address) throws IOException
+  public int readAddress(final int address) throws IOException
   {
-    final RegisterSet registers = getProvidingRegisters(address);
-    if (registers != null) {
-      final int regNum = address2register(registers, address);
+    final Lock lock = getAccessLock(isReadTriggeringFunction(address));
+    lock.lock();
+    try {
+      return readAddressUnlocked(address);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Tries to read all of the specified addresses without acquiring
+   * the phase lock, using the master clock's phase sequence counter
+   * for detecting concurrent clock phases.  Must be called only for
+   * addresses that do not trigger a function upon read.
+   *
+   * @return The values read, or null, if no consistent set of values
+   * could be read within a limited number of attempts.  An attempt
+   * that throws an exception also counts as failed.
+   */
+  private int[] readAddressesOptimistic(final int[] addresses)
+    throws IOException
+  {
+    final MasterClock masterClock = emulator.getMasterClock();
+    final int[] values = new int[addresses.length];
+    for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+      final long sequence = masterClock.getPhaseSequence();
+      if ((sequence & 0x1) != 0x0) {
+        // clock phase in progress
+        Thread.onSpinWait();
+        continue;
+      }
       try {
-        return registers.readRegister(regNum);
+        for (int index = 0; index < addresses.length; index++) {
+          values[index] = readAddressQuietly(addresses[index]);
+        }
+      } catch (final IOException | RuntimeException e) {
+        // may be caused by a torn read => retry, and finally leave
+        // any error reporting to the read under the phase lock
+        continue;
+      }
+      // keep reads of emulator state from moving past sequence check
+      VarHandle.acquireFence();
+      if (masterClock.getPhaseSequence() == sequence) {
+        return values;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Like readAddressUnlocked(), but without reporting internal errors
+   * on the console, since for an optimistic read, an error may result
+   * from reading while a clock phase is in progress.  Must be called
+   * only for addresses that do not trigger a function upon read.
+   */
+  private int readAddressQuietly(final int address) throws IOException
+  {
+    final RegisterSlot slot = getRegisterSlot(address);
+    if (slot == null) {
+      final String message =
+        String.format("read from unsupported address: %08x", address);
+      throw new IOException(message);
+    }
+    return slot.registers.readRegister(slot.regNum);
+  }
+
+  /**
+   * All addresses are read atomically with respect to emulation,
+   * i.e. between two clock phases, such that the values form a
+   * consistent snapshot of the emulator's state.  Reads that are free
+   * of side effects are first tried lock-free (see
+   * MasterClock#getPhaseSequence()), such that a running clock is not
+   * held up by readers.  Only if that fails, or if any of the reads
+   * triggers a function, the phase lock is acquired.
+   */
+  @Override
+  public int[] readAddresses(final int[] addresses) throws IOException
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    final Lock lock = getReadLock(addresses);
+    lock.lock();
+    try {
+      if (lock != accessLock.writeLock()) {
+        final int[] values = readAddressesOptimistic(addresses);
+        if (values != null) return values;
+      }
+      final int[] values = new int[addresses.length];
+      synchronized(emulator.getMasterClock().getPhaseLock()) {
+        for (int index = 0; index < addresses.length; index++) {
+          values[index] = readAddressUnlocked(addresses[index]);
+        }
+      }
+      return values;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Since method readAddresses() of this class is already atomic
+   * with respect to emulation, this method simply calls that method.
+   */
+  @Override
+  public int[] readAddressesConsistent(final int[] addresses)
+    throws IOException
+  {
+    return readAddresses(addresses);
+  }
+
+  private boolean hasSideEffects(final Transaction transaction)
+  {
+    for (final Transaction.Operation operation :
+           transaction.getOperations()) {
+      if ((operation.getType() == Transaction.Type.WRITE) ||
+          isReadTriggeringFunction(operation.getAddress())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int[] executeTransaction(final Transaction transaction)
+    throws IOException
+  {
+    if (transaction == null) {
+      throw new NullPointerException("transaction");
+    }
+    final int[] results = new int[transaction.getReadCount()];
+    int resultIndex = 0;
+    final Lock lock = getAccessLock(hasSideEffects(transaction));
+    lock.lock();
+    try {
+      synchronized(emulator.getMasterClock().getPhaseLock()) {
+        for (final Transaction.Operation operation :
+               transaction.getOperations()) {
+          if (operation.getType() == Transaction.Type.READ) {
+            results[resultIndex++] =
+              readAddressUnlocked(operation.getAddress());
+          } else {
+            writeAddressMaskedUnlocked(operation.getAddress(),
+                                       operation.getBits(),
+                                       operation.getMask(),
+                                       operation.getXor());
+          }
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    return results;
+  }
+
+  private WaitConditions.Result
+    evaluateConditions(final WaitConditions conditions, final int[] addresses)
+    throws IOException
+  {
+    final MasterClock masterClock = emulator.getMasterClock();
+    final Lock lock = getReadLock(addresses);
+    lock.lock();
+    try {
+      synchronized(masterClock.getPhaseLock()) {
+        final int[] values = new int[addresses.length];
+        for (int index = 0; index < addresses.length; index++) {
+          values[index] = readAddressUnlocked(addresses[index]);
+        }
+        return conditions.evaluate(values, masterClock.getWallClock());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * All conditions are evaluated atomically with respect to
+   * emulation, i.e. between two clock phases, such that the wall
+   * clock of the result is the exact cycle at which the conditions
+   * have been fulfilled.
+   */
+  @Override
+  public WaitConditions.Result waitAddresses(final WaitConditions conditions,
+                                             final long cyclesTimeout,
+                                             final long millisTimeout)
+    throws IOException
+  {
+    checkWaitArgs(conditions, cyclesTimeout, millisTimeout);
+    final int[] addresses = conditions.getAddresses();
+    final MasterClock masterClock = emulator.getMasterClock();
+    final long startWallClock = masterClock.getWallClock();
+    final long stopWallClock = startWallClock + cyclesTimeout;
+    final long startTime = System.currentTimeMillis();
+    final long stopTime = startTime + millisTimeout;
+    WaitConditions.Result result;
+    while (!(result = evaluateConditions(conditions, addresses)).
+           isFulfilled()) {
+      final long wallClock = masterClock.getWallClock();
+      if (timedOut(startWallClock, stopWallClock, wallClock)) break;
+      try {
+        if (millisTimeout != 0) {
+          final long time = System.currentTimeMillis();
+          if (timedOut(startTime, stopTime, time)) break;
+          masterClock.awaitPhaseChange(stopTime - time);
+        } else {
+          masterClock.awaitPhaseChange();
+        }
+      } catch (final InterruptedException e) {
+        // ignore here, since check in while condition
+      }
+    }
+    return result;
+  }
+
+  private int readAddressUnlocked(final int address) throws IOException
+  {
+    final RegisterSlot slot = getRegisterSlot(address);
+    if (slot != null) {
+      if (slot.readTriggeringFunction) {
+        emulator.incrementWriteGeneration();
+      }
+      try {
+        final int value = slot.registers.readRegister(slot.regNum);
+        if (slot.readTriggeringFunction && isTimeTravelInput(slot, address)) {
+          emulator.getTimeTravel().recordInput(address, 0, 0, false, true);
+        }
+        return value;
       } catch (final Throwable t) {
         final String message = t.getMessage();
         emulator.getConsole().
@@ -212,6 +613,64 @@ public class LocalAddressSpace extends AddressSpace
     throw new IOException(message);
   }
 
+  @Override
+  public int[] readCycleHistory(final long fromCycle, final int maxCount)
+    throws IOException
+  {
+    if (maxCount < 0) {
+      throw new IllegalArgumentException("maxCount < 0: " + maxCount);
+    }
+    return emulator.getCycleHistory().read(fromCycle, maxCount);
+  }
+
+  @Override
+  public byte[] saveState() throws IOException
+  {
+    final Lock lock = accessLock.writeLock();
+    lock.lock();
+    try {
+      synchronized(emulator.getMasterClock().getPhaseLock()) {
+        return emulator.saveState();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void restoreState(final byte[] state) throws IOException
+  {
+    if (state == null) {
+      throw new NullPointerException("state");
+    }
+    final Lock lock = accessLock.writeLock();
+    lock.lock();
+    try {
+      synchronized(emulator.getMasterClock().getPhaseLock()) {
+        emulator.restoreState(state);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns a new address space for a clone of this address space's
+   * emulator, see method Emulator.fork() for details.  The clone's
+   * state is taken atomically with respect to both, emulation and
+   * register accesses via this address space.
+   */
+  public LocalAddressSpace fork() throws IOException
+  {
+    final Lock lock = accessLock.writeLock();
+    lock.lock();
+    try {
+      return new LocalAddressSpace(emulator.fork());
+    } finally {
+      lock.unlock();
+    }
+  }
+
   private static boolean timedOut(final long startWallClock,
                                   final long stopWallClock,
                                   final long wallClock)
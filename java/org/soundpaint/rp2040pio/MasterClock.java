@@ -24,9 +24,13 @@
  */
 package org.soundpaint.rp2040pio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * System Master Clock
@@ -47,68 +51,13 @@ public class MasterClock implements Clock, Constants
 
   private static final Mode[] MODES = Mode.values();
 
-  private class DrivingGear extends Thread
-  {
-    public DrivingGear()
-    {
-      super("Emulation Thread");
-    }
-
-    private void runSingleStep()
-    {
-      synchronized(this) {
-        while ((mode == Mode.SINGLE_STEP) &&
-               (phase == Phase.PHASE_1_STABLE)) {
-          try {
-            wait();
-          } catch (final InterruptedException e) {
-            // ignore here, since check in while condition
-          }
-          if (terminate) return;
-        }
-        if (phase == Phase.PHASE_0_IN_PROGRESS) {
-          syncWithRealTime();
-          cyclePhase0();
-        }
-        while ((mode == Mode.SINGLE_STEP) &&
-               (phase == Phase.PHASE_0_STABLE)) {
-          try {
-            wait();
-          } catch (final InterruptedException e) {
-            // ignore here, since check in while condition
-          }
-          if (terminate) return;
-        }
-        if (phase == Phase.PHASE_1_IN_PROGRESS) {
-          cyclePhase1();
-        }
-      }
-    }
-
-    private void runTargetFrequency()
-    {
-      syncWithRealTime();
-      phase = Phase.PHASE_0_IN_PROGRESS;
-      cyclePhase0();
-      phase = Phase.PHASE_1_IN_PROGRESS;
-      cyclePhase1();
-    }
-
-    @Override
-    public void run()
-    {
-      while (true) {
-        while (mode == Mode.SINGLE_STEP) {
-          runSingleStep();
-          if (terminate) return;
-        }
-        while (mode == Mode.TARGET_FREQUENCY) {
-          runTargetFrequency();
-          if (terminate) return;
-        }
-      }
-    }
-  }
+  /**
+   * Maximum amount of real time that a single step task may spend
+   * for running cycles in target frequency mode before yielding its
+   * thread to the master clocks of other emulator instances that
+   * share the same scheduler.
+   */
+  private static final long TIME_SLICE_NANOS = 1000000;
 
   private final PrintStream console;
 
@@ -124,16 +73,44 @@ public class MasterClock implements Clock, Constants
    */
   private final Object registerWaitLock;
 
-  private final DrivingGear drivingGear;
+  /**
+   * Emulator-wide lock that is held while a clock phase is in
+   * progress.  Holding this lock guarantees that no clock phase is
+   * executed concurrently.
+   */
+  private final Object phaseLock;
+
+  /**
+   * Insure access to the following set of variables is atomic:
+   * (stepScheduled, pendingStep, terminate).  When acquiring both,
+   * this lock and the accounting lock, this lock must be acquired
+   * first.
+   */
+  private final Object stepLock;
+
+  private final ClockScheduler scheduler;
+  private final Runnable stepTask;
   private final List<TransitionListener> listeners;
   private long frequency;
   private double milliSecondsPerCycle;
-  private Mode mode;
-  private Phase phase;
+  private volatile Mode mode;
+  private volatile Phase phase;
+
+  /**
+   * Sequence counter of clock phases for lock-free consistent reads
+   * of emulator state (seqlock).  Only modified while holding the
+   * phase lock.  Incremented once when a clock phase starts and once
+   * again when it has completed, such that the counter is odd if and
+   * only if a clock phase is in progress.
+   */
+  private volatile long phaseSequence;
   private long wallClock;
   private long refWallClock;
   private long refRealTime;
-  private boolean terminate;
+  private boolean stepScheduled;
+  private ScheduledFuture<?> pendingStep;
+  private volatile boolean terminate;
+  private volatile boolean replaying;
 
   private MasterClock()
   {
@@ -141,17 +118,37 @@ public class MasterClock implements Clock, Constants
   }
 
   public MasterClock(final PrintStream console)
+  {
+    this(console, ClockScheduler.getDefault());
+  }
+
+  /**
+   * @param scheduler The scheduler that executes the clock phases of
+   * this master clock.  Any number of master clocks may share the
+   * same scheduler.
+   */
+  public MasterClock(final PrintStream console,
+                     final ClockScheduler scheduler)
   {
     if (console == null) {
       throw new NullPointerException("console");
     }
+    if (scheduler == null) {
+      throw new NullPointerException("scheduler");
+    }
     this.console = console;
+    this.scheduler = scheduler;
     accountingLock = new Object();
     registerWaitLock = new Object();
-    drivingGear = new DrivingGear();
+    phaseLock = new Object();
+    stepLock = new Object();
+    stepTask = () -> step();
     listeners = new ArrayList<TransitionListener>();
+    terminate = false;
+    replaying = false;
+    stepScheduled = false;
+    pendingStep = null;
     reset();
-    start();
   }
 
   public void reset()
@@ -162,20 +159,176 @@ public class MasterClock implements Clock, Constants
     wallClock = 0;
   }
 
-  private void start()
+  /**
+   * Writes frequency, mode, phase and wall clock to the specified
+   * output.  A phase that is in progress is saved as the stable
+   * phase that precedes it, i.e. as if it has not yet started.  To
+   * be called with the phase lock held.
+   */
+  public void saveState(final DataOutput out) throws IOException
+  {
+    out.writeInt((int)frequency);
+    out.writeInt(mode.ordinal());
+    final Phase stablePhase;
+    switch (phase) {
+    case PHASE_0_IN_PROGRESS:
+      stablePhase = Phase.PHASE_1_STABLE;
+      break;
+    case PHASE_1_IN_PROGRESS:
+      stablePhase = Phase.PHASE_0_STABLE;
+      break;
+    default:
+      stablePhase = phase;
+      break;
+    }
+    out.writeInt(stablePhase.ordinal());
+    out.writeLong(wallClock);
+  }
+
+  /**
+   * Counterpart of method saveState().  To be called with the phase
+   * lock held.
+   *
+   * @param keepClockControl If true, the saved frequency and mode
+   * are skipped, such that the clock continues as currently
+   * configured, as needed for time travel.
+   */
+  public void restoreState(final DataInput in, final boolean keepClockControl)
+    throws IOException
   {
-    terminate = false;
-    drivingGear.start();
+    final int frequency = in.readInt();
+    final Mode mode = Mode.fromValue(in.readInt());
+    final Phase phase = Phase.values()[in.readInt()];
+    if ((phase != Phase.PHASE_0_STABLE) && (phase != Phase.PHASE_1_STABLE)) {
+      throw new IOException("unexpected phase: " + phase);
+    }
+    final long wallClock = in.readLong();
+    phaseSequence++;
+    synchronized(accountingLock) {
+      this.phase = phase;
+      this.wallClock = wallClock;
+    }
+    phaseSequence++;
+    if (keepClockControl) {
+      resetRef();
+      return;
+    }
+    setFrequency(frequency);
+    setMode(mode);
   }
 
   public void terminate()
   {
-    synchronized(drivingGear) {
+    synchronized(stepLock) {
       terminate = true;
-      drivingGear.notify();
+      if (pendingStep != null) {
+        pendingStep.cancel(false);
+        pendingStep = null;
+      }
+    }
+  }
+
+  /**
+   * Makes sure that a step task is going to run as soon as possible,
+   * unless there is already one running or queued for immediate
+   * execution.  A step task that is delayed for synchronizing with
+   * real time is replaced by an immediate one, since the reason for
+   * the request may be a change of frequency or mode.
+   */
+  private void requestStep()
+  {
+    synchronized(stepLock) {
+      if (terminate) return;
+      if (pendingStep != null) {
+        if (!pendingStep.cancel(false)) {
+          // already running => will check for pending work by itself
+          return;
+        }
+        pendingStep = null;
+        stepScheduled = false;
+      }
+      if (stepScheduled) return;
+      stepScheduled = true;
+      scheduler.execute(stepTask);
     }
   }
 
+  /**
+   * Executes whatever work is currently pending for this clock, and
+   * finally re-schedules itself, if there is more work to do.  At
+   * most one step task per master clock is scheduled or running at
+   * any time, such that clock phases are strictly executed one after
+   * the other, even though subsequent step tasks may be executed by
+   * different threads of the scheduler.
+   */
+  private void step()
+  {
+    synchronized(stepLock) {
+      pendingStep = null;
+    }
+    if (terminate) return;
+    if (mode == Mode.SINGLE_STEP) {
+      runSingleStep();
+    } else {
+      runTargetFrequency();
+    }
+    synchronized(stepLock) {
+      stepScheduled = false;
+      if (terminate) return;
+      if (mode == Mode.SINGLE_STEP) {
+        if ((phase == Phase.PHASE_0_IN_PROGRESS) ||
+            (phase == Phase.PHASE_1_IN_PROGRESS)) {
+          stepScheduled = true;
+          scheduler.execute(stepTask);
+        }
+      } else {
+        stepScheduled = true;
+        final long milliSecondsAhead = getMilliSecondsAhead();
+        if (milliSecondsAhead > 0) {
+          pendingStep = scheduler.schedule(stepTask, milliSecondsAhead);
+        } else {
+          scheduler.execute(stepTask);
+        }
+      }
+    }
+  }
+
+  private void runSingleStep()
+  {
+    if (phase == Phase.PHASE_0_IN_PROGRESS) {
+      cyclePhase0();
+    } else if (phase == Phase.PHASE_1_IN_PROGRESS) {
+      cyclePhase1();
+    }
+  }
+
+  /**
+   * Runs clock cycles until either the time slice is used up, or
+   * emulation is ahead of real time, or the mode has changed.  If a
+   * cycle has been partially executed in single step mode before
+   * switching mode, that cycle is completed first.
+   */
+  private void runTargetFrequency()
+  {
+    final long stopTime = System.nanoTime() + TIME_SLICE_NANOS;
+    do {
+      if (phase == Phase.PHASE_1_STABLE) {
+        phase = Phase.PHASE_0_IN_PROGRESS;
+      }
+      if (phase == Phase.PHASE_0_IN_PROGRESS) {
+        cyclePhase0();
+      }
+      if (phase == Phase.PHASE_0_STABLE) {
+        phase = Phase.PHASE_1_IN_PROGRESS;
+      }
+      if (phase == Phase.PHASE_1_IN_PROGRESS) {
+        cyclePhase1();
+      }
+    } while ((mode == Mode.TARGET_FREQUENCY) && !terminate &&
+             (System.nanoTime() < stopTime) &&
+             (getMilliSecondsAhead() == 0));
+  }
+
   private void resetRef()
   {
     synchronized(accountingLock) {
@@ -200,19 +353,6 @@ public class MasterClock implements Clock, Constants
     }
   }
 
-  private void syncWithRealTime()
-  {
-    if (mode != Mode.TARGET_FREQUENCY) return;
-    final long milliSecondsAhead = getMilliSecondsAhead();
-    if (milliSecondsAhead > 0) {
-      try {
-        Thread.sleep(milliSecondsAhead);
-      } catch (final InterruptedException e) {
-        // ignore
-      }
-    }
-  }
-
   private void setFrequency(final int frequency)
   {
     synchronized(accountingLock) {
@@ -223,17 +363,31 @@ public class MasterClock implements Clock, Constants
     }
   }
 
+  public ClockScheduler getScheduler()
+  {
+    return scheduler;
+  }
+
   public Object getRegisterWaitLock()
   {
     return registerWaitLock;
   }
 
+  /**
+   * Returns the lock that is held by the scheduler thread while a
+   * clock phase is in progress.  Holding this lock, a sequence of
+   * register accesses can be executed atomically with respect to
+   * emulation, i.e. effectively between two clock phases.
+   */
+  public Object getPhaseLock()
+  {
+    return phaseLock;
+  }
+
   public void setMASTERCLK_FREQ(final int frequency)
   {
-    synchronized(drivingGear) {
-      setFrequency(frequency);
-      drivingGear.notify();
-    }
+    setFrequency(frequency);
+    requestStep();
   }
 
   public int getMASTERCLK_FREQ()
@@ -243,11 +397,11 @@ public class MasterClock implements Clock, Constants
 
   public void setMode(final Mode mode)
   {
-    synchronized(drivingGear) {
+    synchronized(accountingLock) {
       this.mode = mode;
-      drivingGear.notify();
       resetRef();
     }
+    requestStep();
   }
 
   public Mode getMode() { return mode; }
@@ -296,27 +450,36 @@ public class MasterClock implements Clock, Constants
 
   public Phase getPhase() { return phase; }
 
+  /**
+   * Returns the current value of the phase sequence counter.  A
+   * reader that wants to observe a consistent state without
+   * acquiring the phase lock reads the counter before and after
+   * reading the state.  The state is consistent, if both values are
+   * equal and even.
+   */
+  public long getPhaseSequence() { return phaseSequence; }
+
   public void triggerPhase0()
   {
     synchronized(accountingLock) {
       if (mode != Mode.SINGLE_STEP) return;
-      synchronized(drivingGear) {
-        if (phase == Phase.PHASE_1_STABLE) {
-          phase = Phase.PHASE_0_IN_PROGRESS;
-          drivingGear.notify();
-        }
-      }
+      if (phase != Phase.PHASE_1_STABLE) return;
+      phase = Phase.PHASE_0_IN_PROGRESS;
     }
+    requestStep();
   }
 
   private void cyclePhase0()
   {
-    if (phase != Phase.PHASE_0_IN_PROGRESS) {
-      console.println("warning: cyclePhase0: unexpected phase: " + phase);
-      return;
+    synchronized(phaseLock) {
+      // phase may have been rewritten by a state restore while
+      // waiting for the lock => nothing left to do for this task
+      if (phase != Phase.PHASE_0_IN_PROGRESS) return;
+      phaseSequence++;
+      announceRisingEdge();
+      phase = Phase.PHASE_0_STABLE;
+      phaseSequence++;
     }
-    announceRisingEdge();
-    phase = Phase.PHASE_0_STABLE;
     synchronized(registerWaitLock) {
       registerWaitLock.notifyAll();
     }
@@ -326,29 +489,65 @@ public class MasterClock implements Clock, Constants
   {
     synchronized(accountingLock) {
       if (mode != Mode.SINGLE_STEP) return;
-      synchronized(drivingGear) {
-        if (phase == Phase.PHASE_0_STABLE) {
-          phase = Phase.PHASE_1_IN_PROGRESS;
-          drivingGear.notify();
-        }
-      }
+      if (phase != Phase.PHASE_0_STABLE) return;
+      phase = Phase.PHASE_1_IN_PROGRESS;
     }
+    requestStep();
   }
 
   private void cyclePhase1()
   {
-    if (phase != Phase.PHASE_1_IN_PROGRESS) {
-      console.println("warning: cyclePhase1: unexpected phase: " + phase);
-      return;
+    synchronized(phaseLock) {
+      // phase may have been rewritten by a state restore while
+      // waiting for the lock => nothing left to do for this task
+      if (phase != Phase.PHASE_1_IN_PROGRESS) return;
+      phaseSequence++;
+      announceFallingEdge();
+      wallClock++;
+      phase = Phase.PHASE_1_STABLE;
+      phaseSequence++;
     }
-    announceFallingEdge();
-    wallClock++;
-    phase = Phase.PHASE_1_STABLE;
     synchronized(registerWaitLock) {
       registerWaitLock.notifyAll();
     }
   }
 
+  /**
+   * Synchronously executes the next clock phase on the calling
+   * thread.  Used for deterministic replay during time travel.  To
+   * be called only in single step mode with a stable phase and with
+   * the phase lock held, such that no step task of the scheduler
+   * interferes.  While the phase is executed, method isReplaying()
+   * returns true.
+   */
+  public void replayPhase()
+  {
+    replaying = true;
+    try {
+      if (phase == Phase.PHASE_1_STABLE) {
+        phase = Phase.PHASE_0_IN_PROGRESS;
+        cyclePhase0();
+      } else if (phase == Phase.PHASE_0_STABLE) {
+        phase = Phase.PHASE_1_IN_PROGRESS;
+        cyclePhase1();
+      }
+    } finally {
+      replaying = false;
+    }
+  }
+
+  /**
+   * Returns true, if the clock phase in progress re-executes a cycle
+   * that has already been emulated before, see method replayPhase().
+   * Transition listeners that only produce side effects for
+   * observers, such as recording or publishing the emulator's state,
+   * use this method for not reporting the same cycle twice.
+   */
+  public boolean isReplaying()
+  {
+    return replaying;
+  }
+
   public void awaitPhaseChange() throws InterruptedException
   {
     synchronized(registerWaitLock) {
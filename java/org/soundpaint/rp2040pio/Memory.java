@@ -24,6 +24,10 @@
  */
 package org.soundpaint.rp2040pio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * 32 32-Bit Words of Shared Instruction Memory
  */
@@ -31,13 +35,23 @@ public class Memory implements Constants
 {
   public final Object FETCH_LOCK;
   private final short[] code;
+  private volatile int generation;
 
   public Memory()
   {
     FETCH_LOCK = new Object();
     code = new short[MEMORY_SIZE];
+    generation = 0;
   }
 
+  /**
+   * Returns a counter that is incremented upon each modification of
+   * the memory's contents, such that observers can cheaply detect
+   * whether any instruction word has been changed since they last
+   * looked at it.
+   */
+  public int getGeneration() { return generation; }
+
   public void reset()
   {
     synchronized(FETCH_LOCK) {
@@ -47,6 +61,24 @@ public class Memory implements Constants
     }
   }
 
+  public void saveState(final DataOutput out) throws IOException
+  {
+    synchronized(FETCH_LOCK) {
+      for (int address = 0; address < MEMORY_SIZE; address++) {
+        out.writeShort(code[address]);
+      }
+    }
+  }
+
+  public void restoreState(final DataInput in) throws IOException
+  {
+    synchronized(FETCH_LOCK) {
+      for (int address = 0; address < MEMORY_SIZE; address++) {
+        set(address, in.readShort());
+      }
+    }
+  }
+
   public void set(final int address, final int value,
                   final int mask, final boolean xor)
   {
@@ -57,6 +89,7 @@ public class Memory implements Constants
   {
     Constants.checkSmMemAddr(address, "write address");
     code[address] = value;
+    generation++;
   }
 
   public short get(final int address)
@@ -24,6 +24,9 @@
  */
 package org.soundpaint.rp2040pio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -109,7 +112,8 @@ public class PIO implements Constants, Clock.TransitionListener
   }
 
   public PIO(final int index, final PrintStream console,
-             final MasterClock masterClock, final GPIO gpio)
+             final MasterClock masterClock, final GPIO gpio,
+             final TraceSink traceSink)
   {
     if (index < 0) {
       throw new IllegalArgumentException("PIO index < 0: " + index);
@@ -120,6 +124,7 @@ public class PIO implements Constants, Clock.TransitionListener
     Objects.requireNonNull(console);
     Objects.requireNonNull(masterClock);
     Objects.requireNonNull(gpio);
+    Objects.requireNonNull(traceSink);
     this.index = index;
     this.console = console;
     this.masterClock = masterClock;
@@ -130,7 +135,8 @@ public class PIO implements Constants, Clock.TransitionListener
     irq = new IRQ();
     sms = new SM[SM_COUNT];
     for (int smNum = 0; smNum < SM_COUNT; smNum++) {
-      sms[smNum] = new SM(smNum, console, masterClock, pioGpio, memory, irq);
+      sms[smNum] = new SM(index, smNum, console, masterClock, pioGpio,
+                          memory, irq, traceSink);
     }
     smEnabled = 0x0;
   }
@@ -144,6 +150,24 @@ public class PIO implements Constants, Clock.TransitionListener
     smEnabled = 0x0;
   }
 
+  public void saveState(final DataOutput out) throws IOException
+  {
+    pioGpio.saveState(out);
+    memory.saveState(out);
+    irq.saveState(out);
+    for (final SM sm : sms) sm.saveState(out);
+    out.writeInt(smEnabled);
+  }
+
+  public void restoreState(final DataInput in) throws IOException
+  {
+    pioGpio.restoreState(in);
+    memory.restoreState(in);
+    irq.restoreState(in);
+    for (final SM sm : sms) sm.restoreState(in);
+    smEnabled = in.readInt() & 0xf;
+  }
+
   public int getIndex()
   {
     return index;
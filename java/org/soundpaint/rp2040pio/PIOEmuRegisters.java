@@ -408,7 +408,184 @@ public abstract class PIOEmuRegisters extends RegisterSet
         .map(n -> new BitsInfo("IRQ" + (7 - n), 7 - n, 7 - n,
                                "0x1 for HIGH or 0x0 for LOW",
                                BitsType.RO, 0))
-        .collect(Collectors.toList()));
+        .collect(Collectors.toList())),
+    INSTR_MEM_GENERATION("Counter that is incremented upon each%n" +
+                         "modification of any of the PIO's instruction%n" +
+                         "memory words.  Observers may compare this%n" +
+                         "value with a previously read one to find out%n" +
+                         "whether instruction memory needs to be re-read.",
+                         new BitsInfo[] {
+                           new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                         }),
+    SM0_CONFIG_GENERATION("Counter that is incremented upon each%n" +
+                          "modification of any of the configuration%n" +
+                          "registers SM*N*_CLKDIV, SM*N*_EXECCTRL,%n" +
+                          "SM*N*_SHIFTCTRL and SM*N*_PINCTRL of state%n" +
+                          "machine *N*.", 0,
+                          new BitsInfo[] {
+                            new BitsInfo(null, 31, 0, null,
+                                         BitsType.RO, null)
+                          }),
+    SM1_CONFIG_GENERATION(Regs.SM0_CONFIG_GENERATION, 1),
+    SM2_CONFIG_GENERATION(Regs.SM0_CONFIG_GENERATION, 2),
+    SM3_CONFIG_GENERATION(Regs.SM0_CONFIG_GENERATION, 3),
+    SM0_FIFO_GENERATION("Counter that is incremented upon each%n" +
+                        "modification of the TX FIFO or RX FIFO of state%n" +
+                        "machine *N*, including FIFO memory, read and%n" +
+                        "write pointers, FIFO join and FDEBUG flags.", 0,
+                        new BitsInfo[] {
+                          new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                        }),
+    SM1_FIFO_GENERATION(Regs.SM0_FIFO_GENERATION, 1),
+    SM2_FIFO_GENERATION(Regs.SM0_FIFO_GENERATION, 2),
+    SM3_FIFO_GENERATION(Regs.SM0_FIFO_GENERATION, 3),
+    SM0_SNAPSHOT_WALLCLOCK("Snapshot window of state machine *N*: lower 32%n" +
+                           "bits of the wall clock at the time of the%n" +
+                           "snapshot.  All registers of the snapshot window%n" +
+                           "reflect the state between the same two clock%n" +
+                           "phases, provided that the window is read with a%n" +
+                           "single bulk read.", 0,
+                           new BitsInfo[] {
+                             new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                           }),
+    SM0_SNAPSHOT_PC("Snapshot window: program counter, see SM*N*_PC.", 0,
+                    new BitsInfo[] {
+                      new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                    }),
+    SM0_SNAPSHOT_REGX("Snapshot window: scratch register X, see SM*N*_REGX.", 0,
+                      new BitsInfo[] {
+                        new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                      }),
+    SM0_SNAPSHOT_REGY("Snapshot window: scratch register Y, see SM*N*_REGY.", 0,
+                      new BitsInfo[] {
+                        new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                      }),
+    SM0_SNAPSHOT_ISR("Snapshot window: input shift register, see SM*N*_ISR.", 0,
+                     new BitsInfo[] {
+                       new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                     }),
+    SM0_SNAPSHOT_ISR_SHIFT_COUNT("Snapshot window: ISR shift count, see%n" +
+                                 "SM*N*_ISR_SHIFT_COUNT.", 0,
+                                 new BitsInfo[] {
+                                   new BitsInfo(null, 31, 0, null,
+                                                BitsType.RO, null)
+                                 }),
+    SM0_SNAPSHOT_OSR("Snapshot window: output shift register, see%n" +
+                     "SM*N*_OSR.", 0,
+                     new BitsInfo[] {
+                       new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                     }),
+    SM0_SNAPSHOT_OSR_SHIFT_COUNT("Snapshot window: OSR shift count, see%n" +
+                                 "SM*N*_OSR_SHIFT_COUNT.", 0,
+                                 new BitsInfo[] {
+                                   new BitsInfo(null, 31, 0, null,
+                                                BitsType.RO, null)
+                                 }),
+    SM0_SNAPSHOT_INSTR("Snapshot window: op-code of the currently executed%n" +
+                       "instruction, see SM*N*_INSTR of PIORegisters.", 0,
+                       new BitsInfo[] {
+                         new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                       }),
+    SM0_SNAPSHOT_INSTR_ORIGIN("Snapshot window: origin of the currently%n" +
+                              "executed instruction, see%n" +
+                              "SM*N*_INSTR_ORIGIN.", 0,
+                              new BitsInfo[] {
+                                new BitsInfo(null, 31, 0, null,
+                                             BitsType.RO, null)
+                              }),
+    SM0_SNAPSHOT_DELAY("Snapshot window: number of delay cycles of the%n" +
+                       "currently executed instruction, see SM*N*_DELAY.", 0,
+                       new BitsInfo[] {
+                         new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                       }),
+    SM0_SNAPSHOT_DELAY_CYCLE("Snapshot window: delay status, see%n" +
+                             "SM*N*_DELAY_CYCLE.", 0,
+                             new BitsInfo[] {
+                               new BitsInfo(null, 31, 0, null,
+                                            BitsType.RO, null)
+                             }),
+    SM0_SNAPSHOT_PENDING_DELAY("Snapshot window: number of pending delay%n" +
+                               "cycles, see SM*N*_PENDING_DELAY.", 0,
+                               new BitsInfo[] {
+                                 new BitsInfo(null, 31, 0, null,
+                                              BitsType.RO, null)
+                               }),
+    SM0_SNAPSHOT_CLK_ENABLE("Snapshot window: clock enable status, with bit%n" +
+                            "0 as of SM*N*_CLK_ENABLE and bit 1 as of%n" +
+                            "SM*N*_NEXT_CLK_ENABLE.", 0,
+                            new BitsInfo[] {
+                              new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                            }),
+    SM0_SNAPSHOT_FORCED_INSTR("Snapshot window: pending forced instruction,%n" +
+                              "see SM*N*_FORCED_INSTR.", 0,
+                              new BitsInfo[] {
+                                new BitsInfo(null, 31, 0, null,
+                                             BitsType.RO, null)
+                              }),
+    SM0_SNAPSHOT_EXECD_INSTR("Snapshot window: pending EXEC'd instruction,%n" +
+                             "see SM*N*_EXECD_INSTR.", 0,
+                             new BitsInfo[] {
+                               new BitsInfo(null, 31, 0, null,
+                                            BitsType.RO, null)
+                             }),
+    SM0_SNAPSHOT_FIFO_LEVELS("Snapshot window: FIFO levels, with the TX%n" +
+                             "FIFO level in bits 3:0 and the RX FIFO level%n" +
+                             "in bits 7:4.", 0,
+                             new BitsInfo[] {
+                               new BitsInfo(null, 31, 0, null,
+                                            BitsType.RO, null)
+                             }),
+    SM1_SNAPSHOT_WALLCLOCK(Regs.SM0_SNAPSHOT_WALLCLOCK, 1),
+    SM1_SNAPSHOT_PC(Regs.SM0_SNAPSHOT_PC, 1),
+    SM1_SNAPSHOT_REGX(Regs.SM0_SNAPSHOT_REGX, 1),
+    SM1_SNAPSHOT_REGY(Regs.SM0_SNAPSHOT_REGY, 1),
+    SM1_SNAPSHOT_ISR(Regs.SM0_SNAPSHOT_ISR, 1),
+    SM1_SNAPSHOT_ISR_SHIFT_COUNT(Regs.SM0_SNAPSHOT_ISR_SHIFT_COUNT, 1),
+    SM1_SNAPSHOT_OSR(Regs.SM0_SNAPSHOT_OSR, 1),
+    SM1_SNAPSHOT_OSR_SHIFT_COUNT(Regs.SM0_SNAPSHOT_OSR_SHIFT_COUNT, 1),
+    SM1_SNAPSHOT_INSTR(Regs.SM0_SNAPSHOT_INSTR, 1),
+    SM1_SNAPSHOT_INSTR_ORIGIN(Regs.SM0_SNAPSHOT_INSTR_ORIGIN, 1),
+    SM1_SNAPSHOT_DELAY(Regs.SM0_SNAPSHOT_DELAY, 1),
+    SM1_SNAPSHOT_DELAY_CYCLE(Regs.SM0_SNAPSHOT_DELAY_CYCLE, 1),
+    SM1_SNAPSHOT_PENDING_DELAY(Regs.SM0_SNAPSHOT_PENDING_DELAY, 1),
+    SM1_SNAPSHOT_CLK_ENABLE(Regs.SM0_SNAPSHOT_CLK_ENABLE, 1),
+    SM1_SNAPSHOT_FORCED_INSTR(Regs.SM0_SNAPSHOT_FORCED_INSTR, 1),
+    SM1_SNAPSHOT_EXECD_INSTR(Regs.SM0_SNAPSHOT_EXECD_INSTR, 1),
+    SM1_SNAPSHOT_FIFO_LEVELS(Regs.SM0_SNAPSHOT_FIFO_LEVELS, 1),
+    SM2_SNAPSHOT_WALLCLOCK(Regs.SM0_SNAPSHOT_WALLCLOCK, 2),
+    SM2_SNAPSHOT_PC(Regs.SM0_SNAPSHOT_PC, 2),
+    SM2_SNAPSHOT_REGX(Regs.SM0_SNAPSHOT_REGX, 2),
+    SM2_SNAPSHOT_REGY(Regs.SM0_SNAPSHOT_REGY, 2),
+    SM2_SNAPSHOT_ISR(Regs.SM0_SNAPSHOT_ISR, 2),
+    SM2_SNAPSHOT_ISR_SHIFT_COUNT(Regs.SM0_SNAPSHOT_ISR_SHIFT_COUNT, 2),
+    SM2_SNAPSHOT_OSR(Regs.SM0_SNAPSHOT_OSR, 2),
+    SM2_SNAPSHOT_OSR_SHIFT_COUNT(Regs.SM0_SNAPSHOT_OSR_SHIFT_COUNT, 2),
+    SM2_SNAPSHOT_INSTR(Regs.SM0_SNAPSHOT_INSTR, 2),
+    SM2_SNAPSHOT_INSTR_ORIGIN(Regs.SM0_SNAPSHOT_INSTR_ORIGIN, 2),
+    SM2_SNAPSHOT_DELAY(Regs.SM0_SNAPSHOT_DELAY, 2),
+    SM2_SNAPSHOT_DELAY_CYCLE(Regs.SM0_SNAPSHOT_DELAY_CYCLE, 2),
+    SM2_SNAPSHOT_PENDING_DELAY(Regs.SM0_SNAPSHOT_PENDING_DELAY, 2),
+    SM2_SNAPSHOT_CLK_ENABLE(Regs.SM0_SNAPSHOT_CLK_ENABLE, 2),
+    SM2_SNAPSHOT_FORCED_INSTR(Regs.SM0_SNAPSHOT_FORCED_INSTR, 2),
+    SM2_SNAPSHOT_EXECD_INSTR(Regs.SM0_SNAPSHOT_EXECD_INSTR, 2),
+    SM2_SNAPSHOT_FIFO_LEVELS(Regs.SM0_SNAPSHOT_FIFO_LEVELS, 2),
+    SM3_SNAPSHOT_WALLCLOCK(Regs.SM0_SNAPSHOT_WALLCLOCK, 3),
+    SM3_SNAPSHOT_PC(Regs.SM0_SNAPSHOT_PC, 3),
+    SM3_SNAPSHOT_REGX(Regs.SM0_SNAPSHOT_REGX, 3),
+    SM3_SNAPSHOT_REGY(Regs.SM0_SNAPSHOT_REGY, 3),
+    SM3_SNAPSHOT_ISR(Regs.SM0_SNAPSHOT_ISR, 3),
+    SM3_SNAPSHOT_ISR_SHIFT_COUNT(Regs.SM0_SNAPSHOT_ISR_SHIFT_COUNT, 3),
+    SM3_SNAPSHOT_OSR(Regs.SM0_SNAPSHOT_OSR, 3),
+    SM3_SNAPSHOT_OSR_SHIFT_COUNT(Regs.SM0_SNAPSHOT_OSR_SHIFT_COUNT, 3),
+    SM3_SNAPSHOT_INSTR(Regs.SM0_SNAPSHOT_INSTR, 3),
+    SM3_SNAPSHOT_INSTR_ORIGIN(Regs.SM0_SNAPSHOT_INSTR_ORIGIN, 3),
+    SM3_SNAPSHOT_DELAY(Regs.SM0_SNAPSHOT_DELAY, 3),
+    SM3_SNAPSHOT_DELAY_CYCLE(Regs.SM0_SNAPSHOT_DELAY_CYCLE, 3),
+    SM3_SNAPSHOT_PENDING_DELAY(Regs.SM0_SNAPSHOT_PENDING_DELAY, 3),
+    SM3_SNAPSHOT_CLK_ENABLE(Regs.SM0_SNAPSHOT_CLK_ENABLE, 3),
+    SM3_SNAPSHOT_FORCED_INSTR(Regs.SM0_SNAPSHOT_FORCED_INSTR, 3),
+    SM3_SNAPSHOT_EXECD_INSTR(Regs.SM0_SNAPSHOT_EXECD_INSTR, 3),
+    SM3_SNAPSHOT_FIFO_LEVELS(Regs.SM0_SNAPSHOT_FIFO_LEVELS, 3);
 
     public static String getRegisterSetLabel()
     {
@@ -592,6 +769,49 @@ public abstract class PIOEmuRegisters extends RegisterSet
       0x4 * (Regs.RXF0.ordinal() + smNum);
   }
 
+  public static int getConfigGenerationAddress(final int pioNum,
+                                               final int smNum)
+  {
+    Constants.checkPioNum(pioNum, "PIO index number");
+    Constants.checkSmNum(smNum);
+    return
+      Constants.getPIOEmuBaseAddress(pioNum) +
+      0x4 * (Regs.SM0_CONFIG_GENERATION.ordinal() + smNum);
+  }
+
+  public static int getFIFOGenerationAddress(final int pioNum,
+                                             final int smNum)
+  {
+    Constants.checkPioNum(pioNum, "PIO index number");
+    Constants.checkSmNum(smNum);
+    return
+      Constants.getPIOEmuBaseAddress(pioNum) +
+      0x4 * (Regs.SM0_FIFO_GENERATION.ordinal() + smNum);
+  }
+
+  /**
+   * Number of registers of each state machine's snapshot window.
+   */
+  public static final int SNAPSHOT_SIZE =
+    Regs.SM1_SNAPSHOT_WALLCLOCK.ordinal() -
+    Regs.SM0_SNAPSHOT_WALLCLOCK.ordinal();
+
+  /**
+   * Returns the address of the first register of the snapshot window
+   * of the specified state machine.  The window consists of
+   * SNAPSHOT_SIZE consecutive registers and should be read with a
+   * single bulk read (e.g. AddressSpace#readRange()), such that all
+   * values reflect the state between the same two clock phases.
+   */
+  public static int getSnapshotAddress(final int pioNum, final int smNum)
+  {
+    Constants.checkPioNum(pioNum, "PIO index number");
+    Constants.checkSmNum(smNum);
+    return
+      Constants.getPIOEmuBaseAddress(pioNum) +
+      0x4 * (Regs.SM0_SNAPSHOT_WALLCLOCK.ordinal() + smNum * SNAPSHOT_SIZE);
+  }
+
   public PIOEmuRegisters(final String id, final int baseAddress)
   {
     super(id, baseAddress);
@@ -294,6 +294,83 @@ public class PIOEmuRegistersImpl extends PIOEmuRegisters
       pio.getPIOGPIO().setPinDirsMask(value, mask, xor);
       break;
     case IRQ:
+    case INSTR_MEM_GENERATION:
+    case SM0_CONFIG_GENERATION:
+    case SM1_CONFIG_GENERATION:
+    case SM2_CONFIG_GENERATION:
+    case SM3_CONFIG_GENERATION:
+    case SM0_FIFO_GENERATION:
+    case SM1_FIFO_GENERATION:
+    case SM2_FIFO_GENERATION:
+    case SM3_FIFO_GENERATION:
+    case SM0_SNAPSHOT_WALLCLOCK:
+    case SM1_SNAPSHOT_WALLCLOCK:
+    case SM2_SNAPSHOT_WALLCLOCK:
+    case SM3_SNAPSHOT_WALLCLOCK:
+    case SM0_SNAPSHOT_PC:
+    case SM1_SNAPSHOT_PC:
+    case SM2_SNAPSHOT_PC:
+    case SM3_SNAPSHOT_PC:
+    case SM0_SNAPSHOT_REGX:
+    case SM1_SNAPSHOT_REGX:
+    case SM2_SNAPSHOT_REGX:
+    case SM3_SNAPSHOT_REGX:
+    case SM0_SNAPSHOT_REGY:
+    case SM1_SNAPSHOT_REGY:
+    case SM2_SNAPSHOT_REGY:
+    case SM3_SNAPSHOT_REGY:
+    case SM0_SNAPSHOT_ISR:
+    case SM1_SNAPSHOT_ISR:
+    case SM2_SNAPSHOT_ISR:
+    case SM3_SNAPSHOT_ISR:
+    case SM0_SNAPSHOT_ISR_SHIFT_COUNT:
+    case SM1_SNAPSHOT_ISR_SHIFT_COUNT:
+    case SM2_SNAPSHOT_ISR_SHIFT_COUNT:
+    case SM3_SNAPSHOT_ISR_SHIFT_COUNT:
+    case SM0_SNAPSHOT_OSR:
+    case SM1_SNAPSHOT_OSR:
+    case SM2_SNAPSHOT_OSR:
+    case SM3_SNAPSHOT_OSR:
+    case SM0_SNAPSHOT_OSR_SHIFT_COUNT:
+    case SM1_SNAPSHOT_OSR_SHIFT_COUNT:
+    case SM2_SNAPSHOT_OSR_SHIFT_COUNT:
+    case SM3_SNAPSHOT_OSR_SHIFT_COUNT:
+    case SM0_SNAPSHOT_INSTR:
+    case SM1_SNAPSHOT_INSTR:
+    case SM2_SNAPSHOT_INSTR:
+    case SM3_SNAPSHOT_INSTR:
+    case SM0_SNAPSHOT_INSTR_ORIGIN:
+    case SM1_SNAPSHOT_INSTR_ORIGIN:
+    case SM2_SNAPSHOT_INSTR_ORIGIN:
+    case SM3_SNAPSHOT_INSTR_ORIGIN:
+    case SM0_SNAPSHOT_DELAY:
+    case SM1_SNAPSHOT_DELAY:
+    case SM2_SNAPSHOT_DELAY:
+    case SM3_SNAPSHOT_DELAY:
+    case SM0_SNAPSHOT_DELAY_CYCLE:
+    case SM1_SNAPSHOT_DELAY_CYCLE:
+    case SM2_SNAPSHOT_DELAY_CYCLE:
+    case SM3_SNAPSHOT_DELAY_CYCLE:
+    case SM0_SNAPSHOT_PENDING_DELAY:
+    case SM1_SNAPSHOT_PENDING_DELAY:
+    case SM2_SNAPSHOT_PENDING_DELAY:
+    case SM3_SNAPSHOT_PENDING_DELAY:
+    case SM0_SNAPSHOT_CLK_ENABLE:
+    case SM1_SNAPSHOT_CLK_ENABLE:
+    case SM2_SNAPSHOT_CLK_ENABLE:
+    case SM3_SNAPSHOT_CLK_ENABLE:
+    case SM0_SNAPSHOT_FORCED_INSTR:
+    case SM1_SNAPSHOT_FORCED_INSTR:
+    case SM2_SNAPSHOT_FORCED_INSTR:
+    case SM3_SNAPSHOT_FORCED_INSTR:
+    case SM0_SNAPSHOT_EXECD_INSTR:
+    case SM1_SNAPSHOT_EXECD_INSTR:
+    case SM2_SNAPSHOT_EXECD_INSTR:
+    case SM3_SNAPSHOT_EXECD_INSTR:
+    case SM0_SNAPSHOT_FIFO_LEVELS:
+    case SM1_SNAPSHOT_FIFO_LEVELS:
+    case SM2_SNAPSHOT_FIFO_LEVELS:
+    case SM3_SNAPSHOT_FIFO_LEVELS:
       break; // read-only address
     default:
       throw new InternalError("unexpected case fall-through");
@@ -335,6 +412,54 @@ public class PIOEmuRegistersImpl extends PIOEmuRegisters
     return readPointers;
   }
 
+  private int readSnapshot(final int regsOffset)
+  {
+    final int smNum = regsOffset / SNAPSHOT_SIZE;
+    Constants.checkSmNum(smNum);
+    final SM sm = pio.getSM(smNum);
+    final Regs register =
+      REGS[Regs.SM0_SNAPSHOT_WALLCLOCK.ordinal() + regsOffset % SNAPSHOT_SIZE];
+    switch (register) {
+    case SM0_SNAPSHOT_WALLCLOCK:
+      return (int)pio.getMasterClock().getWallClock();
+    case SM0_SNAPSHOT_PC:
+      return sm.getPC();
+    case SM0_SNAPSHOT_REGX:
+      return sm.getX();
+    case SM0_SNAPSHOT_REGY:
+      return sm.getY();
+    case SM0_SNAPSHOT_ISR:
+      return sm.getISRValue();
+    case SM0_SNAPSHOT_ISR_SHIFT_COUNT:
+      return sm.getISRShiftCount();
+    case SM0_SNAPSHOT_OSR:
+      return sm.getOSRValue();
+    case SM0_SNAPSHOT_OSR_SHIFT_COUNT:
+      return sm.getOSRShiftCount();
+    case SM0_SNAPSHOT_INSTR:
+      return sm.getOpCode();
+    case SM0_SNAPSHOT_INSTR_ORIGIN:
+      return sm.getINSTR_ORIGIN();
+    case SM0_SNAPSHOT_DELAY:
+      return sm.getTotalDelay();
+    case SM0_SNAPSHOT_DELAY_CYCLE:
+      return sm.isDelayCycle() ? 0x1 : 0x0;
+    case SM0_SNAPSHOT_PENDING_DELAY:
+      return sm.getPendingDelay();
+    case SM0_SNAPSHOT_CLK_ENABLE:
+      return getClockEnable(smNum) | (getNextClockEnable(smNum) << 1);
+    case SM0_SNAPSHOT_FORCED_INSTR:
+      return sm.getFORCED_INSTR();
+    case SM0_SNAPSHOT_EXECD_INSTR:
+      return sm.getEXECD_INSTR();
+    case SM0_SNAPSHOT_FIFO_LEVELS:
+      final FIFO fifo = sm.getFIFO();
+      return (fifo.getTXLevel() & 0xf) | ((fifo.getRXLevel() & 0xf) << 4);
+    default:
+      throw new InternalError("unexpected case fall-through");
+    }
+  }
+
   @Override
   public synchronized int readRegister(final int regNum)
   {
@@ -545,6 +670,91 @@ public class PIOEmuRegistersImpl extends PIOEmuRegisters
       return pio.getPIOGPIO().getPinDirs(0, GPIO_NUM);
     case IRQ:
       return pio.getIRQ().getIRQ();
+    case INSTR_MEM_GENERATION:
+      return pio.getMemory().getGeneration();
+    case SM0_CONFIG_GENERATION:
+    case SM1_CONFIG_GENERATION:
+    case SM2_CONFIG_GENERATION:
+    case SM3_CONFIG_GENERATION:
+      return
+        pio.getSM(regNum - Regs.SM0_CONFIG_GENERATION.ordinal()).
+        getConfigGeneration();
+    case SM0_FIFO_GENERATION:
+    case SM1_FIFO_GENERATION:
+    case SM2_FIFO_GENERATION:
+    case SM3_FIFO_GENERATION:
+      return
+        pio.getSM(regNum - Regs.SM0_FIFO_GENERATION.ordinal()).getFIFO().
+        getGeneration();
+    case SM0_SNAPSHOT_WALLCLOCK:
+    case SM1_SNAPSHOT_WALLCLOCK:
+    case SM2_SNAPSHOT_WALLCLOCK:
+    case SM3_SNAPSHOT_WALLCLOCK:
+    case SM0_SNAPSHOT_PC:
+    case SM1_SNAPSHOT_PC:
+    case SM2_SNAPSHOT_PC:
+    case SM3_SNAPSHOT_PC:
+    case SM0_SNAPSHOT_REGX:
+    case SM1_SNAPSHOT_REGX:
+    case SM2_SNAPSHOT_REGX:
+    case SM3_SNAPSHOT_REGX:
+    case SM0_SNAPSHOT_REGY:
+    case SM1_SNAPSHOT_REGY:
+    case SM2_SNAPSHOT_REGY:
+    case SM3_SNAPSHOT_REGY:
+    case SM0_SNAPSHOT_ISR:
+    case SM1_SNAPSHOT_ISR:
+    case SM2_SNAPSHOT_ISR:
+    case SM3_SNAPSHOT_ISR:
+    case SM0_SNAPSHOT_ISR_SHIFT_COUNT:
+    case SM1_SNAPSHOT_ISR_SHIFT_COUNT:
+    case SM2_SNAPSHOT_ISR_SHIFT_COUNT:
+    case SM3_SNAPSHOT_ISR_SHIFT_COUNT:
+    case SM0_SNAPSHOT_OSR:
+    case SM1_SNAPSHOT_OSR:
+    case SM2_SNAPSHOT_OSR:
+    case SM3_SNAPSHOT_OSR:
+    case SM0_SNAPSHOT_OSR_SHIFT_COUNT:
+    case SM1_SNAPSHOT_OSR_SHIFT_COUNT:
+    case SM2_SNAPSHOT_OSR_SHIFT_COUNT:
+    case SM3_SNAPSHOT_OSR_SHIFT_COUNT:
+    case SM0_SNAPSHOT_INSTR:
+    case SM1_SNAPSHOT_INSTR:
+    case SM2_SNAPSHOT_INSTR:
+    case SM3_SNAPSHOT_INSTR:
+    case SM0_SNAPSHOT_INSTR_ORIGIN:
+    case SM1_SNAPSHOT_INSTR_ORIGIN:
+    case SM2_SNAPSHOT_INSTR_ORIGIN:
+    case SM3_SNAPSHOT_INSTR_ORIGIN:
+    case SM0_SNAPSHOT_DELAY:
+    case SM1_SNAPSHOT_DELAY:
+    case SM2_SNAPSHOT_DELAY:
+    case SM3_SNAPSHOT_DELAY:
+    case SM0_SNAPSHOT_DELAY_CYCLE:
+    case SM1_SNAPSHOT_DELAY_CYCLE:
+    case SM2_SNAPSHOT_DELAY_CYCLE:
+    case SM3_SNAPSHOT_DELAY_CYCLE:
+    case SM0_SNAPSHOT_PENDING_DELAY:
+    case SM1_SNAPSHOT_PENDING_DELAY:
+    case SM2_SNAPSHOT_PENDING_DELAY:
+    case SM3_SNAPSHOT_PENDING_DELAY:
+    case SM0_SNAPSHOT_CLK_ENABLE:
+    case SM1_SNAPSHOT_CLK_ENABLE:
+    case SM2_SNAPSHOT_CLK_ENABLE:
+    case SM3_SNAPSHOT_CLK_ENABLE:
+    case SM0_SNAPSHOT_FORCED_INSTR:
+    case SM1_SNAPSHOT_FORCED_INSTR:
+    case SM2_SNAPSHOT_FORCED_INSTR:
+    case SM3_SNAPSHOT_FORCED_INSTR:
+    case SM0_SNAPSHOT_EXECD_INSTR:
+    case SM1_SNAPSHOT_EXECD_INSTR:
+    case SM2_SNAPSHOT_EXECD_INSTR:
+    case SM3_SNAPSHOT_EXECD_INSTR:
+    case SM0_SNAPSHOT_FIFO_LEVELS:
+    case SM1_SNAPSHOT_FIFO_LEVELS:
+    case SM2_SNAPSHOT_FIFO_LEVELS:
+    case SM3_SNAPSHOT_FIFO_LEVELS:
+      return readSnapshot(regNum - Regs.SM0_SNAPSHOT_WALLCLOCK.ordinal());
     default:
       throw new InternalError("unexpected case fall-through");
     }
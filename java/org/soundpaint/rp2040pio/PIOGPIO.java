@@ -24,6 +24,10 @@
  */
 package org.soundpaint.rp2040pio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * General-Purpose Set of 32 Peripheral I/O Terminals
  */
@@ -60,6 +64,39 @@ public class PIOGPIO implements Constants
     }
   }
 
+  /**
+   * Writes collated and applied pin states to the specified output.
+   * Pins without a collated level or direction are written as -1.
+   */
+  public void saveState(final DataOutput out) throws IOException
+  {
+    for (int gpioNum = 0; gpioNum < GPIO_NUM; gpioNum++) {
+      final Bit collatedLevel = collatedLevels[gpioNum];
+      final Direction collatedDirection = collatedDirections[gpioNum];
+      final PinState appliedState = appliedStates[gpioNum];
+      out.writeInt(collatedLevel != null ? collatedLevel.getValue() : -1);
+      out.writeInt(collatedDirection != null ?
+                   collatedDirection.getValue() : -1);
+      out.writeInt(appliedState.getDirection().getValue());
+      out.writeInt(appliedState.getLevel().getValue());
+    }
+  }
+
+  public void restoreState(final DataInput in) throws IOException
+  {
+    for (int gpioNum = 0; gpioNum < GPIO_NUM; gpioNum++) {
+      final int collatedLevel = in.readInt();
+      final int collatedDirection = in.readInt();
+      final Direction direction = Direction.fromValue(in.readInt());
+      final Bit level = Bit.fromValue(in.readInt());
+      collatedLevels[gpioNum] =
+        collatedLevel >= 0 ? Bit.fromValue(collatedLevel) : null;
+      collatedDirections[gpioNum] =
+        collatedDirection >= 0 ? Direction.fromValue(collatedDirection) : null;
+      appliedStates[gpioNum] = PinState.fromValues(direction, level);
+    }
+  }
+
   public GPIO getGPIO() { return gpio; }
 
   private void setLevel(final int gpioNum, final Bit level)
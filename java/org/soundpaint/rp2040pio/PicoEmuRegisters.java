@@ -135,7 +135,368 @@ public abstract class PicoEmuRegisters extends RegisterSet
                                       "signal value 0x0 or 0x1, as%n" +
                                       "provided by some external source.",
                                       BitsType.RW, 0))
-               .collect(Collectors.toList()));
+               .collect(Collectors.toList())),
+    SERVER_ACTIVE_CONNECTIONS("Number of currently open connections of the%n" +
+                              "server that hosts the emulator, or 0, if%n" +
+                              "the emulator is not hosted by a server.",
+                              new BitsInfo[] {
+                                new BitsInfo(null, 31, 0, null,
+                                             BitsType.RO, null)
+                              }),
+    SERVER_TOTAL_CONNECTIONS("Lower 32 bits of the number of connections%n" +
+                             "that have been opened since the server has%n" +
+                             "been started.",
+                             new BitsInfo[] {
+                               new BitsInfo(null, 31, 0, null,
+                                            BitsType.RO, null)
+                             }),
+    SERVER_BYTES_IN("Lower 32 bits of the number of bytes that the%n" +
+                    "server has received from all of its clients.",
+                    new BitsInfo[] {
+                      new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                    }),
+    SERVER_BYTES_OUT("Lower 32 bits of the number of bytes that the%n" +
+                     "server has sent to all of its clients.",
+                     new BitsInfo[] {
+                       new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                     }),
+    SERVER_WAIT_MILLIS("Lower 32 bits of the accumulated time in%n" +
+                       "milliseconds that server threads have been%n" +
+                       "blocked in requests waiting for a register%n" +
+                       "value.",
+                       new BitsInfo[] {
+                         new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                       }),
+    SERVER_METRICS_SELECT("Selects the server command and the latency%n" +
+                          "histogram bucket that the registers%n" +
+                          "SERVER_REQUEST_COUNT, SERVER_REQUEST_MICROS%n" +
+                          "and SERVER_REQUEST_HISTOGRAM refer to.",
+                          new BitsInfo[] {
+                            new BitsInfo(null, 31, 13, null,
+                                         BitsType.RESERVED, null),
+                            new BitsInfo("BUCKET", 12, 8,
+                                          "Histogram bucket.  Bucket 0%n" +
+                                          "counts requests that took less%n" +
+                                          "than 1µs.  Bucket k > 0 counts%n" +
+                                          "requests that took at least%n" +
+                                          "2^(k-1)µs, but less than 2^kµs,%n" +
+                                          "except for bucket 31, which%n" +
+                                          "counts all remaining requests.",
+                                          BitsType.RW, 0),
+                            new BitsInfo(null, 7, 7, null,
+                                         BitsType.RESERVED, null),
+                            new BitsInfo("COMMAND", 6, 0,
+                                         "ASCII code of the server command%n" +
+                                         "character, e.g. 0x72 for the%n" +
+                                         "read command \"r\".",
+                                         BitsType.RW, 0)
+                          }),
+    SERVER_REQUEST_COUNT("Lower 32 bits of the number of requests of the%n" +
+                         "command selected by SERVER_METRICS_SELECT.",
+                         new BitsInfo[] {
+                           new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                         }),
+    SERVER_REQUEST_MICROS("Lower 32 bits of the accumulated latency in%n" +
+                          "µs of all requests of the command selected by%n" +
+                          "SERVER_METRICS_SELECT.",
+                          new BitsInfo[] {
+                            new BitsInfo(null, 31, 0, null,
+                                         BitsType.RO, null)
+                          }),
+    SERVER_REQUEST_HISTOGRAM("Lower 32 bits of the number of requests of%n" +
+                             "the command selected by SERVER_METRICS_SELECT%n" +
+                             "with a latency that falls into the histogram%n" +
+                             "bucket selected by SERVER_METRICS_SELECT.",
+                             new BitsInfo[] {
+                               new BitsInfo(null, 31, 0, null,
+                                            BitsType.RO, null)
+                             }),
+    WRITE_GENERATION("Lower 32 bits of the number of register accesses%n" +
+                     "so far that may have changed the state of the%n" +
+                     "emulator other than by a clock phase, i.e. all%n" +
+                     "register writes and all reads of registers that%n" +
+                     "trigger a function (like popping a FIFO).  Clients%n" +
+                     "that cache register values compare this value%n" +
+                     "together with the wall clock and clock phase to%n" +
+                     "detect whether their cached values are still valid.",
+                     new BitsInfo[] {
+                       new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                     }),
+    GPIO_CONFIG_GENERATION("Counter that is incremented upon each%n" +
+                           "modification of the GPIO configuration, i.e.%n" +
+                           "function select, overrides or input sync%n" +
+                           "bypass of any of the GPIO pins.",
+                           new BitsInfo[] {
+                             new BitsInfo(null, 31, 0, null,
+                                          BitsType.RO, null)
+                           }),
+    GPIO_OUT_FROM_PERI("Each bit of this value represents the%n" +
+                       "corresponding output signal from the selected%n" +
+                       "peripheral of the 32 GPIO pins, before register%n" +
+                       "override is applied.  Same as the respective bit%n" +
+                       "of IO_BANK0 GPIOx_STATUS, but packed for all pins%n" +
+                       "into a single word.",
+                       IntStream.rangeClosed(0, 31).boxed()
+                       .map(n -> new BitsInfo("OUTFROMPERI_GPIO" + (31 - n),
+                                              31 - n, 31 - n,
+                                              "output signal 0x0 or 0x1%n" +
+                                              "from the peripheral.",
+                                              BitsType.RO, null))
+                       .collect(Collectors.toList())),
+    GPIO_OUT_TO_PAD("Each bit of this value represents the corresponding%n" +
+                    "output signal to the pad of the 32 GPIO pins, after%n" +
+                    "register override is applied.  Same as the respective%n" +
+                    "bit of IO_BANK0 GPIOx_STATUS, but packed for all pins%n" +
+                    "into a single word.",
+                    IntStream.rangeClosed(0, 31).boxed()
+                    .map(n -> new BitsInfo("OUTTOPAD_GPIO" + (31 - n),
+                                           31 - n, 31 - n,
+                                           "output signal 0x0 or 0x1 to the%n" +
+                                           "pad.",
+                                           BitsType.RO, null))
+                    .collect(Collectors.toList())),
+    GPIO_OE_FROM_PERI("Each bit of this value represents the corresponding%n" +
+                      "output enable from the selected peripheral of the%n" +
+                      "32 GPIO pins, before register override is applied.%n" +
+                      "Same as the respective bit of IO_BANK0%n" +
+                      "GPIOx_STATUS, but packed for all pins into a single%n" +
+                      "word.",
+                      IntStream.rangeClosed(0, 31).boxed()
+                      .map(n -> new BitsInfo("OEFROMPERI_GPIO" + (31 - n),
+                                             31 - n, 31 - n,
+                                             "output enable 0x0 or 0x1 from%n" +
+                                             "the peripheral.",
+                                             BitsType.RO, null))
+                      .collect(Collectors.toList())),
+    GPIO_OE_TO_PAD("Each bit of this value represents the corresponding%n" +
+                   "output enable to the pad of the 32 GPIO pins, after%n" +
+                   "register override is applied.  Same as the respective%n" +
+                   "bit of IO_BANK0 GPIOx_STATUS, but packed for all pins%n" +
+                   "into a single word.",
+                   IntStream.rangeClosed(0, 31).boxed()
+                   .map(n -> new BitsInfo("OETOPAD_GPIO" + (31 - n),
+                                          31 - n, 31 - n,
+                                          "output enable 0x0 or 0x1 to the%n" +
+                                          "pad.",
+                                          BitsType.RO, null))
+                   .collect(Collectors.toList())),
+    GPIO_IN_FROM_PAD("Each bit of this value represents the corresponding%n" +
+                     "input signal from the pad of the 32 GPIO pins,%n" +
+                     "before register override is applied.  Same as the%n" +
+                     "respective bit of IO_BANK0 GPIOx_STATUS, but packed%n" +
+                     "for all pins into a single word.",
+                     IntStream.rangeClosed(0, 31).boxed()
+                     .map(n -> new BitsInfo("INFROMPAD_GPIO" + (31 - n),
+                                            31 - n, 31 - n,
+                                            "input signal 0x0 or 0x1 from%n" +
+                                            "the pad.",
+                                            BitsType.RO, null))
+                     .collect(Collectors.toList())),
+    GPIO_IN_TO_PERI("Each bit of this value represents the corresponding%n" +
+                    "input signal to the peripherals of the 32 GPIO pins,%n" +
+                    "after register override is applied.  Same as the%n" +
+                    "respective bit of IO_BANK0 GPIOx_STATUS, but packed%n" +
+                    "for all pins into a single word.",
+                    IntStream.rangeClosed(0, 31).boxed()
+                    .map(n -> new BitsInfo("INTOPERI_GPIO" + (31 - n),
+                                           31 - n, 31 - n,
+                                           "input signal 0x0 or 0x1 to the%n" +
+                                           "peripherals.",
+                                           BitsType.RO, null))
+                    .collect(Collectors.toList())),
+    PHASE_SEQUENCE("Lower 32 bits of the master clock's phase sequence%n" +
+                   "counter, which is incremented once when a clock%n" +
+                   "phase starts, and once again when it has completed.%n" +
+                   "A group of registers has been read from the same%n" +
+                   "stable phase, if this register, read immediately%n" +
+                   "before and after the group, has the same even value%n" +
+                   "both times.",
+                   new BitsInfo[] {
+                     new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                   }),
+    CYCLE_HISTORY_CAPACITY("Number of most recent clock cycles to record in%n" +
+                           "the emulator's cycle history, which can be%n" +
+                           "retrieved in bulk via the address space's%n" +
+                           "method readCycleHistory().  Writing to this%n" +
+                           "register discards all cycles recorded so far.%n" +
+                           "A value of 0 disables recording.  Values above%n" +
+                           "0x100000 are ignored.",
+                           new BitsInfo[] {
+                             new BitsInfo(null, 31, 0, null, BitsType.RW, 0)
+                           }),
+    VCD_CTRL("Control of streaming value changes of selected%n" +
+             "signals into a file in VCD format.  The file is%n" +
+             "written by the emulation server; its path is%n" +
+             "configured on the server's command line.  Setting%n" +
+             "bit ENABLE starts a new file, clearing it finishes%n" +
+             "the file.  Modifying any of the other bits while%n" +
+             "recording finishes the current file and starts a%n" +
+             "new one.",
+             new BitsInfo[] {
+               new BitsInfo(null, 31, 5, null, BitsType.RESERVED, null),
+               new BitsInfo("XY", 4, 4,
+                            "record X and Y registers of all SMs.",
+                            BitsType.RW, 0),
+               new BitsInfo("PC", 3, 3,
+                            "record PC of all SMs.",
+                            BitsType.RW, 1),
+               new BitsInfo("PINDIRS", 2, 2,
+                            "record output enable of the GPIO pins%n" +
+                            "selected by VCD_PINS.",
+                            BitsType.RW, 1),
+               new BitsInfo("PINS", 1, 1,
+                            "record level of the GPIO pins selected by%n" +
+                            "VCD_PINS.",
+                            BitsType.RW, 1),
+               new BitsInfo("ENABLE", 0, 0,
+                            "0x1, if recording is in progress.",
+                            BitsType.RW, 0)
+             }),
+    VCD_PINS("Each bit of this value selects the corresponding%n" +
+             "GPIO pin for VCD recording, see VCD_CTRL.  Modifying%n" +
+             "this value while recording finishes the current file%n" +
+             "and starts a new one.",
+             new BitsInfo[] {
+               new BitsInfo(null, 31, 0, null, BitsType.RW, 0xffffffff)
+             }),
+    TIME_TRAVEL_INTERVAL("Number of cycles between two checkpoints of the%n" +
+                         "complete emulation state for time travel.  A%n" +
+                         "value of 0 disables time travel.  Writing to%n" +
+                         "this register discards all checkpoints and%n" +
+                         "recorded inputs; the first checkpoint is taken%n" +
+                         "at the start of the next cycle.  Travelling to%n" +
+                         "some cycle re-executes at most this number of%n" +
+                         "cycles.",
+                         new BitsInfo[] {
+                           new BitsInfo(null, 31, 0, null, BitsType.RW, 0)
+                         }),
+    TIME_TRAVEL_BUDGET("Memory budget for time travel checkpoints in KiB.%n" +
+                       "If exceeded, the oldest checkpoints are discarded.%n" +
+                       "A value of 0 is ignored.",
+                       new BitsInfo[] {
+                         new BitsInfo(null, 31, 0, null, BitsType.RW,
+                                      TimeTravel.DEFAULT_BUDGET_KIB)
+                       }),
+    TIME_TRAVEL_STEP_BACK("When master clock is in single step mode,%n" +
+                          "writing an unsigned value n to this address%n" +
+                          "travels back n cycles, i.e. to the start of%n" +
+                          "cycle WALLCLOCK - n, or to the earliest%n" +
+                          "reachable cycle, if that cycle is not%n" +
+                          "reachable.",
+                          new BitsInfo[] {
+                            new BitsInfo(null, 31, 0, null,
+                                         BitsType.WF, null)
+                          }),
+    TIME_TRAVEL_TARGET_MSB("MSB value (upper 32 bits) of the target cycle%n" +
+                           "for a travel that is triggered by writing%n" +
+                           "to TIME_TRAVEL_TARGET_LSB.",
+                           new BitsInfo[] {
+                             new BitsInfo(null, 31, 0, null, BitsType.RW, 0)
+                           }),
+    TIME_TRAVEL_TARGET_LSB("When master clock is in single step mode,%n" +
+                           "writing a value to this address travels to%n" +
+                           "the start of the cycle with the written value%n" +
+                           "as lower 32 bits and TIME_TRAVEL_TARGET_MSB%n" +
+                           "as upper 32 bits, or to the closest reachable%n" +
+                           "cycle, if that cycle is not reachable.",
+                           new BitsInfo[] {
+                             new BitsInfo(null, 31, 0, null,
+                                          BitsType.WF, null)
+                           }),
+    TIME_TRAVEL_EARLIEST_LSB("LSB value (lower 32 bits) of the earliest%n" +
+                             "cycle that can be travelled to, or%n" +
+                             "0xffffffff, if there is none.",
+                             new BitsInfo[] {
+                               new BitsInfo(null, 31, 0, null,
+                                            BitsType.RO, null)
+                             }),
+    TIME_TRAVEL_EARLIEST_MSB("MSB value (upper 32 bits) of the earliest%n" +
+                             "cycle that can be travelled to, or%n" +
+                             "0xffffffff, if there is none.",
+                             new BitsInfo[] {
+                               new BitsInfo(null, 31, 0, null,
+                                            BitsType.RO, null)
+                             }),
+    TIME_TRAVEL_LATEST_LSB("LSB value (lower 32 bits) of the latest cycle%n" +
+                           "that can be travelled to, or 0xffffffff, if%n" +
+                           "there is none.  After travelling back, cycles%n" +
+                           "up to this one can be travelled to again,%n" +
+                           "unless the history is overwritten by new%n" +
+                           "input.",
+                           new BitsInfo[] {
+                             new BitsInfo(null, 31, 0, null,
+                                          BitsType.RO, null)
+                           }),
+    TIME_TRAVEL_LATEST_MSB("MSB value (upper 32 bits) of the latest cycle%n" +
+                           "that can be travelled to, or 0xffffffff, if%n" +
+                           "there is none.",
+                           new BitsInfo[] {
+                             new BitsInfo(null, 31, 0, null,
+                                          BitsType.RO, null)
+                           }),
+    RECORDER_CTRL("Control of the headless trace recorder, that%n" +
+                  "records the level and output enable of all GPIO%n" +
+                  "pins and the PC of all SMs for each cycle into an%n" +
+                  "off-heap trace store.",
+                  new BitsInfo[] {
+                    new BitsInfo(null, 31, 1, null, BitsType.RESERVED, null),
+                    new BitsInfo("ENABLE", 0, 0,
+                                 "0x1, if recording is in progress.%n" +
+                                 "Setting this bit discards all values%n" +
+                                 "recorded so far and starts a new%n" +
+                                 "recording.  Clearing it stops recording,%n" +
+                                 "but keeps the recorded values for queries.",
+                                 BitsType.RW, 0)
+                  }),
+    RECORDER_FIRST_LSB("LSB value (lower 32 bits) of the first cycle%n" +
+                       "recorded by the trace recorder, or 0xffffffff,%n" +
+                       "if there is none.",
+                       new BitsInfo[] {
+                         new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                       }),
+    RECORDER_FIRST_MSB("MSB value (upper 32 bits) of the first cycle%n" +
+                       "recorded by the trace recorder, or 0xffffffff,%n" +
+                       "if there is none.",
+                       new BitsInfo[] {
+                         new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                       }),
+    RECORDER_LAST_LSB("LSB value (lower 32 bits) of the last cycle%n" +
+                      "recorded by the trace recorder, or 0xffffffff,%n" +
+                      "if there is none.",
+                      new BitsInfo[] {
+                        new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                      }),
+    RECORDER_LAST_MSB("MSB value (upper 32 bits) of the last cycle%n" +
+                      "recorded by the trace recorder, or 0xffffffff,%n" +
+                      "if there is none.",
+                      new BitsInfo[] {
+                        new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                      }),
+    RECORDER_SELECT("Selects the signal to be returned by%n" +
+                    "RECORDER_VALUE: 0 for the level of all GPIO pins,%n" +
+                    "1 for the output enable of all GPIO pins, and%n" +
+                    "2 + 4 * PIO number + SM number for the PC of an SM.",
+                    new BitsInfo[] {
+                      new BitsInfo(null, 31, 4, null, BitsType.RESERVED, null),
+                      new BitsInfo(null, 3, 0, null, BitsType.RW, 0)
+                    }),
+    RECORDER_CYCLE_LSB("LSB value (lower 32 bits) of the cycle to be%n" +
+                       "returned by RECORDER_VALUE.",
+                       new BitsInfo[] {
+                         new BitsInfo(null, 31, 0, null, BitsType.RW, 0)
+                       }),
+    RECORDER_CYCLE_MSB("MSB value (upper 32 bits) of the cycle to be%n" +
+                       "returned by RECORDER_VALUE.",
+                       new BitsInfo[] {
+                         new BitsInfo(null, 31, 0, null, BitsType.RW, 0)
+                       }),
+    RECORDER_VALUE("Value of the signal selected by RECORDER_SELECT%n" +
+                   "at the cycle specified by RECORDER_CYCLE_LSB and%n" +
+                   "RECORDER_CYCLE_MSB, or 0, if that cycle has not%n" +
+                   "been recorded.",
+                   new BitsInfo[] {
+                     new BitsInfo(null, 31, 0, null, BitsType.RO, null)
+                   });
 
     public static String getRegisterSetLabel()
     {
@@ -230,6 +591,30 @@ public abstract class PicoEmuRegisters extends RegisterSet
   {
     super("PicoEmu", EMULATOR_BASE);
   }
+
+  /**
+   * Server statistics and the write generation counter change
+   * independently from emulation and therefore must not be cached.
+   */
+  @Override
+  public boolean isCacheable(final int regNum)
+  {
+    checkRegNum(regNum);
+    switch (REGS[regNum]) {
+    case SERVER_ACTIVE_CONNECTIONS:
+    case SERVER_TOTAL_CONNECTIONS:
+    case SERVER_BYTES_IN:
+    case SERVER_BYTES_OUT:
+    case SERVER_WAIT_MILLIS:
+    case SERVER_REQUEST_COUNT:
+    case SERVER_REQUEST_MICROS:
+    case SERVER_REQUEST_HISTOGRAM:
+    case WRITE_GENERATION:
+      return false;
+    default:
+      return super.isCacheable(regNum);
+    }
+  }
 }
 
 /*
@@ -35,10 +35,18 @@ import org.soundpaint.rp2040pio.Clock;
 public class PicoEmuRegistersImpl extends PicoEmuRegisters
 {
   private final Emulator emulator;
+  private int serverMetricsSelect;
+  private int timeTravelTargetMSB;
+  private int recorderSelect;
+  private long recorderCycle;
 
   public PicoEmuRegistersImpl(final Emulator emulator)
   {
     this.emulator = emulator;
+    serverMetricsSelect = 0;
+    timeTravelTargetMSB = 0;
+    recorderSelect = 0;
+    recorderCycle = 0;
   }
 
   public Emulator getEmulator() { return emulator; }
@@ -71,6 +79,151 @@ public class PicoEmuRegistersImpl extends PicoEmuRegisters
     case GPIO_PADIN:
       emulator.getGPIO().setGPIO_PADIN(value, mask, xor);
       break;
+    case SERVER_METRICS_SELECT:
+      serverMetricsSelect =
+        Constants.hwSetBits(serverMetricsSelect, value, mask, xor) & 0x1f7f;
+      break;
+    case SERVER_ACTIVE_CONNECTIONS:
+    case SERVER_TOTAL_CONNECTIONS:
+    case SERVER_BYTES_IN:
+    case SERVER_BYTES_OUT:
+    case SERVER_WAIT_MILLIS:
+    case SERVER_REQUEST_COUNT:
+    case SERVER_REQUEST_MICROS:
+    case SERVER_REQUEST_HISTOGRAM:
+    case WRITE_GENERATION:
+    case GPIO_CONFIG_GENERATION:
+    case GPIO_OUT_FROM_PERI:
+    case GPIO_OUT_TO_PAD:
+    case GPIO_OE_FROM_PERI:
+    case GPIO_OE_TO_PAD:
+    case GPIO_IN_FROM_PAD:
+    case GPIO_IN_TO_PERI:
+    case PHASE_SEQUENCE:
+      break; // read-only address
+    case CYCLE_HISTORY_CAPACITY:
+      setCycleHistoryCapacity(Constants.hwSetBits(emulator.getCycleHistory().
+                                                  getCapacity(),
+                                                  value, mask, xor));
+      break;
+    case VCD_CTRL:
+      emulator.getVcdWriter().
+        setCtrl(Constants.hwSetBits(emulator.getVcdWriter().getCtrl(),
+                                    value, mask, xor));
+      break;
+    case VCD_PINS:
+      emulator.getVcdWriter().
+        setPinMask(Constants.hwSetBits(emulator.getVcdWriter().getPinMask(),
+                                       value, mask, xor));
+      break;
+    case TIME_TRAVEL_INTERVAL:
+      setTimeTravelInterval(Constants.hwSetBits(emulator.getTimeTravel().
+                                                getInterval(),
+                                                value, mask, xor));
+      break;
+    case TIME_TRAVEL_BUDGET:
+      setTimeTravelBudget(Constants.hwSetBits(emulator.getTimeTravel().
+                                              getBudgetKiB(),
+                                              value, mask, xor));
+      break;
+    case TIME_TRAVEL_STEP_BACK:
+      emulator.getTimeTravel().
+        stepBack((int)Math.min(value & 0xffffffffL, Integer.MAX_VALUE));
+      break;
+    case TIME_TRAVEL_TARGET_MSB:
+      timeTravelTargetMSB =
+        Constants.hwSetBits(timeTravelTargetMSB, value, mask, xor);
+      break;
+    case TIME_TRAVEL_TARGET_LSB:
+      emulator.getTimeTravel().
+        travelTo(((long)timeTravelTargetMSB << 32) | (value & 0xffffffffL));
+      break;
+    case TIME_TRAVEL_EARLIEST_LSB:
+    case TIME_TRAVEL_EARLIEST_MSB:
+    case TIME_TRAVEL_LATEST_LSB:
+    case TIME_TRAVEL_LATEST_MSB:
+      break; // read-only address
+    case RECORDER_CTRL:
+      emulator.getTraceRecorder().
+        setEnabled((Constants.hwSetBits(emulator.getTraceRecorder().
+                                        isEnabled() ? 0x1 : 0x0,
+                                        value, mask, xor) & 0x1) != 0x0);
+      break;
+    case RECORDER_FIRST_LSB:
+    case RECORDER_FIRST_MSB:
+    case RECORDER_LAST_LSB:
+    case RECORDER_LAST_MSB:
+      break; // read-only address
+    case RECORDER_SELECT:
+      recorderSelect =
+        Constants.hwSetBits(recorderSelect, value, mask, xor) & 0xf;
+      break;
+    case RECORDER_CYCLE_LSB:
+      recorderCycle =
+        (recorderCycle & 0xffffffff00000000L) |
+        (Constants.hwSetBits((int)recorderCycle, value, mask, xor) &
+         0xffffffffL);
+      break;
+    case RECORDER_CYCLE_MSB:
+      recorderCycle =
+        ((long)Constants.hwSetBits((int)(recorderCycle >>> 32),
+                                   value, mask, xor) << 32) |
+        (recorderCycle & 0xffffffffL);
+      break;
+    case RECORDER_VALUE:
+      break; // read-only address
+    default:
+      throw new InternalError("unexpected case fall-through");
+    }
+  }
+
+  private void setCycleHistoryCapacity(final int capacity)
+  {
+    if ((capacity < 0) || (capacity > CycleHistory.MAX_CAPACITY)) {
+      return; // ignore invalid value
+    }
+    emulator.getCycleHistory().setCapacity(capacity);
+  }
+
+  private void setTimeTravelInterval(final int interval)
+  {
+    if (interval < 0) {
+      return; // ignore invalid value
+    }
+    emulator.getTimeTravel().setInterval(interval);
+  }
+
+  private void setTimeTravelBudget(final int budgetKiB)
+  {
+    if (budgetKiB < 1) {
+      return; // ignore invalid value
+    }
+    emulator.getTimeTravel().setBudgetKiB(budgetKiB);
+  }
+
+  private int readServerMetrics(final Regs register)
+  {
+    final ServerMetrics metrics = emulator.getServerMetrics();
+    if (metrics == null) return 0;
+    final char command = (char)(serverMetricsSelect & 0x7f);
+    final int bucket = (serverMetricsSelect >>> 8) & 0x1f;
+    switch (register) {
+    case SERVER_ACTIVE_CONNECTIONS:
+      return metrics.getActiveConnections();
+    case SERVER_TOTAL_CONNECTIONS:
+      return (int)metrics.getTotalConnections();
+    case SERVER_BYTES_IN:
+      return (int)metrics.getBytesIn();
+    case SERVER_BYTES_OUT:
+      return (int)metrics.getBytesOut();
+    case SERVER_WAIT_MILLIS:
+      return (int)(metrics.getWaitNanos() / 1000000);
+    case SERVER_REQUEST_COUNT:
+      return (int)metrics.getRequestCount(command);
+    case SERVER_REQUEST_MICROS:
+      return (int)(metrics.getRequestNanos(command) / 1000);
+    case SERVER_REQUEST_HISTOGRAM:
+      return (int)metrics.getHistogramCount(command, bucket);
     default:
       throw new InternalError("unexpected case fall-through");
     }
@@ -102,6 +255,77 @@ public class PicoEmuRegistersImpl extends PicoEmuRegisters
       return (int)(emulator.getMasterClock().getWallClock() >>> 32);
     case GPIO_PADIN:
       return emulator.getGPIO().getGPIO_PADIN();
+    case SERVER_METRICS_SELECT:
+      return serverMetricsSelect;
+    case SERVER_ACTIVE_CONNECTIONS:
+    case SERVER_TOTAL_CONNECTIONS:
+    case SERVER_BYTES_IN:
+    case SERVER_BYTES_OUT:
+    case SERVER_WAIT_MILLIS:
+    case SERVER_REQUEST_COUNT:
+    case SERVER_REQUEST_MICROS:
+    case SERVER_REQUEST_HISTOGRAM:
+      return readServerMetrics(register);
+    case WRITE_GENERATION:
+      return (int)emulator.getWriteGeneration();
+    case GPIO_CONFIG_GENERATION:
+      return emulator.getGPIO().getConfigGeneration();
+    case GPIO_OUT_FROM_PERI:
+      return emulator.getGPIO().getOutFromPeripheralPins();
+    case GPIO_OUT_TO_PAD:
+      return emulator.getGPIO().getOutToPadPins();
+    case GPIO_OE_FROM_PERI:
+      return emulator.getGPIO().getOeFromPeripheralPins();
+    case GPIO_OE_TO_PAD:
+      return emulator.getGPIO().getOeToPadPins();
+    case GPIO_IN_FROM_PAD:
+      return emulator.getGPIO().getInFromPadPins();
+    case GPIO_IN_TO_PERI:
+      return emulator.getGPIO().getInToPeriPins();
+    case PHASE_SEQUENCE:
+      return (int)emulator.getMasterClock().getPhaseSequence();
+    case CYCLE_HISTORY_CAPACITY:
+      return emulator.getCycleHistory().getCapacity();
+    case VCD_CTRL:
+      return emulator.getVcdWriter().getCtrl();
+    case VCD_PINS:
+      return emulator.getVcdWriter().getPinMask();
+    case TIME_TRAVEL_INTERVAL:
+      return emulator.getTimeTravel().getInterval();
+    case TIME_TRAVEL_BUDGET:
+      return emulator.getTimeTravel().getBudgetKiB();
+    case TIME_TRAVEL_STEP_BACK:
+    case TIME_TRAVEL_TARGET_LSB:
+      return 0; // write-only address
+    case TIME_TRAVEL_TARGET_MSB:
+      return timeTravelTargetMSB;
+    case TIME_TRAVEL_EARLIEST_LSB:
+      return (int)emulator.getTimeTravel().getEarliestCycle();
+    case TIME_TRAVEL_EARLIEST_MSB:
+      return (int)(emulator.getTimeTravel().getEarliestCycle() >>> 32);
+    case TIME_TRAVEL_LATEST_LSB:
+      return (int)emulator.getTimeTravel().getLatestCycle();
+    case TIME_TRAVEL_LATEST_MSB:
+      return (int)(emulator.getTimeTravel().getLatestCycle() >>> 32);
+    case RECORDER_CTRL:
+      return emulator.getTraceRecorder().isEnabled() ? 0x1 : 0x0;
+    case RECORDER_FIRST_LSB:
+      return (int)emulator.getTraceRecorder().getFirstCycle();
+    case RECORDER_FIRST_MSB:
+      return (int)(emulator.getTraceRecorder().getFirstCycle() >>> 32);
+    case RECORDER_LAST_LSB:
+      return (int)emulator.getTraceRecorder().getLastCycle();
+    case RECORDER_LAST_MSB:
+      return (int)(emulator.getTraceRecorder().getLastCycle() >>> 32);
+    case RECORDER_SELECT:
+      return recorderSelect;
+    case RECORDER_CYCLE_LSB:
+      return (int)recorderCycle;
+    case RECORDER_CYCLE_MSB:
+      return (int)(recorderCycle >>> 32);
+    case RECORDER_VALUE:
+      return emulator.getTraceRecorder().getValue(recorderSelect,
+                                                  recorderCycle);
     default:
       throw new InternalError("unexpected case fall-through");
     }
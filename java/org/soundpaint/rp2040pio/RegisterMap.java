@@ -0,0 +1,278 @@
+/*
+ * @(#)RegisterMap.java 1.00 21/06/20
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of the layout of an address space: the ID,
+ * base address and register labels of each of its register sets.
+ * Since this information does not change for a given emulator
+ * version, clients of a remote address space may fetch it once and
+ * answer address metadata queries locally.  Address resolution
+ * follows the same rules as LocalAddressSpace, i.e. the register set
+ * alias bits of an address are ignored, and register sets are
+ * searched in order.
+ */
+public class RegisterMap
+{
+  public static class Entry
+  {
+    private final String id;
+    private final int baseAddress;
+    private final String[] labels;
+    private final boolean[] cacheable;
+
+    private Entry()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    /**
+     * Creates an entry with all registers considered not cacheable.
+     */
+    public Entry(final String id, final int baseAddress,
+                 final String[] labels)
+    {
+      this(id, baseAddress, labels, new boolean[labels.length]);
+    }
+
+    public Entry(final String id, final int baseAddress,
+                 final String[] labels, final boolean[] cacheable)
+    {
+      if (id == null) {
+        throw new NullPointerException("id");
+      }
+      if (labels == null) {
+        throw new NullPointerException("labels");
+      }
+      if (cacheable == null) {
+        throw new NullPointerException("cacheable");
+      }
+      if (cacheable.length != labels.length) {
+        throw new IllegalArgumentException("cacheable.length != " +
+                                           "labels.length: " +
+                                           cacheable.length + " != " +
+                                           labels.length);
+      }
+      this.id = id;
+      this.baseAddress = baseAddress;
+      this.labels = labels.clone();
+      this.cacheable = cacheable.clone();
+    }
+
+    public String getId() { return id; }
+
+    public int getBaseAddress() { return baseAddress; }
+
+    public int getSize() { return labels.length; }
+
+    public String getLabel(final int regNum) { return labels[regNum]; }
+
+    public boolean isCacheable(final int regNum) { return cacheable[regNum]; }
+  }
+
+  private final List<Entry> entries;
+
+  private RegisterMap()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public RegisterMap(final List<Entry> entries)
+  {
+    if (entries == null) {
+      throw new NullPointerException("entries");
+    }
+    this.entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+  }
+
+  static RegisterMap fromRegisterSets(final List<RegisterSet> registerSets)
+    throws IOException
+  {
+    final List<Entry> entries = new ArrayList<Entry>();
+    for (final RegisterSet registers : registerSets) {
+      final String[] labels = new String[registers.getSize()];
+      final boolean[] cacheable = new boolean[labels.length];
+      for (int regNum = 0; regNum < labels.length; regNum++) {
+        labels[regNum] = registers.getRegisterLabel(regNum);
+        cacheable[regNum] = registers.isCacheable(regNum);
+      }
+      entries.add(new Entry(registers.getId(), registers.getBaseAddress(),
+                            labels, cacheable));
+    }
+    return new RegisterMap(entries);
+  }
+
+  public List<Entry> getEntries() { return entries; }
+
+  private static int address2register(final Entry entry, final int address)
+  {
+    return ((address - entry.getBaseAddress()) & ~0x3000) >>> 2;
+  }
+
+  private Entry getProvidingEntry(final int address)
+  {
+    for (final Entry entry : entries) {
+      if (address2register(entry, address) < entry.getSize()) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  public boolean providesAddress(final int address)
+  {
+    AddressSpace.checkAddressAligned(address);
+    return getProvidingEntry(address) != null;
+  }
+
+  public String getRegisterSetId(final int address) throws IOException
+  {
+    AddressSpace.checkAddressAligned(address);
+    final Entry entry = getProvidingEntry(address);
+    if (entry != null) {
+      return entry.getId();
+    }
+    final String message =
+      String.format("requesting register set ID for unsupported address: %08x",
+                    address);
+    throw new IOException(message);
+  }
+
+  public String getAddressLabel(final int address) throws IOException
+  {
+    AddressSpace.checkAddressAligned(address);
+    final Entry entry = getProvidingEntry(address);
+    if (entry != null) {
+      return entry.getLabel(address2register(entry, address));
+    }
+    final String message =
+      String.format("requesting label for unsupported address: %08x",
+                    address);
+    throw new IOException(message);
+  }
+
+  /**
+   * Returns true, if the specified address refers to a cacheable
+   * register in normal read / write space, see
+   * RegisterSet#isCacheable().  Addresses that are not provided by
+   * this map are considered not cacheable.
+   */
+  public boolean isCacheable(final int address)
+  {
+    AddressSpace.checkAddressAligned(address);
+    if ((address & 0x3000) != 0x0) return false;
+    final Entry entry = getProvidingEntry(address);
+    return
+      (entry != null) && entry.isCacheable(address2register(entry, address));
+  }
+
+  private static void checkToken(final String token) throws IOException
+  {
+    if (token.isEmpty() ||
+        (token.indexOf(' ') >= 0) || (token.indexOf(',') >= 0) ||
+        (token.indexOf('=') >= 0) || (token.indexOf('@') >= 0) ||
+        (token.indexOf('!') >= 0)) {
+      throw new IOException("can not encode register map token: " + token);
+    }
+  }
+
+  /**
+   * Encodes this map as a single line of text, with register sets
+   * separated by a space character, and each register set encoded as
+   * &lt;id&gt;@&lt;base address&gt;=&lt;label&gt;,&lt;label&gt;,….
+   * Labels of registers that are not cacheable are suffixed with an
+   * exclamation mark.
+   */
+  public String encode() throws IOException
+  {
+    final StringBuilder s = new StringBuilder();
+    for (final Entry entry : entries) {
+      if (s.length() > 0) s.append(' ');
+      checkToken(entry.getId());
+      s.append(entry.getId());
+      s.append(String.format("@0x%08x=", entry.getBaseAddress()));
+      for (int regNum = 0; regNum < entry.getSize(); regNum++) {
+        if (regNum > 0) s.append(',');
+        final String label = entry.getLabel(regNum);
+        checkToken(label);
+        s.append(label);
+        if (!entry.isCacheable(regNum)) s.append('!');
+      }
+    }
+    return s.toString();
+  }
+
+  public static RegisterMap decode(final String encoded) throws IOException
+  {
+    if (encoded == null) {
+      throw new NullPointerException("encoded");
+    }
+    final List<Entry> entries = new ArrayList<Entry>();
+    for (final String token : encoded.trim().split(" ")) {
+      if (token.isEmpty()) continue;
+      final int atPos = token.indexOf('@');
+      final int equalsPos = token.indexOf('=');
+      if ((atPos <= 0) || (equalsPos < atPos)) {
+        throw new IOException("invalid register map entry: " + token);
+      }
+      final String id = token.substring(0, atPos);
+      final String baseAddressStr = token.substring(atPos + 1, equalsPos);
+      if (!baseAddressStr.startsWith("0x")) {
+        throw new IOException("invalid register map entry: " + token);
+      }
+      final int baseAddress;
+      try {
+        baseAddress = Integer.parseUnsignedInt(baseAddressStr.substring(2), 16);
+      } catch (final NumberFormatException e) {
+        throw new IOException("invalid register map entry: " + token);
+      }
+      final String labelsStr = token.substring(equalsPos + 1);
+      final String[] labels =
+        labelsStr.isEmpty() ? new String[0] : labelsStr.split(",", -1);
+      final boolean[] cacheable = new boolean[labels.length];
+      for (int regNum = 0; regNum < labels.length; regNum++) {
+        final String label = labels[regNum];
+        cacheable[regNum] = !label.endsWith("!");
+        if (!cacheable[regNum]) {
+          labels[regNum] = label.substring(0, label.length() - 1);
+        }
+      }
+      entries.add(new Entry(id, baseAddress, labels, cacheable));
+    }
+    return new RegisterMap(entries);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -26,12 +26,14 @@ package org.soundpaint.rp2040pio;
 
 import java.io.IOException;
 import java.util.Objects;
+import org.soundpaint.rp2040pio.doctool.RegistersDocs;
 
 public abstract class RegisterSet implements Constants
 {
   private final String id;
   private final int baseAddress;
   private final short size;
+  private volatile boolean[] readTriggeringFunction;
 
   private RegisterSet()
   {
@@ -95,6 +97,62 @@ public abstract class RegisterSet implements Constants
     return regNum < regs.length ? regs[regNum].toString() : null;
   }
 
+  /**
+   * Returns true, if reading the specified register is not free of
+   * side effects, i.e. if at least one of its bits is of type
+   * &lt;code&gt;RF&lt;/code&gt; (read to trigger function), like
+   * e.g. reading from a FIFO, thereby shifting it.  Transports that
+   * periodically mirror register values (rather than serving
+   * explicit read requests) must not read such registers.
+   */
+  public boolean isReadTriggeringFunction(final int regNum)
+  {
+    checkRegNum(regNum);
+    boolean[] readTriggeringFunction = this.readTriggeringFunction;
+    if (readTriggeringFunction == null) {
+      // benign race: concurrent callers compute identical arrays
+      readTriggeringFunction = new boolean[size];
+      final Enum<?>[] regs = getRegs();
+      for (int index = 0; index < size; index++) {
+        readTriggeringFunction[index] = hasReadTriggeringBits(regs[index]);
+      }
+      this.readTriggeringFunction = readTriggeringFunction;
+    }
+    return readTriggeringFunction[regNum];
+  }
+
+  private static boolean hasReadTriggeringBits(final Enum<?> reg)
+  {
+    if (!(reg instanceof RegistersDocs)) {
+      return false;
+    }
+    final RegistersDocs.RegisterDetails registerDetails =
+      ((RegistersDocs<?>)reg).getRegisterDetails();
+    for (final RegistersDocs.BitsInfo bitsInfo :
+           registerDetails.getBitsInfos()) {
+      if (bitsInfo.getType() == RegistersDocs.BitsType.RF) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true, if the value of the specified register may change
+   * only as a consequence of a clock phase, a write to any register
+   * or a read of a register that triggers a function.  Caching
+   * address spaces may keep the value of such a register for as long
+   * as none of these events is observed.  By default, all registers
+   * except those that trigger a function upon read are considered
+   * cacheable.  Register sets with registers that change
+   * independently from emulation (like statistics counters) must
+   * override this method.
+   */
+  public boolean isCacheable(final int regNum)
+  {
+    return !isReadTriggeringFunction(regNum);
+  }
+
   public abstract void writeRegister(final int regNum,
                                      final int bits, final int mask,
                                      final boolean xor)
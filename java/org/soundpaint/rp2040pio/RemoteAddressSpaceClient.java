@@ -32,6 +32,13 @@ import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import org.soundpaint.rp2040pio.sdk.SDK;
 
 /**
@@ -42,6 +49,16 @@ public class RemoteAddressSpaceClient extends AddressSpace
 {
   private static final String MSG_NO_CONNECTION = "no connection";
 
+  /**
+   * Register maps fetched so far, keyed by emulator info, and shared
+   * by all clients within this JVM.  Since the register map of an
+   * emulator does not change for a given emulator version, clients
+   * connecting to multiple servers of the same version need to fetch
+   * it only once.
+   */
+  private static final Map<String, RegisterMap> registerMapCache =
+    new HashMap<String, RegisterMap>();
+
   private static class Response
   {
     private final PrintStream console;
@@ -117,6 +134,8 @@ public class RemoteAddressSpaceClient extends AddressSpace
   private int port;
   private String host;
   private Socket socket;
+  private RegisterMap registerMap;
+  private boolean registerMapUnavailable;
 
   /**
    * Creates a register client, but does not yet connect to any
@@ -205,6 +224,8 @@ public class RemoteAddressSpaceClient extends AddressSpace
       }
     }
     socket = new Socket();
+    registerMap = null;
+    registerMapUnavailable = false;
     socket.connect(host != null ?
                    new InetSocketAddress(host, port) :
                    new InetSocketAddress(InetAddress.getByName(null), port));
@@ -219,7 +240,11 @@ public class RemoteAddressSpaceClient extends AddressSpace
     final BufferedReader in =
       new BufferedReader(new InputStreamReader(socket.getInputStream()));
     out.println(request);
-    final String response = in.readLine();
+    return parseResponse(in.readLine());
+  }
+
+  private Response parseResponse(final String response) throws IOException
+  {
     if (response == null) {
       return null;
     }
@@ -275,9 +300,147 @@ public class RemoteAddressSpaceClient extends AddressSpace
     }
   }
 
+  /**
+   * Returns a summary of the server's statistics as a line of
+   * space-separated "key=value" pairs, see method
+   * ServerMetrics#getSummary().
+   */
+  public String getServerMetrics() throws IOException
+  {
+    final Response response = getResponse("u");
+    checkResponse(response);
+    return
+      response.getResultOrThrowOnFailure("failed retrieving server metrics");
+  }
+
+  /**
+   * Returns the server's statistics for the specified command: the
+   * number of requests, the accumulated latency in µs, and the
+   * ServerMetrics.HISTOGRAM_BUCKETS values of the latency histogram.
+   */
+  public long[] getServerMetrics(final char command) throws IOException
+  {
+    final Response response = getResponse("u " + command);
+    checkResponse(response);
+    final String result =
+      response.getResultOrThrowOnFailure("failed retrieving server metrics");
+    final String[] tokens = result != null ? result.split(" ") : new String[0];
+    if (tokens.length != 2 + ServerMetrics.HISTOGRAM_BUCKETS) {
+      throw new IOException("unexpected server metrics: " + result);
+    }
+    final long[] values = new long[tokens.length];
+    for (int index = 0; index < tokens.length; index++) {
+      try {
+        values[index] = Long.parseLong(tokens[index]);
+      } catch (final NumberFormatException e) {
+        throw new IOException("unexpected server metrics: " + result);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns the name of the session that this client is currently
+   * attached to.
+   */
+  public String getSessionName() throws IOException
+  {
+    final Response response = getResponse("c");
+    checkResponse(response);
+    return response.getResultOrThrowOnFailure("failed retrieving session");
+  }
+
+  /**
+   * Attaches this client to the session with the specified name.  If
+   * there is no such session yet, the server creates a new session,
+   * i.e. a new emulator instance with its own clock and registers.
+   */
+  public void attachSession(final String name) throws IOException
+  {
+    SessionRegistry.checkSessionName(name);
+    final Response response = getResponse("c " + name);
+    checkResponse(response);
+    response.getResultOrThrowOnFailure("failed attaching to session " + name);
+  }
+
+  public void destroySession(final String name) throws IOException
+  {
+    SessionRegistry.checkSessionName(name);
+    final Response response = getResponse("d " + name);
+    checkResponse(response);
+    response.getResultOrThrowOnFailure("failed destroying session " + name);
+  }
+
+  public List<String> getSessionNames() throws IOException
+  {
+    final Response response = getResponse("n");
+    checkResponse(response);
+    final String result =
+      response.getResultOrThrowOnFailure("failed listing sessions");
+    return
+      (result == null) || result.isEmpty() ?
+      new ArrayList<String>() :
+      Arrays.asList(result.split(" "));
+  }
+
+  /**
+   * Returns the register map of the server, fetching it upon first
+   * call per connection, unless it is already known from another
+   * connection to a server with identical emulator info.
+   *
+   * @return The register map, or null, if the server does not
+   * support retrieving the register map.
+   */
+  private synchronized RegisterMap lookupRegisterMap() throws IOException
+  {
+    if (registerMap != null) return registerMap;
+    if (registerMapUnavailable) return null;
+    final String emulatorInfo = getEmulatorInfo();
+    synchronized(registerMapCache) {
+      registerMap = registerMapCache.get(emulatorInfo);
+    }
+    if (registerMap != null) return registerMap;
+    final Response response = getResponse("f");
+    checkResponse(response);
+    if (!response.isOk() || (response.getResult() == null)) {
+      // e.g. older server => fall back to per-address requests
+      registerMapUnavailable = true;
+      return null;
+    }
+    registerMap = RegisterMap.decode(response.getResult());
+    synchronized(registerMapCache) {
+      registerMapCache.put(emulatorInfo, registerMap);
+    }
+    return registerMap;
+  }
+
+  @Override
+  public RegisterMap getRegisterMap() throws IOException
+  {
+    final RegisterMap registerMap = lookupRegisterMap();
+    if (registerMap == null) {
+      throw new IOException("register map not supported by server");
+    }
+    return registerMap;
+  }
+
+  private static void checkAligned(final int address) throws IOException
+  {
+    if ((address & 0x3) != 0x0) {
+      final String message =
+        String.format("address not word-aligned: 0x%08x", address);
+      throw new IOException(message);
+    }
+  }
+
   @Override
   public boolean providesAddress(final int address) throws IOException
   {
+    final RegisterMap registerMap = lookupRegisterMap();
+    if (registerMap != null) {
+      checkAligned(address);
+      return registerMap.providesAddress(address);
+    }
     final String request = String.format("p 0x%08x", address);
     final Response response = getResponse(request);
     checkResponse(response);
@@ -306,6 +469,11 @@ public class RemoteAddressSpaceClient extends AddressSpace
   @Override
   public String getRegisterSetId(final int address) throws IOException
   {
+    final RegisterMap registerMap = lookupRegisterMap();
+    if (registerMap != null) {
+      checkAligned(address);
+      return registerMap.getRegisterSetId(address);
+    }
     final String request = String.format("s 0x%08x", address);
     final Response response = getResponse(request);
     checkResponse(response);
@@ -325,6 +493,11 @@ public class RemoteAddressSpaceClient extends AddressSpace
   @Override
   public String getAddressLabel(final int address) throws IOException
   {
+    final RegisterMap registerMap = lookupRegisterMap();
+    if (registerMap != null) {
+      checkAligned(address);
+      return registerMap.getAddressLabel(address);
+    }
     final String request = String.format("l 0x%08x", address);
     final Response response = getResponse(request);
     checkResponse(response);
@@ -387,6 +560,313 @@ public class RemoteAddressSpaceClient extends AddressSpace
     return parseIntResult(address, result);
   }
 
+  private int[] parseIntResults(final int count, final String result)
+    throws IOException
+  {
+    final String[] tokens =
+      (result == null) || result.isEmpty() ? new String[0] : result.split(" ");
+    if (tokens.length != count) {
+      final String message =
+        String.format("expected %d values, but got %d: %s",
+                      count, tokens.length, result);
+      throw new IOException(message);
+    }
+    final int[] values = new int[count];
+    for (int index = 0; index < count; index++) {
+      try {
+        values[index] = Integer.parseInt(tokens[index]);
+      } catch (final NumberFormatException e) {
+        final String message =
+          String.format("failed parsing value #%d: %s", index, tokens[index]);
+        throw new IOException(message);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public int[] readAddresses(final int[] addresses) throws IOException
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    if (addresses.length == 0) {
+      return new int[0];
+    }
+    final StringBuilder request = new StringBuilder("a");
+    for (final int address : addresses) {
+      request.append(String.format(" 0x%08x", address));
+    }
+    final Response response = getResponse(request.toString());
+    checkResponse(response);
+    final String message =
+      String.format("failed retrieving values for %d addresses",
+                    addresses.length);
+    final String result = response.getResultOrThrowOnFailure(message);
+    return parseIntResults(addresses.length, result);
+  }
+
+  /**
+   * The server reads all addresses of a single request atomically
+   * with respect to emulation, hence this method simply calls method
+   * readAddresses().
+   */
+  @Override
+  public int[] readAddressesConsistent(final int[] addresses)
+    throws IOException
+  {
+    return readAddresses(addresses);
+  }
+
+  /**
+   * The server reads at most
+   * RemoteAddressSpaceServer.MAX_READ_RANGE_COUNT addresses per
+   * request, hence larger ranges are fetched with multiple requests.
+   */
+  @Override
+  public int[] readRange(final int baseAddress, final int count)
+    throws IOException
+  {
+    checkAddressAligned(baseAddress);
+    if (count < 0) {
+      throw new IllegalArgumentException("count < 0: " + count);
+    }
+    final int[] values = new int[count];
+    int done = 0;
+    while (done < count) {
+      final int chunkCount =
+        Math.min(count - done, RemoteAddressSpaceServer.MAX_READ_RANGE_COUNT);
+      final int[] chunk = readRangeChunk(baseAddress + 4 * done, chunkCount);
+      System.arraycopy(chunk, 0, values, done, chunkCount);
+      done += chunkCount;
+    }
+    return values;
+  }
+
+  private int[] readRangeChunk(final int baseAddress, final int count)
+    throws IOException
+  {
+    final String request = String.format("g 0x%08x %d", baseAddress, count);
+    final Response response = getResponse(request);
+    checkResponse(response);
+    final String message =
+      String.format("failed retrieving values for %d addresses " +
+                    "starting at 0x%08x", count, baseAddress);
+    final String result = response.getResultOrThrowOnFailure(message);
+    return parseIntResults(count, result);
+  }
+
+  /**
+   * The server returns at most
+   * RemoteAddressSpaceServer.MAX_CYCLE_HISTORY_COUNT cycles per
+   * request, hence larger ranges are fetched with multiple requests.
+   */
+  @Override
+  public int[] readCycleHistory(final long fromCycle, final int maxCount)
+    throws IOException
+  {
+    if (maxCount < 0) {
+      throw new IllegalArgumentException("maxCount < 0: " + maxCount);
+    }
+    int[] values = new int[0];
+    long cycle = fromCycle;
+    int remaining = maxCount;
+    while (remaining > 0) {
+      final int count =
+        Math.min(remaining, RemoteAddressSpaceServer.MAX_CYCLE_HISTORY_COUNT);
+      final int[] records = readCycleHistoryChunk(cycle, count);
+      final int length = values.length;
+      values = Arrays.copyOf(values, length + records.length);
+      System.arraycopy(records, 0, values, length, records.length);
+      cycle += count;
+      remaining -= count;
+    }
+    return values;
+  }
+
+  private int[] readCycleHistoryChunk(final long fromCycle, final int count)
+    throws IOException
+  {
+    final String request = String.format("y %d %d", fromCycle, count);
+    final Response response = getResponse(request);
+    checkResponse(response);
+    final String message =
+      String.format("failed retrieving cycle history for %d cycles " +
+                    "starting at cycle %d", count, fromCycle);
+    final String result = response.getResultOrThrowOnFailure(message);
+    final int spacePos = result.indexOf(' ');
+    final int recordCount;
+    try {
+      recordCount =
+        Integer.parseInt(spacePos >= 0 ? result.substring(0, spacePos) :
+                         result);
+    } catch (final NumberFormatException e) {
+      throw new IOException("failed parsing record count: " + result);
+    }
+    final int[] values =
+      parseIntResults(1 + recordCount * CycleHistory.RECORD_WORDS, result);
+    return Arrays.copyOfRange(values, 1, values.length);
+  }
+
+  @Override
+  public byte[] saveState() throws IOException
+  {
+    final Response response = getResponse("z");
+    checkResponse(response);
+    final String result =
+      response.getResultOrThrowOnFailure("failed saving emulator state");
+    try {
+      return Base64.getDecoder().decode(result.trim());
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("failed decoding emulator state: " +
+                            e.getMessage());
+    }
+  }
+
+  @Override
+  public void restoreState(final byte[] state) throws IOException
+  {
+    if (state == null) {
+      throw new NullPointerException("state");
+    }
+    final String request =
+      "o " + Base64.getEncoder().encodeToString(state);
+    final Response response = getResponse(request);
+    checkResponse(response);
+    response.getResultOrThrowOnFailure("failed restoring emulator state");
+  }
+
+  @Override
+  public void writeAddressesMasked(final int[] addresses, final int[] values,
+                                   final int[] masks, final boolean xor)
+    throws IOException
+  {
+    checkVectoredWrite(addresses, values, masks);
+    if (addresses.length == 0) {
+      return;
+    }
+    final StringBuilder request = new StringBuilder("m ");
+    request.append(xor ? "t" : "f");
+    for (int index = 0; index < addresses.length; index++) {
+      request.append(String.format(" 0x%08x 0x%08x 0x%08x", addresses[index],
+                                   values[index], masks[index]));
+    }
+    final Response response = getResponse(request.toString());
+    checkResponse(response);
+    final String message =
+      String.format("failed writing values to %d addresses with xor=%s",
+                    addresses.length, xor);
+    response.getResultOrThrowOnFailure(message);
+  }
+
+  @Override
+  public int[] executeTransaction(final Transaction transaction)
+    throws IOException
+  {
+    if (transaction == null) {
+      throw new NullPointerException("transaction");
+    }
+    if (transaction.getOperations().isEmpty()) {
+      return new int[0];
+    }
+    final StringBuilder request = new StringBuilder("t");
+    for (final Transaction.Operation operation :
+           transaction.getOperations()) {
+      if (operation.getType() == Transaction.Type.READ) {
+        request.append(String.format(" r 0x%08x", operation.getAddress()));
+      } else {
+        request.append(String.format(" w 0x%08x 0x%08x 0x%08x %s",
+                                     operation.getAddress(),
+                                     operation.getBits(),
+                                     operation.getMask(),
+                                     operation.getXor() ? "t" : "f"));
+      }
+    }
+    final Response response = getResponse(request.toString());
+    checkResponse(response);
+    final String message =
+      String.format("failed executing transaction with %d operations",
+                    transaction.getOperations().size());
+    final String result = response.getResultOrThrowOnFailure(message);
+    return parseIntResults(transaction.getReadCount(), result);
+  }
+
+  /**
+   * Sends the request and prints the result of each intermediate
+   * response with status OUTPUT to the specified console, until the
+   * final response is received, which is returned.
+   */
+  private synchronized Response getStreamedResponse(final String request,
+                                                    final PrintStream out)
+    throws IOException
+  {
+    final PrintWriter socketOut =
+      new PrintWriter(socket.getOutputStream(), true);
+    final BufferedReader in =
+      new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    socketOut.println(request);
+    while (true) {
+      final Response response = parseResponse(in.readLine());
+      if ((response == null) || (response.getStatusCode() != 102)) {
+        return response;
+      }
+      final String result = response.getResult();
+      out.println(result != null ? result : "");
+    }
+  }
+
+  private int executeStreamed(final String request, final PrintStream out,
+                              final String errorMessage)
+    throws IOException
+  {
+    if (out == null) {
+      throw new NullPointerException("out");
+    }
+    final Response response = getStreamedResponse(request, out);
+    checkResponse(response);
+    final String result = response.getResultOrThrowOnFailure(errorMessage);
+    try {
+      return Integer.parseInt(result);
+    } catch (final NumberFormatException e) {
+      throw new IOException("failed parsing script exit code: " + result);
+    }
+  }
+
+  /**
+   * Executes the built-in example script with the specified name
+   * within the emulation server, printing the script's console output
+   * to the specified console.
+   *
+   * @return The exit code of the script execution.
+   */
+  public int executeExample(final String name, final PrintStream out)
+    throws IOException
+  {
+    if (name == null) {
+      throw new NullPointerException("name");
+    }
+    return executeStreamed("e " + name, out,
+                           "failed executing example " + name);
+  }
+
+  /**
+   * Executes the specified monitor script within the emulation
+   * server, printing the script's console output to the specified
+   * console.
+   *
+   * @return The exit code of the script execution.
+   */
+  public int executeScript(final String script, final PrintStream out)
+    throws IOException
+  {
+    if (script == null) {
+      throw new NullPointerException("script");
+    }
+    final byte[] scriptBytes = script.getBytes(StandardCharsets.UTF_8);
+    final String encoded = Base64.getEncoder().encodeToString(scriptBytes);
+    return executeStreamed("x " + encoded, out, "failed executing script");
+  }
+
   @Override
   public int waitAddress(final int address,
                          final int expectedValue, final int mask,
@@ -405,6 +885,47 @@ public class RemoteAddressSpaceClient extends AddressSpace
       response.getResultOrThrowOnFailure(message);
     return parseIntResult(address, result);
   }
+
+  @Override
+  public WaitConditions.Result waitAddresses(final WaitConditions conditions,
+                                             final long cyclesTimeout,
+                                             final long millisTimeout)
+    throws IOException
+  {
+    checkWaitArgs(conditions, cyclesTimeout, millisTimeout);
+    final StringBuilder request =
+      new StringBuilder(String.format("b %s %d %d",
+                                      conditions.getMode().getId(),
+                                      cyclesTimeout, millisTimeout));
+    for (final WaitConditions.Condition condition :
+           conditions.getConditions()) {
+      request.append(String.format(" 0x%08x 0x%08x 0x%08x",
+                                   condition.getAddress(),
+                                   condition.getExpectedValue(),
+                                   condition.getMask()));
+    }
+    final Response response = getResponse(request.toString());
+    checkResponse(response);
+    final String message =
+      String.format("failed waiting for %d conditions", conditions.size());
+    final String result = response.getResultOrThrowOnFailure(message);
+    final String[] tokens = result != null ? result.split(" ") : new String[0];
+    if (tokens.length != 3 + conditions.size()) {
+      throw new IOException("unexpected wait result: " + result);
+    }
+    final int[] values = new int[conditions.size()];
+    try {
+      final boolean fulfilled = tokens[0].equals("t");
+      final int satisfied = Integer.parseInt(tokens[1]);
+      final long wallClock = Long.parseLong(tokens[2]);
+      for (int index = 0; index < values.length; index++) {
+        values[index] = Integer.parseInt(tokens[3 + index]);
+      }
+      return new WaitConditions.Result(fulfilled, satisfied, wallClock, values);
+    } catch (final NumberFormatException e) {
+      throw new IOException("unexpected wait result: " + result);
+    }
+  }
 }
 
 /*
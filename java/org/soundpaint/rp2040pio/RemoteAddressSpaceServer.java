@@ -25,12 +25,17 @@
 package org.soundpaint.rp2040pio;
 
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.PrintWriter;
+import java.io.StringReader;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.soundpaint.rp2040pio.monitor.Monitor;
 
 /**
  * The idea of the RemoteAddressSpaceServer class is to provide access
@@ -62,10 +67,9 @@ import java.net.Socket;
  */
 public class RemoteAddressSpaceServer
 {
-  private static final String[] NULL_ARGS = new String[0];
-
   private final PrintStream console;
-  private final AddressSpace memory;
+  private final SessionRegistry sessions;
+  private final ServerMetrics metrics;
   private final int portNumber;
   private final ServerSocket serverSocket;
   private int connectionCounter;
@@ -82,19 +86,32 @@ public class RemoteAddressSpaceServer
     this(console, memory, Constants.REGISTER_SERVER_DEFAULT_PORT_NUMBER);
   }
 
+  /**
+   * Creates a server that serves the specified address space as its
+   * only (default) session.
+   */
   public RemoteAddressSpaceServer(final PrintStream console,
                                   final AddressSpace memory,
                                   final int portNumber)
     throws IOException
+  {
+    this(console, new SessionRegistry(console, memory, false), portNumber);
+  }
+
+  public RemoteAddressSpaceServer(final PrintStream console,
+                                  final SessionRegistry sessions,
+                                  final int portNumber)
+    throws IOException
   {
     if (console == null) {
       throw new NullPointerException("console");
     }
-    if (memory == null) {
-      throw new NullPointerException("memory");
+    if (sessions == null) {
+      throw new NullPointerException("sessions");
     }
     this.console = console;
-    this.memory = memory;
+    this.sessions = sessions;
+    metrics = sessions.getMetrics();
     this.portNumber = portNumber;
     serverSocket = new ServerSocket(portNumber);
     connectionCounter = 0;
@@ -125,19 +142,40 @@ public class RemoteAddressSpaceServer
       "v                   (version)" + ls +
       "q                   (quit)" + ls +
       "r <addr>            (read address)" + ls +
+      "a <addr>...         (read addresses)" + ls +
+      "g <addr> <count>    (read range of consecutive addresses)" + ls +
+      "y <cycle> <count>   (read cycle history)" + ls +
       "w <addr> <value> <mask> <xor>" + ls +
       "                    (write address)" + ls +
+      "m <xor> <addr> <value> <mask> [<addr> <value> <mask>]..." + ls +
+      "                    (write addresses)" + ls +
+      "t [r <addr> | w <addr> <value> <mask> <xor>]..." + ls +
+      "                    (execute transaction)" + ls +
+      "e <name>            (execute built-in example script)" + ls +
+      "x <base64 script>   (execute monitor script)" + ls +
+      "z                   (save emulator state as base64)" + ls +
+      "o <base64 state>    (restore emulator state)" + ls +
       "i <addr> <value> [<mask> [<timeout cycles> [<timeout millis>]]]" + ls +
       "                    (await value)" + ls +
+      "b <any|all> <timeout cycles> <timeout millis> <addr> <value> <mask>" +
+      ls +
+      "  [<addr> <value> <mask>]..." + ls +
+      "                    (await any or all of multiple values)" + ls +
       "s <addr>            (show address register set id)" + ls +
       "l <addr>            (show address label)" + ls +
-      "p <addr>            (check address validity)";
+      "f                   (describe register map)" + ls +
+      "p <addr>            (check address validity)" + ls +
+      "c [<name>]          (show or attach to session)" + ls +
+      "d <name>            (destroy session)" + ls +
+      "n                   (list names of all sessions)" + ls +
+      "u [<command>]       (show server statistics [for command])";
   }
 
   private enum ResponseStatus
   {
     BYE("bye", 100),
     OK("ok", 101),
+    OUTPUT("output", 102),
     ERR_UNKNOWN_COMMAND("unknown command", 400),
     ERR_MISSING_OPERAND("missing operand", 401),
     ERR_UNPARSED_INPUT("unparsed input", 402),
@@ -148,6 +186,7 @@ public class RemoteAddressSpaceServer
 
     private final String id;
     private final int code;
+    private final byte[] displayBytes;
 
     private ResponseStatus(final String id, final int code)
     {
@@ -156,6 +195,7 @@ public class RemoteAddressSpaceServer
       }
       this.id = id;
       this.code = code;
+      displayBytes = getDisplayValue().getBytes(StandardCharsets.US_ASCII);
     }
 
     public String getId() { return id; }
@@ -166,257 +206,1044 @@ public class RemoteAddressSpaceServer
     {
       return code + " " + id.toUpperCase();
     }
+
+    private byte[] getDisplayBytes() { return displayBytes; }
   };
 
-  private String createResponse(final ResponseStatus status)
+  /**
+   * Per-connection state for parsing requests from and encoding
+   * responses into reusable byte buffers, such that serving the
+   * frequent commands does not allocate any objects in the common
+   * (non-error) case.  Buffers grow as needed (e.g. for long bulk
+   * requests), but are never shrinked.
+   */
+  private static class Connection
   {
-    return createResponse(status, null);
+    private static final int INITIAL_BUFFER_SIZE = 0x1000;
+    private static final int INITIAL_MAX_TOKENS = 0x40;
+    private static final byte[] SEPARATOR = { ':', ' ' };
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final ServerMetrics metrics;
+    private String sessionName;
+    private AddressSpace memory;
+    private byte[] inBuffer;
+    private int inPos;
+    private int inLimit;
+    private int lineStart;
+    private int lineEnd;
+    private byte command;
+    private int[] tokenStart;
+    private int[] tokenEnd;
+    private int tokenCount;
+    private byte[] outBuffer;
+    private int outLength;
+
+    private Connection(final InputStream in, final OutputStream out,
+                       final ServerMetrics metrics,
+                       final String sessionName, final AddressSpace memory)
+    {
+      this.in = in;
+      this.out = out;
+      this.metrics = metrics;
+      this.sessionName = sessionName;
+      this.memory = memory;
+      inBuffer = new byte[INITIAL_BUFFER_SIZE];
+      tokenStart = new int[INITIAL_MAX_TOKENS];
+      tokenEnd = new int[INITIAL_MAX_TOKENS];
+      outBuffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * Reads the next line of input into the input buffer.
+     *
+     * @return False, if the end of the input stream has been reached.
+     */
+    private boolean readLine() throws IOException
+    {
+      int scanPos = inPos;
+      while (true) {
+        while (scanPos < inLimit) {
+          if (inBuffer[scanPos] == '\n') {
+            lineStart = inPos;
+            lineEnd = scanPos;
+            inPos = scanPos + 1;
+            metrics.addBytesIn(inPos - lineStart);
+            return true;
+          }
+          scanPos++;
+        }
+        if (inPos > 0) {
+          // compact buffer
+          System.arraycopy(inBuffer, inPos, inBuffer, 0, inLimit - inPos);
+          scanPos -= inPos;
+          inLimit -= inPos;
+          inPos = 0;
+        }
+        if (inLimit == inBuffer.length) {
+          final byte[] newBuffer = new byte[2 * inBuffer.length];
+          System.arraycopy(inBuffer, 0, newBuffer, 0, inLimit);
+          inBuffer = newBuffer;
+        }
+        final int count = in.read(inBuffer, inLimit, inBuffer.length - inLimit);
+        if (count < 0) {
+          if (inLimit == inPos) return false;
+          // treat unterminated last line as complete line
+          lineStart = inPos;
+          lineEnd = inLimit;
+          inPos = inLimit;
+          metrics.addBytesIn(inPos - lineStart);
+          return true;
+        }
+        inLimit += count;
+      }
+    }
+
+    private static boolean isWhiteSpace(final byte b)
+    {
+      return (b == ' ') || (b == '\t') || (b == '\r');
+    }
+
+    private void addToken(final int start, final int end)
+    {
+      if (tokenCount == tokenStart.length) {
+        final int[] newTokenStart = new int[2 * tokenStart.length];
+        final int[] newTokenEnd = new int[2 * tokenEnd.length];
+        System.arraycopy(tokenStart, 0, newTokenStart, 0, tokenCount);
+        System.arraycopy(tokenEnd, 0, newTokenEnd, 0, tokenCount);
+        tokenStart = newTokenStart;
+        tokenEnd = newTokenEnd;
+      }
+      tokenStart[tokenCount] = start;
+      tokenEnd[tokenCount] = end;
+      tokenCount++;
+    }
+
+    /**
+     * Splits the current line into command character and arguments.
+     *
+     * @return False, if the line is empty.
+     */
+    private boolean tokenize()
+    {
+      int pos = lineStart;
+      while ((pos < lineEnd) && isWhiteSpace(inBuffer[pos])) pos++;
+      tokenCount = 0;
+      if (pos == lineEnd) return false;
+      command = inBuffer[pos++];
+      while (pos < lineEnd) {
+        while ((pos < lineEnd) && isWhiteSpace(inBuffer[pos])) pos++;
+        if (pos == lineEnd) break;
+        final int start = pos;
+        while ((pos < lineEnd) && !isWhiteSpace(inBuffer[pos])) pos++;
+        addToken(start, pos);
+      }
+      return true;
+    }
+
+    private char getCommand() { return (char)(command & 0xff); }
+
+    private int getArgCount() { return tokenCount; }
+
+    private String getArg(final int index)
+    {
+      return new String(inBuffer, tokenStart[index],
+                        tokenEnd[index] - tokenStart[index],
+                        StandardCharsets.UTF_8);
+    }
+
+    private boolean argEquals(final int index, final char c)
+    {
+      return
+        (tokenEnd[index] - tokenStart[index] == 1) &&
+        (inBuffer[tokenStart[index]] == c);
+    }
+
+    private boolean argEquals(final int index, final String s)
+    {
+      if (tokenEnd[index] - tokenStart[index] != s.length()) return false;
+      for (int pos = 0; pos < s.length(); pos++) {
+        if (inBuffer[tokenStart[index] + pos] != s.charAt(pos)) return false;
+      }
+      return true;
+    }
+
+    private NumberFormatException createNumberFormatException(final int index)
+    {
+      return new NumberFormatException("For input string: \"" +
+                                       getArg(index) + "\"");
+    }
+
+    private static int digitValue(final byte b, final int radix)
+    {
+      final int value;
+      if ((b >= '0') && (b <= '9')) {
+        value = b - '0';
+      } else if ((b >= 'a') && (b <= 'z')) {
+        value = b - 'a' + 10;
+      } else if ((b >= 'A') && (b <= 'Z')) {
+        value = b - 'A' + 10;
+      } else {
+        return -1;
+      }
+      return value < radix ? value : -1;
+    }
+
+    /**
+     * Equivalent to Integer.parseUnsignedInt(s, 16) for arguments
+     * with prefix "0x" or "0X", and to Integer.parseInt(s) otherwise,
+     * but without allocating a string.
+     */
+    private int parseInt(final int index)
+    {
+      int pos = tokenStart[index];
+      final int end = tokenEnd[index];
+      if ((end - pos > 2) && (inBuffer[pos] == '0') &&
+          ((inBuffer[pos + 1] == 'x') || (inBuffer[pos + 1] == 'X'))) {
+        pos += 2;
+        if (inBuffer[pos] == '+') pos++;
+        if ((pos == end) || (end - pos > 8 + countLeadingZeros(pos, end))) {
+          throw createNumberFormatException(index);
+        }
+        int value = 0;
+        while (pos < end) {
+          final int digit = digitValue(inBuffer[pos++], 16);
+          if (digit < 0) throw createNumberFormatException(index);
+          value = (value << 4) | digit;
+        }
+        return value;
+      }
+      boolean negative = false;
+      if (pos < end) {
+        if (inBuffer[pos] == '-') {
+          negative = true;
+          pos++;
+        } else if (inBuffer[pos] == '+') {
+          pos++;
+        }
+      }
+      if (pos == end) throw createNumberFormatException(index);
+      long value = 0;
+      while (pos < end) {
+        final int digit = digitValue(inBuffer[pos++], 10);
+        if (digit < 0) throw createNumberFormatException(index);
+        value = 10 * value + digit;
+        if (value > 0x80000000L) throw createNumberFormatException(index);
+      }
+      if (negative) value = -value;
+      if (value > Integer.MAX_VALUE) throw createNumberFormatException(index);
+      return (int)value;
+    }
+
+    private int countLeadingZeros(int pos, final int end)
+    {
+      int count = 0;
+      while ((pos < end - 1) && (inBuffer[pos++] == '0')) count++;
+      return count;
+    }
+
+    private int parseAddress(final int index)
+    {
+      final int address = parseInt(index);
+      if ((address & 0x3) != 0x0) {
+        final String message =
+          String.format("address not word-aligned: 0x%08x", address);
+        throw new NumberFormatException(message);
+      }
+      return address;
+    }
+
+    private boolean parseBoolean(final int index)
+    {
+      if (argEquals(index, 't') || argEquals(index, 'T')) {
+        return true;
+      } else if (argEquals(index, 'f') || argEquals(index, 'F')) {
+        return false;
+      } else {
+        final String message =
+          String.format("expected Boolean value 't' or 'f': %s",
+                        getArg(index));
+        throw new IllegalArgumentException(message);
+      }
+    }
+
+    private void ensureOutCapacity(final int additional)
+    {
+      if (outLength + additional > outBuffer.length) {
+        final byte[] newBuffer =
+          new byte[Math.max(2 * outBuffer.length, outLength + additional)];
+        System.arraycopy(outBuffer, 0, newBuffer, 0, outLength);
+        outBuffer = newBuffer;
+      }
+    }
+
+    private void append(final byte[] bytes)
+    {
+      ensureOutCapacity(bytes.length);
+      System.arraycopy(bytes, 0, outBuffer, outLength, bytes.length);
+      outLength += bytes.length;
+    }
+
+    private void append(final byte b)
+    {
+      ensureOutCapacity(1);
+      outBuffer[outLength++] = b;
+    }
+
+    private void appendDecimal(final int value)
+    {
+      ensureOutCapacity(11);
+      long remaining = value;
+      if (remaining < 0) {
+        outBuffer[outLength++] = '-';
+        remaining = -remaining;
+      }
+      final int start = outLength;
+      do {
+        outBuffer[outLength++] = (byte)('0' + (int)(remaining % 10));
+        remaining /= 10;
+      } while (remaining > 0);
+      // reverse digits
+      for (int left = start, right = outLength - 1; left < right;
+           left++, right--) {
+        final byte swap = outBuffer[left];
+        outBuffer[left] = outBuffer[right];
+        outBuffer[right] = swap;
+      }
+    }
+
+    private void respond(final ResponseStatus status)
+    {
+      append(status.getDisplayBytes());
+      append((byte)'\n');
+    }
+
+    private void respond(final ResponseStatus status, final String message)
+    {
+      append(status.getDisplayBytes());
+      if (message != null) {
+        append(SEPARATOR);
+        append(message.getBytes(StandardCharsets.UTF_8));
+      }
+      append((byte)'\n');
+    }
+
+    private void respond(final ResponseStatus status, final int value)
+    {
+      append(status.getDisplayBytes());
+      append(SEPARATOR);
+      appendDecimal(value);
+      append((byte)'\n');
+    }
+
+    private void respond(final ResponseStatus status, final int[] values)
+    {
+      append(status.getDisplayBytes());
+      append(SEPARATOR);
+      for (int index = 0; index < values.length; index++) {
+        if (index > 0) append((byte)' ');
+        appendDecimal(values[index]);
+      }
+      append((byte)'\n');
+    }
+
+    private void flush() throws IOException
+    {
+      metrics.addBytesOut(outLength);
+      out.write(outBuffer, 0, outLength);
+      out.flush();
+      outLength = 0;
+    }
   }
 
-  private String createResponse(final ResponseStatus status,
-                                final String message)
+  private void handleGetVersion(final Connection connection)
+    throws IOException
   {
-    if (status == null) {
-      throw new NullPointerException("status");
+    if (connection.getArgCount() > 0) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(0));
+      return;
     }
-    final String statusDisplay = status.getDisplayValue();
-    return statusDisplay + (message != null ? ": " + message : "");
+    connection.respond(ResponseStatus.OK, connection.memory.getEmulatorInfo());
   }
 
-  private boolean parseBoolean(final String unparsed)
+  private void handleGetHelp(final Connection connection)
   {
-    if (unparsed.equals("t") ||
-        unparsed.equals("T")) {
-      return true;
-    } else if (unparsed.equals("f") ||
-        unparsed.equals("F")) {
-      return false;
-    } else {
-      final String message =
-        String.format("expected Boolean value 't' or 'f': %s", unparsed);
-      throw new IllegalArgumentException(message);
+    if (connection.getArgCount() > 0) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(0));
+      return;
     }
+    connection.respond(ResponseStatus.OK, getHelp());
   }
 
-  private int parseInt(final String unparsed)
+  /**
+   * @return True, if the connection is to be closed.
+   */
+  private boolean handleQuit(final Connection connection)
   {
-    if (unparsed.startsWith("0x") ||
-        unparsed.startsWith("0X")) {
-      return Integer.parseUnsignedInt(unparsed.substring(2), 16);
-    } else {
-      return Integer.parseInt(unparsed);
+    if (connection.getArgCount() > 0) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(0));
+      return false;
     }
+    return true;
   }
 
-  private int parseAddress(final String unparsed)
+  /**
+   * Checks that the current request has exactly one argument, which
+   * is a valid address, and responds with an error otherwise.
+   *
+   * @return The address, or -1, if an error response has been sent.
+   */
+  private long parseSingleAddressArg(final Connection connection)
   {
-    final int address = parseInt(unparsed);
-    if ((address & 0x3) != 0x0) {
-      final String message =
-        String.format("address not word-aligned: 0x%08x", address);
-      throw new NumberFormatException(message);
+    if (connection.getArgCount() < 1) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return -1;
+    }
+    if (connection.getArgCount() > 1) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(1));
+      return -1;
+    }
+    try {
+      return connection.parseAddress(0) & 0xffffffffL;
+    } catch (final NumberFormatException e) {
+      connection.respond(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      return -1;
     }
-    return address;
   }
 
-  private String handleGetVersion(final String[] args) throws IOException
+  private void handleProvidesAddress(final Connection connection)
+    throws IOException
   {
-    if (args.length > 0) {
-      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[0]);
-    }
-    return createResponse(ResponseStatus.OK, memory.getEmulatorInfo());
+    final long address = parseSingleAddressArg(connection);
+    if (address < 0) return;
+    final boolean providesAddress = connection.memory.providesAddress((int)address);
+    connection.respond(ResponseStatus.OK, providesAddress ? "true" : "false");
   }
 
-  private String handleGetHelp(final String[] args)
+  private void handleGetRegisterSetId(final Connection connection)
+    throws IOException
   {
-    if (args.length > 0) {
-      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[0]);
-    }
-    return createResponse(ResponseStatus.OK, getHelp());
+    final long address = parseSingleAddressArg(connection);
+    if (address < 0) return;
+    final String id = connection.memory.getRegisterSetId((int)address);
+    connection.respond(ResponseStatus.OK, id);
   }
 
-  private String handleQuit(final String[] args)
+  private void handleGetLabel(final Connection connection) throws IOException
   {
-    if (args.length > 0) {
-      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[0]);
+    final long address = parseSingleAddressArg(connection);
+    if (address < 0) return;
+    final String label = connection.memory.getAddressLabel((int)address);
+    connection.respond(ResponseStatus.OK, label);
+  }
+
+  private void handleGetRegisterMap(final Connection connection)
+    throws IOException
+  {
+    if (connection.getArgCount() > 0) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(0));
+      return;
     }
-    return null;
+    connection.respond(ResponseStatus.OK,
+                       connection.memory.getRegisterMap().encode());
   }
 
-  private String handleProvidesAddress(final String[] args) throws IOException
+  private void handleWriteAddress(final Connection connection)
+    throws IOException
   {
-    if (args.length < 1) {
-      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    if (connection.getArgCount() < 4) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
     }
-    if (args.length > 1) {
-      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[1]);
+    if (connection.getArgCount() > 4) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(4));
+      return;
     }
     final int address;
+    final int value;
+    final int mask;
     try {
-      address = parseAddress(args[0]);
+      address = connection.parseAddress(0);
+      value = connection.parseInt(1);
+      mask = connection.parseInt(2);
     } catch (final NumberFormatException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      connection.respond(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      return;
     }
-    final boolean providesAddress = memory.providesAddress(address);
-    return createResponse(ResponseStatus.OK, String.valueOf(providesAddress));
+    final boolean xor;
+    try {
+      xor = connection.parseBoolean(3);
+    } catch (final IllegalArgumentException e) {
+      connection.respond(ResponseStatus.ERR_INVALID_BOOL, e.getMessage());
+      return;
+    }
+    connection.memory.writeAddressMasked(address, value, mask, xor);
+    connection.respond(ResponseStatus.OK);
   }
 
-  private String handleGetRegisterSetId(final String[] args) throws IOException
+  private void handleReadAddress(final Connection connection)
+    throws IOException
   {
-    if (args.length < 1) {
-      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    final long address = parseSingleAddressArg(connection);
+    if (address < 0) return;
+    final int value = connection.memory.readAddress((int)address);
+    connection.respond(ResponseStatus.OK, value);
+  }
+
+  private void handleReadAddresses(final Connection connection)
+    throws IOException
+  {
+    if (connection.getArgCount() < 1) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
     }
-    if (args.length > 1) {
-      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[1]);
+    final int[] addresses = new int[connection.getArgCount()];
+    for (int index = 0; index < addresses.length; index++) {
+      try {
+        addresses[index] = connection.parseAddress(index);
+      } catch (final NumberFormatException e) {
+        connection.respond(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+        return;
+      }
     }
-    final int address;
+    final int[] values = connection.memory.readAddresses(addresses);
+    connection.respond(ResponseStatus.OK, values);
+  }
+
+  /**
+   * Maximum number of addresses read by a single range read request.
+   * Clients that need more addresses issue multiple requests.
+   */
+  public static final int MAX_READ_RANGE_COUNT = 0x1000;
+
+  private void handleReadRange(final Connection connection) throws IOException
+  {
+    if (connection.getArgCount() < 2) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
+    }
+    if (connection.getArgCount() > 2) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(2));
+      return;
+    }
+    final int baseAddress;
+    final int count;
     try {
-      address = parseAddress(args[0]);
+      baseAddress = connection.parseAddress(0);
+      count = connection.parseInt(1);
     } catch (final NumberFormatException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      connection.respond(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      return;
+    }
+    if (count < 0) {
+      connection.respond(ResponseStatus.ERR_INVALID_NUMBER,
+                         "count < 0: " + count);
+      return;
     }
-    final String id = memory.getRegisterSetId(address);
-    return createResponse(ResponseStatus.OK, id);
+    if (count > MAX_READ_RANGE_COUNT) {
+      connection.respond(ResponseStatus.ERR_INVALID_NUMBER,
+                         "count > " + MAX_READ_RANGE_COUNT + ": " + count);
+      return;
+    }
+    final int[] values = connection.memory.readRange(baseAddress, count);
+    connection.respond(ResponseStatus.OK, values);
   }
 
-  private String handleGetLabel(final String[] args) throws IOException
+  /**
+   * Maximum number of cycles returned by a single cycle history
+   * request.  Clients that need more cycles issue multiple requests.
+   */
+  public static final int MAX_CYCLE_HISTORY_COUNT = 0x1000;
+
+  private void handleReadCycleHistory(final Connection connection)
+    throws IOException
   {
-    if (args.length < 1) {
-      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    if (connection.getArgCount() < 2) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
     }
-    if (args.length > 1) {
-      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[1]);
+    if (connection.getArgCount() > 2) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(2));
+      return;
     }
-    final int address;
+    final long fromCycle;
+    final int count;
     try {
-      address = parseAddress(args[0]);
+      fromCycle = Long.parseLong(connection.getArg(0));
+      count = connection.parseInt(1);
     } catch (final NumberFormatException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      connection.respond(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      return;
     }
-    final String label = memory.getAddressLabel(address);
-    return createResponse(ResponseStatus.OK, label);
+    if (count < 0) {
+      connection.respond(ResponseStatus.ERR_INVALID_NUMBER,
+                         "count < 0: " + count);
+      return;
+    }
+    final int[] words =
+      connection.memory.
+      readCycleHistory(fromCycle, Math.min(count, MAX_CYCLE_HISTORY_COUNT));
+    final int[] values = new int[words.length + 1];
+    values[0] = words.length / CycleHistory.RECORD_WORDS;
+    System.arraycopy(words, 0, values, 1, words.length);
+    connection.respond(ResponseStatus.OK, values);
   }
 
-  private String handleWriteAddress(final String[] args) throws IOException
+  private void handleWriteAddresses(final Connection connection)
+    throws IOException
   {
-    if (args.length < 4) {
-      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    final int argCount = connection.getArgCount();
+    if (argCount < 4) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
     }
-    if (args.length > 4) {
-      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[4]);
+    final boolean xor;
+    try {
+      xor = connection.parseBoolean(0);
+    } catch (final IllegalArgumentException e) {
+      connection.respond(ResponseStatus.ERR_INVALID_BOOL, e.getMessage());
+      return;
     }
-    final int address;
+    final int count = (argCount - 1) / 3;
+    if (argCount != 1 + 3 * count) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
+    }
+    final int[] addresses = new int[count];
+    final int[] values = new int[count];
+    final int[] masks = new int[count];
+    for (int index = 0; index < count; index++) {
+      try {
+        addresses[index] = connection.parseAddress(1 + 3 * index);
+        values[index] = connection.parseInt(2 + 3 * index);
+        masks[index] = connection.parseInt(3 + 3 * index);
+      } catch (final NumberFormatException e) {
+        connection.respond(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+        return;
+      }
+    }
+    connection.memory.writeAddressesMasked(addresses, values, masks, xor);
+    connection.respond(ResponseStatus.OK);
+  }
+
+  private void handleTransaction(final Connection connection)
+    throws IOException
+  {
+    final int argCount = connection.getArgCount();
+    if (argCount < 1) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
+    }
+    final Transaction transaction = new Transaction();
+    int index = 0;
+    while (index < argCount) {
+      final int operandCount;
+      if (connection.argEquals(index, 'r')) {
+        operandCount = 1;
+      } else if (connection.argEquals(index, 'w')) {
+        operandCount = 4;
+      } else {
+        connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                           connection.getArg(index));
+        return;
+      }
+      index++;
+      if (index + operandCount > argCount) {
+        connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+        return;
+      }
+      final int address;
+      try {
+        address = connection.parseAddress(index);
+      } catch (final NumberFormatException e) {
+        connection.respond(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+        return;
+      }
+      if ((address & 0x3000) != 0x0) {
+        final String message =
+          String.format("address not in base address range: 0x%08x", address);
+        connection.respond(ResponseStatus.ERR_INVALID_NUMBER, message);
+        return;
+      }
+      if (operandCount == 1) {
+        transaction.addRead(address);
+      } else {
+        final int value;
+        final int mask;
+        try {
+          value = connection.parseInt(index + 1);
+          mask = connection.parseInt(index + 2);
+        } catch (final NumberFormatException e) {
+          connection.respond(ResponseStatus.ERR_INVALID_NUMBER,
+                             e.getMessage());
+          return;
+        }
+        final boolean xor;
+        try {
+          xor = connection.parseBoolean(index + 3);
+        } catch (final IllegalArgumentException e) {
+          connection.respond(ResponseStatus.ERR_INVALID_BOOL, e.getMessage());
+          return;
+        }
+        transaction.addWriteMasked(address, value, mask, xor);
+      }
+      index += operandCount;
+    }
+    final int[] values = connection.memory.executeTransaction(transaction);
+    connection.respond(ResponseStatus.OK, values);
+  }
+
+  /**
+   * Output stream that forwards each line of output as a separate
+   * response with status OUTPUT to the client.  Incomplete lines are
+   * forwarded upon flush.
+   */
+  private static class OutputForwardingStream extends OutputStream
+  {
+    private final Connection connection;
+    private final ByteArrayOutputStream line;
+
+    private OutputForwardingStream(final Connection connection)
+    {
+      this.connection = connection;
+      line = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public void write(final int b) throws IOException
+    {
+      if (b == '\n') {
+        forwardLine();
+      } else if (b != '\r') {
+        line.write(b);
+      }
+    }
+
+    private void forwardLine() throws IOException
+    {
+      final String text = new String(line.toByteArray(),
+                                     StandardCharsets.UTF_8);
+      connection.respond(ResponseStatus.OUTPUT, text);
+      connection.flush();
+      line.reset();
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+      if (line.size() > 0) {
+        forwardLine();
+      }
+    }
+  }
+
+  private void executeScript(final BufferedReader scriptIn,
+                             final Connection connection)
+  {
+    final OutputForwardingStream forwardingStream =
+      new OutputForwardingStream(connection);
+    final PrintStream scriptConsole =
+      new PrintStream(forwardingStream, false, StandardCharsets.UTF_8);
+    final BufferedReader scriptStdIn =
+      new BufferedReader(new StringReader(""));
+    final Monitor monitor = new Monitor(scriptStdIn, scriptConsole,
+                                        connection.memory);
+    final int exitCode = monitor.executeScript(scriptIn);
+    scriptConsole.flush();
+    connection.respond(ResponseStatus.OK, exitCode);
+  }
+
+  private void handleExecuteExample(final Connection connection)
+  {
+    if (connection.getArgCount() < 1) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
+    }
+    if (connection.getArgCount() > 1) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(1));
+      return;
+    }
+    final String resourcePath =
+      String.format("/examples/%s.mon", connection.getArg(0));
+    final BufferedReader scriptIn;
     try {
-      address = parseAddress(args[0]);
-    } catch (final NumberFormatException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      scriptIn = IOUtils.getReaderForResourcePath(resourcePath);
+    } catch (final IOException e) {
+      connection.respond(ResponseStatus.ERR_IO, e.getMessage());
+      return;
     }
-    final int value;
+    executeScript(scriptIn, connection);
+  }
+
+  private void handleExecuteScript(final Connection connection)
+  {
+    if (connection.getArgCount() < 1) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
+    }
+    if (connection.getArgCount() > 1) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(1));
+      return;
+    }
+    final String script;
     try {
-      value = parseInt(args[1]);
-    } catch (final NumberFormatException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      script = new String(Base64.getDecoder().decode(connection.getArg(0)),
+                          StandardCharsets.UTF_8);
+    } catch (final IllegalArgumentException e) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT, e.getMessage());
+      return;
     }
-    final int mask;
+    executeScript(new BufferedReader(new StringReader(script)), connection);
+  }
+
+  private void handleSaveState(final Connection connection)
+  {
+    if (connection.getArgCount() > 0) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(0));
+      return;
+    }
+    final byte[] state;
     try {
-      mask = parseInt(args[2]);
-    } catch (final NumberFormatException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      state = connection.memory.saveState();
+    } catch (final IOException e) {
+      connection.respond(ResponseStatus.ERR_IO, e.getMessage());
+      return;
     }
-    final boolean xor;
+    connection.respond(ResponseStatus.OK,
+                       Base64.getEncoder().encodeToString(state));
+  }
+
+  private void handleRestoreState(final Connection connection)
+  {
+    if (connection.getArgCount() < 1) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
+    }
+    if (connection.getArgCount() > 1) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(1));
+      return;
+    }
+    final byte[] state;
     try {
-      xor = parseBoolean(args[3]);
+      state = Base64.getDecoder().decode(connection.getArg(0));
     } catch (final IllegalArgumentException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_BOOL, e.getMessage());
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT, e.getMessage());
+      return;
+    }
+    try {
+      connection.memory.restoreState(state);
+    } catch (final IOException e) {
+      connection.respond(ResponseStatus.ERR_IO, e.getMessage());
+      return;
     }
-    memory.writeAddressMasked(address, value, mask, xor);
-    return createResponse(ResponseStatus.OK);
+    connection.respond(ResponseStatus.OK);
   }
 
-  private String handleReadAddress(final String[] args) throws IOException
+  private void handleAttachSession(final Connection connection)
   {
-    if (args.length < 1) {
-      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    if (connection.getArgCount() > 1) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(1));
+      return;
     }
-    if (args.length > 1) {
-      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[1]);
+    if (connection.getArgCount() == 1) {
+      final String name = connection.getArg(0);
+      try {
+        connection.memory = sessions.attach(name);
+      } catch (final IOException e) {
+        connection.respond(ResponseStatus.ERR_IO, e.getMessage());
+        return;
+      }
+      connection.sessionName = name;
     }
-    final int address;
+    connection.respond(ResponseStatus.OK, connection.sessionName);
+  }
+
+  private void handleDestroySession(final Connection connection)
+  {
+    if (connection.getArgCount() < 1) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
+    }
+    if (connection.getArgCount() > 1) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(1));
+      return;
+    }
+    final String name = connection.getArg(0);
     try {
-      address = parseAddress(args[0]);
-    } catch (final NumberFormatException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      sessions.destroy(name);
+    } catch (final IOException e) {
+      connection.respond(ResponseStatus.ERR_IO, e.getMessage());
+      return;
+    }
+    if (name.equals(connection.sessionName)) {
+      connection.sessionName = SessionRegistry.DEFAULT_SESSION_NAME;
+      connection.memory = sessions.getDefaultSession();
+    }
+    connection.respond(ResponseStatus.OK);
+  }
+
+  private void handleListSessions(final Connection connection)
+  {
+    if (connection.getArgCount() > 0) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(0));
+      return;
     }
-    final int value = memory.readAddress(address);
-    return createResponse(ResponseStatus.OK, String.valueOf(value));
+    connection.respond(ResponseStatus.OK,
+                       String.join(" ", sessions.getNames()));
   }
 
-  private String handleWait(final String[] args) throws IOException
+  private void handleWait(final Connection connection) throws IOException
   {
-    if (args.length < 2) {
-      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    final int argCount = connection.getArgCount();
+    if (argCount < 2) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
     }
-    if (args.length > 5) {
-      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[5]);
+    if (argCount > 5) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(5));
+      return;
     }
     final int address;
+    final int expectedValue;
+    final int mask;
+    final int cyclesTimeout;
+    final int millisTimeout;
     try {
-      address = parseAddress(args[0]);
+      address = connection.parseAddress(0);
+      expectedValue = connection.parseInt(1);
+      mask = argCount > 2 ? connection.parseInt(2) : 0xffffffff;
+      cyclesTimeout = argCount > 3 ? connection.parseInt(3) : 0x0;
+      millisTimeout = argCount > 4 ? connection.parseInt(4) : 0x0;
     } catch (final NumberFormatException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      connection.respond(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      return;
     }
-    final int expectedValue;
+    final long startTime = System.nanoTime();
+    final int value;
     try {
-      expectedValue = parseInt(args[1]);
-    } catch (final NumberFormatException e) {
-      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      value =
+        connection.memory.waitAddress(address, expectedValue, mask,
+                                      ((long)cyclesTimeout) & 0xffffffffL,
+                                      ((long)millisTimeout) & 0xffffffffL);
+    } finally {
+      metrics.addWaitNanos(System.nanoTime() - startTime);
     }
-    final int mask;
-    if (args.length > 2) {
-      try {
-        mask = parseInt(args[2]);
-      } catch (final NumberFormatException e) {
-        return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
-      }
-    } else {
-      mask = 0xffffffff;
+    connection.respond(ResponseStatus.OK, value);
+  }
+
+  private void handleGetMetrics(final Connection connection)
+  {
+    final int argCount = connection.getArgCount();
+    if (argCount > 1) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(1));
+      return;
     }
-    final int cyclesTimeout;
-    if (args.length > 3) {
-      try {
-        cyclesTimeout = parseInt(args[3]);
-      } catch (final NumberFormatException e) {
-        return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
-      }
+    if (argCount == 0) {
+      connection.respond(ResponseStatus.OK, metrics.getSummary());
+      return;
+    }
+    final String command = connection.getArg(0);
+    if ((command.length() != 1) ||
+        (command.charAt(0) >= ServerMetrics.COMMAND_RANGE)) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT, command);
+      return;
+    }
+    connection.respond(ResponseStatus.OK,
+                       metrics.getCommandSummary(command.charAt(0)));
+  }
+
+  private void handleWaitMultiple(final Connection connection)
+    throws IOException
+  {
+    final int argCount = connection.getArgCount();
+    if (argCount < 6) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
+    }
+    if ((argCount - 3) % 3 != 0) {
+      connection.respond(ResponseStatus.ERR_MISSING_OPERAND);
+      return;
+    }
+    final WaitConditions.Mode mode;
+    if (connection.argEquals(0, WaitConditions.Mode.ANY_OF.getId())) {
+      mode = WaitConditions.Mode.ANY_OF;
+    } else if (connection.argEquals(0, WaitConditions.Mode.ALL_OF.getId())) {
+      mode = WaitConditions.Mode.ALL_OF;
     } else {
-      cyclesTimeout = 0x0;
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT,
+                         connection.getArg(0));
+      return;
     }
+    final WaitConditions conditions = new WaitConditions(mode);
+    final int cyclesTimeout;
     final int millisTimeout;
-    if (args.length > 4) {
-      try {
-        millisTimeout = parseInt(args[4]);
-      } catch (final NumberFormatException e) {
-        return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    try {
+      cyclesTimeout = connection.parseInt(1);
+      millisTimeout = connection.parseInt(2);
+      for (int index = 3; index < argCount; index += 3) {
+        conditions.addCondition(connection.parseAddress(index),
+                                connection.parseInt(index + 1),
+                                connection.parseInt(index + 2));
       }
-    } else {
-      millisTimeout = 0x0;
+    } catch (final NumberFormatException e) {
+      connection.respond(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+      return;
+    } catch (final IllegalArgumentException e) {
+      connection.respond(ResponseStatus.ERR_UNPARSED_INPUT, e.getMessage());
+      return;
+    }
+    final long startTime = System.nanoTime();
+    final WaitConditions.Result result;
+    try {
+      result =
+        connection.memory.waitAddresses(conditions,
+                                        ((long)cyclesTimeout) & 0xffffffffL,
+                                        ((long)millisTimeout) & 0xffffffffL);
+    } finally {
+      metrics.addWaitNanos(System.nanoTime() - startTime);
+    }
+    final StringBuilder response = new StringBuilder();
+    response.append(result.isFulfilled() ? "t " : "f ");
+    response.append(result.getSatisfied()).append(' ');
+    response.append(result.getWallClock());
+    for (final int value : result.getValues()) {
+      response.append(' ').append(value);
     }
-    final int value =
-      memory.waitAddress(address, expectedValue, mask,
-                         ((long)cyclesTimeout) & 0xffffffffL,
-                         ((long)millisTimeout) & 0xffffffffL);
-    return createResponse(ResponseStatus.OK, String.valueOf(value));
+    connection.respond(ResponseStatus.OK, response.toString());
   }
 
-  private String handleRequest(final String request) throws IOException
+  /**
+   * Handles the request in the current line of the connection, and
+   * writes the response into the connection's output buffer.
+   *
+   * @return True, if the connection is to be closed, i.e. upon an
+   * empty request or the quit command.
+   */
+  private boolean handleRequest(final Connection connection)
+    throws IOException
   {
-    if (request.isEmpty()) {
-      return null;
+    if (!connection.tokenize()) {
+      return true;
     }
-    final char command = request.charAt(0);
-    final String unparsedArgs = request.substring(1).trim();
-    final String[] args =
-      unparsedArgs.length() > 0 ? unparsedArgs.split(" ") : NULL_ARGS;
+    final char command = connection.getCommand();
     /*
      * TODO: Idea: Introduce another command 's' for waiting (or
      * "sleeping") until the emulator runs idle (in MasterClock
@@ -427,37 +1254,93 @@ public class RemoteAddressSpaceServer
      */
     switch (command) {
     case 'v':
-      return handleGetVersion(args);
+      handleGetVersion(connection);
+      break;
     case 'h':
     case '?':
-      return handleGetHelp(args);
+      handleGetHelp(connection);
+      break;
     case 'q':
-      return handleQuit(args);
+      return handleQuit(connection);
     case 'p':
-      return handleProvidesAddress(args);
+      handleProvidesAddress(connection);
+      break;
     case 's':
-      return handleGetRegisterSetId(args);
+      handleGetRegisterSetId(connection);
+      break;
     case 'l':
-      return handleGetLabel(args);
+      handleGetLabel(connection);
+      break;
+    case 'f':
+      handleGetRegisterMap(connection);
+      break;
     case 'w':
-      return handleWriteAddress(args);
+      handleWriteAddress(connection);
+      break;
     case 'r':
-      return handleReadAddress(args);
+      handleReadAddress(connection);
+      break;
+    case 'a':
+      handleReadAddresses(connection);
+      break;
+    case 'g':
+      handleReadRange(connection);
+      break;
+    case 'y':
+      handleReadCycleHistory(connection);
+      break;
+    case 'm':
+      handleWriteAddresses(connection);
+      break;
+    case 't':
+      handleTransaction(connection);
+      break;
+    case 'e':
+      handleExecuteExample(connection);
+      break;
+    case 'x':
+      handleExecuteScript(connection);
+      break;
+    case 'z':
+      handleSaveState(connection);
+      break;
+    case 'o':
+      handleRestoreState(connection);
+      break;
     case 'i':
-      return handleWait(args);
+      handleWait(connection);
+      break;
+    case 'b':
+      handleWaitMultiple(connection);
+      break;
+    case 'c':
+      handleAttachSession(connection);
+      break;
+    case 'd':
+      handleDestroySession(connection);
+      break;
+    case 'n':
+      handleListSessions(connection);
+      break;
+    case 'u':
+      handleGetMetrics(connection);
+      break;
     default:
-      return createResponse(ResponseStatus.ERR_UNKNOWN_COMMAND,
-                            String.valueOf(command));
+      connection.respond(ResponseStatus.ERR_UNKNOWN_COMMAND,
+                         String.valueOf(command));
+      break;
     }
+    return false;
   }
 
-  private void handleThrowable(final PrintWriter clientOut, final Throwable t,
+  private void handleThrowable(final Connection connection, final Throwable t,
                                final ResponseStatus responseStatus,
                                final int id)
   {
-    if (clientOut != null) {
+    if (connection != null) {
       try {
-        clientOut.println(createResponse(responseStatus, t.getMessage()));
+        connection.respond(responseStatus, t.getMessage());
+        connection.flush();
       } catch (final Throwable s) {
         // ignore
       }
@@ -470,24 +1353,29 @@ public class RemoteAddressSpaceServer
   {
     final int id = connectionCounter++;
     console.printf("connection #%d opened%n", id);
-    PrintWriter clientOut = null;
+    metrics.connectionOpened();
+    Connection connection = null;
     try {
-      clientOut = new PrintWriter(clientSocket.getOutputStream(), true);
-      final BufferedReader in =
-        new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-      String request;
-      while ((request = in.readLine()) != null) {
-        final String response = handleRequest(request.trim());
-        if (response == null) {
+      connection = new Connection(clientSocket.getInputStream(),
+                                  clientSocket.getOutputStream(),
+                                  metrics,
+                                  SessionRegistry.DEFAULT_SESSION_NAME,
+                                  sessions.getDefaultSession());
+      while (connection.readLine()) {
+        final long startTime = System.nanoTime();
+        if (handleRequest(connection)) {
           break;
         }
-        clientOut.println(response);
+        connection.flush();
+        metrics.recordRequest(connection.getCommand(),
+                              System.nanoTime() - startTime);
       }
     } catch (final IOException e) {
-      handleThrowable(clientOut, e, ResponseStatus.ERR_IO, id);
+      handleThrowable(connection, e, ResponseStatus.ERR_IO, id);
     } catch (final Throwable t) {
-      handleThrowable(clientOut, t, ResponseStatus.ERR_UNEXPECTED, id);
+      handleThrowable(connection, t, ResponseStatus.ERR_UNEXPECTED, id);
     } finally {
+      metrics.connectionClosed();
       console.printf("connection #%d closed%n", id);
       try {
         clientSocket.close();
@@ -24,6 +24,9 @@
  */
 package org.soundpaint.rp2040pio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.function.Function;
 import java.util.function.IntConsumer;
@@ -33,16 +36,19 @@ import java.util.function.IntConsumer;
  */
 public class SM implements Constants
 {
+  private final int pioNum;
   private final int num;
   private final PrintStream console;
   private final MasterClock masterClock;
   private final PIOGPIO pioGpio;
   private final Memory memory;
   private final IRQ irq;
+  private final TraceSink traceSink;
   private final Status status;
   private final Decoder decoder;
   private final FIFO fifo;
   private final PLL pll;
+  private volatile int configGeneration;
 
   public enum IOMapping
   {
@@ -328,10 +334,16 @@ public class SM implements Constants
     throw new UnsupportedOperationException("unsupported empty constructor");
   }
 
-  public SM(final int num, final PrintStream console,
+  public SM(final int pioNum, final int num, final PrintStream console,
             final MasterClock masterClock, final PIOGPIO pioGpio,
-            final Memory memory, final IRQ irq)
+            final Memory memory, final IRQ irq, final TraceSink traceSink)
   {
+    if (pioNum < 0) {
+      throw new IllegalArgumentException("PIO num < 0: " + pioNum);
+    }
+    if (pioNum > 1) {
+      throw new IllegalArgumentException("PIO num > 1: " + pioNum);
+    }
     if (num < 0) {
       throw new IllegalArgumentException("SM num < 0: " + num);
     }
@@ -353,16 +365,22 @@ public class SM implements Constants
     if (irq == null) {
       throw new NullPointerException("irq");
     }
+    if (traceSink == null) {
+      throw new NullPointerException("traceSink");
+    }
+    this.pioNum = pioNum;
     this.num = num;
     this.console = console;
     this.masterClock = masterClock;
     this.pioGpio = pioGpio;
     this.memory = memory;
     this.irq = irq;
+    this.traceSink = traceSink;
     status = new Status();
     decoder = new Decoder();
     fifo = new FIFO(num, irq);
     pll = new PLL(console);
+    configGeneration = 0;
   }
 
   public int getNum() { return num; }
@@ -377,17 +395,165 @@ public class SM implements Constants
 
   public PLL getPLL() { return pll; }
 
+  /**
+   * Returns a counter that is incremented upon each modification of
+   * this SM's configuration, i.e. its CLKDIV, EXECCTRL, SHIFTCTRL or
+   * PINCTRL register.
+   */
+  public int getConfigGeneration() { return configGeneration; }
+
   public void reset()
   {
     status.reset();
     decoder.reset();
     fifo.reset();
     pll.reset();
+    configGeneration++;
+  }
+
+  /**
+   * Writes this SM's status, FIFOs and clock divider to the specified
+   * output.  The current instruction is saved as its op-code and
+   * re-decoded upon restore, using the restored values of
+   * PINCTRL_SIDESET_COUNT and EXECCTRL_SIDE_EN.
+   */
+  public void saveState(final DataOutput out) throws IOException
+  {
+    final Instruction instruction = status.instruction;
+    out.writeInt(instruction != null ? instruction.getOpCode() & 0xffff : -1);
+    out.writeInt(status.origin);
+    out.writeInt(status.resultState != null ?
+                 status.resultState.ordinal() : -1);
+    out.writeBoolean(status.processing);
+    out.writeBoolean(status.smEnabled);
+    out.writeBoolean(status.clockEnabled);
+    out.writeBoolean(status.isDelayCycle);
+    out.writeInt(status.collateSideSetPins);
+    out.writeInt(status.collateSideSetBase);
+    out.writeInt(status.collateSideSetCount);
+    out.writeInt(status.outStickyPins);
+    out.writeInt(status.outStickyBase);
+    out.writeInt(status.outStickyCount);
+    out.writeBoolean(status.havePendingOutOrSetPins);
+    out.writeInt(status.regX);
+    out.writeInt(status.regY);
+    out.writeInt(status.isrValue);
+    out.writeInt(status.isrShiftCount);
+    out.writeInt(status.osrValue);
+    out.writeInt(status.osrShiftCount);
+    out.writeInt(status.totalDelay);
+    out.writeInt(status.pendingDelay);
+    out.writeInt(status.pendingForcedInstruction);
+    out.writeBoolean(status.isForcedInstruction);
+    out.writeInt(status.pendingExecdInstruction);
+    out.writeInt(status.regADDR);
+    out.writeBoolean(status.regEXECCTRL_SIDE_EN);
+    out.writeInt(status.regEXECCTRL_SIDE_PINDIR.getValue());
+    out.writeInt(status.regEXECCTRL_JMP_PIN);
+    out.writeInt(status.regEXECCTRL_OUT_EN_SEL);
+    out.writeBoolean(status.regEXECCTRL_INLINE_OUT_EN);
+    out.writeBoolean(status.regEXECCTRL_OUT_STICKY);
+    out.writeInt(status.regEXECCTRL_WRAP_TOP);
+    out.writeInt(status.regEXECCTRL_WRAP_BOTTOM);
+    out.writeBoolean(status.regEXECCTRL_STATUS_SEL);
+    out.writeInt(status.regEXECCTRL_STATUS_N);
+    out.writeInt(status.regSHIFTCTRL_PULL_THRESH);
+    out.writeInt(status.regSHIFTCTRL_PUSH_THRESH);
+    out.writeInt(status.regSHIFTCTRL_IN_SHIFTDIR.getValue());
+    out.writeBoolean(status.regSHIFTCTRL_AUTOPULL);
+    out.writeInt(status.regSHIFTCTRL_OUT_SHIFTDIR.getValue());
+    out.writeBoolean(status.regSHIFTCTRL_AUTOPUSH);
+    out.writeInt(status.regPINCTRL_SIDESET_COUNT);
+    out.writeInt(status.regPINCTRL_SET_COUNT);
+    out.writeInt(status.regPINCTRL_OUT_COUNT);
+    out.writeInt(status.regPINCTRL_IN_BASE);
+    out.writeInt(status.regPINCTRL_SIDESET_BASE);
+    out.writeInt(status.regPINCTRL_SET_BASE);
+    out.writeInt(status.regPINCTRL_OUT_BASE);
+    out.writeInt(status.regBREAKPOINTS);
+    out.writeInt(status.regTRACEPOINTS);
+    fifo.saveState(out);
+    pll.saveState(out);
+  }
+
+  public void restoreState(final DataInput in) throws IOException
+  {
+    final int opCode = in.readInt();
+    status.origin = in.readInt();
+    final int resultState = in.readInt();
+    status.resultState =
+      resultState >= 0 ?
+      Instruction.ResultState.values()[resultState] : null;
+    status.processing = in.readBoolean();
+    status.smEnabled = in.readBoolean();
+    status.clockEnabled = in.readBoolean();
+    status.isDelayCycle = in.readBoolean();
+    status.collateSideSetPins = in.readInt();
+    status.collateSideSetBase = in.readInt();
+    status.collateSideSetCount = in.readInt();
+    status.outStickyPins = in.readInt();
+    status.outStickyBase = in.readInt();
+    status.outStickyCount = in.readInt();
+    status.havePendingOutOrSetPins = in.readBoolean();
+    status.regX = in.readInt();
+    status.regY = in.readInt();
+    status.isrValue = in.readInt();
+    status.isrShiftCount = in.readInt();
+    status.osrValue = in.readInt();
+    status.osrShiftCount = in.readInt();
+    status.totalDelay = in.readInt();
+    status.pendingDelay = in.readInt();
+    status.pendingForcedInstruction = in.readInt();
+    status.isForcedInstruction = in.readBoolean();
+    status.pendingExecdInstruction = in.readInt();
+    status.regADDR = in.readInt();
+    status.regEXECCTRL_SIDE_EN = in.readBoolean();
+    status.regEXECCTRL_SIDE_PINDIR = PIO.PinDir.fromValue(in.readInt());
+    status.regEXECCTRL_JMP_PIN = in.readInt();
+    status.regEXECCTRL_OUT_EN_SEL = in.readInt();
+    status.regEXECCTRL_INLINE_OUT_EN = in.readBoolean();
+    status.regEXECCTRL_OUT_STICKY = in.readBoolean();
+    status.regEXECCTRL_WRAP_TOP = in.readInt();
+    status.regEXECCTRL_WRAP_BOTTOM = in.readInt();
+    status.regEXECCTRL_STATUS_SEL = in.readBoolean();
+    status.regEXECCTRL_STATUS_N = in.readInt();
+    status.regSHIFTCTRL_PULL_THRESH = in.readInt();
+    status.regSHIFTCTRL_PUSH_THRESH = in.readInt();
+    status.regSHIFTCTRL_IN_SHIFTDIR = PIO.ShiftDir.fromValue(in.readInt());
+    status.regSHIFTCTRL_AUTOPULL = in.readBoolean();
+    status.regSHIFTCTRL_OUT_SHIFTDIR = PIO.ShiftDir.fromValue(in.readInt());
+    status.regSHIFTCTRL_AUTOPUSH = in.readBoolean();
+    status.regPINCTRL_SIDESET_COUNT = in.readInt();
+    status.regPINCTRL_SET_COUNT = in.readInt();
+    status.regPINCTRL_OUT_COUNT = in.readInt();
+    status.regPINCTRL_IN_BASE = in.readInt();
+    status.regPINCTRL_SIDESET_BASE = in.readInt();
+    status.regPINCTRL_SET_BASE = in.readInt();
+    status.regPINCTRL_OUT_BASE = in.readInt();
+    status.regBREAKPOINTS = in.readInt();
+    status.regTRACEPOINTS = in.readInt();
+    if (opCode >= 0) {
+      try {
+        status.instruction =
+          decoder.decode((short)opCode,
+                         status.regPINCTRL_SIDESET_COUNT,
+                         status.regEXECCTRL_SIDE_EN);
+      } catch (final Decoder.DecodeException e) {
+        throw new IOException("failed decoding saved instruction: " +
+                              e.getMessage());
+      }
+    } else {
+      status.instruction = null;
+    }
+    fifo.restoreState(in);
+    pll.restoreState(in);
+    configGeneration++;
   }
 
   public void setCLKDIV(final int clkdiv, final int mask, final boolean xor)
   {
     pll.setCLKDIV(Constants.hwSetBits(pll.getCLKDIV(), clkdiv, mask, xor));
+    configGeneration++;
   }
 
   public int getCLKDIV()
@@ -398,6 +564,7 @@ public class SM implements Constants
   public void resetCLKDIV()
   {
     pll.reset();
+    configGeneration++;
   }
 
   public int outEnSel()
@@ -418,6 +585,7 @@ public class SM implements Constants
   public void setEXECCTRL(final int execctrl, final int mask, final boolean xor)
   {
     setEXECCTRL(Constants.hwSetBits(getEXECCTRL(), execctrl, mask, xor));
+    configGeneration++;
   }
 
   private void setEXECCTRL(final int execctrl)
@@ -472,6 +640,7 @@ public class SM implements Constants
                            final boolean xor)
   {
     setSHIFTCTRL(Constants.hwSetBits(getSHIFTCTRL(), shiftctrl, mask, xor));
+    configGeneration++;
   }
 
   private void setSHIFTCTRL(final int shiftctrl)
@@ -518,6 +687,7 @@ public class SM implements Constants
   public void setPINCTRL(final int pinctrl, final int mask, final boolean xor)
   {
     setPINCTRL(Constants.hwSetBits(getPINCTRL(), pinctrl, mask, xor));
+    configGeneration++;
   }
 
   private void setPINCTRL(final int pinctrl)
@@ -574,7 +744,7 @@ public class SM implements Constants
             (status.pendingExecdInstruction >= 0) ||
             !status.consumePendingDelay()) {
           status.isDelayCycle = false;
-          fetchAndDecode();
+          fetchAndDecode(wallClock);
         } else {
           status.isDelayCycle = true;
         }
@@ -725,6 +895,7 @@ public class SM implements Constants
       throw new IllegalArgumentException("side set count > 5: " + count);
     }
     status.regPINCTRL_SIDESET_COUNT = count;
+    configGeneration++;
   }
 
   public PIO.ShiftDir getInShiftDir()
@@ -1079,7 +1250,8 @@ public class SM implements Constants
     return status.pendingDelay;
   }
 
-  private void fetchAndDecode() throws Decoder.DecodeException
+  private void fetchAndDecode(final long wallClock)
+    throws Decoder.DecodeException
   {
     synchronized(memory.FETCH_LOCK) {
       final short word = fetch();
@@ -1087,8 +1259,12 @@ public class SM implements Constants
         decoder.decode(word,
                        status.regPINCTRL_SIDESET_COUNT,
                        status.regEXECCTRL_SIDE_EN);
-      if (((status.regTRACEPOINTS >>> status.regADDR) & 0x1) != 0x0) {
-        console.println("SM" + num + ": " + instruction);
+      if ((((status.regTRACEPOINTS >>> status.regADDR) & 0x1) != 0x0) &&
+          !masterClock.isReplaying()) {
+        traceSink.record(wallClock, pioNum, num, status.regADDR, word,
+                         status.regPINCTRL_SIDESET_COUNT,
+                         status.regEXECCTRL_SIDE_EN,
+                         status.regX, status.regY);
       }
       status.instruction = instruction;
     }
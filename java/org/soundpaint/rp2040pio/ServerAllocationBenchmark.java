@@ -0,0 +1,173 @@
+/*
+ * @(#)ServerAllocationBenchmark.java 1.00 21/06/14
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the number of bytes allocated by the server thread of a
+ * RemoteAddressSpaceServer per request, for each of the
+ * latency-critical commands "r", "w" and "i".  Emulator and server
+ * run within the same JVM, such that the server thread's allocation
+ * counter can be queried.  Requires a JVM that supports thread
+ * allocation accounting (such as HotSpot).
+ */
+public class ServerAllocationBenchmark
+{
+  private static final int WARMUP_REQUESTS = 20000;
+  private static final int MEASURED_REQUESTS = 100000;
+  private static final String SERVER_THREAD_NAME =
+    "RemoteAddressSpaceServer Server Thread";
+
+  private final PrintStream console;
+  private final com.sun.management.ThreadMXBean threadMXBean;
+  private final Socket socket;
+  private final OutputStream out;
+  private final InputStream in;
+  private final byte[] responseBuffer;
+  private final long serverThreadId;
+
+  private ServerAllocationBenchmark()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  private ServerAllocationBenchmark(final PrintStream console, final int port)
+    throws IOException
+  {
+    this.console = console;
+    threadMXBean =
+      (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    socket = new Socket(InetAddress.getByName(null), port);
+    socket.setTcpNoDelay(true);
+    out = socket.getOutputStream();
+    in = socket.getInputStream();
+    responseBuffer = new byte[256];
+    sendRequest("v\n".getBytes(StandardCharsets.US_ASCII));
+    serverThreadId = findServerThreadId();
+  }
+
+  private static long findServerThreadId() throws IOException
+  {
+    for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals(SERVER_THREAD_NAME)) {
+        return thread.getId();
+      }
+    }
+    throw new IOException("server thread not found");
+  }
+
+  private void sendRequest(final byte[] request) throws IOException
+  {
+    out.write(request);
+    out.flush();
+    int length = 0;
+    while (true) {
+      final int b = in.read();
+      if (b < 0) {
+        throw new IOException("connection closed");
+      }
+      if (b == '\n') break;
+      if (length < responseBuffer.length) {
+        responseBuffer[length++] = (byte)b;
+      }
+    }
+    if ((length < 3) ||
+        (responseBuffer[0] != '1') ||
+        (responseBuffer[1] != '0') ||
+        (responseBuffer[2] != '1')) {
+      throw new IOException("unexpected response: " +
+                            new String(responseBuffer, 0, length,
+                                       StandardCharsets.UTF_8));
+    }
+  }
+
+  private double measure(final String request) throws IOException
+  {
+    final byte[] requestBytes =
+      (request + "\n").getBytes(StandardCharsets.US_ASCII);
+    for (int count = 0; count < WARMUP_REQUESTS; count++) {
+      sendRequest(requestBytes);
+    }
+    final long startBytes =
+      threadMXBean.getThreadAllocatedBytes(serverThreadId);
+    final long startTime = System.nanoTime();
+    for (int count = 0; count < MEASURED_REQUESTS; count++) {
+      sendRequest(requestBytes);
+    }
+    final long stopTime = System.nanoTime();
+    final long stopBytes =
+      threadMXBean.getThreadAllocatedBytes(serverThreadId);
+    final double bytesPerRequest =
+      (double)(stopBytes - startBytes) / MEASURED_REQUESTS;
+    final double microsPerRequest =
+      (stopTime - startTime) / 1000.0 / MEASURED_REQUESTS;
+    console.printf("%-40s %10.1f bytes/request %8.2f µs/request%n",
+                   request, bytesPerRequest, microsPerRequest);
+    return bytesPerRequest;
+  }
+
+  private void run() throws IOException
+  {
+    final int addressWallClock =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.WALLCLOCK_LSB);
+    final int addressX =
+      PIOEmuRegisters.getSMAddress(0, 0, PIOEmuRegisters.Regs.SM0_REGX);
+    measure(String.format("r 0x%08x", addressWallClock));
+    measure(String.format("w 0x%08x 0x12345678 0xffffffff f", addressX));
+    measure(String.format("i 0x%08x 0x12345678", addressX));
+    out.write("q\n".getBytes(StandardCharsets.US_ASCII));
+    out.flush();
+    socket.close();
+  }
+
+  public static void main(final String argv[]) throws IOException
+  {
+    final PrintStream console = System.out;
+    final PrintStream serverConsole =
+      new PrintStream(OutputStream.nullOutputStream());
+    final Emulator emulator = new Emulator(serverConsole);
+    final LocalAddressSpace memory = new LocalAddressSpace(emulator);
+    final int port = argv.length > 0 ? Integer.parseInt(argv[0]) : 2042;
+    new RemoteAddressSpaceServer(serverConsole, memory, port);
+    new ServerAllocationBenchmark(console, port).run();
+    emulator.terminate();
+    System.exit(0);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,213 @@
+/*
+ * @(#)ServerMetrics.java 1.00 21/06/17
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of a RemoteAddressSpaceServer: number of requests and
+ * latency histogram per command, bytes received and sent, number of
+ * connections, and time spent blocked in wait requests.  Requests
+ * are identified by their command character.  Recording does not
+ * allocate any objects, such that it can stay enabled permanently.
+ *
+ * Latency histogram bucket 0 counts requests that took less than
+ * 1µs.  Bucket k > 0 counts requests that took at least 2^(k-1)µs,
+ * but less than 2^k µs, except for the last bucket, which counts all
+ * remaining requests.
+ */
+public class ServerMetrics
+{
+  public static final int COMMAND_RANGE = 0x80;
+  public static final int HISTOGRAM_BUCKETS = 32;
+
+  private final AtomicLongArray requestCounts;
+  private final AtomicLongArray requestNanos;
+  private final AtomicLongArray histograms;
+  private final AtomicInteger activeConnections;
+  private final AtomicLong totalConnections;
+  private final AtomicLong bytesIn;
+  private final AtomicLong bytesOut;
+  private final AtomicLong waitNanos;
+
+  public ServerMetrics()
+  {
+    requestCounts = new AtomicLongArray(COMMAND_RANGE);
+    requestNanos = new AtomicLongArray(COMMAND_RANGE);
+    histograms = new AtomicLongArray(COMMAND_RANGE * HISTOGRAM_BUCKETS);
+    activeConnections = new AtomicInteger();
+    totalConnections = new AtomicLong();
+    bytesIn = new AtomicLong();
+    bytesOut = new AtomicLong();
+    waitNanos = new AtomicLong();
+  }
+
+  private static void checkCommand(final char command)
+  {
+    if (command >= COMMAND_RANGE) {
+      throw new IllegalArgumentException("command not in ASCII range: " +
+                                         (int)command);
+    }
+  }
+
+  private static void checkBucket(final int bucket)
+  {
+    if ((bucket < 0) || (bucket >= HISTOGRAM_BUCKETS)) {
+      throw new IllegalArgumentException("bucket: " + bucket);
+    }
+  }
+
+  public static int getBucket(final long nanos)
+  {
+    final long micros = nanos / 1000;
+    final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+  }
+
+  /**
+   * Returns the exclusive upper bound in µs of the latencies counted
+   * by the specified histogram bucket, or -1 for the last bucket.
+   */
+  public static long getBucketUpperBoundMicros(final int bucket)
+  {
+    checkBucket(bucket);
+    return bucket < HISTOGRAM_BUCKETS - 1 ? 1L << bucket : -1;
+  }
+
+  public void connectionOpened()
+  {
+    activeConnections.incrementAndGet();
+    totalConnections.incrementAndGet();
+  }
+
+  public void connectionClosed()
+  {
+    activeConnections.decrementAndGet();
+  }
+
+  public void addBytesIn(final int count)
+  {
+    bytesIn.addAndGet(count);
+  }
+
+  public void addBytesOut(final int count)
+  {
+    bytesOut.addAndGet(count);
+  }
+
+  public void addWaitNanos(final long nanos)
+  {
+    waitNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Records a served request.  Requests with a command character
+   * outside of the ASCII range are silently ignored.
+   */
+  public void recordRequest(final char command, final long nanos)
+  {
+    if (command >= COMMAND_RANGE) return;
+    requestCounts.incrementAndGet(command);
+    requestNanos.addAndGet(command, nanos);
+    histograms.incrementAndGet(command * HISTOGRAM_BUCKETS + getBucket(nanos));
+  }
+
+  public int getActiveConnections() { return activeConnections.get(); }
+
+  public long getTotalConnections() { return totalConnections.get(); }
+
+  public long getBytesIn() { return bytesIn.get(); }
+
+  public long getBytesOut() { return bytesOut.get(); }
+
+  public long getWaitNanos() { return waitNanos.get(); }
+
+  public long getRequestCount(final char command)
+  {
+    checkCommand(command);
+    return requestCounts.get(command);
+  }
+
+  public long getRequestNanos(final char command)
+  {
+    checkCommand(command);
+    return requestNanos.get(command);
+  }
+
+  public long getHistogramCount(final char command, final int bucket)
+  {
+    checkCommand(command);
+    checkBucket(bucket);
+    return histograms.get(command * HISTOGRAM_BUCKETS + bucket);
+  }
+
+  /**
+   * Returns a summary line of key-value pairs, followed by a
+   * "&lt;command&gt;=&lt;count&gt;" pair for each command that has
+   * been requested at least once.
+   */
+  public String getSummary()
+  {
+    final StringBuilder s = new StringBuilder();
+    s.append("active=").append(getActiveConnections());
+    s.append(" connections=").append(getTotalConnections());
+    s.append(" in=").append(getBytesIn());
+    s.append(" out=").append(getBytesOut());
+    s.append(" waitmicros=").append(getWaitNanos() / 1000);
+    for (char command = 0; command < COMMAND_RANGE; command++) {
+      final long count = requestCounts.get(command);
+      if (count > 0) {
+        s.append(' ').append(command).append('=').append(count);
+      }
+    }
+    return s.toString();
+  }
+
+  /**
+   * Returns the request count, the accumulated latency in µs, and the
+   * latency histogram of the specified command, as space separated
+   * list of decimal numbers.
+   */
+  public String getCommandSummary(final char command)
+  {
+    checkCommand(command);
+    final StringBuilder s = new StringBuilder();
+    s.append(getRequestCount(command));
+    s.append(' ').append(getRequestNanos(command) / 1000);
+    for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+      s.append(' ').append(getHistogramCount(command, bucket));
+    }
+    return s.toString();
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,189 @@
+/*
+ * @(#)SessionRegistry.java 1.00 21/06/15
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registry of named emulation sessions hosted by a single server.
+ * Each session is an independent emulator instance with its own
+ * master clock and its own address space.  Clients of a
+ * RemoteAddressSpaceServer initially operate on the default session,
+ * and may create and attach to further sessions by name.
+ */
+public class SessionRegistry
+{
+  public static final String DEFAULT_SESSION_NAME = "default";
+
+  private final PrintStream console;
+  private final boolean sessionCreationEnabled;
+  private final Map<String, AddressSpace> sessions;
+  private final Map<String, Emulator> ownedEmulators;
+  private final ServerMetrics metrics;
+
+  private SessionRegistry()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * @param defaultSession The address space of the default session.
+   * The registry does not take ownership of it, i.e. the default
+   * session can not be destroyed via the registry.
+   * @param sessionCreationEnabled If true, sessions other than the
+   * default session may be created on demand.
+   */
+  public SessionRegistry(final PrintStream console,
+                         final AddressSpace defaultSession,
+                         final boolean sessionCreationEnabled)
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    if (defaultSession == null) {
+      throw new NullPointerException("defaultSession");
+    }
+    this.console = console;
+    this.sessionCreationEnabled = sessionCreationEnabled;
+    sessions = new TreeMap<String, AddressSpace>();
+    ownedEmulators = new HashMap<String, Emulator>();
+    metrics = new ServerMetrics();
+    sessions.put(DEFAULT_SESSION_NAME, defaultSession);
+    if (defaultSession instanceof LocalAddressSpace) {
+      ((LocalAddressSpace)defaultSession).getEmulator().
+        setServerMetrics(metrics);
+    }
+  }
+
+  /**
+   * Returns the statistics of the server that hosts the sessions of
+   * this registry.  The statistics are also accessible via the
+   * emulator global registers of each locally emulated session.
+   */
+  public ServerMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  public static void checkSessionName(final String name) throws IOException
+  {
+    if (name == null) {
+      throw new NullPointerException("name");
+    }
+    if (name.isEmpty()) {
+      throw new IOException("empty session name");
+    }
+    for (int index = 0; index < name.length(); index++) {
+      final char c = name.charAt(index);
+      if (!(((c >= 'a') && (c <= 'z')) ||
+            ((c >= 'A') && (c <= 'Z')) ||
+            ((c >= '0') && (c <= '9')) ||
+            (c == '_') || (c == '-') || (c == '.'))) {
+        throw new IOException("invalid character in session name: " + name);
+      }
+    }
+  }
+
+  public AddressSpace getDefaultSession()
+  {
+    return getSession(DEFAULT_SESSION_NAME);
+  }
+
+  /**
+   * Returns the address space of the session with the specified
+   * name, or null, if there is no such session.
+   */
+  public synchronized AddressSpace getSession(final String name)
+  {
+    return sessions.get(name);
+  }
+
+  /**
+   * Returns the address space of the session with the specified
+   * name, creating a new session with a fresh emulator instance, if
+   * there is no such session yet.
+   */
+  public synchronized AddressSpace attach(final String name)
+    throws IOException
+  {
+    checkSessionName(name);
+    final AddressSpace existing = sessions.get(name);
+    if (existing != null) {
+      return existing;
+    }
+    if (!sessionCreationEnabled) {
+      throw new IOException("creation of sessions not supported: " + name);
+    }
+    final Emulator emulator = new Emulator(console);
+    emulator.setServerMetrics(metrics);
+    final LocalAddressSpace memory = new LocalAddressSpace(emulator);
+    sessions.put(name, memory);
+    ownedEmulators.put(name, emulator);
+    console.printf("created session %s%n", name);
+    return memory;
+  }
+
+  /**
+   * Removes the session with the specified name and terminates its
+   * emulator.  Clients still attached to the session should not
+   * expect any further progress of its clock.
+   */
+  public synchronized void destroy(final String name) throws IOException
+  {
+    checkSessionName(name);
+    if (name.equals(DEFAULT_SESSION_NAME)) {
+      throw new IOException("default session can not be destroyed");
+    }
+    if (sessions.remove(name) == null) {
+      throw new IOException("no such session: " + name);
+    }
+    final Emulator emulator = ownedEmulators.remove(name);
+    if (emulator != null) {
+      emulator.terminate();
+    }
+    console.printf("destroyed session %s%n", name);
+  }
+
+  /**
+   * Returns the names of all sessions in alphabetical order.
+   */
+  public synchronized List<String> getNames()
+  {
+    return new ArrayList<String>(sessions.keySet());
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,325 @@
+/*
+ * @(#)SharedMemoryAddressSpaceClient.java 1.00 21/06/12
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Read-only address space that reads register values from a shared
+ * memory snapshot as published by class
+ * SharedMemoryAddressSpaceServer.  Reading is lock-free and does
+ * not involve the emulation server at all; the price is that values
+ * are only as recent as the most recent snapshot, and that write
+ * access is not supported.  Clients that need to write may combine
+ * this class with a RemoteAddressSpaceClient, using this one for
+ * high-frequency polling only.
+ */
+public class SharedMemoryAddressSpaceClient extends AddressSpace
+{
+  private static final long POLL_NANOS = 100000;
+
+  private static class MappedRegisterSet
+  {
+    private final String id;
+    private final int baseAddress;
+    private final int size;
+    private final int dataOffset;
+    private final String[] labels;
+    private final boolean[] mirrored;
+
+    private MappedRegisterSet(final String id, final int baseAddress,
+                              final int size, final int dataOffset)
+    {
+      this.id = id;
+      this.baseAddress = baseAddress;
+      this.size = size;
+      this.dataOffset = dataOffset;
+      labels = new String[size];
+      mirrored = new boolean[size];
+    }
+  }
+
+  private final Path path;
+  private final MappedByteBuffer buffer;
+  private final String emulatorInfo;
+  private final MappedRegisterSet[] registerSets;
+
+  private SharedMemoryAddressSpaceClient()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public SharedMemoryAddressSpaceClient(final Path path) throws IOException
+  {
+    if (path == null) {
+      throw new NullPointerException("path");
+    }
+    this.path = path;
+    try (final FileChannel channel =
+         FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.nativeOrder());
+    if (buffer.capacity() < SharedMemoryAddressSpaceServer.OFFSET_METADATA) {
+      throw new IOException("not a register snapshot file: " + path);
+    }
+    final int magic =
+      buffer.getInt(SharedMemoryAddressSpaceServer.OFFSET_MAGIC);
+    if (magic != SharedMemoryAddressSpaceServer.MAGIC) {
+      throw new IOException("not a register snapshot file: " + path);
+    }
+    VarHandle.acquireFence();
+    final int version =
+      buffer.getInt(SharedMemoryAddressSpaceServer.OFFSET_VERSION);
+    if (version != SharedMemoryAddressSpaceServer.VERSION) {
+      throw new IOException("unsupported register snapshot version: " +
+                            version);
+    }
+    final int count =
+      buffer.getInt(SharedMemoryAddressSpaceServer.OFFSET_REGISTER_SET_COUNT);
+    final int dataOffset =
+      buffer.getInt(SharedMemoryAddressSpaceServer.OFFSET_DATA);
+    final ByteBuffer metadata = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    metadata.position(SharedMemoryAddressSpaceServer.OFFSET_METADATA);
+    emulatorInfo = readString(metadata);
+    registerSets = new MappedRegisterSet[count];
+    for (int setIndex = 0; setIndex < count; setIndex++) {
+      final String id = readString(metadata);
+      final int baseAddress = metadata.getInt();
+      final int size = metadata.getInt();
+      final int dataIndex = metadata.getInt();
+      final MappedRegisterSet registers =
+        new MappedRegisterSet(id, baseAddress, size,
+                              dataOffset + 4 * dataIndex);
+      for (int regNum = 0; regNum < size; regNum++) {
+        registers.labels[regNum] = readString(metadata);
+        registers.mirrored[regNum] = metadata.get() != 0;
+      }
+      registerSets[setIndex] = registers;
+    }
+  }
+
+  private static String readString(final ByteBuffer metadata)
+  {
+    final byte[] bytes = new byte[metadata.getShort() & 0xffff];
+    metadata.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public Path getPath() { return path; }
+
+  @Override
+  public String getEmulatorInfo() throws IOException
+  {
+    return emulatorInfo;
+  }
+
+  private MappedRegisterSet getProvidingRegisters(final int address)
+  {
+    for (final MappedRegisterSet registers : registerSets) {
+      final int regNum =
+        ((address - registers.baseAddress) & ~0x3000) >>> 2;
+      if (regNum < registers.size) {
+        return registers;
+      }
+    }
+    return null;
+  }
+
+  private MappedRegisterSet getRegisters(final int address,
+                                         final String purpose)
+    throws IOException
+  {
+    checkAddressAligned(address);
+    final MappedRegisterSet registers = getProvidingRegisters(address);
+    if (registers == null) {
+      final String message =
+        String.format("%s for unsupported address: %08x", purpose, address);
+      throw new IOException(message);
+    }
+    return registers;
+  }
+
+  private static int address2register(final MappedRegisterSet registers,
+                                      final int address)
+  {
+    return ((address - registers.baseAddress) & ~0x3000) >>> 2;
+  }
+
+  @Override
+  public boolean providesAddress(final int address) throws IOException
+  {
+    checkAddressAligned(address);
+    return getProvidingRegisters(address) != null;
+  }
+
+  @Override
+  public String getRegisterSetId(final int address) throws IOException
+  {
+    return getRegisters(address, "requesting register set ID").id;
+  }
+
+  @Override
+  public String getAddressLabel(final int address) throws IOException
+  {
+    final MappedRegisterSet registers =
+      getRegisters(address, "requesting label");
+    return registers.labels[address2register(registers, address)];
+  }
+
+  private long getSequence()
+  {
+    return (long)SharedMemoryAddressSpaceServer.LONG_VIEW.
+      getAcquire(buffer, SharedMemoryAddressSpaceServer.OFFSET_SEQUENCE);
+  }
+
+  /**
+   * Returns the wall clock of the cycle of the most recent snapshot.
+   */
+  public long getWallClock()
+  {
+    while (true) {
+      final long sequence = getSequence();
+      if ((sequence & 0x1) == 0) {
+        final long wallClock =
+          buffer.getLong(SharedMemoryAddressSpaceServer.OFFSET_WALLCLOCK);
+        VarHandle.loadLoadFence();
+        if (getSequence() == sequence) return wallClock;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  @Override
+  public int readAddress(final int address) throws IOException
+  {
+    final MappedRegisterSet registers = getRegisters(address, "read");
+    final int regNum = address2register(registers, address);
+    if (!registers.mirrored[regNum]) {
+      final String message =
+        String.format("read with side effect not mirrored " +
+                      "in snapshot: %08x", address);
+      throw new IOException(message);
+    }
+    final int offset = registers.dataOffset + 4 * regNum;
+    while (true) {
+      final long sequence = getSequence();
+      if ((sequence & 0x1) == 0) {
+        final int value = buffer.getInt(offset);
+        VarHandle.loadLoadFence();
+        if (getSequence() == sequence) return value;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  /**
+   * Reads all values from the same snapshot, i.e. the result is
+   * consistent with respect to the clock cycle.
+   */
+  @Override
+  public int[] readAddresses(final int[] addresses) throws IOException
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    final int[] offsets = new int[addresses.length];
+    for (int index = 0; index < addresses.length; index++) {
+      final int address = addresses[index];
+      final MappedRegisterSet registers = getRegisters(address, "read");
+      final int regNum = address2register(registers, address);
+      if (!registers.mirrored[regNum]) {
+        final String message =
+          String.format("read with side effect not mirrored " +
+                        "in snapshot: %08x", address);
+        throw new IOException(message);
+      }
+      offsets[index] = registers.dataOffset + 4 * regNum;
+    }
+    final int[] values = new int[addresses.length];
+    while (true) {
+      final long sequence = getSequence();
+      if ((sequence & 0x1) == 0) {
+        for (int index = 0; index < offsets.length; index++) {
+          values[index] = buffer.getInt(offsets[index]);
+        }
+        VarHandle.loadLoadFence();
+        if (getSequence() == sequence) return values;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  @Override
+  public void writeAddressMasked(final int address, final int bits,
+                                 final int mask, final boolean xor)
+    throws IOException
+  {
+    final String message =
+      String.format("write to read-only shared memory snapshot: %08x",
+                    address);
+    throw new IOException(message);
+  }
+
+  @Override
+  public int waitAddress(final int address, final int expectedValue,
+                         final int mask,
+                         final long cyclesTimeout, final long millisTimeout)
+    throws IOException
+  {
+    if (cyclesTimeout < 0) {
+      throw new IllegalArgumentException("cyclesTimeout < 0: " + cyclesTimeout);
+    }
+    if (millisTimeout < 0) {
+      throw new IllegalArgumentException("millisTimeout < 0: " + millisTimeout);
+    }
+    final long stopWallClock = getWallClock() + cyclesTimeout;
+    final long stopTime = System.currentTimeMillis() + millisTimeout;
+    int receivedValue;
+    while (((receivedValue = readAddress(address) & mask) != expectedValue)) {
+      if ((cyclesTimeout != 0) && (getWallClock() >= stopWallClock)) break;
+      if ((millisTimeout != 0) &&
+          (System.currentTimeMillis() >= stopTime)) break;
+      LockSupport.parkNanos(POLL_NANOS);
+    }
+    return receivedValue;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,302 @@
+/*
+ * @(#)SharedMemoryAddressSpaceServer.java 1.00 21/06/12
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Read-only transport that periodically publishes a snapshot of all
+ * registers of a local address space into a memory-mapped file.
+ * Observers on the same host (e.g. in another JVM or a native
+ * process) may map the same file and read register values without
+ * any socket round trip, see class SharedMemoryAddressSpaceClient.
+ *
+ * The snapshot is taken by the emulation thread at the falling edge
+ * of every N-th clock cycle, and guarded by a sequence lock
+ * (seqlock): the sequence counter is odd while a snapshot is being
+ * written, and even otherwise.  A reader that observes the same even
+ * sequence number before and after reading a value thus has read a
+ * value of a consistent snapshot.
+ *
+ * File layout (header and register data in native byte order, metadata
+ * in big endian byte order):
+ * <pre>
+ * offset  0: int   magic ("PIOS")
+ * offset  4: int   version
+ * offset  8: long  sequence counter (seqlock)
+ * offset 16: long  wall clock of the cycle of the snapshot
+ * offset 24: int   number of register sets
+ * offset 28: int   byte offset of register data
+ * offset 32: string emulator info, followed by, for each register
+ *            set: string id, int base address, int size (in words),
+ *            int data index (in words), followed by, for each register
+ *            of that set: string label, byte mirrored flag
+ * data offset: int[] register values of all register sets
+ * </pre>
+ * Strings are encoded as a short length followed by UTF-8 bytes.
+ * Registers whose read access triggers a function (such as a FIFO
+ * pop) are not mirrored; their flag is 0 and their value always 0.
+ */
+public class SharedMemoryAddressSpaceServer implements Clock.TransitionListener
+{
+  public static final int MAGIC = 0x50494f53;
+  public static final int VERSION = 1;
+  public static final int OFFSET_MAGIC = 0;
+  public static final int OFFSET_VERSION = 4;
+  public static final int OFFSET_SEQUENCE = 8;
+  public static final int OFFSET_WALLCLOCK = 16;
+  public static final int OFFSET_REGISTER_SET_COUNT = 24;
+  public static final int OFFSET_DATA = 28;
+  public static final int OFFSET_METADATA = 32;
+
+  static final VarHandle LONG_VIEW =
+    MethodHandles.byteBufferViewVarHandle(long[].class,
+                                          ByteOrder.nativeOrder());
+
+  private final PrintStream console;
+  private final LocalAddressSpace memory;
+  private final MasterClock masterClock;
+  private final Path path;
+  private final int interval;
+  private final List<RegisterSet> registerSets;
+  private final boolean[][] mirrored;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int dataOffset;
+  private long sequence;
+  private boolean readErrorReported;
+
+  private SharedMemoryAddressSpaceServer()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * @param interval Number of clock cycles between two subsequent
+   * snapshots.  A value of 1 means publishing a snapshot in each
+   * cycle.
+   */
+  public SharedMemoryAddressSpaceServer(final PrintStream console,
+                                        final LocalAddressSpace memory,
+                                        final Path path,
+                                        final int interval)
+    throws IOException
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    if (memory == null) {
+      throw new NullPointerException("memory");
+    }
+    if (path == null) {
+      throw new NullPointerException("path");
+    }
+    if (interval < 1) {
+      throw new IllegalArgumentException("interval < 1: " + interval);
+    }
+    this.console = console;
+    this.memory = memory;
+    masterClock = memory.getEmulator().getMasterClock();
+    this.path = path;
+    this.interval = interval;
+    registerSets = memory.getRegisterSets();
+    mirrored = new boolean[registerSets.size()][];
+    final byte[] metadata = createMetadata();
+    dataOffset = (OFFSET_METADATA + metadata.length + 0x7) & ~0x7;
+    int dataWords = 0;
+    for (final RegisterSet registers : registerSets) {
+      dataWords += registers.getSize();
+    }
+    final int fileSize = dataOffset + 4 * dataWords;
+
+    // Build the file under a temporary name and atomically rename it
+    // into place, such that readers that still have a previous file
+    // of the same name mapped keep a valid (though stale) mapping
+    // rather than faulting on a truncated file.
+    final Path tmpPath = createTempFile(path);
+    FileChannel tmpChannel = null;
+    try {
+      tmpChannel = FileChannel.open(tmpPath,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+      buffer = tmpChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+      buffer.order(ByteOrder.nativeOrder());
+      buffer.putInt(OFFSET_VERSION, VERSION);
+      LONG_VIEW.setRelease(buffer, OFFSET_SEQUENCE, 0L);
+      buffer.putLong(OFFSET_WALLCLOCK, 0L);
+      buffer.putInt(OFFSET_REGISTER_SET_COUNT, registerSets.size());
+      buffer.putInt(OFFSET_DATA, dataOffset);
+      buffer.put(OFFSET_METADATA, metadata);
+      sequence = 0;
+      readErrorReported = false;
+      synchronized(masterClock.getPhaseLock()) {
+        // clock phases iterate over listeners while holding this lock
+        publish(masterClock.getWallClock());
+
+        // write magic last, such that readers never see partial metadata
+        VarHandle.releaseFence();
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE);
+        masterClock.addTransitionListener(this);
+      }
+    } catch (final IOException | RuntimeException e) {
+      if (tmpChannel != null) {
+        tmpChannel.close();
+      }
+      Files.deleteIfExists(tmpPath);
+      throw e;
+    }
+    channel = tmpChannel;
+  }
+
+  private static Path createTempFile(final Path path) throws IOException
+  {
+    final Path dir = path.toAbsolutePath().getParent();
+    return Files.createTempFile(dir, path.getFileName() + ".", ".tmp");
+  }
+
+  public Path getPath() { return path; }
+
+  public int getInterval() { return interval; }
+
+  private static void writeString(final DataOutputStream out,
+                                  final String s)
+    throws IOException
+  {
+    final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  private byte[] createMetadata() throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    writeString(out, memory.getEmulatorInfo());
+    int dataIndex = 0;
+    for (int setIndex = 0; setIndex < registerSets.size(); setIndex++) {
+      final RegisterSet registers = registerSets.get(setIndex);
+      final int size = registers.getSize();
+      writeString(out, registers.getId());
+      out.writeInt(registers.getBaseAddress());
+      out.writeInt(size);
+      out.writeInt(dataIndex);
+      mirrored[setIndex] = new boolean[size];
+      for (int regNum = 0; regNum < size; regNum++) {
+        mirrored[setIndex][regNum] =
+          !registers.isReadTriggeringFunction(regNum);
+        writeString(out, registers.getRegisterLabel(regNum));
+        out.writeByte(mirrored[setIndex][regNum] ? 1 : 0);
+      }
+      dataIndex += size;
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private void publish(final long wallClock)
+  {
+    LONG_VIEW.setRelease(buffer, OFFSET_SEQUENCE, ++sequence);
+    VarHandle.storeStoreFence();
+    buffer.putLong(OFFSET_WALLCLOCK, wallClock);
+    int offset = dataOffset;
+    for (int setIndex = 0; setIndex < registerSets.size(); setIndex++) {
+      final RegisterSet registers = registerSets.get(setIndex);
+      final boolean[] setMirrored = mirrored[setIndex];
+      for (int regNum = 0; regNum < setMirrored.length; regNum++) {
+        int value = 0;
+        if (setMirrored[regNum]) {
+          try {
+            value = registers.readRegister(regNum);
+          } catch (final IOException e) {
+            // keep snapshot going, but report only once, since the
+            // same failure will typically recur in every snapshot
+            if (!readErrorReported) {
+              console.printf("warning: shared memory snapshot: " +
+                             "failed reading address %08x: %s%n",
+                             registers.getBaseAddress() + 4 * regNum,
+                             e.getMessage());
+              readErrorReported = true;
+            }
+          }
+        }
+        buffer.putInt(offset, value);
+        offset += 4;
+      }
+    }
+    LONG_VIEW.setRelease(buffer, OFFSET_SEQUENCE, ++sequence);
+  }
+
+  @Override
+  public void risingEdge(final long wallClock)
+  {
+    // snapshots are taken only when the cycle has been completed
+  }
+
+  @Override
+  public void fallingEdge(final long wallClock)
+  {
+    // cycles replayed during time travel have already been published
+    if (((wallClock % interval) == 0) && !masterClock.isReplaying()) {
+      publish(wallClock);
+    }
+  }
+
+  /**
+   * Stops publishing snapshots and closes the file.  The file itself
+   * is left in place, such that readers that have mapped it still
+   * see the last snapshot.
+   */
+  public void close() throws IOException
+  {
+    synchronized(masterClock.getPhaseLock()) {
+      // clock phases iterate over listeners while holding this lock
+      masterClock.removeTransitionListener(this);
+    }
+    channel.close();
+    console.println("closed shared memory snapshot at " + path);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
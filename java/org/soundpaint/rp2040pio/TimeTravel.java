@@ -0,0 +1,421 @@
+/*
+ * @(#)TimeTravel.java 1.00 21/06/26
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time travel support for single step debugging.  While enabled, a
+ * checkpoint of the complete emulation state is taken every K
+ * cycles, and all external inputs, i.e. register writes and reads
+ * with side effects performed by clients (including changes of
+ * GPIO_PADIN), are logged together with the clock phase at which
+ * they occurred.  Travelling to a cycle C restores the latest
+ * checkpoint not after C and deterministically re-executes the
+ * cycles up to C, re-applying the logged inputs at their original
+ * clock phases.  Hence, the latency of a travel is bounded by K
+ * cycles of emulation.
+ *
+ * Checkpoints are kept within a configurable memory budget; if the
+ * budget is exceeded, the oldest checkpoints are discarded, together
+ * with any inputs that can no longer be replayed.  After travelling
+ * back, the recorded future remains available: both, travelling
+ * forward and ordinary clocking re-apply the recorded inputs, until
+ * the first new input starts a new history from the current point
+ * on.  Recorded inputs are re-applied at the start of the clock
+ * phase that follows their original point in time, before any PIO
+ * has seen the clock edge, which is equivalent for emulation.
+ *
+ * Replay is exact for inputs that are made in single step mode.
+ * Inputs that are made while the clock runs in target frequency
+ * mode are stamped with the clock phase during which they have been
+ * observed, which may deviate from when they actually took effect.
+ */
+public class TimeTravel implements Clock.TransitionListener
+{
+  public static final int DEFAULT_BUDGET_KIB = 0x1000;
+
+  /**
+   * Re-applies a logged input to the emulator, i.e. performs a
+   * register write or a register read with side effects, as
+   * specified by flag isRead.
+   */
+  public interface InputSink
+  {
+    void replay(final int address, final int bits, final int mask,
+                final boolean xor, final boolean isRead)
+      throws IOException;
+  }
+
+  private static class Checkpoint
+  {
+    private final long cycle;
+    private final byte[] state;
+
+    private Checkpoint(final long cycle, final byte[] state)
+    {
+      this.cycle = cycle;
+      this.state = state;
+    }
+  }
+
+  /**
+   * Inputs are stamped with twice the wall clock, plus one if they
+   * occurred between phase 0 and phase 1 of a cycle.
+   */
+  private static class Input
+  {
+    private final long stamp;
+    private final int address;
+    private final int bits;
+    private final int mask;
+    private final boolean xor;
+    private final boolean isRead;
+
+    private Input(final long stamp, final int address, final int bits,
+                  final int mask, final boolean xor, final boolean isRead)
+    {
+      this.stamp = stamp;
+      this.address = address;
+      this.bits = bits;
+      this.mask = mask;
+      this.xor = xor;
+      this.isRead = isRead;
+    }
+  }
+
+  private final Emulator emulator;
+  private final PrintStream console;
+  private final MasterClock masterClock;
+  private final List<Checkpoint> checkpoints;
+  private final List<Input> inputs;
+  private int appliedInputs;
+  private volatile InputSink inputSink;
+  private int interval;
+  private int budgetKiB;
+  private long usedBytes;
+  private long horizon;
+  private boolean replaying;
+
+  private TimeTravel()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public TimeTravel(final Emulator emulator)
+  {
+    if (emulator == null) {
+      throw new NullPointerException("emulator");
+    }
+    this.emulator = emulator;
+    console = emulator.getConsole();
+    masterClock = emulator.getMasterClock();
+    checkpoints = new ArrayList<Checkpoint>();
+    inputs = new ArrayList<Input>();
+    inputSink = null;
+    interval = 0;
+    budgetKiB = DEFAULT_BUDGET_KIB;
+    replaying = false;
+    clear();
+  }
+
+  public void setInputSink(final InputSink inputSink)
+  {
+    this.inputSink = inputSink;
+  }
+
+  /**
+   * Discards all checkpoints and logged inputs, e.g. upon reset or
+   * when restoring a foreign state.  Configuration is retained.
+   */
+  public synchronized void clear()
+  {
+    checkpoints.clear();
+    inputs.clear();
+    appliedInputs = 0;
+    usedBytes = 0;
+    horizon = 0;
+  }
+
+  public synchronized int getInterval() { return interval; }
+
+  /**
+   * Sets the number of cycles between two checkpoints.  A value of 0
+   * disables time travel.  Any change discards all checkpoints and
+   * logged inputs; the first checkpoint is taken at the start of the
+   * next cycle.
+   */
+  public synchronized void setInterval(final int interval)
+  {
+    if (interval < 0) {
+      throw new IllegalArgumentException("interval < 0: " + interval);
+    }
+    this.interval = interval;
+    clear();
+  }
+
+  public synchronized int getBudgetKiB() { return budgetKiB; }
+
+  public synchronized void setBudgetKiB(final int budgetKiB)
+  {
+    if (budgetKiB < 1) {
+      throw new IllegalArgumentException("budgetKiB < 1: " + budgetKiB);
+    }
+    this.budgetKiB = budgetKiB;
+    evict();
+  }
+
+  /**
+   * Returns the earliest cycle that can be travelled to, or -1, if
+   * there is none.
+   */
+  public synchronized long getEarliestCycle()
+  {
+    return checkpoints.isEmpty() ? -1 : checkpoints.get(0).cycle;
+  }
+
+  /**
+   * Returns the latest cycle that can be travelled to, or -1, if
+   * there is none.
+   */
+  public synchronized long getLatestCycle()
+  {
+    return checkpoints.isEmpty() ? -1 : horizon;
+  }
+
+  private long getCurrentStamp()
+  {
+    final Clock.Phase phase = masterClock.getPhase();
+    final boolean midCycle =
+      (phase == Clock.Phase.PHASE_0_STABLE) ||
+      (phase == Clock.Phase.PHASE_1_IN_PROGRESS);
+    return 2 * masterClock.getWallClock() + (midCycle ? 1 : 0);
+  }
+
+  /**
+   * Logs an external register access.  Any recorded future, i.e. all
+   * recorded inputs not yet re-applied and all checkpoints beyond the
+   * current clock phase, is discarded, since the input starts a new
+   * history.
+   */
+  public synchronized void recordInput(final int address, final int bits,
+                                       final int mask, final boolean xor,
+                                       final boolean isRead)
+  {
+    if ((interval == 0) || replaying) return;
+    final long stamp = getCurrentStamp();
+    inputs.subList(appliedInputs, inputs.size()).clear();
+    while (!checkpoints.isEmpty() &&
+           (2 * checkpoints.get(checkpoints.size() - 1).cycle >= stamp)) {
+      usedBytes -= checkpoints.remove(checkpoints.size() - 1).state.length;
+    }
+    horizon = stamp >>> 1;
+    if (!checkpoints.isEmpty()) {
+      inputs.add(new Input(stamp, address, bits, mask, xor, isRead));
+      appliedInputs = inputs.size();
+    }
+  }
+
+  /**
+   * Re-applies all recorded inputs up to the specified stamp that
+   * have not yet been applied.
+   */
+  private void applyInputs(final long stamp)
+  {
+    final InputSink inputSink = this.inputSink;
+    replaying = true;
+    try {
+      while ((appliedInputs < inputs.size()) &&
+             (inputs.get(appliedInputs).stamp <= stamp)) {
+        final Input input = inputs.get(appliedInputs++);
+        if (inputSink != null) {
+          inputSink.replay(input.address, input.bits, input.mask,
+                           input.xor, input.isRead);
+        }
+      }
+    } catch (final IOException e) {
+      console.println("warning: time travel: replay of input failed: " +
+                      e.getMessage());
+    } finally {
+      replaying = false;
+    }
+  }
+
+  private void evict()
+  {
+    final long budget = 1024L * budgetKiB;
+    while ((usedBytes > budget) && (checkpoints.size() > 1)) {
+      usedBytes -= checkpoints.remove(0).state.length;
+    }
+    if (checkpoints.isEmpty()) return;
+    final long earliestStamp = 2 * checkpoints.get(0).cycle;
+    int count = 0;
+    while ((count < inputs.size()) &&
+           (inputs.get(count).stamp <= earliestStamp)) {
+      count++;
+    }
+    inputs.subList(0, count).clear();
+    appliedInputs -= Math.min(count, appliedInputs);
+  }
+
+  /**
+   * Called at the start of each cycle, before any PIO has seen the
+   * rising edge, such that the saved state is the state between the
+   * previous and this cycle.
+   */
+  @Override
+  public synchronized void risingEdge(final long wallClock)
+  {
+    if (interval == 0) return;
+    applyInputs(2 * wallClock);
+    final boolean takeCheckpoint =
+      checkpoints.isEmpty() ||
+      (wallClock - checkpoints.get(checkpoints.size() - 1).cycle >= interval);
+    if (!takeCheckpoint) return;
+    final byte[] state;
+    try {
+      state = emulator.saveState();
+    } catch (final IOException e) {
+      console.println("warning: time travel checkpoint failed: " +
+                      e.getMessage());
+      return;
+    }
+    checkpoints.add(new Checkpoint(wallClock, state));
+    usedBytes += state.length;
+    horizon = Math.max(horizon, wallClock);
+    evict();
+  }
+
+  @Override
+  public synchronized void fallingEdge(final long wallClock)
+  {
+    if (interval == 0) return;
+    applyInputs(2 * wallClock + 1);
+    horizon = Math.max(horizon, wallClock + 1);
+  }
+
+  /**
+   * Travels back the specified number of cycles, see method
+   * travelTo().
+   */
+  public void stepBack(final int cycles)
+  {
+    if (cycles < 0) {
+      throw new IllegalArgumentException("cycles < 0: " + cycles);
+    }
+    synchronized(masterClock.getPhaseLock()) {
+      travelTo(Math.max(masterClock.getWallClock() - cycles, 0));
+    }
+  }
+
+  /**
+   * Travels to the start of the specified cycle, i.e. to where the
+   * wall clock has just reached the specified value and phase 0 of
+   * that cycle has not yet been executed.  If the cycle is outside
+   * of the range of reachable cycles, the closest reachable cycle is
+   * chosen instead.  Travelling requires the master clock to be in
+   * single step mode with no phase in progress; otherwise, a warning
+   * is printed and the request is ignored.  To be called while
+   * register accesses from clients are excluded.
+   */
+  public void travelTo(final long cycle)
+  {
+    synchronized(masterClock.getPhaseLock()) {
+      synchronized(this) {
+        if (checkpoints.isEmpty()) {
+          console.println("warning: time travel: no checkpoint available");
+          return;
+        }
+        if (masterClock.getMode() != MasterClock.Mode.SINGLE_STEP) {
+          console.println("warning: time travel requires single step mode");
+          return;
+        }
+        final Clock.Phase phase = masterClock.getPhase();
+        if ((phase != Clock.Phase.PHASE_0_STABLE) &&
+            (phase != Clock.Phase.PHASE_1_STABLE)) {
+          console.println("warning: time travel: clock phase in progress");
+          return;
+        }
+        final long target =
+          Math.min(Math.max(cycle, checkpoints.get(0).cycle), horizon);
+        final Checkpoint checkpoint = getCheckpoint(target);
+        // if possible, continue from current state, saving a restore;
+        // when skipping ahead, a recorded cycle history would get a gap
+        final boolean skipAhead =
+          (masterClock.getWallClock() < checkpoint.cycle) &&
+          (emulator.getCycleHistory().getCapacity() == 0);
+        if ((getCurrentStamp() > 2 * target) || skipAhead) {
+          try {
+            emulator.restoreState(checkpoint.state, true);
+          } catch (final IOException e) {
+            console.println("warning: time travel failed: " +
+                            e.getMessage());
+            return;
+          }
+          appliedInputs = 0;
+          while ((appliedInputs < inputs.size()) &&
+                 (inputs.get(appliedInputs).stamp <= 2 * checkpoint.cycle)) {
+            appliedInputs++;
+          }
+        }
+        while ((masterClock.getWallClock() < target) ||
+               (masterClock.getPhase() != Clock.Phase.PHASE_1_STABLE)) {
+          masterClock.replayPhase();
+        }
+        emulator.getCycleHistory().truncate(target);
+        applyInputs(2 * target);
+      }
+    }
+  }
+
+  /**
+   * Returns the latest checkpoint not after the specified cycle.
+   * The cycle must not be before the earliest checkpoint.
+   */
+  private Checkpoint getCheckpoint(final long cycle)
+  {
+    int low = 0;
+    int high = checkpoints.size() - 1;
+    while (low < high) {
+      final int middle = (low + high + 1) >>> 1;
+      if (checkpoints.get(middle).cycle <= cycle) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return checkpoints.get(low);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,227 @@
+/*
+ * @(#)TraceRecorder.java 1.00 21/06/27
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Headless recorder that captures the level and output enable of
+ * all GPIO pins and the PC of all state machines for each completed
+ * clock cycle into a TraceStore, such that traces that span far more
+ * cycles than the cycle history can hold are kept outside of the
+ * Java heap, in a temporary file.  Recorded values can be queried
+ * while recording is in progress and after it has been stopped, see
+ * registers RECORDER_* of PicoEmuRegisters.
+ *
+ * Cycles that are replayed during time travel are not recorded.
+ * After travelling back in time, cycles up to the last recorded one
+ * are not recorded again, such that the trace keeps the values of
+ * the timeline that has been recorded first.  Resetting the
+ * emulator or restoring a saved state discards the recorded
+ * values, since the wall clock may move backwards.
+ */
+public class TraceRecorder implements Clock.TransitionListener, Constants
+{
+  public static final int SIGNAL_PINS = 0;
+  public static final int SIGNAL_PINDIRS = 1;
+  public static final int SIGNAL_PC_BASE = 2;
+  public static final int SIGNAL_COUNT = SIGNAL_PC_BASE + PIO_NUM * SM_COUNT;
+
+  private final PrintStream console;
+  private final MasterClock masterClock;
+  private final GPIO gpio;
+  private final PIO[] pios;
+  private final int[] values;
+  private TraceStore store;
+  private boolean enabled;
+
+  private TraceRecorder()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public TraceRecorder(final PrintStream console,
+                       final MasterClock masterClock,
+                       final GPIO gpio, final PIO pio0, final PIO pio1)
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    if (masterClock == null) {
+      throw new NullPointerException("masterClock");
+    }
+    if (gpio == null) {
+      throw new NullPointerException("gpio");
+    }
+    if (pio0 == null) {
+      throw new NullPointerException("pio0");
+    }
+    if (pio1 == null) {
+      throw new NullPointerException("pio1");
+    }
+    this.console = console;
+    this.masterClock = masterClock;
+    this.gpio = gpio;
+    pios = new PIO[] { pio0, pio1 };
+    values = new int[SIGNAL_COUNT];
+    store = null;
+    enabled = false;
+  }
+
+  /**
+   * Returns the number of the signal that records the PC of the
+   * specified state machine.
+   */
+  public static int getPCSignal(final int pioNum, final int smNum)
+  {
+    Constants.checkPioNum(pioNum, "PIO index number");
+    Constants.checkSmNum(smNum);
+    return SIGNAL_PC_BASE + pioNum * SM_COUNT + smNum;
+  }
+
+  public synchronized boolean isEnabled() { return enabled; }
+
+  /**
+   * Starting a recording discards all values recorded so far.
+   * Stopping a recording keeps the recorded values for queries.
+   */
+  public synchronized void setEnabled(final boolean enabled)
+  {
+    if (enabled == this.enabled) return;
+    if (enabled) {
+      try {
+        if (store == null) {
+          store = TraceStore.createTemporary(SIGNAL_COUNT);
+        } else {
+          store.clear();
+        }
+      } catch (final IOException e) {
+        console.println("warning: failed creating trace store, " +
+                        "recording not started: " + e.getMessage());
+        return;
+      }
+    }
+    this.enabled = enabled;
+  }
+
+  /**
+   * Discards all values recorded so far, e.g. when the wall clock
+   * has been reset or moved by restoring a saved state.  A recording
+   * in progress continues with the next cycle.
+   */
+  public synchronized void clear()
+  {
+    if (store != null) {
+      store.clear();
+    }
+  }
+
+  /**
+   * Returns the first recorded cycle, or -1 if nothing has been
+   * recorded.
+   */
+  public synchronized long getFirstCycle()
+  {
+    return store != null ? store.getFirstCycle(0) : -1;
+  }
+
+  /**
+   * Returns the last recorded cycle, or -1 if nothing has been
+   * recorded.
+   */
+  public synchronized long getLastCycle()
+  {
+    return store != null ? store.getLastCycle(0) : -1;
+  }
+
+  /**
+   * Returns the value of the specified signal at the specified
+   * cycle, or 0, if the signal does not exist or that cycle has not
+   * been recorded.
+   */
+  public synchronized int getValue(final int signal, final long cycle)
+  {
+    if ((signal < 0) || (signal >= SIGNAL_COUNT)) return 0;
+    if ((store == null) || (cycle < store.getFirstCycle(signal)) ||
+        (cycle > store.getLastCycle(signal))) {
+      return 0;
+    }
+    return store.getValue(signal, cycle);
+  }
+
+  @Override
+  public void risingEdge(final long wallClock)
+  {
+    // values are recorded only when the cycle has been completed
+  }
+
+  @Override
+  public synchronized void fallingEdge(final long wallClock)
+  {
+    if (!enabled || masterClock.isReplaying()) return;
+    if (wallClock <= store.getLastCycle(0)) return;
+    final int oes = gpio.getOeToPadPins();
+    values[SIGNAL_PINS] =
+      (gpio.getOutToPadPins() & oes) | (gpio.getInFromPadPins() & ~oes);
+    values[SIGNAL_PINDIRS] = oes;
+    for (int pioNum = 0; pioNum < PIO_NUM; pioNum++) {
+      for (int smNum = 0; smNum < SM_COUNT; smNum++) {
+        values[getPCSignal(pioNum, smNum)] = pios[pioNum].getSM(smNum).getPC();
+      }
+    }
+    try {
+      store.append(wallClock, values);
+    } catch (final IOException e) {
+      console.println("warning: failed writing trace store, " +
+                      "recording stopped: " + e.getMessage());
+      enabled = false;
+    }
+  }
+
+  /**
+   * Stops recording and releases the trace store, deleting its
+   * temporary file.
+   */
+  public synchronized void close()
+  {
+    enabled = false;
+    if (store == null) return;
+    try {
+      store.close();
+    } catch (final IOException e) {
+      console.println("warning: failed closing trace store: " +
+                      e.getMessage());
+    }
+    store = null;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
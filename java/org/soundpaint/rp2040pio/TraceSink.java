@@ -0,0 +1,265 @@
+/*
+ * @(#)TraceSink.java 1.00 21/06/24
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sink for tracepoint events, i.e. fetches of instructions at
+ * addresses that are marked in a state machine's SMx_TRACEPOINTS
+ * register.
+ *
+ * Events are recorded by the emulation thread as a fixed number of
+ * words into a preallocated ring buffer, without allocation, locking
+ * or formatting.  A background thread drains the ring buffer and
+ * passes each event to all registered consumers, e.g. to a
+ * TextConsumer that prints a disassembly of the traced instruction.
+ * The ring buffer has a single producer, which is safe since all
+ * instructions of an emulator are fetched in the clock phases of
+ * its master clock.  If the ring buffer is full, events are dropped
+ * rather than blocking the emulation, and the number of dropped
+ * events is reported to consumers with the next event that fits.
+ * While the ring buffer is empty, the drain thread parks until the
+ * emulation thread records the next event and unparks it.
+ */
+public class TraceSink
+{
+  public static final int CAPACITY = 0x1000;
+  private static final int EVENT_WORDS = 6;
+
+  public interface Consumer
+  {
+    /**
+     * @param dropped Number of events dropped immediately before
+     * this event since the previous call, due to the ring buffer
+     * being full.
+     * @param opCode The fetched instruction word.
+     * @param sideSetCount Value of SMx_PINCTRL_SIDESET_COUNT at the
+     * time of the fetch, as needed for decoding the instruction.
+     * @param sideEn Value of SMx_EXECCTRL_SIDE_EN at the time of the
+     * fetch, as needed for decoding the instruction.
+     * @param x Value of register X at the time of the fetch.
+     * @param y Value of register Y at the time of the fetch.
+     */
+    void tracepoint(final long dropped, final long wallClock,
+                    final int pioNum, final int smNum, final int address,
+                    final int opCode, final int sideSetCount,
+                    final boolean sideEn, final int x, final int y);
+  }
+
+  /**
+   * Renders tracepoint events as text in the same format as
+   * previously printed directly by the emulation thread.
+   */
+  public static class TextConsumer implements Consumer
+  {
+    private final PrintStream console;
+    private final Decoder decoder;
+
+    private TextConsumer()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    public TextConsumer(final PrintStream console)
+    {
+      if (console == null) {
+        throw new NullPointerException("console");
+      }
+      this.console = console;
+      decoder = new Decoder();
+    }
+
+    @Override
+    public void tracepoint(final long dropped, final long wallClock,
+                           final int pioNum, final int smNum,
+                           final int address, final int opCode,
+                           final int sideSetCount, final boolean sideEn,
+                           final int x, final int y)
+    {
+      if (dropped > 0) {
+        console.println("WARNING: " + dropped + " tracepoint events dropped");
+      }
+      try {
+        final Instruction instruction =
+          decoder.decode((short)opCode, sideSetCount, sideEn);
+        console.println("SM" + smNum + ": " + instruction);
+      } catch (final Decoder.DecodeException e) {
+        console.println("SM" + smNum + ": " + e.getMessage());
+      }
+    }
+  }
+
+  private final int[] ring;
+  private final AtomicLong head;
+  private final AtomicLong tail;
+  private final List<Consumer> consumers;
+  private long dropped;
+  private long droppedReported;
+  private volatile Thread drainThread;
+  private volatile boolean drainParked;
+  private volatile boolean terminate;
+
+  public TraceSink()
+  {
+    ring = new int[CAPACITY * EVENT_WORDS];
+    head = new AtomicLong();
+    tail = new AtomicLong();
+    consumers = new CopyOnWriteArrayList<Consumer>();
+    dropped = 0;
+    droppedReported = 0;
+    drainThread = null;
+    drainParked = false;
+    terminate = false;
+  }
+
+  public void addConsumer(final Consumer consumer)
+  {
+    if (consumer == null) {
+      throw new NullPointerException("consumer");
+    }
+    consumers.add(consumer);
+  }
+
+  public boolean removeConsumer(final Consumer consumer)
+  {
+    return consumers.remove(consumer);
+  }
+
+  /**
+   * Records a tracepoint event.  To be called only by the emulation
+   * thread.
+   */
+  public void record(final long wallClock, final int pioNum, final int smNum,
+                     final int address, final int opCode,
+                     final int sideSetCount, final boolean sideEn,
+                     final int x, final int y)
+  {
+    if (consumers.isEmpty() || terminate) return;
+    if (drainThread == null) {
+      startDrainThread();
+    }
+    final long h = head.get();
+    if (h - tail.get() >= CAPACITY) {
+      dropped++;
+      return;
+    }
+    int pos = (int)(h % CAPACITY) * EVENT_WORDS;
+    ring[pos++] = (int)wallClock;
+    ring[pos++] = (int)(wallClock >>> 32);
+    ring[pos++] =
+      (pioNum & 0x1) | ((smNum & 0x3) << 1) | ((address & 0x1f) << 3) |
+      ((sideSetCount & 0x7) << 8) | (sideEn ? 0x1 << 11 : 0x0) |
+      (int)(Math.min(dropped - droppedReported, 0xfffff) << 12);
+    ring[pos++] = opCode & 0xffff;
+    ring[pos++] = x;
+    ring[pos++] = y;
+    droppedReported = dropped;
+
+    // Volatile store of head followed by volatile read of drainParked
+    // pairs with the drain thread's store of drainParked followed by
+    // its read of head, such that no wakeup gets lost.
+    head.set(h + 1);
+    if (drainParked) {
+      LockSupport.unpark(drainThread);
+    }
+  }
+
+  /**
+   * The drain thread is created upon the first event rather than
+   * upon construction, since most emulators never hit a tracepoint.
+   */
+  private synchronized void startDrainThread()
+  {
+    if ((drainThread != null) || terminate) return;
+    final Thread thread = new Thread(() -> drain(), "tracepoint sink");
+    thread.setDaemon(true);
+    thread.start();
+    drainThread = thread;
+  }
+
+  private void drain()
+  {
+    while (true) {
+      final long t = tail.get();
+      if (t == head.get()) {
+        if (terminate) return;
+        drainParked = true;
+        if ((t == head.get()) && !terminate) {
+          LockSupport.park(this);
+        }
+        drainParked = false;
+        continue;
+      }
+      int pos = (int)(t % CAPACITY) * EVENT_WORDS;
+      final long wallClock =
+        (ring[pos++] & 0xffffffffL) | ((long)ring[pos++] << 32);
+      final int info = ring[pos++];
+      final int opCode = ring[pos++];
+      final int x = ring[pos++];
+      final int y = ring[pos++];
+      tail.lazySet(t + 1);
+      for (final Consumer consumer : consumers) {
+        consumer.tracepoint(info >>> 12, wallClock,
+                            info & 0x1, (info >>> 1) & 0x3,
+                            (info >>> 3) & 0x1f, opCode,
+                            (info >>> 8) & 0x7, (info & (0x1 << 11)) != 0x0,
+                            x, y);
+      }
+    }
+  }
+
+  /**
+   * Stops recording, passes all events that are still in the ring
+   * buffer to the consumers, and waits for the drain thread to
+   * finish.  Events recorded after this call are discarded.
+   */
+  public void terminate()
+  {
+    final Thread thread;
+    synchronized(this) {
+      terminate = true;
+      thread = drainThread;
+    }
+    if (thread == null) return;
+    LockSupport.unpark(thread);
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
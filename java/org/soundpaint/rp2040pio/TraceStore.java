@@ -0,0 +1,430 @@
+/*
+ * @(#)TraceStore.java 1.00 21/06/23
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Storage for long traces of a fixed number of integer valued
+ * signals, intended for captures that span far more cycles than
+ * what fits on the Java heap.
+ *
+ * Each signal is stored as a sequence of runs, with a new run
+ * starting only when the value of the signal changes
+ * (run-length encoding).  A run occupies two words: the number of
+ * cycles since the start of the previous run (delta encoding), and
+ * the value.  Runs are stored in fixed-size chunks of memory
+ * outside of the Java heap, either memory-mapped from a file, or
+ * allocated as direct buffers.  For random access, the absolute
+ * start cycle of every INDEX_INTERVAL-th run is kept in an index,
+ * such that locating the value of any cycle costs a binary search
+ * on the index plus a scan of at most INDEX_INTERVAL runs.
+ *
+ * Appending a value that does not start a new chunk or index block
+ * does not allocate any memory and thus can be done from within the
+ * emulation thread.  Values must be appended in ascending order of
+ * cycles per signal; cycles that are skipped are considered to
+ * continue the previous value.  This class is not thread-safe;
+ * callers that append and query from different threads must
+ * synchronize externally.
+ */
+public class TraceStore implements Closeable
+{
+  public static final int DEFAULT_CHUNK_SIZE = 0x100000;
+  public static final int INDEX_INTERVAL = 64;
+  private static final int RUN_WORDS = 2;
+  private static final long MAX_DELTA = Integer.MAX_VALUE;
+
+  private class Track
+  {
+    private IntBuffer[] chunks;
+    private long[] index;
+    private long runCount;
+    private long firstCycle;
+    private long lastCycle;
+    private long lastRunStart;
+    private int lastValue;
+
+    private Track()
+    {
+      chunks = new IntBuffer[0];
+      index = new long[16];
+      clear();
+    }
+
+    private void clear()
+    {
+      runCount = 0;
+      firstCycle = -1;
+      lastCycle = -1;
+      lastRunStart = -1;
+      lastValue = 0;
+    }
+
+    private void putRun(final long cycle, final int value) throws IOException
+    {
+      final long pos = runCount * RUN_WORDS;
+      final int chunkNum = (int)(pos / chunkWords);
+      if (chunkNum >= chunks.length) {
+        chunks = Arrays.copyOf(chunks, chunkNum + 1);
+        chunks[chunkNum] = allocateChunk();
+      }
+      final IntBuffer chunk = chunks[chunkNum];
+      final int offset = (int)(pos % chunkWords);
+      chunk.put(offset, runCount > 0 ? (int)(cycle - lastRunStart) : 0);
+      chunk.put(offset + 1, value);
+      if (runCount % INDEX_INTERVAL == 0) {
+        final int indexPos = (int)(runCount / INDEX_INTERVAL);
+        if (indexPos >= index.length) {
+          index = Arrays.copyOf(index, 2 * index.length);
+        }
+        index[indexPos] = cycle;
+      }
+      runCount++;
+      lastRunStart = cycle;
+      lastValue = value;
+    }
+
+    private void append(final long cycle, final int value) throws IOException
+    {
+      if (cycle <= lastCycle) {
+        throw new IllegalArgumentException("cycle not ascending: " +
+                                           cycle + " <= " + lastCycle);
+      }
+      if (runCount == 0) {
+        firstCycle = cycle;
+        putRun(cycle, value);
+      } else if (value != lastValue) {
+        while (cycle - lastRunStart > MAX_DELTA) {
+          // split over-long run, such that deltas fit into a word
+          putRun(lastRunStart + MAX_DELTA, lastValue);
+        }
+        putRun(cycle, value);
+      }
+      lastCycle = cycle;
+    }
+
+    private int getDelta(final long run)
+    {
+      final long pos = run * RUN_WORDS;
+      return chunks[(int)(pos / chunkWords)].get((int)(pos % chunkWords));
+    }
+
+    private int getRunValue(final long run)
+    {
+      final long pos = run * RUN_WORDS + 1;
+      return chunks[(int)(pos / chunkWords)].get((int)(pos % chunkWords));
+    }
+
+    private void checkCycle(final long cycle)
+    {
+      if ((runCount == 0) || (cycle < firstCycle) || (cycle > lastCycle)) {
+        throw new IllegalArgumentException("cycle not recorded: " + cycle);
+      }
+    }
+
+    /**
+     * Returns the number of the run that contains the specified
+     * cycle, and stores the start cycle of that run in
+     * runStart[0].
+     */
+    private long findRun(final long cycle, final long[] runStart)
+    {
+      checkCycle(cycle);
+      final int indexSize = (int)((runCount - 1) / INDEX_INTERVAL + 1);
+      int indexPos = Arrays.binarySearch(index, 0, indexSize, cycle);
+      if (indexPos < 0) indexPos = -indexPos - 2;
+      long run = (long)indexPos * INDEX_INTERVAL;
+      long start = index[indexPos];
+      while (run + 1 < runCount) {
+        final long nextStart = start + (getDelta(run + 1) & 0xffffffffL);
+        if (nextStart > cycle) break;
+        start = nextStart;
+        run++;
+      }
+      runStart[0] = start;
+      return run;
+    }
+  }
+
+  private final Path path;
+  private final boolean deletePath;
+  private final FileChannel channel;
+  private final int chunkWords;
+  private final Track[] tracks;
+  private final long[] runStart;
+  private long fileSize;
+  private boolean closed;
+
+  private TraceStore()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * Creates a trace store that keeps its runs in direct buffers.
+   */
+  public TraceStore(final int signalCount) throws IOException
+  {
+    this(signalCount, null, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a trace store that keeps its runs in the specified
+   * file, which is created or truncated, and memory-mapped in
+   * chunks of the specified number of bytes.  If no file is
+   * specified, direct buffers are used instead.
+   */
+  public TraceStore(final int signalCount, final Path path,
+                    final int chunkSize)
+    throws IOException
+  {
+    this(signalCount, path, chunkSize, false);
+  }
+
+  private TraceStore(final int signalCount, final Path path,
+                     final int chunkSize, final boolean deletePath)
+    throws IOException
+  {
+    if (signalCount <= 0) {
+      throw new IllegalArgumentException("signalCount <= 0: " + signalCount);
+    }
+    if ((chunkSize <= 0) || (chunkSize % (4 * RUN_WORDS) != 0)) {
+      throw new IllegalArgumentException("chunkSize not a positive " +
+                                         "multiple of " + 4 * RUN_WORDS +
+                                         ": " + chunkSize);
+    }
+    this.path = path;
+    this.deletePath = deletePath;
+    channel =
+      path != null ?
+      FileChannel.open(path, StandardOpenOption.CREATE,
+                       StandardOpenOption.TRUNCATE_EXISTING,
+                       StandardOpenOption.READ, StandardOpenOption.WRITE) :
+      null;
+    chunkWords = chunkSize / 4;
+    tracks = new Track[signalCount];
+    for (int signal = 0; signal < signalCount; signal++) {
+      tracks[signal] = new Track();
+    }
+    runStart = new long[1];
+    fileSize = 0;
+    closed = false;
+  }
+
+  /**
+   * Creates a trace store that keeps its runs in a temporary file,
+   * which is deleted when the store is closed, or at the latest when
+   * the JVM exits.
+   */
+  public static TraceStore createTemporary(final int signalCount)
+    throws IOException
+  {
+    final Path path = Files.createTempFile("rp2040pio-trace-", ".dat");
+    path.toFile().deleteOnExit();
+    return new TraceStore(signalCount, path, DEFAULT_CHUNK_SIZE, true);
+  }
+
+  private IntBuffer allocateChunk() throws IOException
+  {
+    final int chunkSize = 4 * chunkWords;
+    final ByteBuffer chunk;
+    if (channel != null) {
+      chunk = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, chunkSize);
+      fileSize += chunkSize;
+    } else {
+      chunk = ByteBuffer.allocateDirect(chunkSize);
+    }
+    return chunk.order(ByteOrder.nativeOrder()).asIntBuffer();
+  }
+
+  private Track getTrack(final int signal)
+  {
+    if (closed) {
+      throw new IllegalStateException("trace store closed");
+    }
+    if ((signal < 0) || (signal >= tracks.length)) {
+      throw new IllegalArgumentException("signal out of range: " + signal);
+    }
+    return tracks[signal];
+  }
+
+  public int getSignalCount() { return tracks.length; }
+
+  /**
+   * Appends the value of the specified signal for the specified
+   * cycle.
+   */
+  public void append(final int signal, final long cycle, final int value)
+    throws IOException
+  {
+    getTrack(signal).append(cycle, value);
+  }
+
+  /**
+   * Appends the values of all signals for the specified cycle.
+   */
+  public void append(final long cycle, final int[] values)
+    throws IOException
+  {
+    if (values == null) {
+      throw new NullPointerException("values");
+    }
+    if (values.length != tracks.length) {
+      throw new IllegalArgumentException("values.length != signal count: " +
+                                         values.length + " != " +
+                                         tracks.length);
+    }
+    for (int signal = 0; signal < tracks.length; signal++) {
+      getTrack(signal).append(cycle, values[signal]);
+    }
+  }
+
+  /**
+   * Returns the first cycle recorded for the specified signal, or -1
+   * if nothing has been recorded yet.
+   */
+  public long getFirstCycle(final int signal)
+  {
+    return getTrack(signal).firstCycle;
+  }
+
+  /**
+   * Returns the last cycle recorded for the specified signal, or -1
+   * if nothing has been recorded yet.
+   */
+  public long getLastCycle(final int signal)
+  {
+    return getTrack(signal).lastCycle;
+  }
+
+  public long getRunCount(final int signal)
+  {
+    return getTrack(signal).runCount;
+  }
+
+  public int getValue(final int signal, final long cycle)
+  {
+    final Track track = getTrack(signal);
+    return track.getRunValue(track.findRun(cycle, runStart));
+  }
+
+  /**
+   * Returns the cycle at which the value of the specified signal
+   * that is valid at the specified cycle became valid.
+   */
+  public long getChangeCycle(final int signal, final long cycle)
+  {
+    final Track track = getTrack(signal);
+    long run = track.findRun(cycle, runStart);
+    long start = runStart[0];
+    // skip runs that only result from splitting an over-long run
+    final int value = track.getRunValue(run);
+    while ((run > 0) && (track.getRunValue(run - 1) == value)) {
+      start -= track.getDelta(run) & 0xffffffffL;
+      run--;
+    }
+    return start;
+  }
+
+  /**
+   * Copies the values of the specified signal for count consecutive
+   * cycles, starting with cycle fromCycle, into the specified array.
+   */
+  public void getValues(final int signal, final long fromCycle,
+                        final int[] values, final int offset,
+                        final int count)
+  {
+    if (values == null) {
+      throw new NullPointerException("values");
+    }
+    if ((offset < 0) || (count < 0) || (offset + count > values.length)) {
+      throw new IndexOutOfBoundsException("offset=" + offset +
+                                          ", count=" + count +
+                                          ", length=" + values.length);
+    }
+    if (count == 0) return;
+    final Track track = getTrack(signal);
+    track.checkCycle(fromCycle + count - 1);
+    long run = track.findRun(fromCycle, runStart);
+    int value = track.getRunValue(run);
+    long nextStart =
+      run + 1 < track.runCount ?
+      runStart[0] + (track.getDelta(run + 1) & 0xffffffffL) :
+      Long.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      final long cycle = fromCycle + i;
+      if (cycle >= nextStart) {
+        run++;
+        value = track.getRunValue(run);
+        nextStart =
+          run + 1 < track.runCount ?
+          nextStart + (track.getDelta(run + 1) & 0xffffffffL) :
+          Long.MAX_VALUE;
+      }
+      values[offset + i] = value;
+    }
+  }
+
+  /**
+   * Discards all recorded values.  Chunks already allocated are kept
+   * for reuse.
+   */
+  public void clear()
+  {
+    for (final Track track : tracks) {
+      track.clear();
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (closed) return;
+    closed = true;
+    if (channel != null) {
+      channel.close();
+      if (deletePath) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,164 @@
+/*
+ * @(#)Transaction.java 1.00 21/06/13
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of register reads and writes to be executed
+ * atomically with respect to emulation, i.e. without any clock phase
+ * being executed in between, see method
+ * AddressSpace#executeTransaction().
+ */
+public class Transaction
+{
+  public enum Type { READ, WRITE };
+
+  public static class Operation
+  {
+    private final Type type;
+    private final int address;
+    private final int bits;
+    private final int mask;
+    private final boolean xor;
+
+    private Operation()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private Operation(final Type type, final int address,
+                      final int bits, final int mask, final boolean xor)
+    {
+      this.type = type;
+      this.address = address;
+      this.bits = bits;
+      this.mask = mask;
+      this.xor = xor;
+    }
+
+    public Type getType() { return type; }
+
+    public int getAddress() { return address; }
+
+    public int getBits() { return bits; }
+
+    public int getMask() { return mask; }
+
+    public boolean getXor() { return xor; }
+
+    @Override
+    public String toString()
+    {
+      return
+        type == Type.READ ?
+        String.format("read(0x%08x)", address) :
+        String.format("write(0x%08x, 0x%08x, 0x%08x, %s)",
+                      address, bits, mask, xor);
+    }
+  }
+
+  private final List<Operation> operations;
+  private int readCount;
+
+  public Transaction()
+  {
+    operations = new ArrayList<Operation>();
+    readCount = 0;
+  }
+
+  private static void checkAddress(final int address)
+  {
+    if ((address & 0x3) != 0x0) {
+      throw new IllegalArgumentException("address not word-aligned: " +
+                                         String.format("0x%08x", address));
+    }
+    if ((address & 0x3000) != 0x0) {
+      throw new IllegalArgumentException("address is not in the space of " +
+                                         "normal read / write access: " +
+                                         String.format("0x%08x", address));
+    }
+  }
+
+  public void addRead(final int address)
+  {
+    checkAddress(address);
+    operations.add(new Operation(Type.READ, address, 0, 0, false));
+    readCount++;
+  }
+
+  public void addWriteMasked(final int address, final int bits,
+                             final int mask, final boolean xor)
+  {
+    checkAddress(address);
+    operations.add(new Operation(Type.WRITE, address, bits, mask, xor));
+  }
+
+  public void addWrite(final int address, final int value)
+  {
+    addWriteMasked(address, value, ~0x0, false);
+  }
+
+  public void addSetBits(final int address, final int mask)
+  {
+    addWriteMasked(address, mask, mask, false);
+  }
+
+  public void addClearBits(final int address, final int mask)
+  {
+    addWriteMasked(address, 0x0, mask, false);
+  }
+
+  public void addXorBits(final int address, final int mask)
+  {
+    addWriteMasked(address, mask, mask, true);
+  }
+
+  public List<Operation> getOperations()
+  {
+    return Collections.unmodifiableList(operations);
+  }
+
+  /**
+   * Returns the number of read operations, which is also the length
+   * of the array of results returned when executing this transaction.
+   */
+  public int getReadCount() { return readCount; }
+
+  @Override
+  public String toString()
+  {
+    return "Transaction" + operations;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
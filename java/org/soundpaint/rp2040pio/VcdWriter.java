@@ -0,0 +1,574 @@
+/*
+ * @(#)VcdWriter.java 1.00 21/06/23
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Streams value changes of selected GPIO and state machine signals
+ * into a file in Value Change Dump (VCD) format (IEEE 1364), as
+ * understood by common waveform viewers.
+ *
+ * Recording is controlled by a control word (see register VCD_CTRL
+ * of PicoEmuRegisters) that selects which groups of signals to
+ * record, and a mask of GPIO pins to consider (see register
+ * VCD_PINS).  Setting the enable bit starts a new file (overwriting
+ * any existing file at the same path); clearing it finishes the file.
+ * Changing the selection while recording finishes the current file
+ * and starts a new one.
+ *
+ * Value changes are formatted by the emulation thread at the falling
+ * edge of each clock cycle into buffers that are handed over to a
+ * background thread for writing, such that the emulation thread
+ * never blocks on disk I/O.  If the background thread falls behind
+ * by more than MAX_BUFFERS buffers, recording is stopped rather
+ * than blocking the emulation, and a warning is printed.
+ *
+ * The time axis counts clock cycles since the start of recording,
+ * with each cycle lasting CYCLE_NANOS ns, i.e. the nominal system
+ * clock period of the RP2040.
+ */
+public class VcdWriter implements Clock.TransitionListener, Constants
+{
+  public static final String DEFAULT_PATH = "rp2040pio.vcd";
+  public static final int CTRL_ENABLE = 0x1;
+  public static final int CTRL_PINS = 0x2;
+  public static final int CTRL_PINDIRS = 0x4;
+  public static final int CTRL_PC = 0x8;
+  public static final int CTRL_XY = 0x10;
+  public static final int CTRL_MASK = 0x1f;
+  public static final int CYCLE_NANOS = 8;
+  public static final int BUFFER_SIZE = 0x10000;
+  public static final int MAX_BUFFERS = 256;
+
+  private enum Kind { PIN, PINDIR, PC, X, Y };
+
+  private static class Signal
+  {
+    private final Kind kind;
+    private final int num;
+    private final int width;
+    private final byte[] id;
+    private int value;
+
+    private Signal(final Kind kind, final int num, final int width,
+                   final int index)
+    {
+      this.kind = kind;
+      this.num = num;
+      this.width = width;
+      this.id = createId(index);
+    }
+
+    /**
+     * Identifiers are built from the printable ASCII characters '!'
+     * through '~'.
+     */
+    private static byte[] createId(int index)
+    {
+      final StringBuilder s = new StringBuilder();
+      do {
+        s.append((char)('!' + index % 94));
+        index /= 94;
+      } while (index > 0);
+      return s.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private String getIdString()
+    {
+      return new String(id, StandardCharsets.US_ASCII);
+    }
+  }
+
+  private enum TaskType { OPEN, DATA, CLOSE, TERMINATE };
+
+  private static class Task
+  {
+    private final TaskType type;
+    private final Path path;
+    private final ByteBuffer buffer;
+
+    private Task(final TaskType type, final Path path,
+                 final ByteBuffer buffer)
+    {
+      this.type = type;
+      this.path = path;
+      this.buffer = buffer;
+    }
+  }
+
+  private final PrintStream console;
+  private final MasterClock masterClock;
+  private final GPIO gpio;
+  private final PIO[] pios;
+  private final BlockingQueue<Task> tasks;
+  private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers;
+  private final byte[] digits;
+  private Thread writerThread;
+  private Path path;
+  private int ctrl;
+  private int pinMask;
+  private Signal[] signals;
+  private int maxCycleBytes;
+  private int allocatedBuffers;
+  private ByteBuffer buffer;
+  private long cycle;
+  private boolean terminated;
+
+  private VcdWriter()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public VcdWriter(final PrintStream console, final MasterClock masterClock,
+                   final GPIO gpio, final PIO pio0, final PIO pio1)
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    if (masterClock == null) {
+      throw new NullPointerException("masterClock");
+    }
+    if (gpio == null) {
+      throw new NullPointerException("gpio");
+    }
+    if (pio0 == null) {
+      throw new NullPointerException("pio0");
+    }
+    if (pio1 == null) {
+      throw new NullPointerException("pio1");
+    }
+    this.console = console;
+    this.masterClock = masterClock;
+    this.gpio = gpio;
+    pios = new PIO[] { pio0, pio1 };
+    tasks = new LinkedBlockingQueue<Task>();
+    freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    digits = new byte[20];
+    path = Paths.get(DEFAULT_PATH);
+    ctrl = CTRL_PINS | CTRL_PINDIRS | CTRL_PC;
+    pinMask = ~0x0;
+    signals = null;
+    maxCycleBytes = 0;
+    allocatedBuffers = 0;
+    buffer = null;
+    cycle = 0;
+    writerThread = null;
+    terminated = false;
+  }
+
+  /**
+   * Sets the path of the file to write to upon the next start of
+   * recording.
+   */
+  public synchronized void setPath(final Path path)
+  {
+    if (path == null) {
+      throw new NullPointerException("path");
+    }
+    this.path = path;
+  }
+
+  public synchronized Path getPath() { return path; }
+
+  public synchronized int getCtrl() { return ctrl; }
+
+  public synchronized int getPinMask() { return pinMask; }
+
+  public synchronized boolean isEnabled()
+  {
+    return (ctrl & CTRL_ENABLE) != 0x0;
+  }
+
+  public synchronized void setCtrl(final int ctrl)
+  {
+    update(ctrl & CTRL_MASK, pinMask);
+  }
+
+  public synchronized void setPinMask(final int pinMask)
+  {
+    update(ctrl, pinMask);
+  }
+
+  private void update(final int ctrl, final int pinMask)
+  {
+    if ((ctrl == this.ctrl) && (pinMask == this.pinMask)) return;
+    if (signals != null) {
+      stop();
+    }
+    this.ctrl = ctrl;
+    this.pinMask = pinMask;
+    if ((ctrl & CTRL_ENABLE) != 0x0) {
+      if (terminated) {
+        console.println("warning: VCD writer terminated, " +
+                        "recording not started");
+        this.ctrl &= ~CTRL_ENABLE;
+        return;
+      }
+      start();
+    }
+  }
+
+  private List<Signal> createSignals()
+  {
+    final List<Signal> signals = new ArrayList<Signal>();
+    for (int pin = 0; pin < GPIO_NUM; pin++) {
+      if ((pinMask & (0x1 << pin)) == 0x0) continue;
+      if ((ctrl & CTRL_PINS) != 0x0) {
+        signals.add(new Signal(Kind.PIN, pin, 1, signals.size()));
+      }
+      if ((ctrl & CTRL_PINDIRS) != 0x0) {
+        signals.add(new Signal(Kind.PINDIR, pin, 1, signals.size()));
+      }
+    }
+    for (int pioNum = 0; pioNum < PIO_NUM; pioNum++) {
+      for (int smNum = 0; smNum < SM_COUNT; smNum++) {
+        final int num = pioNum * SM_COUNT + smNum;
+        if ((ctrl & CTRL_PC) != 0x0) {
+          signals.add(new Signal(Kind.PC, num, 5, signals.size()));
+        }
+        if ((ctrl & CTRL_XY) != 0x0) {
+          signals.add(new Signal(Kind.X, num, 32, signals.size()));
+          signals.add(new Signal(Kind.Y, num, 32, signals.size()));
+        }
+      }
+    }
+    return signals;
+  }
+
+  private static void appendVar(final StringBuilder header,
+                                final Signal signal, final String name)
+  {
+    header.append(String.format("$var wire %d %s %s $end%n",
+                                signal.width, signal.getIdString(), name));
+  }
+
+  private String createHeader()
+  {
+    final StringBuilder header = new StringBuilder();
+    header.append(String.format("$version %s Version %s $end%n",
+                                Constants.getEmulatorId(),
+                                Constants.getEmulatorVersion()));
+    header.append(String.format("$timescale 1 ns $end%n"));
+    header.append(String.format("$scope module rp2040 $end%n"));
+    header.append(String.format("$scope module gpio $end%n"));
+    for (final Signal signal : signals) {
+      if (signal.kind == Kind.PIN) {
+        appendVar(header, signal, "gpio" + signal.num);
+      } else if (signal.kind == Kind.PINDIR) {
+        appendVar(header, signal, "gpio" + signal.num + "_oe");
+      }
+    }
+    header.append(String.format("$upscope $end%n"));
+    int scope = -1;
+    for (final Signal signal : signals) {
+      if ((signal.kind == Kind.PIN) || (signal.kind == Kind.PINDIR)) {
+        continue;
+      }
+      if (signal.num != scope) {
+        if (scope >= 0) header.append(String.format("$upscope $end%n"));
+        scope = signal.num;
+        header.append(String.format("$scope module pio%d_sm%d $end%n",
+                                    scope / SM_COUNT, scope % SM_COUNT));
+      }
+      appendVar(header, signal, signal.kind.toString().toLowerCase());
+    }
+    if (scope >= 0) header.append(String.format("$upscope $end%n"));
+    header.append(String.format("$upscope $end%n"));
+    header.append(String.format("$enddefinitions $end%n"));
+    return header.toString();
+  }
+
+  private void start()
+  {
+    final List<Signal> signalList = createSignals();
+    signals = signalList.toArray(new Signal[signalList.size()]);
+    maxCycleBytes = 24;
+    for (final Signal signal : signals) {
+      maxCycleBytes += signal.width + signal.id.length + 3;
+    }
+    buffer = obtainBuffer();
+    if (buffer == null) {
+      console.println("warning: VCD writer busy, recording not started");
+      ctrl &= ~CTRL_ENABLE;
+      signals = null;
+      return;
+    }
+    if (writerThread == null) {
+      // created on demand, since most emulators never record VCD
+      writerThread = new Thread(() -> writeTasks(), "VCD writer");
+      writerThread.setDaemon(true);
+      writerThread.start();
+    }
+    cycle = 0;
+    tasks.add(new Task(TaskType.OPEN, path, null));
+    buffer.put(createHeader().getBytes(StandardCharsets.US_ASCII));
+    putTime();
+    buffer.put("$dumpvars\n".getBytes(StandardCharsets.US_ASCII));
+    final int oes = gpio.getOeToPadPins();
+    final int pins = samplePins();
+    for (final Signal signal : signals) {
+      signal.value = sampleValue(signal, pins, oes);
+      putValue(signal);
+    }
+    buffer.put("$end\n".getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private void stop()
+  {
+    if (buffer != null) {
+      tasks.add(new Task(TaskType.DATA, null, buffer));
+      buffer = null;
+    }
+    tasks.add(new Task(TaskType.CLOSE, null, null));
+    signals = null;
+  }
+
+  /**
+   * Returns a buffer with at least BUFFER_SIZE bytes, or null, if the
+   * limit of buffers pending for being written has been reached.
+   */
+  private ByteBuffer obtainBuffer()
+  {
+    final ByteBuffer buffer = freeBuffers.poll();
+    if (buffer != null) {
+      buffer.clear();
+      return buffer;
+    }
+    if (allocatedBuffers >= MAX_BUFFERS) return null;
+    allocatedBuffers++;
+    return ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, 4 * maxCycleBytes));
+  }
+
+  /**
+   * Returns the level of all pins, i.e. the output to the pad for
+   * pins with output enabled, and the input from the pad otherwise.
+   */
+  private int samplePins()
+  {
+    final int oes = gpio.getOeToPadPins();
+    return (gpio.getOutToPadPins() & oes) | (gpio.getInFromPadPins() & ~oes);
+  }
+
+  private int sampleValue(final Signal signal, final int pins, final int oes)
+  {
+    switch (signal.kind) {
+    case PIN:
+      return (pins >>> signal.num) & 0x1;
+    case PINDIR:
+      return (oes >>> signal.num) & 0x1;
+    case PC:
+      return getSM(signal.num).getPC();
+    case X:
+      return getSM(signal.num).getX();
+    case Y:
+      return getSM(signal.num).getY();
+    default:
+      throw new InternalError("unexpected case fall-through");
+    }
+  }
+
+  private SM getSM(final int num)
+  {
+    return pios[num / SM_COUNT].getSM(num % SM_COUNT);
+  }
+
+  private void putTime()
+  {
+    buffer.put((byte)'#');
+    long time = cycle * CYCLE_NANOS;
+    int count = 0;
+    do {
+      digits[count++] = (byte)('0' + time % 10);
+      time /= 10;
+    } while (time > 0);
+    while (count > 0) {
+      buffer.put(digits[--count]);
+    }
+    buffer.put((byte)'\n');
+  }
+
+  private void putValue(final Signal signal)
+  {
+    if (signal.width == 1) {
+      buffer.put((byte)('0' + signal.value));
+    } else {
+      buffer.put((byte)'b');
+      final int value = signal.value;
+      int bit = 31 - Integer.numberOfLeadingZeros(value);
+      if (bit < 0) bit = 0;
+      for (; bit >= 0; bit--) {
+        buffer.put((byte)('0' + ((value >>> bit) & 0x1)));
+      }
+      buffer.put((byte)' ');
+    }
+    buffer.put(signal.id);
+    buffer.put((byte)'\n');
+  }
+
+  private void record()
+  {
+    if (buffer.remaining() < maxCycleBytes) {
+      tasks.add(new Task(TaskType.DATA, null, buffer));
+      buffer = obtainBuffer();
+      if (buffer == null) {
+        console.println("warning: VCD writer falling behind, " +
+                        "recording stopped");
+        ctrl &= ~CTRL_ENABLE;
+        stop();
+        return;
+      }
+    }
+    final boolean pinsSelected = (ctrl & (CTRL_PINS | CTRL_PINDIRS)) != 0x0;
+    final int oes = pinsSelected ? gpio.getOeToPadPins() : 0x0;
+    final int pins = pinsSelected ? samplePins() : 0x0;
+    boolean timePut = false;
+    for (final Signal signal : signals) {
+      final int value = sampleValue(signal, pins, oes);
+      if (value != signal.value) {
+        signal.value = value;
+        if (!timePut) {
+          putTime();
+          timePut = true;
+        }
+        putValue(signal);
+      }
+    }
+  }
+
+  @Override
+  public void risingEdge(final long wallClock)
+  {
+    // values are recorded only when the cycle has been completed
+  }
+
+  @Override
+  public synchronized void fallingEdge(final long wallClock)
+  {
+    // cycles replayed during time travel have already been dumped
+    if ((signals != null) && !masterClock.isReplaying()) {
+      cycle++;
+      record();
+    }
+  }
+
+  private void writeTasks()
+  {
+    FileChannel channel = null;
+    boolean failed = false;
+    while (true) {
+      final Task task;
+      try {
+        task = tasks.take();
+      } catch (final InterruptedException e) {
+        continue;
+      }
+      try {
+        switch (task.type) {
+        case OPEN:
+          if (channel != null) channel.close();
+          failed = false;
+          channel =
+            FileChannel.open(task.path, StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING);
+          break;
+        case DATA:
+          task.buffer.flip();
+          if ((channel != null) && !failed) {
+            while (task.buffer.hasRemaining()) {
+              channel.write(task.buffer);
+            }
+          }
+          freeBuffers.add(task.buffer);
+          break;
+        case CLOSE:
+          if (channel != null) channel.close();
+          channel = null;
+          break;
+        case TERMINATE:
+          if (channel != null) channel.close();
+          return;
+        default:
+          throw new InternalError("unexpected case fall-through");
+        }
+      } catch (final IOException e) {
+        if (!failed) {
+          console.println("failed writing VCD file: " + e.getMessage());
+        }
+        failed = true;
+        if (task.type == TaskType.DATA) {
+          freeBuffers.add(task.buffer);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finishes any recording in progress, waits until all pending
+   * buffers have been written and the file has been closed, and
+   * stops the background thread.  Recording can not be restarted
+   * thereafter.
+   */
+  public void terminate()
+  {
+    final Thread thread;
+    synchronized(this) {
+      if (terminated) return;
+      terminated = true;
+      if (signals != null) {
+        ctrl &= ~CTRL_ENABLE;
+        stop();
+      }
+      thread = writerThread;
+      if (thread == null) return;
+      tasks.add(new Task(TaskType.TERMINATE, null, null));
+    }
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
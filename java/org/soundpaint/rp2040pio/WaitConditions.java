@@ -0,0 +1,276 @@
+/*
+ * @(#)WaitConditions.java 1.00 21/06/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Set of register conditions to wait for, combined with either
+ * any-of or all-of semantics, see method
+ * AddressSpace#waitAddresses().  Each condition consists of an
+ * address, an expected value and a mask, and is satisfied if and
+ * only if the value of the register at that address, masked with the
+ * mask, equals the expected value.
+ */
+public class WaitConditions
+{
+  public static final int MAX_CONDITIONS = 32;
+
+  public enum Mode
+  {
+    ANY_OF("any"),
+    ALL_OF("all");
+
+    private final String id;
+
+    private Mode(final String id)
+    {
+      this.id = id;
+    }
+
+    public String getId() { return id; }
+
+    public static Mode fromId(final String id)
+    {
+      for (final Mode mode : MODES) {
+        if (mode.id.equals(id)) return mode;
+      }
+      throw new IllegalArgumentException("unknown wait mode: " + id);
+    }
+  };
+
+  private static final Mode[] MODES = Mode.values();
+
+  public static class Condition
+  {
+    private final int address;
+    private final int expectedValue;
+    private final int mask;
+
+    private Condition()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private Condition(final int address, final int expectedValue,
+                      final int mask)
+    {
+      this.address = address;
+      this.expectedValue = expectedValue;
+      this.mask = mask;
+    }
+
+    public int getAddress() { return address; }
+
+    public int getExpectedValue() { return expectedValue; }
+
+    public int getMask() { return mask; }
+
+    public boolean isSatisfiedBy(final int value)
+    {
+      return (value & mask) == expectedValue;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("(0x%08x & 0x%08x) == 0x%08x",
+                           address, mask, expectedValue);
+    }
+  }
+
+  /**
+   * Outcome of waiting for a set of conditions.
+   */
+  public static class Result
+  {
+    private final boolean fulfilled;
+    private final int satisfied;
+    private final long wallClock;
+    private final int[] values;
+
+    private Result()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    public Result(final boolean fulfilled, final int satisfied,
+                  final long wallClock, final int[] values)
+    {
+      if (values == null) {
+        throw new NullPointerException("values");
+      }
+      this.fulfilled = fulfilled;
+      this.satisfied = satisfied;
+      this.wallClock = wallClock;
+      this.values = values;
+    }
+
+    /**
+     * Returns true, if the combined condition has been fulfilled, or
+     * false, if waiting has been stopped due to a timeout.
+     */
+    public boolean isFulfilled() { return fulfilled; }
+
+    /**
+     * Returns a bit mask with bit #n set, if and only if condition #n
+     * has been satisfied upon returning from the wait.
+     */
+    public int getSatisfied() { return satisfied; }
+
+    public boolean isSatisfied(final int index)
+    {
+      return ((satisfied >>> index) & 0x1) != 0x0;
+    }
+
+    /**
+     * Returns the index of the first satisfied condition, or -1, if
+     * none of the conditions has been satisfied.  For any-of
+     * semantics, this is the condition that made the wait return.
+     */
+    public int getFirstSatisfied()
+    {
+      return satisfied != 0x0 ? Integer.numberOfTrailingZeros(satisfied) : -1;
+    }
+
+    /**
+     * Returns the wall clock of the cycle at which the conditions have
+     * been finally evaluated.
+     */
+    public long getWallClock() { return wallClock; }
+
+    /**
+     * Returns the register values (already masked with each
+     * condition's mask) of the final evaluation.
+     */
+    public int[] getValues() { return values; }
+
+    @Override
+    public String toString()
+    {
+      return String.format("Result(fulfilled=%s, satisfied=0x%08x, " +
+                           "wallClock=%d)", fulfilled, satisfied, wallClock);
+    }
+  }
+
+  private final Mode mode;
+  private final List<Condition> conditions;
+
+  private WaitConditions()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public WaitConditions(final Mode mode)
+  {
+    if (mode == null) {
+      throw new NullPointerException("mode");
+    }
+    this.mode = mode;
+    conditions = new ArrayList<Condition>();
+  }
+
+  public Mode getMode() { return mode; }
+
+  public void addCondition(final int address, final int expectedValue,
+                           final int mask)
+  {
+    if ((address & 0x3) != 0x0) {
+      throw new IllegalArgumentException("address not word-aligned: " +
+                                         String.format("0x%08x", address));
+    }
+    if (conditions.size() == MAX_CONDITIONS) {
+      throw new IllegalArgumentException("too many conditions, maximum is " +
+                                         MAX_CONDITIONS);
+    }
+    conditions.add(new Condition(address, expectedValue, mask));
+  }
+
+  public void addCondition(final int address, final int expectedValue)
+  {
+    addCondition(address, expectedValue, 0xffffffff);
+  }
+
+  public List<Condition> getConditions()
+  {
+    return Collections.unmodifiableList(conditions);
+  }
+
+  public int size() { return conditions.size(); }
+
+  public int[] getAddresses()
+  {
+    final int[] addresses = new int[conditions.size()];
+    for (int index = 0; index < addresses.length; index++) {
+      addresses[index] = conditions.get(index).getAddress();
+    }
+    return addresses;
+  }
+
+  /**
+   * Evaluates all conditions for the specified register values,
+   * which must have been read at the same clock cycle from the
+   * addresses as returned by method getAddresses().
+   */
+  public Result evaluate(final int[] values, final long wallClock)
+  {
+    if (values == null) {
+      throw new NullPointerException("values");
+    }
+    if (values.length != conditions.size()) {
+      throw new IllegalArgumentException("expected " + conditions.size() +
+                                         " values, but got " + values.length);
+    }
+    final int[] maskedValues = new int[values.length];
+    int satisfied = 0x0;
+    for (int index = 0; index < values.length; index++) {
+      final Condition condition = conditions.get(index);
+      maskedValues[index] = values[index] & condition.getMask();
+      if (condition.isSatisfiedBy(values[index])) {
+        satisfied |= 0x1 << index;
+      }
+    }
+    final boolean fulfilled =
+      mode == Mode.ANY_OF ?
+      satisfied != 0x0 :
+      satisfied == (int)((0x1L << values.length) - 1);
+    return new Result(fulfilled, satisfied, wallClock, maskedValues);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "WaitConditions(" + mode.getId() + ")" + conditions;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -49,15 +49,20 @@ import org.soundpaint.rp2040pio.monitor.commands.Load;
 import org.soundpaint.rp2040pio.monitor.commands.Quit;
 import org.soundpaint.rp2040pio.monitor.commands.PinCtrl;
 import org.soundpaint.rp2040pio.monitor.commands.Read;
+import org.soundpaint.rp2040pio.monitor.commands.Record;
 import org.soundpaint.rp2040pio.monitor.commands.Registers;
 import org.soundpaint.rp2040pio.monitor.commands.Reset;
+import org.soundpaint.rp2040pio.monitor.commands.Restore;
 import org.soundpaint.rp2040pio.monitor.commands.Save;
 import org.soundpaint.rp2040pio.monitor.commands.Script;
 import org.soundpaint.rp2040pio.monitor.commands.SideSet;
+import org.soundpaint.rp2040pio.monitor.commands.Snapshot;
 import org.soundpaint.rp2040pio.monitor.commands.Sm;
 import org.soundpaint.rp2040pio.monitor.commands.Trace;
+import org.soundpaint.rp2040pio.monitor.commands.Travel;
 import org.soundpaint.rp2040pio.monitor.commands.Unassemble;
 import org.soundpaint.rp2040pio.monitor.commands.Unload;
+import org.soundpaint.rp2040pio.monitor.commands.Vcd;
 import org.soundpaint.rp2040pio.monitor.commands.Version;
 import org.soundpaint.rp2040pio.monitor.commands.Wait;
 import org.soundpaint.rp2040pio.monitor.commands.Wrap;
@@ -113,15 +118,20 @@ public class CommandRegistry implements Iterable<Command>
     add(quit = new Quit(console));
     add(new PinCtrl(console, sdk));
     add(new Read(console, sdk));
+    add(new Record(console, sdk));
     add(new Registers(console, sdk));
     add(new Reset(console, sdk));
+    add(new Restore(console, sdk));
     add(new Save(console, sdk));
     add(new Script(console, this));
     add(new SideSet(console, sdk));
     add(new Sm(console, sdk));
+    add(new Snapshot(console, sdk));
     add(new Trace(console, sdk));
+    add(new Travel(console, sdk));
     add(new Unassemble(console, sdk));
     add(new Unload(console, sdk));
+    add(new Vcd(console, sdk));
     add(new Version(console, sdk, appFullName));
     add(new Wait(console, sdk));
     add(new Wrap(console, sdk));
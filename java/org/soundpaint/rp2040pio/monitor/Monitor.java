@@ -69,13 +69,24 @@ public class Monitor
   private static final CmdOptions.StringOptionDeclaration optFile =
     CmdOptions.createStringOption("PATH", false, 'f', "file", null,
                                   "path of monitor script file to execute");
+  private static final CmdOptions.StringOptionDeclaration optSession =
+    CmdOptions.createStringOption("NAME", false, 'n', "session", null,
+                                  "attach to (and, if not yet existing, " +
+                                  "create) emulation session NAME");
+  private static final CmdOptions.FlagOptionDeclaration optServerSide =
+    CmdOptions.createFlagOption(false, 's', "server-side", CmdOptions.Flag.OFF,
+                                "execute script given by \"-e\" or \"-f\" " +
+                                "within the emulation server and display " +
+                                "its output");
   private static final List<CmdOptions.OptionDeclaration<?>>
     optionDeclarations =
     Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
-                  { optVersion, optHelp, optPort, optExample, optFile });
+                  { optVersion, optHelp, optPort, optSession, optExample,
+                    optFile, optServerSide });
 
   private final BufferedReader in;
   private final PrintStream console;
+  private final AddressSpace memory;
   private final SDK sdk;
   private final PIOSDK pioSdk;
   private final GPIOSDK gpioSdk;
@@ -101,11 +112,13 @@ public class Monitor
     this.console = console;
     if ((options = parseArgs(argv)) != null) {
       printAbout();
-      sdk = new SDK(console, connect());
+      memory = connect();
+      sdk = new SDK(console, memory);
       pioSdk = sdk.getPIO0SDK();
       gpioSdk = sdk.getGPIOSDK();
       commands = new CommandRegistry(console, in, sdk, APP_FULL_NAME);
     } else {
+      memory = null;
       sdk = null;
       pioSdk = null;
       gpioSdk = null;
@@ -113,6 +126,37 @@ public class Monitor
     }
   }
 
+  /**
+   * Creates a monitor that directly operates on the specified
+   * address space, without parsing any command line options and
+   * without connecting to an emulation server.  This constructor is
+   * intended for executing scripts in-process, e.g. within the
+   * emulation server.
+   *
+   * @see #executeScript
+   */
+  public Monitor(final BufferedReader in, final PrintStream console,
+                 final AddressSpace memory)
+  {
+    if (in == null) {
+      throw new NullPointerException("in");
+    }
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    if (memory == null) {
+      throw new NullPointerException("memory");
+    }
+    this.in = in;
+    this.console = console;
+    this.memory = memory;
+    options = null;
+    sdk = new SDK(console, memory);
+    pioSdk = sdk.getPIO0SDK();
+    gpioSdk = sdk.getGPIOSDK();
+    commands = new CommandRegistry(console, in, sdk, APP_FULL_NAME);
+  }
+
   private CmdOptions parseArgs(final String argv[]) throws IOException
   {
     final CmdOptions options;
@@ -150,6 +194,12 @@ public class Monitor
         ParseException("at most one of options \"-e\" and \"-f\" may be " +
                        "specified at the same time");
     }
+    if ((options.getValue(optServerSide) == CmdOptions.Flag.ON) &&
+        !options.isDefined(optExample) && !options.isDefined(optFile)) {
+      throw new CmdOptions.
+        ParseException("option \"-s\" requires either option \"-e\" " +
+                       "or \"-f\"");
+    }
   }
 
   private void printAbout()
@@ -161,12 +211,17 @@ public class Monitor
                    String.format(Command.commandHint));
   }
 
-  private AddressSpace connect() throws IOException
+  private RemoteAddressSpaceClient connect() throws IOException
   {
     final int port = options.getValue(optPort);
     try {
       console.printf("connecting to emulation server at port %d…%n", port);
-      return new RemoteAddressSpaceClient(console, null, port);
+      final RemoteAddressSpaceClient client =
+        new RemoteAddressSpaceClient(console, null, port);
+      if (options.isDefined(optSession)) {
+        client.attachSession(options.getValue(optSession));
+      }
+      return client;
     } catch (final IOException e) {
       final String message =
         String.format("failed to connect to emulation server: %s%n" +
@@ -176,9 +231,48 @@ public class Monitor
     }
   }
 
+  private int runServerSide()
+  {
+    final RemoteAddressSpaceClient client = (RemoteAddressSpaceClient)memory;
+    try {
+      if (options.isDefined(optExample)) {
+        return client.executeExample(options.getValue(optExample), console);
+      } else {
+        final StringBuilder script = new StringBuilder();
+        final BufferedReader scriptIn =
+          IOUtils.getReaderForResourcePath(options.getValue(optFile));
+        String line;
+        while ((line = scriptIn.readLine()) != null) {
+          script.append(line);
+          script.append('\n');
+        }
+        return client.executeScript(script.toString(), console);
+      }
+    } catch (final IOException e) {
+      console.println(e.getMessage());
+      return -1;
+    }
+  }
+
+  /**
+   * Executes the script read from the specified reader, echoing each
+   * line of the script to the console, and returns 0 on success or
+   * -1, if a fatal error occurred.
+   */
+  public int executeScript(final BufferedReader scriptIn)
+  {
+    if (scriptIn == null) {
+      throw new NullPointerException("scriptIn");
+    }
+    return session(scriptIn, false, true, "script> ");
+  }
+
   private int run(final boolean localEcho)
   {
     if (sdk == null) return 0;
+    if (options.getValue(optServerSide) == CmdOptions.Flag.ON) {
+      return runServerSide();
+    }
     final BufferedReader scriptIn;
     try {
       if (options.isDefined(optExample)) {
@@ -0,0 +1,192 @@
+/*
+ * @(#)Record.java 1.00 21/06/27
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.monitor.commands;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.Constants;
+import org.soundpaint.rp2040pio.PicoEmuRegisters;
+import org.soundpaint.rp2040pio.TraceRecorder;
+import org.soundpaint.rp2040pio.monitor.Command;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Monitor command "record" starts or stops headless trace recording
+ * on the emulation server, or shows recorded values, or shows the
+ * current recording status.
+ */
+public class Record extends Command
+{
+  private static final String fullName = "record";
+  private static final String singleLineDescription =
+    "start or stop trace recording or show recorded values";
+  private static final String notes =
+    "Start or stop recording with option \"+e\" or \"-e\",%n" +
+    "respectively.  For each cycle, the level and output enable%n" +
+    "of all GPIO pins and the PC of all SMs are recorded into an%n" +
+    "off-heap trace store on the emulation server.  Starting a%n" +
+    "new recording discards all values recorded before.%n" +
+    "Option \"-c\" displays the recorded values of the specified%n" +
+    "cycle and, with option \"-n\", of subsequent cycles.%n" +
+    "If none of the options is specified, the recording status%n" +
+    "and the range of recorded cycles is displayed.";
+
+  private static final CmdOptions.BooleanOptionDeclaration optEnable =
+    CmdOptions.createBooleanOption(false, 'e', "enable", null,
+                                   "start or stop recording");
+  private static final CmdOptions.StringOptionDeclaration optCycle =
+    CmdOptions.createStringOption("CYCLE", false, 'c', "cycle", null,
+                                  "wall clock value of first cycle " +
+                                  "to display");
+  private static final CmdOptions.IntegerOptionDeclaration optCount =
+    CmdOptions.createIntegerOption("COUNT", false, 'n', "count", 1,
+                                   "number of cycles to display");
+
+  private static final int addressCtrl =
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.RECORDER_CTRL);
+
+  private final SDK sdk;
+
+  public Record(final PrintStream console, final SDK sdk)
+  {
+    super(console, fullName, singleLineDescription, notes,
+          new CmdOptions.OptionDeclaration<?>[]
+          { optEnable, optCycle, optCount });
+    if (sdk == null) {
+      throw new NullPointerException("sdk");
+    }
+    this.sdk = sdk;
+  }
+
+  private static long parseCycle(final String value)
+    throws CmdOptions.ParseException
+  {
+    try {
+      final long cycle = Long.decode(value);
+      if (cycle < 0) {
+        throw new CmdOptions.ParseException("cycle must be non-negative");
+      }
+      return cycle;
+    } catch (final NumberFormatException e) {
+      throw new CmdOptions.ParseException("invalid cycle: " + value);
+    }
+  }
+
+  @Override
+  protected void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optHelp) != CmdOptions.Flag.ON) {
+      final String optCycleValue = options.getValue(optCycle);
+      if (optCycleValue != null) {
+        parseCycle(optCycleValue);
+      }
+      if (options.getValue(optCount) < 1) {
+        throw new CmdOptions.
+          ParseException("number of cycles must be at least 1");
+      }
+    }
+  }
+
+  private void displayStatus() throws IOException
+  {
+    final boolean enabled = (sdk.readAddress(addressCtrl) & 0x1) != 0x0;
+    console.printf("trace recording %s%n",
+                   enabled ? "in progress" : "stopped");
+    final long first = sdk.getRecorderFirstCycle();
+    final long last = sdk.getRecorderLastCycle();
+    if (first < 0) {
+      console.printf("recorded cycles: none%n");
+    } else {
+      console.printf("recorded cycles: %d..%d%n", first, last);
+    }
+  }
+
+  private void displayValues(final long fromCycle, final int count)
+    throws IOException
+  {
+    final long first = sdk.getRecorderFirstCycle();
+    final long last = sdk.getRecorderLastCycle();
+    if ((first < 0) || (fromCycle < first) || (fromCycle > last)) {
+      console.printf("cycle %d not recorded%n", fromCycle);
+      return;
+    }
+    final long toCycle = Math.min(fromCycle + count - 1, last);
+    console.printf("cycle      pins     pindirs  PCs (pio0:sm0..pio1:sm3)%n");
+    for (long cycle = fromCycle; cycle <= toCycle; cycle++) {
+      final StringBuilder s = new StringBuilder();
+      s.append(String.format("%-10d %08x %08x ", cycle,
+                             sdk.getRecordedValue(TraceRecorder.SIGNAL_PINS,
+                                                  cycle),
+                             sdk.getRecordedValue(TraceRecorder.
+                                                  SIGNAL_PINDIRS,
+                                                  cycle)));
+      for (int pioNum = 0; pioNum < Constants.PIO_NUM; pioNum++) {
+        for (int smNum = 0; smNum < Constants.SM_COUNT; smNum++) {
+          final int signal = TraceRecorder.getPCSignal(pioNum, smNum);
+          s.append(String.format(" %02x",
+                                 sdk.getRecordedValue(signal, cycle)));
+        }
+      }
+      console.println(s);
+    }
+  }
+
+  /**
+   * Returns true if no error occurred and the command has been
+   * executed.
+   */
+  @Override
+  protected boolean execute(final CmdOptions options) throws IOException
+  {
+    final Boolean optEnableValue = options.getValue(optEnable);
+    final String optCycleValue = options.getValue(optCycle);
+    if ((optEnableValue == null) && (optCycleValue == null)) {
+      displayStatus();
+      return true;
+    }
+    if (optEnableValue != null) {
+      sdk.writeAddress(addressCtrl, optEnableValue ? 0x1 : 0x0);
+      console.printf("trace recording %s%n",
+                     optEnableValue ? "started" : "stopped");
+    }
+    if (optCycleValue != null) {
+      try {
+        displayValues(parseCycle(optCycleValue), options.getValue(optCount));
+      } catch (final CmdOptions.ParseException e) {
+        throw new InternalError("unexpected invalid cycle", e);
+      }
+    }
+    return true;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,105 @@
+/*
+ * @(#)Restore.java 1.00 21/06/25
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.monitor.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.monitor.Command;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Monitor command "restore" restores the complete emulation state
+ * from a file that has been written by command "snapshot".
+ */
+public class Restore extends Command
+{
+  private static final String fullName = "restore";
+  private static final String singleLineDescription =
+    "restore complete emulation state from a file";
+  private static final String notes =
+    "The file must have been written by command \"snapshot\".%n" +
+    "If the file contents is malformed, the emulator is reset.%n" +
+    "The cycle history is cleared upon restore.";
+
+  private static final CmdOptions.StringOptionDeclaration optFile =
+    CmdOptions.createStringOption("PATH", false, 'f', "file", null,
+                                  "path of file to read");
+
+  private final SDK sdk;
+
+  public Restore(final PrintStream console, final SDK sdk)
+  {
+    super(console, fullName, singleLineDescription, notes,
+          new CmdOptions.OptionDeclaration<?>[]
+          { optFile });
+    if (sdk == null) {
+      throw new NullPointerException("sdk");
+    }
+    this.sdk = sdk;
+  }
+
+  @Override
+  protected void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optHelp) != CmdOptions.Flag.ON) {
+      if (!options.isDefined(optFile)) {
+        throw new CmdOptions.
+          ParseException("option not specified: " + optFile);
+      }
+    }
+  }
+
+  /**
+   * Returns true if no error occurred and the command has been
+   * executed.
+   */
+  @Override
+  protected boolean execute(final CmdOptions options) throws IOException
+  {
+    final String filePath = options.getValue(optFile);
+    final byte[] state;
+    try {
+      state = Files.readAllBytes(new File(filePath).toPath());
+    } catch (final IOException e) {
+      console.println("failed reading from file: " + e.getMessage());
+      return false;
+    }
+    sdk.restoreState(state);
+    console.printf("(pio*:sm*) restored emulation state from file %s%n",
+                   filePath);
+    return true;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,116 @@
+/*
+ * @(#)Snapshot.java 1.00 21/06/25
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.monitor.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.monitor.Command;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Monitor command "snapshot" saves the complete emulation state to a
+ * file, such that it can be restored later with command "restore".
+ */
+public class Snapshot extends Command
+{
+  private static final String fullName = "snapshot";
+  private static final String singleLineDescription =
+    "save complete emulation state to a file";
+  private static final String notes =
+    "The state comprises the master clock, all GPIO pins and both%n" +
+    "PIOs including instruction memory, FIFOs and all internals of%n" +
+    "each state machine.  It is taken atomically with respect to%n" +
+    "emulation and written as binary file on the client side.%n" +
+    "Use command \"restore\" for loading the file back into the%n" +
+    "emulator.";
+
+  private static final CmdOptions.StringOptionDeclaration optFile =
+    CmdOptions.createStringOption("PATH", false, 'f', "file", null,
+                                  "path of file to write");
+  private static final CmdOptions.BooleanOptionDeclaration optOverWrite =
+    CmdOptions.createBooleanOption(false, 'o', "overwrite", false,
+                                   "overwrite if file already exists");
+
+  private final SDK sdk;
+
+  public Snapshot(final PrintStream console, final SDK sdk)
+  {
+    super(console, fullName, singleLineDescription, notes,
+          new CmdOptions.OptionDeclaration<?>[]
+          { optFile, optOverWrite });
+    if (sdk == null) {
+      throw new NullPointerException("sdk");
+    }
+    this.sdk = sdk;
+  }
+
+  @Override
+  protected void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optHelp) != CmdOptions.Flag.ON) {
+      if (!options.isDefined(optFile)) {
+        throw new CmdOptions.
+          ParseException("option not specified: " + optFile);
+      }
+    }
+  }
+
+  /**
+   * Returns true if no error occurred and the command has been
+   * executed.
+   */
+  @Override
+  protected boolean execute(final CmdOptions options) throws IOException
+  {
+    final String filePath = options.getValue(optFile);
+    final boolean overWrite = options.getValue(optOverWrite);
+    final File file = new File(filePath);
+    if (file.exists() & !overWrite) {
+      console.println("file already exists: " + filePath);
+      return false;
+    }
+    final byte[] state = sdk.saveState();
+    try {
+      Files.write(file.toPath(), state);
+    } catch (final IOException e) {
+      console.println("failed saving to file: " + e.getMessage());
+      return false;
+    }
+    console.printf("(pio*:sm*) saved emulation state (%d bytes) to file %s%n",
+                   state.length, filePath);
+    return true;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
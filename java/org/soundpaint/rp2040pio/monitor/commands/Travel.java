@@ -0,0 +1,233 @@
+/*
+ * @(#)Travel.java 1.00 21/06/26
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.monitor.commands;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.MasterClock;
+import org.soundpaint.rp2040pio.PicoEmuRegisters;
+import org.soundpaint.rp2040pio.monitor.Command;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Monitor command "travel" steps back in time or travels to a
+ * specific cycle, or configures time travel, or shows the current
+ * time travel configuration.
+ */
+public class Travel extends Command
+{
+  private static final String fullName = "travel";
+  private static final String singleLineDescription =
+    "step back or go to a cycle, or configure or show time travel";
+  private static final String notes =
+    "Time travel is enabled by setting the checkpoint interval%n" +
+    "with option \"-i\" to a value greater than 0.  Then, the%n" +
+    "complete emulation state is saved every that many cycles,%n" +
+    "and all inputs are recorded, such that option \"-b\" steps%n" +
+    "back the specified number of cycles, and option \"-c\" goes%n" +
+    "to the start of the specified cycle.  Travelling requires%n" +
+    "the master clock to be in single step mode.  If the target%n" +
+    "cycle is out of the recorded range, the closest reachable%n" +
+    "cycle is chosen instead.  After travelling back, travelling%n" +
+    "forward again replays the recorded inputs, until new input%n" +
+    "overwrites the recorded future.%n" +
+    "If none of the options is specified, the current%n" +
+    "configuration and the range of reachable cycles is displayed.";
+
+  private static final CmdOptions.IntegerOptionDeclaration optBack =
+    CmdOptions.createIntegerOption("COUNT", false, 'b', "back", null,
+                                   "number of cycles to step back");
+  private static final CmdOptions.StringOptionDeclaration optCycle =
+    CmdOptions.createStringOption("CYCLE", false, 'c', "cycle", null,
+                                  "wall clock value of cycle to go to");
+  private static final CmdOptions.IntegerOptionDeclaration optInterval =
+    CmdOptions.createIntegerOption("COUNT", false, 'i', "interval", null,
+                                   "number of cycles between checkpoints " +
+                                   "(0 = disable time travel)");
+  private static final CmdOptions.IntegerOptionDeclaration optBudget =
+    CmdOptions.createIntegerOption("KIB", false, null, "budget", null,
+                                   "memory budget for checkpoints in KiB");
+
+  private static final int addressInterval =
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.TIME_TRAVEL_INTERVAL);
+  private static final int addressBudget =
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.TIME_TRAVEL_BUDGET);
+  private static final int addressEarliestLsb =
+    PicoEmuRegisters.
+    getAddress(PicoEmuRegisters.Regs.TIME_TRAVEL_EARLIEST_LSB);
+  private static final int addressEarliestMsb =
+    PicoEmuRegisters.
+    getAddress(PicoEmuRegisters.Regs.TIME_TRAVEL_EARLIEST_MSB);
+  private static final int addressLatestLsb =
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.TIME_TRAVEL_LATEST_LSB);
+  private static final int addressLatestMsb =
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.TIME_TRAVEL_LATEST_MSB);
+  private static final int addressMode =
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.MASTERCLK_MODE);
+
+  private final SDK sdk;
+
+  public Travel(final PrintStream console, final SDK sdk)
+  {
+    super(console, fullName, singleLineDescription, notes,
+          new CmdOptions.OptionDeclaration<?>[]
+          { optBack, optCycle, optInterval, optBudget });
+    if (sdk == null) {
+      throw new NullPointerException("sdk");
+    }
+    this.sdk = sdk;
+  }
+
+  private static long parseCycle(final String value)
+    throws CmdOptions.ParseException
+  {
+    try {
+      final long cycle = Long.decode(value);
+      if (cycle < 0) {
+        throw new CmdOptions.ParseException("cycle must be non-negative");
+      }
+      return cycle;
+    } catch (final NumberFormatException e) {
+      throw new CmdOptions.ParseException("invalid cycle: " + value);
+    }
+  }
+
+  @Override
+  protected void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optHelp) != CmdOptions.Flag.ON) {
+      if (options.isDefined(optBack) && options.isDefined(optCycle)) {
+        throw new CmdOptions.
+          ParseException("at most one of options \"-b\" and \"-c\" " +
+                         "may be specified");
+      }
+      final Integer optBackValue = options.getValue(optBack);
+      if ((optBackValue != null) && (optBackValue < 0)) {
+        throw new CmdOptions.
+          ParseException("number of cycles must be non-negative");
+      }
+      final String optCycleValue = options.getValue(optCycle);
+      if (optCycleValue != null) {
+        parseCycle(optCycleValue);
+      }
+      final Integer optIntervalValue = options.getValue(optInterval);
+      if ((optIntervalValue != null) && (optIntervalValue < 0)) {
+        throw new CmdOptions.
+          ParseException("interval must be non-negative");
+      }
+      final Integer optBudgetValue = options.getValue(optBudget);
+      if ((optBudgetValue != null) && (optBudgetValue < 1)) {
+        throw new CmdOptions.
+          ParseException("budget must be at least 1 KiB");
+      }
+    }
+  }
+
+  private long readCycle(final int addressLsb, final int addressMsb)
+    throws IOException
+  {
+    final int[] values =
+      sdk.readAddressesConsistent(new int[] {addressLsb, addressMsb});
+    return ((long)values[1] << 32) | (values[0] & 0xffffffffL);
+  }
+
+  private void displayStatus() throws IOException
+  {
+    final int interval = sdk.readAddress(addressInterval);
+    final int budget = sdk.readAddress(addressBudget);
+    if (interval == 0) {
+      console.printf("time travel disabled%n");
+    } else {
+      console.printf("checkpoint interval: %d cycles%n", interval);
+    }
+    console.printf("checkpoint budget:   %d KiB%n", budget);
+    console.printf("current cycle:       %d%n", sdk.getWallClock());
+    final long earliest = readCycle(addressEarliestLsb, addressEarliestMsb);
+    final long latest = readCycle(addressLatestLsb, addressLatestMsb);
+    if (earliest < 0) {
+      console.printf("reachable cycles:    none%n");
+    } else {
+      console.printf("reachable cycles:    %d..%d%n", earliest, latest);
+    }
+  }
+
+  /**
+   * Returns true if no error occurred and the command has been
+   * executed.
+   */
+  @Override
+  protected boolean execute(final CmdOptions options) throws IOException
+  {
+    final Integer optBackValue = options.getValue(optBack);
+    final String optCycleValue = options.getValue(optCycle);
+    final Integer optIntervalValue = options.getValue(optInterval);
+    final Integer optBudgetValue = options.getValue(optBudget);
+    final boolean haveModOp =
+      (optBackValue != null) || (optCycleValue != null) ||
+      (optIntervalValue != null) || (optBudgetValue != null);
+    if (!haveModOp) {
+      displayStatus();
+      return true;
+    }
+    if (optBudgetValue != null) {
+      sdk.writeAddress(addressBudget, optBudgetValue);
+    }
+    if (optIntervalValue != null) {
+      sdk.writeAddress(addressInterval, optIntervalValue);
+    }
+    if ((optBackValue != null) || (optCycleValue != null)) {
+      if (sdk.readAddress(addressMode) !=
+          MasterClock.Mode.SINGLE_STEP.ordinal()) {
+        console.println("time travel requires single step mode");
+        return false;
+      }
+      if (sdk.readAddress(addressInterval) == 0) {
+        console.println("time travel is disabled");
+        return false;
+      }
+      if (optBackValue != null) {
+        sdk.stepBack(optBackValue);
+      } else {
+        try {
+          sdk.travelTo(parseCycle(optCycleValue));
+        } catch (final CmdOptions.ParseException e) {
+          throw new InternalError("unexpected invalid cycle", e);
+        }
+      }
+      console.printf("(pio*:sm*) travelled to cycle %d%n",
+                     sdk.getWallClock());
+    }
+    return true;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,163 @@
+/*
+ * @(#)Vcd.java 1.00 21/06/23
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.monitor.commands;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.PicoEmuRegisters;
+import org.soundpaint.rp2040pio.VcdWriter;
+import org.soundpaint.rp2040pio.monitor.Command;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Monitor command "vcd" starts or stops recording of value changes
+ * into a VCD file on the emulation server, or shows the current
+ * recording configuration.
+ */
+public class Vcd extends Command
+{
+  private static final String fullName = "vcd";
+  private static final String singleLineDescription =
+    "start or stop VCD recording or show its configuration";
+  private static final String notes =
+    "Start or stop recording with option \"+e\" or \"-e\",%n" +
+    "respectively.  Select the signals to record with options%n" +
+    "\"--pins\", \"--pindirs\", \"--pc\", \"--xy\" and \"-m\".%n" +
+    "Changing the selection while recording finishes the current%n" +
+    "file and starts a new one.  The VCD file is written by the%n" +
+    "emulation server; its path is configured by the server's%n" +
+    "command line option \"--vcd-file\".%n" +
+    "If none of the options is specified, the current%n" +
+    "configuration is displayed.";
+
+  private static final CmdOptions.BooleanOptionDeclaration optEnable =
+    CmdOptions.createBooleanOption(false, 'e', "enable", null,
+                                   "start or stop recording");
+  private static final CmdOptions.BooleanOptionDeclaration optPins =
+    CmdOptions.createBooleanOption(false, null, "pins", null,
+                                   "record level of selected GPIO pins");
+  private static final CmdOptions.BooleanOptionDeclaration optPinDirs =
+    CmdOptions.createBooleanOption(false, null, "pindirs", null,
+                                   "record output enable of selected " +
+                                   "GPIO pins");
+  private static final CmdOptions.BooleanOptionDeclaration optPc =
+    CmdOptions.createBooleanOption(false, null, "pc", null,
+                                   "record PC of all SMs");
+  private static final CmdOptions.BooleanOptionDeclaration optXy =
+    CmdOptions.createBooleanOption(false, null, "xy", null,
+                                   "record X and Y registers of all SMs");
+  private static final CmdOptions.IntegerOptionDeclaration optPinMask =
+    CmdOptions.createIntegerOption("MASK", false, 'm', "pin-mask", null,
+                                   "bit mask of GPIO pins to record");
+
+  private static final int addressCtrl =
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.VCD_CTRL);
+  private static final int addressPins =
+    PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.VCD_PINS);
+
+  private final SDK sdk;
+
+  public Vcd(final PrintStream console, final SDK sdk)
+  {
+    super(console, fullName, singleLineDescription, notes,
+          new CmdOptions.OptionDeclaration<?>[]
+          { optEnable, optPins, optPinDirs, optPc, optXy, optPinMask });
+    if (sdk == null) {
+      throw new NullPointerException("sdk");
+    }
+    this.sdk = sdk;
+  }
+
+  private static int updateCtrl(final int ctrl, final Boolean value,
+                                final int bit)
+  {
+    if (value == null) return ctrl;
+    return value ? ctrl | bit : ctrl & ~bit;
+  }
+
+  private void displayStatus() throws IOException
+  {
+    final int ctrl = sdk.readAddress(addressCtrl);
+    final int pinMask = sdk.readAddress(addressPins);
+    console.printf("VCD recording %s%n",
+                   (ctrl & VcdWriter.CTRL_ENABLE) != 0x0 ?
+                   "in progress" : "stopped");
+    console.printf("  pins:     %s%n",
+                   (ctrl & VcdWriter.CTRL_PINS) != 0x0 ? "on" : "off");
+    console.printf("  pindirs:  %s%n",
+                   (ctrl & VcdWriter.CTRL_PINDIRS) != 0x0 ? "on" : "off");
+    console.printf("  pc:       %s%n",
+                   (ctrl & VcdWriter.CTRL_PC) != 0x0 ? "on" : "off");
+    console.printf("  xy:       %s%n",
+                   (ctrl & VcdWriter.CTRL_XY) != 0x0 ? "on" : "off");
+    console.printf("  pin mask: %08x%n", pinMask);
+  }
+
+  /**
+   * Returns true if no error occurred and the command has been
+   * executed.
+   */
+  @Override
+  protected boolean execute(final CmdOptions options) throws IOException
+  {
+    final Boolean optEnableValue = options.getValue(optEnable);
+    final Boolean optPinsValue = options.getValue(optPins);
+    final Boolean optPinDirsValue = options.getValue(optPinDirs);
+    final Boolean optPcValue = options.getValue(optPc);
+    final Boolean optXyValue = options.getValue(optXy);
+    final Integer optPinMaskValue = options.getValue(optPinMask);
+    final boolean haveModOp =
+      (optEnableValue != null) || (optPinsValue != null) ||
+      (optPinDirsValue != null) || (optPcValue != null) ||
+      (optXyValue != null) || (optPinMaskValue != null);
+    if (!haveModOp) {
+      displayStatus();
+      return true;
+    }
+    if (optPinMaskValue != null) {
+      sdk.writeAddress(addressPins, optPinMaskValue);
+    }
+    int ctrl = sdk.readAddress(addressCtrl);
+    ctrl = updateCtrl(ctrl, optPinsValue, VcdWriter.CTRL_PINS);
+    ctrl = updateCtrl(ctrl, optPinDirsValue, VcdWriter.CTRL_PINDIRS);
+    ctrl = updateCtrl(ctrl, optPcValue, VcdWriter.CTRL_PC);
+    ctrl = updateCtrl(ctrl, optXyValue, VcdWriter.CTRL_XY);
+    ctrl = updateCtrl(ctrl, optEnableValue, VcdWriter.CTRL_ENABLE);
+    sdk.writeAddress(addressCtrl, ctrl);
+    if (optEnableValue != null) {
+      console.printf("VCD recording %s%n",
+                     optEnableValue ? "started" : "stopped");
+    }
+    return true;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
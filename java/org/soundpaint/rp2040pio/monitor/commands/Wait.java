@@ -27,13 +27,16 @@ package org.soundpaint.rp2040pio.monitor.commands;
 import java.io.IOException;
 import java.io.PrintStream;
 import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.WaitConditions;
 import org.soundpaint.rp2040pio.monitor.Command;
 import org.soundpaint.rp2040pio.sdk.SDK;
 
 /**
  * Monitor command "wait" observes a register's bits and will not
  * return until the register's value matches an expected bit pattern,
- * or when a timeout has occurred.
+ * or when a timeout has occurred.  Alternatively, it observes
+ * multiple registers and returns as soon as any or all of them match
+ * their expected bit patterns.
  *
  * TODO: There is currently no way to cancel an ongoing wait command
  * other than killing the monitor application.
@@ -54,6 +57,18 @@ public class Wait extends Command
   private static final CmdOptions.IntegerOptionDeclaration optMask =
     CmdOptions.createIntegerOption("MASK", false, 'm', "mask", 0xffffffff,
                                    "bit mask to select bits to match");
+  private static final CmdOptions.StringOptionDeclaration optAny =
+    CmdOptions.createStringOption("CONDITIONS", false, null, "any", null,
+                                  "instead of a single address, observe " +
+                                  "a comma-separated list of conditions " +
+                                  "ADDRESS:VALUE[:MASK] and return as soon " +
+                                  "as any of them is met");
+  private static final CmdOptions.StringOptionDeclaration optAll =
+    CmdOptions.createStringOption("CONDITIONS", false, null, "all", null,
+                                  "instead of a single address, observe " +
+                                  "a comma-separated list of conditions " +
+                                  "ADDRESS:VALUE[:MASK] and return as soon " +
+                                  "as all of them are met at the same time");
   private static final CmdOptions.IntegerOptionDeclaration optCycles =
     CmdOptions.createIntegerOption("COUNT", false, 'c', "cycles", 0,
                                    "timeout after <COUNT> cycles or no timeout, if 0");
@@ -67,7 +82,8 @@ public class Wait extends Command
   {
     super(console, fullName, singleLineDescription,
           new CmdOptions.OptionDeclaration<?>[] {
-            optAddress, optExpectedValue, optMask, optCycles, optTime });
+            optAddress, optExpectedValue, optMask, optAny, optAll,
+            optCycles, optTime });
     if (sdk == null) {
       throw new NullPointerException("sdk");
     }
@@ -78,7 +94,26 @@ public class Wait extends Command
   protected void checkValidity(final CmdOptions options)
     throws CmdOptions.ParseException
   {
-    if (options.getValue(optHelp) != CmdOptions.Flag.ON) {
+    final boolean multiple =
+      options.isDefined(optAny) || options.isDefined(optAll);
+    if (options.isDefined(optAny) && options.isDefined(optAll)) {
+      throw new CmdOptions.
+        ParseException("at most one of options \"any\" and \"all\" " +
+                       "may be specified");
+    }
+    if (multiple) {
+      if (options.isDefined(optAddress)) {
+        throw new CmdOptions.
+          ParseException("option not allowed together with list of " +
+                         "conditions", optAddress);
+      }
+      if (options.isDefined(optExpectedValue)) {
+        throw new CmdOptions.
+          ParseException("option not allowed together with list of " +
+                         "conditions", optExpectedValue);
+      }
+      parseConditions(options);
+    } else if (options.getValue(optHelp) != CmdOptions.Flag.ON) {
       if (!options.isDefined(optAddress)) {
         throw new CmdOptions.
           ParseException("option not specified", optAddress);
@@ -100,6 +135,83 @@ public class Wait extends Command
     }
   }
 
+  private static int parseInt(final String s)
+    throws CmdOptions.ParseException
+  {
+    final String normalized = s.toLowerCase().trim();
+    try {
+      if (normalized.startsWith("0x")) {
+        return Integer.parseUnsignedInt(normalized.substring(2), 16);
+      } else {
+        return Integer.parseInt(normalized);
+      }
+    } catch (final NumberFormatException e) {
+      throw new CmdOptions.
+        ParseException("integer value expected: " + e.getMessage());
+    }
+  }
+
+  private static WaitConditions parseConditions(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    final boolean any = options.isDefined(optAny);
+    final WaitConditions conditions =
+      new WaitConditions(any ?
+                         WaitConditions.Mode.ANY_OF :
+                         WaitConditions.Mode.ALL_OF);
+    final String list = options.getValue(any ? optAny : optAll);
+    for (final String condition : list.split(",")) {
+      final String[] parts = condition.split(":");
+      if ((parts.length < 2) || (parts.length > 3)) {
+        throw new CmdOptions.
+          ParseException("condition ADDRESS:VALUE[:MASK] expected: " +
+                         condition);
+      }
+      final int address = parseInt(parts[0]);
+      final int expectedValue = parseInt(parts[1]);
+      final int mask = parts.length > 2 ? parseInt(parts[2]) : 0xffffffff;
+      try {
+        conditions.addCondition(address, expectedValue, mask);
+      } catch (final IllegalArgumentException e) {
+        throw new CmdOptions.ParseException(e.getMessage());
+      }
+    }
+    return conditions;
+  }
+
+  private boolean executeMultiple(final CmdOptions options) throws IOException
+  {
+    final WaitConditions conditions;
+    try {
+      conditions = parseConditions(options);
+    } catch (final CmdOptions.ParseException e) {
+      throw new IOException(e.getMessage());
+    }
+    for (final WaitConditions.Condition condition :
+           conditions.getConditions()) {
+      final int address = condition.getAddress();
+      if (!sdk.providesAddress(address)) {
+        final String message =
+          String.format("wait on unsupported address: 0x%08x", address);
+        throw new IOException(message);
+      }
+    }
+    final int cycles = options.getValue(optCycles);
+    final int time = options.getValue(optTime);
+    final WaitConditions.Result result = sdk.wait(conditions, cycles, time);
+    console.printf("wait for %s of %d conditions %s at cycle %d%n",
+                   conditions.getMode().getId(), conditions.size(),
+                   result.isFulfilled() ? "fulfilled" : "timed out",
+                   result.getWallClock());
+    for (int index = 0; index < conditions.size(); index++) {
+      console.printf("  #%d %s: 0x%08x%s%n",
+                     index, conditions.getConditions().get(index),
+                     result.getValues()[index],
+                     result.isSatisfied(index) ? " (met)" : "");
+    }
+    return true;
+  }
+
   /**
    * Returns true if no error occurred and the command has been
    * executed.
@@ -107,6 +219,9 @@ public class Wait extends Command
   @Override
   protected boolean execute(final CmdOptions options) throws IOException
   {
+    if (options.isDefined(optAny) || options.isDefined(optAll)) {
+      return executeMultiple(options);
+    }
     final int address = options.getValue(optAddress);
     final int expectedValue = options.getValue(optExpectedValue);
     final boolean validAddress = sdk.providesAddress(address);
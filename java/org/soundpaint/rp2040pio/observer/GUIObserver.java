@@ -336,7 +336,11 @@ public abstract class GUIObserver extends JFrame
   /**
    * This method is regularly called.  The observer implementation
    * should check if the RP2040 Emulator's data, that it displays,
-   * has changed, and if so, properly update its view.
+   * has changed, and if so, properly update its view.  The method is
+   * called within a scope of cached reads (see method
+   * SDK#beginCachedReads()), such that repeatedly reading the same
+   * registers while updating the view does not cause redundant
+   * transfer of register values.
    */
   protected abstract void updateView();
 
@@ -359,7 +363,12 @@ public abstract class GUIObserver extends JFrame
         while (true) {
           updateLoopClient.waitAddress(addressPhase1, expectedValue, mask,
                                        cyclesTimeout, millisTimeoutPhase1);
-          updateView();
+          sdk.beginCachedReads();
+          try {
+            updateView();
+          } finally {
+            sdk.endCachedReads();
+          }
           SwingUtilities.invokeLater(() -> repaint());
           updateLoopClient.waitAddress(addressPhase0, expectedValue, mask,
                                        cyclesTimeout, millisTimeoutPhase0);
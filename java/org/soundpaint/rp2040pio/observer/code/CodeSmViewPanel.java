@@ -143,6 +143,11 @@ public class CodeSmViewPanel extends JPanel
   private int pioNum;
   private int smNum;
   private int lastPC;
+  private boolean instructionTextsValid;
+  private int instrMemGeneration;
+  private int smConfigGeneration;
+  private int lastMemoryAllocation;
+  private int lastBreakPoints;
 
   private CodeSmViewPanel()
   {
@@ -172,6 +177,7 @@ public class CodeSmViewPanel extends JPanel
     add(new JScrollPane(lsInstructions));
     setPreferredSize(new Dimension(300, 200));
     lastPC = -1;
+    instructionTextsValid = false;
   }
 
   private boolean isClkEnabled() throws IOException
@@ -209,11 +215,27 @@ public class CodeSmViewPanel extends JPanel
     return pendingDelay & 0x1f;
   }
 
-  private void updateInstructions() throws IOException
+  /**
+   * Disassembles all of instruction memory, unless neither
+   * instruction memory nor the SM's configuration (which affects
+   * disassembly of side-set and wrap display) nor any of the other
+   * displayed properties have changed since the most recent call of
+   * this method.
+   */
+  private void updateInstructionTexts(final PIOSDK pioSdk,
+                                      final int breakPoints)
+    throws IOException
   {
-    final PIOSDK pioSdk = pioNum == 0 ? sdk.getPIO0SDK() : sdk.getPIO1SDK();
-    final int pc = getPC();
+    final int instrMemGeneration = pioSdk.getInstrMemGeneration();
+    final int smConfigGeneration = pioSdk.getSmConfigGeneration(smNum);
     final int memoryAllocation = pioSdk.getMemoryAllocation();
+    if (instructionTextsValid &&
+        (instrMemGeneration == this.instrMemGeneration) &&
+        (smConfigGeneration == this.smConfigGeneration) &&
+        (memoryAllocation == lastMemoryAllocation) &&
+        (breakPoints == lastBreakPoints)) {
+      return;
+    }
 
     final int addressExecCtrl =
       PIORegisters.getSMAddress(pioNum, smNum, PIORegisters.Regs.SM0_EXECCTRL);
@@ -225,8 +247,40 @@ public class CodeSmViewPanel extends JPanel
       (execCtrl & Constants.SM0_EXECCTRL_WRAP_BOTTOM_BITS) >>>
       Constants.SM0_EXECCTRL_WRAP_BOTTOM_LSB;
 
+    final PIOSDK.InstructionInfo[] instructionInfos =
+      pioSdk.getMemoryInstructions(smNum, true, true);
+    for (int address = 0; address < Constants.MEMORY_SIZE; address++) {
+      final PIOSDK.InstructionInfo instructionInfo = instructionInfos[address];
+      final boolean isAllocated = ((memoryAllocation >>> address) & 0x1) != 0x0;
+      final boolean isWrap = address == wrap;
+      final boolean isWrapTarget = address == wrapTarget;
+      final String displayWrap =
+        isWrap ?
+        (isWrapTarget ? selfWrapSymbol : wrapSymbol) :
+        (isWrapTarget ? wrapTargetSymbol : noWrapSymbol);
+      final boolean isBreakPoint = ((breakPoints >>> address) & 0x1) != 0x0;
+      final String instructionText =
+        String.format("%s%s%s%s%n",
+                      (isBreakPoint ? breakPointSymbol : noBreakPointSymbol),
+                      (isAllocated ? lockedSymbol : unlockedSymbol),
+                      displayWrap,
+                      instructionInfo.getFullStatement());
+      instructions.getElementAt(address).text = instructionText;
+    }
+    this.instrMemGeneration = instrMemGeneration;
+    this.smConfigGeneration = smConfigGeneration;
+    lastMemoryAllocation = memoryAllocation;
+    lastBreakPoints = breakPoints;
+    instructionTextsValid = true;
+  }
+
+  private void updateInstructions() throws IOException
+  {
+    final PIOSDK pioSdk = pioNum == 0 ? sdk.getPIO0SDK() : sdk.getPIO1SDK();
+    final int pc = getPC();
     final int breakPoints = getBreakPoints();
     final int pendingDelay = getPendingDelay();
+    updateInstructionTexts(pioSdk, breakPoints);
 
     final int forcedInstrAddress =
       PIOEmuRegisters.getSMAddress(pioNum, smNum,
@@ -243,26 +297,8 @@ public class CodeSmViewPanel extends JPanel
     final int execdOpCode = haveExecd ? execdInstr & 0xffff : 0x0;
 
     for (int address = 0; address < Constants.MEMORY_SIZE; address++) {
-      final boolean isCurrentAddress = address == pc;
-      final PIOSDK.InstructionInfo instructionInfo =
-        pioSdk.getMemoryInstruction(smNum, address, true, true);
-      final boolean isAllocated = ((memoryAllocation >>> address) & 0x1) != 0x0;
-      final boolean isWrap = address == wrap;
-      final boolean isWrapTarget = address == wrapTarget;
-      final String displayWrap =
-        isWrap ?
-        (isWrapTarget ? selfWrapSymbol : wrapSymbol) :
-        (isWrapTarget ? wrapTargetSymbol : noWrapSymbol);
-      final boolean isBreakPoint = ((breakPoints >>> address) & 0x1) != 0x0;
-      final String instructionText =
-        String.format("%s%s%s%s%n",
-                      (isBreakPoint ? breakPointSymbol : noBreakPointSymbol),
-                      (isAllocated ? lockedSymbol : unlockedSymbol),
-                      displayWrap,
-                      instructionInfo.getFullStatement());
       final Instruction instruction = instructions.getElementAt(address);
-      instruction.text = instructionText;
-      instruction.isCurrentAddress = isCurrentAddress;
+      instruction.isCurrentAddress = address == pc;
       instruction.isActive = (pendingDelay == 0) && !haveForced && !haveExecd;
     }
     final PIOSDK.InstructionInfo currentInstructionInfo =
@@ -353,11 +389,15 @@ public class CodeSmViewPanel extends JPanel
       for (int address = 0; address < Constants.MEMORY_SIZE; address++) {
         instructions.getElementAt(address).text = errorText;
       }
+      instructionTextsValid = false;
     }
   }
 
   public void smChanged(final int pioNum, final int smNum)
   {
+    if ((pioNum != this.pioNum) || (smNum != this.smNum)) {
+      instructionTextsValid = false;
+    }
     this.pioNum = pioNum;
     this.smNum = smNum;
     final String toolTipText =
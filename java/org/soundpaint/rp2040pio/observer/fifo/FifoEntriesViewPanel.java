@@ -350,8 +350,9 @@ public class FifoEntriesViewPanel extends JPanel
     final int addressFifo =
       PIOEmuRegisters.getSMAddress(pioNum, smNum,
                                    PIOEmuRegisters.Regs.SM0_FIFO_MEM0);
-    for (int entryNum = 0; entryNum < 2 * Constants.FIFO_DEPTH; entryNum++) {
-      buffer[entryNum] = sdk.readAddress(addressFifo + (entryNum << 2));
+    final int[] values = sdk.readRange(addressFifo, 2 * Constants.FIFO_DEPTH);
+    for (int entryNum = 0; entryNum < values.length; entryNum++) {
+      buffer[entryNum] = values[entryNum];
     }
   }
 
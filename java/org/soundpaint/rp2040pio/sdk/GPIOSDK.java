@@ -31,6 +31,7 @@ import org.soundpaint.rp2040pio.Bit;
 import org.soundpaint.rp2040pio.Direction;
 import org.soundpaint.rp2040pio.GPIOIOBank0Registers;
 import org.soundpaint.rp2040pio.GPIOPadsBank0Registers;
+import org.soundpaint.rp2040pio.PicoEmuRegisters;
 import org.soundpaint.rp2040pio.PinState;
 
 /**
@@ -88,20 +89,6 @@ public class GPIOSDK implements Constants
     return Direction.fromValue(gpioOe);
   }
 
-  private static Bit getOutputLevelFromStatus(final int statusValue,
-                                              final Override override)
-  {
-    if (override == null) {
-      throw new NullPointerException("override");
-    }
-    final int gpioOut = override == Override.BEFORE ?
-      (statusValue & Constants.IO_BANK0_GPIO0_STATUS_OUTFROMPERI_BITS) >>>
-      Constants.IO_BANK0_GPIO0_STATUS_OUTFROMPERI_LSB :
-      (statusValue & Constants.IO_BANK0_GPIO0_STATUS_OUTTOPAD_BITS) >>>
-      Constants.IO_BANK0_GPIO0_STATUS_OUTTOPAD_LSB;
-    return Bit.fromValue(gpioOut);
-  }
-
   private static Bit getInputLevelFromStatus(final int statusValue,
                                              final Override override)
   {
@@ -127,28 +114,52 @@ public class GPIOSDK implements Constants
     return getInputLevelFromStatus(gpioStatusValue, override);
   }
 
+  /**
+   * Returns the direction and level of all GPIO pins, retrieved with
+   * a single bulk read of the emulator's packed GPIO status
+   * registers.
+   */
   public PinState[] getPinStates(final Override override) throws IOException
   {
+    if (override == null) {
+      throw new NullPointerException("override");
+    }
+    final int[] addresses = {
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.GPIO_OE_FROM_PERI),
+      PicoEmuRegisters.getAddress(override == Override.BEFORE ?
+                                  PicoEmuRegisters.Regs.GPIO_OUT_FROM_PERI :
+                                  PicoEmuRegisters.Regs.GPIO_OUT_TO_PAD),
+      PicoEmuRegisters.getAddress(override == Override.BEFORE ?
+                                  PicoEmuRegisters.Regs.GPIO_IN_FROM_PAD :
+                                  PicoEmuRegisters.Regs.GPIO_IN_TO_PERI)
+    };
+    final int[] values = memory.readAddresses(addresses);
+    final int oeFromPeri = values[0];
+    final int outLevels = values[1];
+    final int inLevels = values[2];
     final PinState[] pinStates = new PinState[Constants.GPIO_NUM];
     for (int gpioNum = 0; gpioNum < Constants.GPIO_NUM; gpioNum++) {
-      final int gpioStatusAddress =
-        GPIOIOBank0Registers.
-        getGPIOAddress(gpioNum, GPIOIOBank0Registers.Regs.GPIO0_STATUS);
-      final int gpioStatusValue = memory.readAddress(gpioStatusAddress);
-      final int gpioOeFromPeri =
-        (gpioStatusValue & Constants.IO_BANK0_GPIO0_STATUS_OEFROMPERI_BITS) >>>
-        Constants.IO_BANK0_GPIO0_STATUS_OEFROMPERI_LSB;
-      final Direction direction = Direction.fromValue(gpioOeFromPeri);
-      final Bit level;
-      if (direction == Direction.OUT) {
-        level = getOutputLevelFromStatus(gpioStatusValue, override);
-      } else {
-        level = getInputLevelFromStatus(gpioStatusValue, override);
-      }
+      final Direction direction =
+        Direction.fromValue((oeFromPeri >>> gpioNum) & 0x1);
+      final int levels = direction == Direction.OUT ? outLevels : inLevels;
+      final Bit level = Bit.fromValue((levels >>> gpioNum) & 0x1);
       pinStates[gpioNum] = PinState.fromValues(direction, level);
     }
     return pinStates;
   }
+
+  /**
+   * Returns the GPIO configuration generation counter, which is
+   * incremented upon each modification of the GPIO configuration.
+   * Observers may compare the result with a previously returned value
+   * to find out whether the configuration needs to be re-read.
+   */
+  public int getConfigGeneration() throws IOException
+  {
+    final int address =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.GPIO_CONFIG_GENERATION);
+    return memory.readAddress(address);
+  }
 }
 
 /*
@@ -33,9 +33,11 @@ import org.soundpaint.rp2040pio.Decoder;
 import org.soundpaint.rp2040pio.Direction;
 import org.soundpaint.rp2040pio.GPIOIOBank0Registers;
 import org.soundpaint.rp2040pio.Instruction;
+import org.soundpaint.rp2040pio.PicoEmuRegisters;
 import org.soundpaint.rp2040pio.PinState;
 import org.soundpaint.rp2040pio.PIOEmuRegisters;
 import org.soundpaint.rp2040pio.PIORegisters;
+import org.soundpaint.rp2040pio.Transaction;
 
 /**
  * PIO SDK Interface
@@ -160,6 +162,125 @@ public class PIOSDK implements Constants
     }
   }
 
+  /**
+   * Holds a consistent copy of the state of a specific state machine,
+   * as taken from its snapshot window between two clock phases, see
+   * method getSmSnapshot().
+   */
+  public static class SmSnapshot
+  {
+    private final int[] values;
+
+    private SmSnapshot()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private SmSnapshot(final int[] values)
+    {
+      this.values = values;
+    }
+
+    private int get(final PIOEmuRegisters.Regs register)
+    {
+      return
+        values[register.ordinal() -
+               PIOEmuRegisters.Regs.SM0_SNAPSHOT_WALLCLOCK.ordinal()];
+    }
+
+    /**
+     * Returns the lower 32 bits of the wall clock at the time of the
+     * snapshot.
+     */
+    public int getWallClockLSB()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_WALLCLOCK);
+    }
+
+    public int getPC() { return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_PC); }
+
+    public int getX() { return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_REGX); }
+
+    public int getY() { return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_REGY); }
+
+    public int getISR() { return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_ISR); }
+
+    public int getISRShiftCount()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_ISR_SHIFT_COUNT);
+    }
+
+    public int getOSR() { return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_OSR); }
+
+    public int getOSRShiftCount()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_OSR_SHIFT_COUNT);
+    }
+
+    public int getInstr()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_INSTR);
+    }
+
+    public int getInstrOrigin()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_INSTR_ORIGIN);
+    }
+
+    public int getDelay()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_DELAY);
+    }
+
+    public boolean isDelayCycle()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_DELAY_CYCLE) != 0x0;
+    }
+
+    public int getPendingDelay()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_PENDING_DELAY);
+    }
+
+    public boolean isClockEnabled()
+    {
+      return (get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_CLK_ENABLE) & 0x1) != 0x0;
+    }
+
+    public boolean isNextClockEnabled()
+    {
+      return (get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_CLK_ENABLE) & 0x2) != 0x0;
+    }
+
+    /**
+     * Returns the pending forced instruction, with bit 16 set, if the
+     * instruction is valid, see register SM0_FORCED_INSTR.
+     */
+    public int getForcedInstr()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_FORCED_INSTR);
+    }
+
+    /**
+     * Returns the pending EXEC'd instruction, with bit 16 set, if the
+     * instruction is valid, see register SM0_EXECD_INSTR.
+     */
+    public int getExecdInstr()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_EXECD_INSTR);
+    }
+
+    public int getTXLevel()
+    {
+      return get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_FIFO_LEVELS) & 0xf;
+    }
+
+    public int getRXLevel()
+    {
+      return (get(PIOEmuRegisters.Regs.SM0_SNAPSHOT_FIFO_LEVELS) >>> 4) & 0xf;
+    }
+  }
+
   public InstructionInfo
     getInstructionFromOpCode(final int smNum, final int origin,
                              final String addressLabel, final int opCode,
@@ -310,6 +431,105 @@ public class PIOSDK implements Constants
                                isDelayCycle, delay);
   }
 
+  /**
+   * Returns instruction info for all instructions of the instruction
+   * memory, retrieving the whole memory with a single bulk read, and
+   * the side-set configuration of the state machine with another
+   * one, rather than once per instruction.
+   *
+   * @see #getMemoryInstruction(int, int, boolean, boolean)
+   */
+  public InstructionInfo[] getMemoryInstructions(final int smNum,
+                                                 final boolean showAddress,
+                                                 final boolean format)
+    throws IOException
+  {
+    Constants.checkSmNum(smNum);
+    final int[] ctrlValues =
+      memory.readAddresses(new int[] {
+          PIORegisters.getSMAddress(pioNum, smNum,
+                                    PIORegisters.Regs.SM0_PINCTRL),
+          PIORegisters.getSMAddress(pioNum, smNum,
+                                    PIORegisters.Regs.SM0_EXECCTRL)
+        });
+    final int pinCtrlSidesetCount =
+      (ctrlValues[0] & SM0_PINCTRL_SIDESET_COUNT_BITS) >>>
+      SM0_PINCTRL_SIDESET_COUNT_LSB;
+    final boolean execCtrlSideEn =
+      (ctrlValues[1] & SM0_EXECCTRL_SIDE_EN_BITS) != 0x0;
+    final int[] opCodes =
+      memory.readRange(PIOEmuRegisters.getMemoryAddress(pioNum, 0),
+                       MEMORY_SIZE);
+    final InstructionInfo[] instructionInfos = new InstructionInfo[MEMORY_SIZE];
+    for (int address = 0; address < MEMORY_SIZE; address++) {
+      final int opCode = opCodes[address] & 0xffff;
+      final String formattedOpCode = String.format("%04x ", opCode);
+      final String addressLabel =
+        (showAddress ? String.format("%02x: ", address) : "") +
+        formattedOpCode;
+      instructionInfos[address] =
+        getInstructionFromOpCode(pinCtrlSidesetCount, execCtrlSideEn,
+                                 address, addressLabel, opCode, format,
+                                 false, 0);
+    }
+    return instructionInfos;
+  }
+
+  /**
+   * Returns the instruction memory generation counter, which is
+   * incremented upon each modification of instruction memory.
+   * Observers may compare the result with a previously returned value
+   * to find out whether instruction memory needs to be re-read.
+   */
+  public int getInstrMemGeneration() throws IOException
+  {
+    final int address =
+      PIOEmuRegisters.getAddress(pioNum,
+                                 PIOEmuRegisters.Regs.INSTR_MEM_GENERATION);
+    return memory.readAddress(address);
+  }
+
+  /**
+   * Returns the configuration generation counter of the specified
+   * state machine, which is incremented upon each modification of
+   * any of its CLKDIV, EXECCTRL, SHIFTCTRL or PINCTRL registers.
+   */
+  public int getSmConfigGeneration(final int smNum) throws IOException
+  {
+    Constants.checkSmNum(smNum);
+    final int address =
+      PIOEmuRegisters.getConfigGenerationAddress(pioNum, smNum);
+    return memory.readAddress(address);
+  }
+
+  /**
+   * Returns the FIFO generation counter of the specified state
+   * machine, which is incremented upon each modification of its TX
+   * or RX FIFO.
+   */
+  public int getFIFOGeneration(final int smNum) throws IOException
+  {
+    Constants.checkSmNum(smNum);
+    final int address =
+      PIOEmuRegisters.getFIFOGenerationAddress(pioNum, smNum);
+    return memory.readAddress(address);
+  }
+
+  /**
+   * Returns a consistent copy of the state of the specified state
+   * machine, retrieved with a single bulk read of its snapshot
+   * window, such that all values refer to the same point in time
+   * between two clock phases.
+   */
+  public SmSnapshot getSmSnapshot(final int smNum) throws IOException
+  {
+    Constants.checkSmNum(smNum);
+    final int address = PIOEmuRegisters.getSnapshotAddress(pioNum, smNum);
+    return
+      new SmSnapshot(memory.readRangeConsistent(address,
+                                                PIOEmuRegisters.SNAPSHOT_SIZE));
+  }
+
   // ---- Functions for compatibility with the Pico SDK, SM Config Group ----
 
   public static SMConfig getDefaultSmConfig()
@@ -397,6 +617,24 @@ public class PIOSDK implements Constants
     stateMachineClaimed = 0;
   }
 
+  private void addSmSetConfig(final Transaction transaction,
+                              final int smNum, final SMConfig smConfig)
+  {
+    final int smClkDivAddr =
+      PIORegisters.getSMAddress(pioNum, smNum, PIORegisters.Regs.SM0_CLKDIV);
+    transaction.addWrite(smClkDivAddr, smConfig.getClkDiv());
+    final int smExecCtrlAddr =
+      PIORegisters.getSMAddress(pioNum, smNum, PIORegisters.Regs.SM0_EXECCTRL);
+    transaction.addWrite(smExecCtrlAddr, smConfig.getExecCtrl());
+    final int smShiftCtrlAddr =
+      PIORegisters.getSMAddress(pioNum, smNum,
+                                PIORegisters.Regs.SM0_SHIFTCTRL);
+    transaction.addWrite(smShiftCtrlAddr, smConfig.getShiftCtrl());
+    final int smPinCtrlAddr =
+      PIORegisters.getSMAddress(pioNum, smNum, PIORegisters.Regs.SM0_PINCTRL);
+    transaction.addWrite(smPinCtrlAddr, smConfig.getPinCtrl());
+  }
+
   public void smSetConfig(final int smNum, final SMConfig smConfig)
     throws IOException
   {
@@ -404,22 +642,9 @@ public class PIOSDK implements Constants
     if (smConfig == null) {
       throw new NullPointerException("smConfig");
     }
-    synchronized(memory) {
-      final int smClkDivAddr =
-        PIORegisters.getSMAddress(pioNum, smNum, PIORegisters.Regs.SM0_CLKDIV);
-      memory.writeAddress(smClkDivAddr, smConfig.getClkDiv());
-      final int smExecCtrlAddr =
-        PIORegisters.getSMAddress(pioNum, smNum,
-                                  PIORegisters.Regs.SM0_EXECCTRL);
-      memory.writeAddress(smExecCtrlAddr, smConfig.getExecCtrl());
-      final int smShiftCtrlAddr =
-        PIORegisters.getSMAddress(pioNum, smNum,
-                                  PIORegisters.Regs.SM0_SHIFTCTRL);
-      memory.writeAddress(smShiftCtrlAddr, smConfig.getShiftCtrl());
-      final int smPinCtrlAddr =
-        PIORegisters.getSMAddress(pioNum, smNum, PIORegisters.Regs.SM0_PINCTRL);
-      memory.writeAddress(smPinCtrlAddr, smConfig.getPinCtrl());
-    }
+    final Transaction transaction = new Transaction();
+    addSmSetConfig(transaction, smNum, smConfig);
+    memory.executeTransaction(transaction);
   }
 
   public int getIndex()
@@ -528,18 +753,20 @@ public class PIOSDK implements Constants
     }
     Constants.checkSmMemAddr(addressOffset, "address offset");
     final int length = program.getLength();
-    synchronized(memory) {
-      for (int index = 0; index < length; index++) {
-        final short instruction = program.getInstruction(index);
-        final int memoryAddress = (addressOffset + index) & 0x1f;
-        // TODO: FIXME: Code relocation: When (addressOffset != 0),
-        // JMP commands need their absolute target address to be
-        // adjusted according to the offset.
-        memory.writeAddress(PIORegisters.
-                            getMemoryAddress(pioNum, memoryAddress),
-                            instruction);
-      }
+    final int[] addresses = new int[length];
+    final int[] values = new int[length];
+    final int[] masks = new int[length];
+    for (int index = 0; index < length; index++) {
+      final short instruction = program.getInstruction(index);
+      final int memoryAddress = (addressOffset + index) & 0x1f;
+      // TODO: FIXME: Code relocation: When (addressOffset != 0),
+      // JMP commands need their absolute target address to be
+      // adjusted according to the offset.
+      addresses[index] = PIORegisters.getMemoryAddress(pioNum, memoryAddress);
+      values[index] = instruction;
+      masks[index] = ~0x0;
     }
+    memory.writeAddressesMasked(addresses, values, masks, false);
   }
 
   public int addProgram(final String resourceId, final BufferedReader reader)
@@ -668,22 +895,45 @@ public class PIOSDK implements Constants
     throws IOException
   {
     Constants.checkSmNum(smNum);
-    smSetEnabled(smNum, false);
-    smSetConfig(smNum, config != null ? config : getDefaultSmConfig());
-    smClearFIFOs(smNum);
+    final int ctrlAddr = PIORegisters.getAddress(pioNum, PIORegisters.Regs.CTRL);
+    final Transaction transaction = new Transaction();
+
+    // disable SM
+    transaction.addClearBits(ctrlAddr, 0x1 << smNum);
+
+    addSmSetConfig(transaction, smNum,
+                   config != null ? config : getDefaultSmConfig());
+
+    // toggle RX join bit twice to force clearance of both FIFOs
+    final int smShiftCtrlAddr =
+      PIORegisters.getSMAddress(pioNum, smNum,
+                                PIORegisters.Regs.SM0_SHIFTCTRL);
+    transaction.addXorBits(smShiftCtrlAddr, SM0_SHIFTCTRL_FJOIN_RX_BITS);
+    transaction.addXorBits(smShiftCtrlAddr, SM0_SHIFTCTRL_FJOIN_RX_BITS);
+
     final int fDebug =
       ((0x1 << FDEBUG_TXSTALL_LSB) |
        (0x1 << FDEBUG_TXOVER_LSB) |
        (0x1 << FDEBUG_RXUNDER_LSB) |
        (0x1 << FDEBUG_RXSTALL_LSB)) << smNum;
-    memory.writeAddress(PIORegisters.getAddress(pioNum,
-                                                PIORegisters.Regs.FDEBUG),
-                        fDebug);
-    smRestart(smNum);
-    smClkDivRestart(smNum);
+    transaction.addWrite(PIORegisters.getAddress(pioNum,
+                                                 PIORegisters.Regs.FDEBUG),
+                         fDebug);
+
+    // restart SM and its clock divider
+    transaction.addSetBits(ctrlAddr,
+                           ((0x1 << smNum) << CTRL_SM_RESTART_LSB) &
+                           CTRL_SM_RESTART_BITS);
+    transaction.addWriteMasked(ctrlAddr,
+                               (0x1 << smNum) << CTRL_CLKDIV_RESTART_LSB,
+                               CTRL_CLKDIV_RESTART_BITS, false);
+
     final int jmpInstruction =
       initialPC & 0x001f; // no sideset/delay => all other bits are 0
-    smExec(smNum, (short)jmpInstruction);
+    transaction.addWrite(PIORegisters.getSMAddress(pioNum, smNum,
+                                                   PIORegisters.Regs.SM0_ADDR),
+                         jmpInstruction);
+    memory.executeTransaction(transaction);
   }
 
   public boolean smGetEnabled(final int smNum)
@@ -1163,8 +1413,15 @@ public class PIOSDK implements Constants
       PIOEmuRegisters.getAddress(pioNum, PIOEmuRegisters.Regs.GPIO_PINS);
     final int pinDirsAddress =
       PIOEmuRegisters.getAddress(pioNum, PIOEmuRegisters.Regs.GPIO_PINDIRS);
-    final int pins = memory.readAddress(pinsAddress);
-    final int pinDirs = memory.readAddress(pinDirsAddress);
+    final int inToPeriAddress =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.GPIO_IN_TO_PERI);
+    final int[] values =
+      memory.readAddresses(new int[] {
+          pinsAddress, pinDirsAddress, inToPeriAddress
+        });
+    final int pins = values[0];
+    final int pinDirs = values[1];
+    final int inToPeri = values[2];
     for (int gpioNum = 0; gpioNum < Constants.GPIO_NUM; gpioNum++) {
       final Direction direction =
         Direction.fromValue((pinDirs >>> gpioNum) & 0x1);
@@ -1172,7 +1429,7 @@ public class PIOSDK implements Constants
       if (direction == Direction.OUT) {
         level = Bit.fromValue((pins >>> gpioNum) & 0x1);
       } else {
-        level = gpioSdk.getInputLevel(gpioNum, GPIOSDK.Override.AFTER);
+        level = Bit.fromValue((inToPeri >>> gpioNum) & 0x1);
       }
       pinStates[gpioNum] = PinState.fromValues(direction, level);
     }
@@ -27,14 +27,17 @@ package org.soundpaint.rp2040pio.sdk;
 import java.io.IOException;
 import java.io.PrintStream;
 import org.soundpaint.rp2040pio.AddressSpace;
+import org.soundpaint.rp2040pio.CachingAddressSpace;
 import org.soundpaint.rp2040pio.Constants;
 import org.soundpaint.rp2040pio.Emulator;
 import org.soundpaint.rp2040pio.PicoEmuRegisters;
+import org.soundpaint.rp2040pio.Transaction;
+import org.soundpaint.rp2040pio.WaitConditions;
 
 public class SDK implements Constants
 {
   private final PrintStream console;
-  private final AddressSpace memory;
+  private final CachingAddressSpace memory;
 
   /*
    * TODO: There is only a single GPIO, but each of the two PIOs has
@@ -61,10 +64,12 @@ public class SDK implements Constants
     if (memory == null) {
       throw new NullPointerException("memory");
     }
-    this.memory = memory;
-    gpioSdk = new GPIOSDK(memory);
-    pio0Sdk = new PIOSDK(0, memory, gpioSdk);
-    pio1Sdk = new PIOSDK(1, memory, gpioSdk);
+    this.memory =
+      memory instanceof CachingAddressSpace ?
+      (CachingAddressSpace)memory : new CachingAddressSpace(memory);
+    gpioSdk = new GPIOSDK(this.memory);
+    pio0Sdk = new PIOSDK(0, this.memory, gpioSdk);
+    pio1Sdk = new PIOSDK(1, this.memory, gpioSdk);
   }
 
   public PrintStream getConsole() { return console; }
@@ -72,6 +77,26 @@ public class SDK implements Constants
   public PIOSDK getPIO0SDK() { return pio0Sdk; }
   public PIOSDK getPIO1SDK() { return pio1Sdk; }
 
+  /**
+   * Enters a scope of cached reads, see class CachingAddressSpace.
+   * Every call of this method must be paired with a call of method
+   * endCachedReads(), preferably in a finally block.  Within a
+   * scope, repeatedly reading the same registers (e.g. when
+   * refreshing several views of the same clock cycle) is served from
+   * a cache that is validated upon each read against the wall clock,
+   * the clock phase, the clock mode and the emulator's write
+   * generation.
+   */
+  public void beginCachedReads() throws IOException
+  {
+    memory.beginCachedReads();
+  }
+
+  public void endCachedReads()
+  {
+    memory.endCachedReads();
+  }
+
   public int readAddress(final int address) throws IOException
   {
     return memory.readAddress(address);
@@ -88,6 +113,23 @@ public class SDK implements Constants
       (value >>> lsb) & ((0x1 << (msb - lsb + 1)) - 1);
   }
 
+  public int[] readAddresses(final int[] addresses) throws IOException
+  {
+    return memory.readAddresses(addresses);
+  }
+
+  public int[] readAddressesConsistent(final int[] addresses)
+    throws IOException
+  {
+    return memory.readAddressesConsistent(addresses);
+  }
+
+  public int[] readRange(final int baseAddress, final int count)
+    throws IOException
+  {
+    return memory.readRange(baseAddress, count);
+  }
+
   public void writeAddress(final int address, final int value)
     throws IOException
   {
@@ -101,6 +143,19 @@ public class SDK implements Constants
     memory.writeAddressMasked(address, bits, mask, xor);
   }
 
+  public void writeAddressesMasked(final int[] addresses, final int[] values,
+                                   final int[] masks, final boolean xor)
+    throws IOException
+  {
+    memory.writeAddressesMasked(addresses, values, masks, xor);
+  }
+
+  public int[] executeTransaction(final Transaction transaction)
+    throws IOException
+  {
+    return memory.executeTransaction(transaction);
+  }
+
   public int wait(final int address, final int expectedValue)
     throws IOException
   {
@@ -129,6 +184,20 @@ public class SDK implements Constants
                          cyclesTimeout, millisTimeout);
   }
 
+  public WaitConditions.Result wait(final WaitConditions conditions)
+    throws IOException
+  {
+    return wait(conditions, 0x0, 0x0);
+  }
+
+  public WaitConditions.Result wait(final WaitConditions conditions,
+                                    final long cyclesTimeout,
+                                    final long millisTimeout)
+    throws IOException
+  {
+    return memory.waitAddresses(conditions, cyclesTimeout, millisTimeout);
+  }
+
   public void awaitNextCycle() throws IOException
   {
     memory.waitAddress(EMULATOR_BASE, 0xffffffff, 0x0, 1, 0);
@@ -183,6 +252,16 @@ public class SDK implements Constants
     return getRegisterSetId(address) + "_" + getLabelForAddress(address);
   }
 
+  public byte[] saveState() throws IOException
+  {
+    return memory.saveState();
+  }
+
+  public void restoreState(final byte[] state) throws IOException
+  {
+    memory.restoreState(state);
+  }
+
   // -------- PicoEmuRegisters convenience methods --------
 
   public void reset() throws IOException
@@ -219,15 +298,103 @@ public class SDK implements Constants
     triggerCyclePhaseX(PicoEmuRegisters.Regs.MASTERCLK_TRIGGER_PHASE1, await);
   }
 
+  /**
+   * Travels back the specified number of cycles, if time travel is
+   * enabled and the master clock is in single step mode.  See
+   * register TIME_TRAVEL_STEP_BACK of PicoEmuRegisters.
+   */
+  public void stepBack(final int cycles) throws IOException
+  {
+    final int address =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.TIME_TRAVEL_STEP_BACK);
+    memory.writeAddress(address, cycles);
+  }
+
+  /**
+   * Travels to the start of the specified cycle, if time travel is
+   * enabled and the master clock is in single step mode.  See
+   * register TIME_TRAVEL_TARGET_LSB of PicoEmuRegisters.
+   */
+  public void travelTo(final long cycle) throws IOException
+  {
+    final int addressTargetMsb =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.TIME_TRAVEL_TARGET_MSB);
+    final int addressTargetLsb =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.TIME_TRAVEL_TARGET_LSB);
+    synchronized(memory) {
+      memory.writeAddress(addressTargetMsb, (int)(cycle >>> 32));
+      memory.writeAddress(addressTargetLsb, (int)cycle);
+    }
+  }
+
+  private long readLong(final PicoEmuRegisters.Regs regLsb,
+                        final PicoEmuRegisters.Regs regMsb)
+    throws IOException
+  {
+    final int[] values =
+      readAddressesConsistent(new int[] {
+          PicoEmuRegisters.getAddress(regLsb),
+          PicoEmuRegisters.getAddress(regMsb)
+        });
+    return ((long)values[1] << 32) | (values[0] & 0xffffffffL);
+  }
+
+  /**
+   * Returns the first cycle recorded by the trace recorder, or -1, if
+   * there is none.  See register RECORDER_CTRL of PicoEmuRegisters.
+   */
+  public long getRecorderFirstCycle() throws IOException
+  {
+    return readLong(PicoEmuRegisters.Regs.RECORDER_FIRST_LSB,
+                    PicoEmuRegisters.Regs.RECORDER_FIRST_MSB);
+  }
+
+  /**
+   * Returns the last cycle recorded by the trace recorder, or -1, if
+   * there is none.
+   */
+  public long getRecorderLastCycle() throws IOException
+  {
+    return readLong(PicoEmuRegisters.Regs.RECORDER_LAST_LSB,
+                    PicoEmuRegisters.Regs.RECORDER_LAST_MSB);
+  }
+
+  /**
+   * Returns the value that the trace recorder has recorded for the
+   * specified signal at the specified cycle, or 0, if that cycle has
+   * not been recorded.  See register RECORDER_SELECT of
+   * PicoEmuRegisters for the numbering of signals.
+   */
+  public int getRecordedValue(final int signal, final long cycle)
+    throws IOException
+  {
+    final int addressSelect =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.RECORDER_SELECT);
+    final int addressCycleMsb =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.RECORDER_CYCLE_MSB);
+    final int addressCycleLsb =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.RECORDER_CYCLE_LSB);
+    final int addressValue =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.RECORDER_VALUE);
+    synchronized(memory) {
+      memory.writeAddress(addressSelect, signal);
+      memory.writeAddress(addressCycleMsb, (int)(cycle >>> 32));
+      memory.writeAddress(addressCycleLsb, (int)cycle);
+      return memory.readAddress(addressValue);
+    }
+  }
+
   public long getWallClock() throws IOException
   {
     final int addressWallClockLsb =
       PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.WALLCLOCK_LSB);
     final int addressWallClockMsb =
       PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.WALLCLOCK_MSB);
-    final int wallClockLsb = memory.readAddress(addressWallClockLsb);
-    final int wallClockMsb = memory.readAddress(addressWallClockMsb);
-    return ((long)wallClockMsb << 32) | wallClockLsb;
+    final int[] values =
+      readAddressesConsistent(new int[] {
+          addressWallClockLsb, addressWallClockMsb
+        });
+    return ((long)values[1] << 32) | (values[0] & 0xffffffffL);
   }
 }
 